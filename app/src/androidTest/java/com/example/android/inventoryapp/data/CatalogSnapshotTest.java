@@ -0,0 +1,78 @@
+package com.example.android.inventoryapp.data;
+
+import android.database.Cursor;
+import android.database.MatrixCursor;
+import android.support.test.InstrumentationRegistry;
+import android.support.test.runner.AndroidJUnit4;
+
+import com.example.android.inventoryapp.data.InventoryContract.ItemEntry;
+
+import org.junit.After;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.OutputStream;
+
+import static org.junit.Assert.*;
+
+/**
+ * Instrumented test checking that {@link CatalogSnapshot} reads back the first rows of the
+ * catalog it saved, and ignores a file it can't read.
+ */
+@RunWith(AndroidJUnit4.class)
+public class CatalogSnapshotTest {
+
+    private static final String[] COLUMNS = { ItemEntry._ID, ItemEntry.COLUMN_ITEM_NAME,
+            ItemEntry.COLUMN_ITEM_QUANTITY, ItemEntry.COLUMN_ITEM_PRICE, ItemEntry.COLUMN_ITEM_IMAGE };
+
+    @After
+    public void tearDown() throws Exception {
+        getSnapshot().getFile().delete();
+    }
+
+    @Test
+    public void encodedPage_decodesToItsFirstRows() throws Exception {
+        MatrixCursor page = new MatrixCursor(COLUMNS);
+        for (int i = 0; i < CatalogSnapshot.MAX_ROWS + 10; i++) {
+            page.addRow(new Object[] { 100 + i, "Cake é " + i, i, 250 + i,
+                    "android.resource://com.example.android.inventoryapp/drawable/cake" });
+        }
+
+        Cursor rows = CatalogSnapshot.decode(CatalogSnapshot.encode(page));
+        try {
+            assertEquals(CatalogSnapshot.MAX_ROWS, rows.getCount());
+            assertTrue(rows.moveToPosition(3));
+            assertEquals(103, rows.getLong(rows.getColumnIndex(ItemEntry._ID)));
+            assertEquals("Cake é 3", rows.getString(rows.getColumnIndex(ItemEntry.COLUMN_ITEM_NAME)));
+            assertEquals(3, rows.getInt(rows.getColumnIndex(ItemEntry.COLUMN_ITEM_QUANTITY)));
+            assertEquals(253, rows.getLong(rows.getColumnIndex(ItemEntry.COLUMN_ITEM_PRICE)));
+            assertEquals("android.resource://com.example.android.inventoryapp/drawable/cake",
+                    rows.getString(rows.getColumnIndex(ItemEntry.COLUMN_ITEM_IMAGE)));
+        } finally {
+            rows.close();
+        }
+
+        // The page can still be read from the start by the list
+        assertEquals(-1, page.getPosition());
+    }
+
+    @Test
+    public void unreadableFile_isIgnoredAndDeleted() throws Exception {
+        File file = getSnapshot().getFile();
+        OutputStream out = new FileOutputStream(file);
+        try {
+            out.write("name,quantity\nCake,3\n".getBytes("UTF-8"));
+        } finally {
+            out.close();
+        }
+
+        assertNull(getSnapshot().read());
+        assertFalse(file.exists());
+    }
+
+    private static CatalogSnapshot getSnapshot() {
+        return CatalogSnapshot.getInstance(InstrumentationRegistry.getTargetContext());
+    }
+}
@@ -0,0 +1,395 @@
+package com.example.android.inventoryapp.data;
+
+import android.content.ContentResolver;
+import android.content.ContentValues;
+import android.content.Context;
+import android.database.Cursor;
+import android.net.Uri;
+import android.support.test.InstrumentationRegistry;
+import android.support.test.runner.AndroidJUnit4;
+
+import com.example.android.inventoryapp.data.InventoryContract.ItemEntry;
+import com.example.android.inventoryapp.image.ImageIngester;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.junit.Assert.*;
+
+/**
+ * Instrumented test checking that the catalog streams out of {@link InventoryProvider} as CSV,
+ * that {@link CatalogTransfer} reads such a file back into the catalog, and that a backup
+ * restores the catalog as it was.
+ */
+@RunWith(AndroidJUnit4.class)
+public class CatalogTransferTest {
+
+    @Rule
+    public final IsolatedDatabaseRule mDatabase = new IsolatedDatabaseRule();
+
+    /** How long to wait for a transfer, in seconds */
+    private static final long TRANSFER_TIMEOUT = 30;
+
+    /** Number of items exported, more than a page of the export */
+    private static final int ITEM_COUNT = 2500;
+
+    /** Transfers of the test file run by {@link #runTransfer} */
+    private static final int IMPORT = 0;
+    private static final int BACKUP = 1;
+    private static final int RESTORE = 2;
+
+    private Context mContext;
+
+    private ContentResolver mResolver;
+
+    private File mFile;
+
+    @Before
+    public void setUp() throws Exception {
+        mContext = InstrumentationRegistry.getTargetContext();
+        mResolver = mContext.getContentResolver();
+        mFile = new File(mContext.getCacheDir(), "catalog_transfer_test.csv");
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        mFile.delete();
+    }
+
+    @Test
+    public void export_streamsEveryItem() throws Exception {
+        ContentValues[] items = new ContentValues[ITEM_COUNT];
+        for (int i = 0; i < ITEM_COUNT; i++) {
+            items[i] = createItem("Cake " + i, i, 1625);
+        }
+        items[0] = createItem("Cake, \"large\"", 3, 1625);
+        assertEquals(ITEM_COUNT, mResolver.bulkInsert(ItemEntry.CONTENT_URI, items));
+
+        InputStream in = mResolver.openInputStream(ItemEntry.EXPORT_URI);
+        try {
+            Csv.Reader reader = new Csv.Reader(new BufferedReader(new InputStreamReader(in, "UTF-8")));
+            assertArrayEquals(new String[] { ItemEntry.COLUMN_ITEM_NAME, ItemEntry.COLUMN_ITEM_QUANTITY,
+                    ItemEntry.COLUMN_ITEM_PRICE, ItemEntry.COLUMN_ITEM_IMAGE,
+                    ItemEntry.COLUMN_ITEM_REORDER_THRESHOLD }, reader.readRecord());
+
+            String[] first = reader.readRecord();
+            assertEquals("Cake, \"large\"", first[0]);
+            assertEquals("3", first[1]);
+            assertEquals("16.25", first[2]);
+
+            int records = 1;
+            while (reader.readRecord() != null) {
+                records++;
+            }
+            assertEquals(ITEM_COUNT, records);
+        } finally {
+            in.close();
+        }
+    }
+
+    @Test
+    public void import_addsItemsOfFile() throws Exception {
+        Writer writer = new OutputStreamWriter(new FileOutputStream(mFile), "UTF-8");
+        try {
+            writer.write("\uFEFFName,Price,Quantity\r\n");
+            writer.write("\"Pie, apple\",2.50,4\r\n");
+            writer.write("\r\n");
+            writer.write("Tart,3,\r\n");
+        } finally {
+            writer.close();
+        }
+
+        assertEquals(2, runTransfer(IMPORT));
+
+        Cursor cursor = mResolver.query(ItemEntry.CONTENT_URI,
+                new String[] { ItemEntry.COLUMN_ITEM_NAME, ItemEntry.COLUMN_ITEM_PRICE,
+                        ItemEntry.COLUMN_ITEM_QUANTITY },
+                null, null, ItemEntry.COLUMN_ITEM_NAME);
+        try {
+            assertEquals(2, cursor.getCount());
+            assertTrue(cursor.moveToFirst());
+            assertEquals("Pie, apple", cursor.getString(0));
+            assertEquals(250, cursor.getLong(1));
+            assertEquals(4, cursor.getInt(2));
+            assertTrue(cursor.moveToNext());
+            assertEquals("Tart", cursor.getString(0));
+            assertEquals(300, cursor.getLong(1));
+        } finally {
+            cursor.close();
+        }
+    }
+
+    @Test
+    public void import_reportsInvalidLine() throws Exception {
+        Writer writer = new OutputStreamWriter(new FileOutputStream(mFile), "UTF-8");
+        try {
+            writer.write("name,price\r\nPie,2.50\r\nTart,cheap\r\n");
+        } finally {
+            writer.close();
+        }
+
+        try {
+            runTransfer(IMPORT);
+            fail("Invalid price imported");
+        } catch (Exception e) {
+            assertTrue(e.getMessage(), e.getMessage().startsWith("Line 3:"));
+        }
+    }
+
+    @Test
+    public void export_leavesOutImageFiles() throws Exception {
+        ContentValues item = createItem("Pie", 1, 250);
+        item.put(ItemEntry.COLUMN_ITEM_IMAGE,
+                Uri.fromFile(new File(mContext.getFilesDir(), "images/pie.jpg")).toString());
+        mResolver.insert(ItemEntry.CONTENT_URI, item);
+
+        InputStream in = mResolver.openInputStream(ItemEntry.EXPORT_URI);
+        try {
+            Csv.Reader reader = new Csv.Reader(new BufferedReader(new InputStreamReader(in, "UTF-8")));
+            reader.readRecord();
+            String[] record = reader.readRecord();
+            assertEquals("Pie", record[0]);
+            assertEquals("", record[3]);
+        } finally {
+            in.close();
+        }
+    }
+
+    @Test
+    public void import_replacesImageFilesNotHereWithPlaceholder() throws Exception {
+        String otherDevice = "file:///data/user/0/com.example.android.inventoryapp/files/images/"
+                + "e7c1d2a4.jpg";
+        String missing = Uri.fromFile(new File(ImageIngester.getInstance(mContext).getDirectory(),
+                "missing.jpg")).toString();
+        Writer writer = new OutputStreamWriter(new FileOutputStream(mFile), "UTF-8");
+        try {
+            writer.write("name,price,image\r\n");
+            writer.write("Pie,2.50," + otherDevice + "\r\n");
+            writer.write("Tart,3," + missing + "\r\n");
+        } finally {
+            writer.close();
+        }
+
+        assertEquals(2, runTransfer(IMPORT));
+
+        Cursor cursor = mResolver.query(ItemEntry.CONTENT_URI,
+                new String[] { ItemEntry.COLUMN_ITEM_IMAGE }, null, null, null);
+        try {
+            assertEquals(2, cursor.getCount());
+            while (cursor.moveToNext()) {
+                assertTrue(cursor.getString(0), cursor.getString(0).startsWith(
+                        ContentResolver.SCHEME_ANDROID_RESOURCE + "://"));
+            }
+        } finally {
+            cursor.close();
+        }
+    }
+
+    @Test
+    public void restore_bringsBackedUpItemsBack() throws Exception {
+        ContentValues[] items = { createItem("Cake", 10, 1625), createItem("Pie", 4, 250) };
+        assertEquals(2, mResolver.bulkInsert(ItemEntry.CONTENT_URI, items));
+
+        runTransfer(BACKUP);
+        mResolver.delete(ItemEntry.CONTENT_URI, null, null);
+        mResolver.insert(ItemEntry.CONTENT_URI, createItem("Tart", 1, 300));
+        runTransfer(RESTORE);
+
+        Cursor cursor = mResolver.query(ItemEntry.CONTENT_URI,
+                new String[] { ItemEntry.COLUMN_ITEM_NAME, ItemEntry.COLUMN_ITEM_QUANTITY },
+                null, null, ItemEntry.COLUMN_ITEM_NAME);
+        try {
+            assertEquals(2, cursor.getCount());
+            assertTrue(cursor.moveToFirst());
+            assertEquals("Cake", cursor.getString(0));
+            assertEquals(10, cursor.getInt(1));
+            assertTrue(cursor.moveToNext());
+            assertEquals("Pie", cursor.getString(0));
+        } finally {
+            cursor.close();
+        }
+    }
+
+    @Test
+    public void restore_bringsBackRowsOnlyInWriteAheadLog() throws Exception {
+        ContentValues[] items = { createItem("Cake", 10, 1625), createItem("Pie", 4, 250) };
+        assertEquals(2, mResolver.bulkInsert(ItemEntry.CONTENT_URI, items));
+
+        // The rows haven't been checkpointed, so the backup has to copy the log with the file
+        File log = new File(mDatabase.getDatabaseFile().getPath() + "-wal");
+        assertTrue(log.length() > 0);
+
+        runTransfer(BACKUP);
+        mResolver.delete(ItemEntry.CONTENT_URI, null, null);
+        runTransfer(RESTORE);
+
+        Cursor cursor = mResolver.query(ItemEntry.CONTENT_URI,
+                new String[] { ItemEntry.COLUMN_ITEM_NAME, ItemEntry.COLUMN_ITEM_QUANTITY },
+                null, null, ItemEntry.COLUMN_ITEM_NAME);
+        try {
+            assertEquals(2, cursor.getCount());
+            assertTrue(cursor.moveToFirst());
+            assertEquals("Cake", cursor.getString(0));
+            assertEquals(10, cursor.getInt(1));
+            assertTrue(cursor.moveToNext());
+            assertEquals("Pie", cursor.getString(0));
+            assertEquals(4, cursor.getInt(1));
+        } finally {
+            cursor.close();
+        }
+    }
+
+    @Test
+    public void restore_endsCursorsOverOldDatabase() throws Exception {
+        // Long names, so the rows don't fit in the first window of the cursor
+        StringBuilder padding = new StringBuilder();
+        for (int i = 0; i < 1000; i++) {
+            padding.append('x');
+        }
+        ContentValues[] items = new ContentValues[ITEM_COUNT];
+        for (int i = 0; i < ITEM_COUNT; i++) {
+            items[i] = createItem("Cake " + i + padding, i, 1625);
+        }
+        assertEquals(ITEM_COUNT, mResolver.bulkInsert(ItemEntry.CONTENT_URI, items));
+        runTransfer(BACKUP);
+
+        Cursor cursor = mResolver.query(ItemEntry.CONTENT_URI,
+                new String[] { ItemEntry.COLUMN_ITEM_NAME }, null, null, null);
+        try {
+            assertEquals(ITEM_COUNT, cursor.getCount());
+            runTransfer(RESTORE);
+
+            // The rows left in the window are read, and the cursor then ends instead of throwing
+            int rows = 0;
+            while (cursor.moveToNext()) {
+                rows++;
+            }
+            assertTrue(rows > 0 && rows < ITEM_COUNT);
+        } finally {
+            cursor.close();
+        }
+    }
+
+    @Test
+    public void restore_rejectsOtherFile() throws Exception {
+        mResolver.insert(ItemEntry.CONTENT_URI, createItem("Cake", 10, 1625));
+        Writer writer = new OutputStreamWriter(new FileOutputStream(mFile), "UTF-8");
+        try {
+            writer.write("name,price\r\n");
+        } finally {
+            writer.close();
+        }
+
+        try {
+            runTransfer(RESTORE);
+            fail("Restored a file that isn't a backup");
+        } catch (Exception e) {
+            // Expected
+        }
+        Cursor cursor = mResolver.query(ItemEntry.CONTENT_URI, null, null, null, null);
+        try {
+            assertEquals(1, cursor.getCount());
+        } finally {
+            cursor.close();
+        }
+    }
+
+    /**
+     * Run the given transfer of the test file, wait for it to finish and return the number of
+     * items it added. Throws the error the transfer failed with.
+     */
+    private int runTransfer(final int transfer) throws Exception {
+        final CatalogTransfer catalogTransfer = CatalogTransfer.getInstance(mContext);
+        final CountDownLatch done = new CountDownLatch(1);
+        final AtomicInteger itemCount = new AtomicInteger(-1);
+        final AtomicReference<Exception> error = new AtomicReference<>();
+        final CatalogTransfer.Listener listener = new CatalogTransfer.Listener() {
+            @Override
+            public void onTransferProgress(long bytesDone, long bytesTotal) {
+            }
+
+            @Override
+            public void onImportComplete(int count) {
+                itemCount.set(count);
+                done.countDown();
+            }
+
+            @Override
+            public void onExportComplete() {
+            }
+
+            @Override
+            public void onBackupComplete() {
+                itemCount.set(0);
+                done.countDown();
+            }
+
+            @Override
+            public void onRestoreComplete() {
+                itemCount.set(0);
+                done.countDown();
+            }
+
+            @Override
+            public void onTransferFailed(Exception e) {
+                error.set(e);
+                done.countDown();
+            }
+        };
+
+        InstrumentationRegistry.getInstrumentation().runOnMainSync(new Runnable() {
+            @Override
+            public void run() {
+                catalogTransfer.addListener(listener);
+                Uri file = Uri.fromFile(mFile);
+                if (transfer == IMPORT) {
+                    catalogTransfer.importItems(file);
+                } else if (transfer == BACKUP) {
+                    catalogTransfer.backup(file);
+                } else {
+                    catalogTransfer.restore(file);
+                }
+            }
+        });
+        try {
+            assertTrue("Transfer timed out", done.await(TRANSFER_TIMEOUT, TimeUnit.SECONDS));
+        } finally {
+            InstrumentationRegistry.getInstrumentation().runOnMainSync(new Runnable() {
+                @Override
+                public void run() {
+                    catalogTransfer.removeListener(listener);
+                }
+            });
+        }
+
+        if (error.get() != null) {
+            throw error.get();
+        }
+        return itemCount.get();
+    }
+
+    private static ContentValues createItem(String name, int quantity, long price) {
+        ContentValues values = new ContentValues();
+        values.put(ItemEntry.COLUMN_ITEM_NAME, name);
+        values.put(ItemEntry.COLUMN_ITEM_QUANTITY, quantity);
+        values.put(ItemEntry.COLUMN_ITEM_PRICE, price);
+        values.put(ItemEntry.COLUMN_ITEM_IMAGE,
+                "android.resource://com.example.android.inventoryapp/drawable/cake");
+        return values;
+    }
+}
@@ -0,0 +1,148 @@
+package com.example.android.inventoryapp.data;
+
+import android.content.Context;
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteStatement;
+import android.os.SystemClock;
+import android.support.test.InstrumentationRegistry;
+import android.support.test.runner.AndroidJUnit4;
+import android.util.Log;
+
+import com.example.android.inventoryapp.data.InventoryContract.ItemEntry;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import static org.junit.Assert.*;
+
+/**
+ * Instrumented benchmark measuring how long the catalog query takes while sales are being
+ * written, with the rollback journal and with write-ahead logging.
+ */
+@RunWith(AndroidJUnit4.class)
+public class InventoryDbHelperConcurrencyBenchmark {
+
+    private static final String LOG_TAG = InventoryDbHelperConcurrencyBenchmark.class.getSimpleName();
+
+    private static final String TEST_DATABASE_NAME = "concurrency_benchmark.db";
+
+    private static final int ITEM_COUNT = 10000;
+
+    private static final int READ_COUNT = 500;
+
+    private static final int PAGE_SIZE = 100;
+
+    private Context mContext;
+
+    @Before
+    public void setUp() throws Exception {
+        mContext = InstrumentationRegistry.getTargetContext();
+        mContext.deleteDatabase(TEST_DATABASE_NAME);
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        mContext.deleteDatabase(TEST_DATABASE_NAME);
+    }
+
+    @Test
+    public void readLatencyDuringWrites_rollbackJournal() throws Exception {
+        measure(false);
+    }
+
+    @Test
+    public void readLatencyDuringWrites_writeAheadLogging() throws Exception {
+        measure(true);
+    }
+
+    private void measure(boolean writeAheadLogging) throws Exception {
+        final InventoryDbHelper helper = new InventoryDbHelper(mContext, TEST_DATABASE_NAME);
+        helper.setWriteAheadLoggingEnabled(writeAheadLogging);
+        try {
+            populate(helper.getWritableDatabase());
+
+            // Sell items one by one, each sale in its own transaction, as the catalog does
+            final AtomicBoolean writing = new AtomicBoolean(true);
+            final int[] writes = new int[1];
+            Thread writer = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    SQLiteDatabase db = helper.getWritableDatabase();
+                    SQLiteStatement sell = db.compileStatement("UPDATE " + ItemEntry.TABLE_NAME
+                            + " SET " + ItemEntry.COLUMN_ITEM_QUANTITY + " = " + ItemEntry.COLUMN_ITEM_QUANTITY + " - 1"
+                            + " WHERE " + ItemEntry._ID + " = ?");
+                    try {
+                        while (writing.get()) {
+                            sell.bindLong(1, 1 + writes[0] % ITEM_COUNT);
+                            sell.executeUpdateDelete();
+                            writes[0]++;
+                        }
+                    } finally {
+                        sell.close();
+                    }
+                }
+            });
+            writer.start();
+
+            long[] latencies = new long[READ_COUNT];
+            SQLiteDatabase db = helper.getReadableDatabase();
+            String[] projection = { ItemEntry._ID, ItemEntry.COLUMN_ITEM_NAME,
+                    ItemEntry.COLUMN_ITEM_QUANTITY, ItemEntry.COLUMN_ITEM_PRICE };
+            for (int i = 0; i < READ_COUNT; i++) {
+                long start = SystemClock.elapsedRealtimeNanos();
+                Cursor cursor = db.query(ItemEntry.TABLE_NAME, projection, null, null, null, null,
+                        ItemEntry.SORT_ORDER_NAME, String.valueOf(PAGE_SIZE));
+                try {
+                    assertEquals(PAGE_SIZE, cursor.getCount());
+                } finally {
+                    cursor.close();
+                }
+                latencies[i] = SystemClock.elapsedRealtimeNanos() - start;
+            }
+
+            writing.set(false);
+            writer.join();
+
+            Arrays.sort(latencies);
+            Log.i(LOG_TAG, (writeAheadLogging ? "WAL" : "rollback journal")
+                    + ": catalog page read latency during " + writes[0] + " writes:"
+                    + " median " + micros(latencies[READ_COUNT / 2]) + " us,"
+                    + " p95 " + micros(latencies[READ_COUNT * 95 / 100]) + " us,"
+                    + " max " + micros(latencies[READ_COUNT - 1]) + " us");
+        } finally {
+            helper.close();
+        }
+    }
+
+    private static void populate(SQLiteDatabase db) {
+        SQLiteStatement insert = db.compileStatement("INSERT INTO " + ItemEntry.TABLE_NAME + " ("
+                + ItemEntry.COLUMN_ITEM_NAME + ", "
+                + ItemEntry.COLUMN_ITEM_QUANTITY + ", "
+                + ItemEntry.COLUMN_ITEM_PRICE + ", "
+                + ItemEntry.COLUMN_ITEM_IMAGE + ") VALUES (?, ?, ?, ?)");
+        db.beginTransaction();
+        try {
+            for (int i = 0; i < ITEM_COUNT; i++) {
+                insert.bindString(1, "Item " + i);
+                insert.bindLong(2, 1000000);
+                insert.bindLong(3, 250);
+                insert.bindString(4, "content://image/" + i);
+                insert.executeInsert();
+            }
+            db.setTransactionSuccessful();
+        } finally {
+            db.endTransaction();
+            insert.close();
+        }
+    }
+
+    private static long micros(long nanos) {
+        return nanos / 1000;
+    }
+}
@@ -0,0 +1,171 @@
+package com.example.android.inventoryapp.data;
+
+import android.content.Context;
+import android.database.Cursor;
+import android.database.DatabaseUtils;
+import android.database.sqlite.SQLiteDatabase;
+import android.support.test.InstrumentationRegistry;
+import android.support.test.runner.AndroidJUnit4;
+
+import com.example.android.inventoryapp.data.InventoryContract.ItemEntry;
+import com.example.android.inventoryapp.data.InventoryContract.StatsEntry;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import static org.junit.Assert.*;
+
+/**
+ * Instrumented test upgrading a populated version 1 database with {@link InventoryDbHelper}.
+ */
+@RunWith(AndroidJUnit4.class)
+public class InventoryDbHelperMigrationTest {
+
+    private static final String TEST_DATABASE_NAME = "migration_test.db";
+
+    private static final int ITEM_COUNT = 5000;
+
+    /** The items table exactly as version 1 of the app created it */
+    private static final String SQL_CREATE_ITEMS_TABLE_V1 = "CREATE TABLE items ("
+            + "_id INTEGER PRIMARY KEY AUTOINCREMENT, "
+            + "name TEXT NOT NULL, "
+            + "quantity INTEGER DEFAULT 1, "
+            + "price REAL NOT NULL, "
+            + "image TEXT NOT NULL);";
+
+    private Context mContext;
+
+    @Before
+    public void setUp() throws Exception {
+        mContext = InstrumentationRegistry.getTargetContext();
+        mContext.deleteDatabase(TEST_DATABASE_NAME);
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        mContext.deleteDatabase(TEST_DATABASE_NAME);
+    }
+
+    @Test
+    public void upgradeFromVersion1_keepsData() throws Exception {
+        createVersion1Database();
+
+        InventoryDbHelper helper = new InventoryDbHelper(mContext, TEST_DATABASE_NAME);
+        SQLiteDatabase db = helper.getWritableDatabase();
+        try {
+            assertEquals(InventoryDbHelper.DATABASE_VERSION, db.getVersion());
+            assertEquals(ITEM_COUNT, DatabaseUtils.queryNumEntries(db, ItemEntry.TABLE_NAME));
+
+            Cursor cursor = db.query(ItemEntry.TABLE_NAME, null, ItemEntry._ID + "=?",
+                    new String[]{"42"}, null, null, null);
+            try {
+                assertTrue(cursor.moveToFirst());
+                assertEquals("Item 41", cursor.getString(cursor.getColumnIndex(ItemEntry.COLUMN_ITEM_NAME)));
+                assertEquals(41, cursor.getInt(cursor.getColumnIndex(ItemEntry.COLUMN_ITEM_QUANTITY)));
+                // 16.25 + 0.41 can't be represented exactly as a REAL, but converts to whole cents
+                int priceColumnIndex = cursor.getColumnIndex(ItemEntry.COLUMN_ITEM_PRICE);
+                assertEquals(Cursor.FIELD_TYPE_INTEGER, cursor.getType(priceColumnIndex));
+                assertEquals(1666, cursor.getLong(priceColumnIndex));
+            } finally {
+                cursor.close();
+            }
+
+            // The search index still finds the items, which kept their _IDs
+            assertEquals(42, DatabaseUtils.longForQuery(db, "SELECT docid FROM "
+                    + InventoryDbHelper.TABLE_ITEMS_FTS + " WHERE " + InventoryDbHelper.TABLE_ITEMS_FTS
+                    + " MATCH '\"Item 41\"'", null));
+
+            // The statistics are filled from the migrated items, and the items that were low
+            // on stock are flagged with the default threshold
+            assertStatsMatchItems(db);
+            assertEquals(ItemEntry.DEFAULT_REORDER_THRESHOLD + 1,
+                    DatabaseUtils.queryNumEntries(db, ItemEntry.TABLE_NAME, "low_stock = 1"));
+
+            // New items don't reuse the _IDs of the migrated ones, even deleted ones
+            db.execSQL("DELETE FROM items WHERE _id = " + ITEM_COUNT);
+            db.execSQL("INSERT INTO items (name, quantity, price, image) VALUES ('New', 1, 100, 'x')");
+            assertEquals(ITEM_COUNT + 1, DatabaseUtils.longForQuery(db, "SELECT MAX(_id) FROM items", null));
+
+            // ...and kept up to date by the triggers
+            db.execSQL("UPDATE items SET quantity = 2, price = 350 WHERE _id = 42");
+            assertStatsMatchItems(db);
+            db.execSQL("UPDATE items SET reorder_threshold = 100 WHERE _id BETWEEN 50 AND 60");
+            assertStatsMatchItems(db);
+
+            assertIndexExists(db, InventoryDbHelper.INDEX_ITEMS_NAME);
+            assertIndexExists(db, InventoryDbHelper.INDEX_ITEMS_QUANTITY);
+            assertIndexExists(db, InventoryDbHelper.INDEX_ITEMS_LOW_STOCK);
+            assertIndexExists(db, InventoryDbHelper.INDEX_MOVEMENTS_ITEM);
+        } finally {
+            helper.close();
+        }
+    }
+
+    @Test
+    public void create_matchesUpgradedSchema() throws Exception {
+        InventoryDbHelper helper = new InventoryDbHelper(mContext, TEST_DATABASE_NAME);
+        SQLiteDatabase db = helper.getWritableDatabase();
+        try {
+            assertEquals(InventoryDbHelper.DATABASE_VERSION, db.getVersion());
+            assertIndexExists(db, InventoryDbHelper.INDEX_ITEMS_NAME);
+            assertIndexExists(db, InventoryDbHelper.INDEX_ITEMS_QUANTITY);
+            assertIndexExists(db, InventoryDbHelper.INDEX_ITEMS_LOW_STOCK);
+            assertIndexExists(db, InventoryDbHelper.INDEX_MOVEMENTS_ITEM);
+        } finally {
+            helper.close();
+        }
+    }
+
+    private void createVersion1Database() {
+        SQLiteDatabase db = mContext.openOrCreateDatabase(TEST_DATABASE_NAME, Context.MODE_PRIVATE, null);
+        try {
+            db.execSQL(SQL_CREATE_ITEMS_TABLE_V1);
+            db.beginTransaction();
+            try {
+                for (int i = 0; i < ITEM_COUNT; i++) {
+                    db.execSQL("INSERT INTO items (name, quantity, price, image) VALUES (?, ?, ?, ?)",
+                            new Object[]{"Item " + i, i, 16.25 + i / 100.0, "content://image/" + i});
+                }
+                db.setTransactionSuccessful();
+            } finally {
+                db.endTransaction();
+            }
+            db.setVersion(1);
+        } finally {
+            db.close();
+        }
+    }
+
+    /**
+     * Check that the statistics row holds the same figures as computing them from the items.
+     */
+    private static void assertStatsMatchItems(SQLiteDatabase db) {
+        Cursor expected = db.rawQuery("SELECT COUNT(*), SUM(quantity), SUM(quantity * price),"
+                + " SUM(quantity <= reorder_threshold) FROM items", null);
+        Cursor actual = db.query(StatsEntry.TABLE_NAME, new String[]{
+                StatsEntry.COLUMN_ITEM_COUNT,
+                StatsEntry.COLUMN_TOTAL_QUANTITY,
+                StatsEntry.COLUMN_TOTAL_VALUE,
+                StatsEntry.COLUMN_LOW_STOCK_COUNT}, null, null, null, null, null);
+        try {
+            assertTrue(expected.moveToFirst());
+            assertEquals(1, actual.getCount());
+            assertTrue(actual.moveToFirst());
+            for (int i = 0; i < 4; i++) {
+                assertEquals(expected.getLong(i), actual.getLong(i));
+            }
+        } finally {
+            expected.close();
+            actual.close();
+        }
+    }
+
+    private static void assertIndexExists(SQLiteDatabase db, String indexName) {
+        long count = DatabaseUtils.longForQuery(db,
+                "SELECT COUNT(*) FROM sqlite_master WHERE type = 'index' AND name = ?",
+                new String[]{indexName});
+        assertEquals("Missing index " + indexName, 1, count);
+    }
+}
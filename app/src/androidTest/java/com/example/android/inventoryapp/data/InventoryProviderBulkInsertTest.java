@@ -0,0 +1,161 @@
+package com.example.android.inventoryapp.data;
+
+import android.content.ContentProviderOperation;
+import android.content.ContentResolver;
+import android.content.ContentValues;
+import android.database.Cursor;
+import android.os.SystemClock;
+import android.support.test.InstrumentationRegistry;
+import android.support.test.runner.AndroidJUnit4;
+import android.util.Log;
+
+import com.example.android.inventoryapp.data.InventoryContract.ItemEntry;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.util.ArrayList;
+
+import static org.junit.Assert.*;
+
+/**
+ * Instrumented throughput test comparing {@link InventoryProvider#bulkInsert} against
+ * inserting the same rows one by one through {@link InventoryProvider#insert}, and checking
+ * that a batch with an invalid row or operation leaves nothing behind.
+ */
+@RunWith(AndroidJUnit4.class)
+public class InventoryProviderBulkInsertTest {
+
+    @Rule
+    public final IsolatedDatabaseRule mDatabase = new IsolatedDatabaseRule();
+
+    private static final String LOG_TAG = InventoryProviderBulkInsertTest.class.getSimpleName();
+
+    /**
+     * The per-row path takes minutes at 100k rows on a real device, so it is only measured
+     * up to this size.
+     */
+    private static final int MAX_PER_ROW_ITEMS = 10000;
+
+    private ContentResolver mResolver;
+
+    @Before
+    public void setUp() throws Exception {
+        mResolver = InstrumentationRegistry.getTargetContext().getContentResolver();
+    }
+
+    @Test
+    public void bulkInsert_1k() throws Exception {
+        measure(1000);
+    }
+
+    @Test
+    public void bulkInsert_10k() throws Exception {
+        measure(10000);
+    }
+
+    @Test
+    public void bulkInsert_100k() throws Exception {
+        measure(100000);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void bulkInsert_rejectsWholeBatchOnInvalidRow() throws Exception {
+        ContentValues[] items = createItems(10);
+        items[5].putNull(ItemEntry.COLUMN_ITEM_NAME);
+        try {
+            mResolver.bulkInsert(ItemEntry.CONTENT_URI, items);
+        } finally {
+            assertEquals(0, countItems());
+        }
+    }
+
+    @Test
+    public void applyBatch_rollsBackWholeBatchOnFailedOperation() throws Exception {
+        ContentValues[] items = createItems(10);
+        ArrayList<ContentProviderOperation> operations = new ArrayList<>();
+        for (ContentValues values : items) {
+            operations.add(ContentProviderOperation.newInsert(ItemEntry.CONTENT_URI)
+                    .withValues(values)
+                    .build());
+        }
+        ContentValues invalid = new ContentValues(items[0]);
+        invalid.put(ItemEntry.COLUMN_ITEM_QUANTITY, -1);
+        operations.add(ContentProviderOperation.newInsert(ItemEntry.CONTENT_URI)
+                .withValues(invalid)
+                .build());
+
+        try {
+            mResolver.applyBatch(InventoryContract.CONTENT_AUTHORITY, operations);
+            fail("Invalid item inserted");
+        } catch (IllegalArgumentException e) {
+            // Expected
+        }
+        assertEquals(0, countItems());
+
+        operations.remove(operations.size() - 1);
+        assertEquals(items.length,
+                mResolver.applyBatch(InventoryContract.CONTENT_AUTHORITY, operations).length);
+        assertEquals(items.length, countItems());
+    }
+
+    private void measure(int count) {
+        ContentValues[] items = createItems(count);
+
+        long start = SystemClock.elapsedRealtime();
+        int inserted = mResolver.bulkInsert(ItemEntry.CONTENT_URI, items);
+        long bulkMillis = SystemClock.elapsedRealtime() - start;
+
+        assertEquals(count, inserted);
+        assertEquals(count, countItems());
+        Log.i(LOG_TAG, "bulkInsert " + count + " rows: " + bulkMillis + " ms ("
+                + rowsPerSecond(count, bulkMillis) + " rows/s)");
+
+        if (count > MAX_PER_ROW_ITEMS) {
+            return;
+        }
+
+        mResolver.delete(ItemEntry.CONTENT_URI, null, null);
+
+        start = SystemClock.elapsedRealtime();
+        for (ContentValues values : items) {
+            assertNotNull(mResolver.insert(ItemEntry.CONTENT_URI, values));
+        }
+        long perRowMillis = SystemClock.elapsedRealtime() - start;
+
+        assertEquals(count, countItems());
+        Log.i(LOG_TAG, "insert " + count + " rows: " + perRowMillis + " ms ("
+                + rowsPerSecond(count, perRowMillis) + " rows/s), speedup x"
+                + (perRowMillis / Math.max(1, bulkMillis)));
+    }
+
+    private static ContentValues[] createItems(int count) {
+        ContentValues[] items = new ContentValues[count];
+        for (int i = 0; i < count; i++) {
+            ContentValues values = new ContentValues();
+            values.put(ItemEntry.COLUMN_ITEM_NAME, "Item " + i);
+            values.put(ItemEntry.COLUMN_ITEM_QUANTITY, i % 50);
+            values.put(ItemEntry.COLUMN_ITEM_PRICE, 150 + i % 100 * 100);
+            values.put(ItemEntry.COLUMN_ITEM_IMAGE,
+                    "android.resource://com.example.android.inventoryapp/drawable/cake");
+            items[i] = values;
+        }
+        return items;
+    }
+
+    private int countItems() {
+        Cursor cursor = mResolver.query(ItemEntry.CONTENT_URI, new String[]{ItemEntry._ID},
+                null, null, null);
+        try {
+            return cursor.getCount();
+        } finally {
+            cursor.close();
+        }
+    }
+
+    private static long rowsPerSecond(int count, long millis) {
+        return count * 1000L / Math.max(1, millis);
+    }
+}
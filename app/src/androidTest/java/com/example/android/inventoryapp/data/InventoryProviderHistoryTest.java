@@ -0,0 +1,186 @@
+package com.example.android.inventoryapp.data;
+
+import android.content.ContentResolver;
+import android.content.ContentUris;
+import android.content.ContentValues;
+import android.database.Cursor;
+import android.os.Bundle;
+import android.support.test.InstrumentationRegistry;
+import android.support.test.runner.AndroidJUnit4;
+import android.text.format.DateUtils;
+
+import com.example.android.inventoryapp.data.InventoryContract.ItemEntry;
+import com.example.android.inventoryapp.data.InventoryContract.MovementEntry;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+
+/**
+ * Instrumented test checking that {@link InventoryProvider} records every stock change in the
+ * ledger, and rolls old movements into daily totals without losing any unit.
+ */
+@RunWith(AndroidJUnit4.class)
+public class InventoryProviderHistoryTest {
+
+    @Rule
+    public final IsolatedDatabaseRule mDatabase = new IsolatedDatabaseRule();
+
+    private static final String[] PROJECTION = { MovementEntry.COLUMN_REASON, MovementEntry.COLUMN_DELTA,
+            MovementEntry.COLUMN_UNITS_IN, MovementEntry.COLUMN_UNITS_OUT, MovementEntry.COLUMN_MOVEMENT_COUNT };
+
+    private ContentResolver mResolver;
+
+    private long mId;
+
+    @Before
+    public void setUp() throws Exception {
+        mResolver = InstrumentationRegistry.getTargetContext().getContentResolver();
+
+        ContentValues values = new ContentValues();
+        values.put(ItemEntry.COLUMN_ITEM_NAME, "Cake");
+        values.put(ItemEntry.COLUMN_ITEM_QUANTITY, 10);
+        values.put(ItemEntry.COLUMN_ITEM_PRICE, 250);
+        values.put(ItemEntry.COLUMN_ITEM_IMAGE,
+                "android.resource://com.example.android.inventoryapp/drawable/cake");
+        mId = ContentUris.parseId(mResolver.insert(ItemEntry.CONTENT_URI, values));
+
+        // 10 -> 9 -> 19 -> 3
+        mResolver.update(ItemEntry.buildSellUri(mId), new ContentValues(), null, null);
+        mResolver.update(ItemEntry.buildAdjustUri(mId, 10, MovementEntry.REASON_RESTOCK), new ContentValues(),
+                null, null);
+        values = new ContentValues();
+        values.put(ItemEntry.COLUMN_ITEM_QUANTITY, 3);
+        mResolver.update(ContentUris.withAppendedId(ItemEntry.CONTENT_URI, mId), values, null, null);
+    }
+
+    @Test
+    public void history_listsMovementsNewestFirst() throws Exception {
+        // A refused sale changes nothing, so it isn't recorded
+        mResolver.update(ItemEntry.buildAdjustUri(mId, -100), new ContentValues(), null, null);
+
+        Cursor cursor = mResolver.query(ItemEntry.buildHistoryUri(mId, 10), PROJECTION, null, null, null);
+        try {
+            assertEquals(3, cursor.getCount());
+            assertMovement(cursor, MovementEntry.REASON_CORRECTION, -16, 0, 16, 1);
+            assertMovement(cursor, MovementEntry.REASON_RESTOCK, 10, 10, 0, 1);
+            assertMovement(cursor, MovementEntry.REASON_SALE, -1, 0, 1, 1);
+        } finally {
+            cursor.close();
+        }
+    }
+
+    @Test
+    public void bufferedTaps_keepSalesAndRestocksApart() throws Exception {
+        // Three sales and a restock of ten, which add up to a restock of seven
+        final StockAdjustmentBuffer buffer =
+                StockAdjustmentBuffer.getInstance(InstrumentationRegistry.getTargetContext());
+        final CountDownLatch written = new CountDownLatch(2);
+        final StockAdjustmentBuffer.Listener listener = new StockAdjustmentBuffer.Listener() {
+            @Override
+            public void onPendingDeltaChanged(long id) {
+            }
+
+            @Override
+            public void onAdjustmentApplied(long id, int delta, int newQuantity) {
+                written.countDown();
+            }
+
+            @Override
+            public void onAdjustmentRefused(long id, int delta) {
+            }
+        };
+        InstrumentationRegistry.getInstrumentation().runOnMainSync(new Runnable() {
+            @Override
+            public void run() {
+                buffer.addListener(listener);
+                for (int i = 0; i < 3; i++) {
+                    buffer.adjust(mId, -1, MovementEntry.REASON_SALE);
+                }
+                buffer.adjust(mId, 10, MovementEntry.REASON_RESTOCK);
+                buffer.flush();
+            }
+        });
+        try {
+            assertTrue(written.await(5, TimeUnit.SECONDS));
+        } finally {
+            InstrumentationRegistry.getInstrumentation().runOnMainSync(new Runnable() {
+                @Override
+                public void run() {
+                    buffer.removeListener(listener);
+                }
+            });
+        }
+
+        // The restock is written first, so the sales can't be refused for lack of stock
+        Cursor cursor = mResolver.query(ItemEntry.buildHistoryUri(mId, 2), PROJECTION, null, null, null);
+        try {
+            assertEquals(2, cursor.getCount());
+            assertMovement(cursor, MovementEntry.REASON_SALE, -3, 0, 3, 1);
+            assertMovement(cursor, MovementEntry.REASON_RESTOCK, 10, 10, 0, 1);
+        } finally {
+            cursor.close();
+        }
+    }
+
+    @Test
+    public void adjustmentWithoutReason_isCorrection() throws Exception {
+        mResolver.update(ItemEntry.buildAdjustUri(mId, -2), new ContentValues(), null, null);
+
+        Cursor cursor = mResolver.query(ItemEntry.buildHistoryUri(mId, 1), PROJECTION, null, null, null);
+        try {
+            assertMovement(cursor, MovementEntry.REASON_CORRECTION, -2, 0, 2, 1);
+        } finally {
+            cursor.close();
+        }
+    }
+
+    @Test
+    public void compaction_rollsMovementsIntoDailyTotals() throws Exception {
+        Bundle extras = new Bundle();
+        extras.putLong(InventoryContract.EXTRA_BEFORE, System.currentTimeMillis() + 2 * DateUtils.DAY_IN_MILLIS);
+        Bundle result = mResolver.call(InventoryContract.BASE_CONTENT_URI,
+                InventoryContract.METHOD_COMPACT_MOVEMENTS, null, extras);
+        assertEquals(3, result.getInt(InventoryContract.EXTRA_MOVEMENT_COUNT));
+
+        // Movements made after the compaction come one by one again
+        mResolver.update(ItemEntry.buildSellUri(mId), new ContentValues(), null, null);
+
+        Cursor cursor = mResolver.query(ItemEntry.buildHistoryUri(mId, 10), PROJECTION, null, null, null);
+        try {
+            assertEquals(2, cursor.getCount());
+            assertMovement(cursor, MovementEntry.REASON_SALE, -1, 0, 1, 1);
+            assertMovement(cursor, MovementEntry.REASON_DAILY_TOTAL, -7, 10, 17, 3);
+        } finally {
+            cursor.close();
+        }
+    }
+
+    @Test
+    public void deletingItem_deletesHistory() throws Exception {
+        mResolver.delete(ContentUris.withAppendedId(ItemEntry.CONTENT_URI, mId), null, null);
+
+        Cursor cursor = mResolver.query(ItemEntry.buildHistoryUri(mId, 10), PROJECTION, null, null, null);
+        try {
+            assertEquals(0, cursor.getCount());
+        } finally {
+            cursor.close();
+        }
+    }
+
+    private static void assertMovement(Cursor cursor, String reason, int delta, int unitsIn, int unitsOut,
+                                       int movementCount) {
+        assertTrue(cursor.moveToNext());
+        assertEquals(reason, cursor.getString(cursor.getColumnIndex(MovementEntry.COLUMN_REASON)));
+        assertEquals(delta, cursor.getInt(cursor.getColumnIndex(MovementEntry.COLUMN_DELTA)));
+        assertEquals(unitsIn, cursor.getInt(cursor.getColumnIndex(MovementEntry.COLUMN_UNITS_IN)));
+        assertEquals(unitsOut, cursor.getInt(cursor.getColumnIndex(MovementEntry.COLUMN_UNITS_OUT)));
+        assertEquals(movementCount, cursor.getInt(cursor.getColumnIndex(MovementEntry.COLUMN_MOVEMENT_COUNT)));
+    }
+}
@@ -0,0 +1,131 @@
+package com.example.android.inventoryapp.data;
+
+import android.content.ContentResolver;
+import android.content.ContentUris;
+import android.content.ContentValues;
+import android.database.Cursor;
+import android.net.Uri;
+import android.support.test.InstrumentationRegistry;
+import android.support.test.runner.AndroidJUnit4;
+
+import com.example.android.inventoryapp.data.InventoryContract.ItemEntry;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+/**
+ * Instrumented test checking that the items low on stock served by {@link InventoryProvider}
+ * follow the sales, restocks and reorder thresholds of the items.
+ */
+@RunWith(AndroidJUnit4.class)
+public class InventoryProviderLowStockTest {
+
+    @Rule
+    public final IsolatedDatabaseRule mDatabase = new IsolatedDatabaseRule();
+
+    private ContentResolver mResolver;
+
+    @Before
+    public void setUp() throws Exception {
+        mResolver = InstrumentationRegistry.getTargetContext().getContentResolver();
+    }
+
+    @Test
+    public void lowStock_followsQuantityAndThreshold() throws Exception {
+        long cake = insertItem("Cake", 6, null);
+        long pie = insertItem("Pie", 2, null);
+        long tart = insertItem("Tart", 15, 20);
+        assertEquals(Arrays.asList("Pie", "Tart"), queryNames(ItemEntry.LOW_STOCK_URI));
+
+        // Selling the cake down to the default threshold puts it on the list
+        mResolver.update(ItemEntry.buildSellUri(cake), new ContentValues(), null, null);
+        assertEquals(Arrays.asList("Cake", "Pie", "Tart"), queryNames(ItemEntry.LOW_STOCK_URI));
+
+        // Restocking the pie and lowering the threshold of the tart take them off the list
+        mResolver.update(ItemEntry.buildAdjustUri(pie, 10), new ContentValues(), null, null);
+        ContentValues values = new ContentValues();
+        values.put(ItemEntry.COLUMN_ITEM_REORDER_THRESHOLD, 3);
+        mResolver.update(ContentUris.withAppendedId(ItemEntry.CONTENT_URI, tart), values, null, null);
+        assertEquals(Arrays.asList("Cake"), queryNames(ItemEntry.LOW_STOCK_URI));
+    }
+
+    @Test
+    public void lowStock_isPaged() throws Exception {
+        for (int i = 0; i < 5; i++) {
+            insertItem("Item " + i, 0, null);
+            insertItem("Stocked " + i, 100, null);
+        }
+
+        assertEquals(Arrays.asList("Item 0", "Item 1"),
+                queryNames(ItemEntry.buildFirstPageUri(ItemEntry.LOW_STOCK_URI, 2)));
+
+        Cursor cursor = mResolver.query(ItemEntry.buildFirstPageUri(ItemEntry.LOW_STOCK_URI, 2),
+                new String[] { ItemEntry._ID }, null, null, null);
+        long afterId;
+        try {
+            assertTrue(cursor.moveToLast());
+            afterId = cursor.getLong(0);
+        } finally {
+            cursor.close();
+        }
+        assertEquals(Arrays.asList("Item 2", "Item 3"),
+                queryNames(ItemEntry.buildNextPageUri(ItemEntry.LOW_STOCK_URI, "Item 1", afterId, 2)));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void lowStockFlag_cannotBeWritten() throws Exception {
+        long id = insertItem("Cake", 10, null);
+        ContentValues values = new ContentValues();
+        values.put(ItemEntry.COLUMN_ITEM_LOW_STOCK, 1);
+        mResolver.update(ContentUris.withAppendedId(ItemEntry.CONTENT_URI, id), values, null, null);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void negativeThreshold_isRefused() throws Exception {
+        ContentValues values = new ContentValues();
+        values.put(ItemEntry.COLUMN_ITEM_NAME, "Cake");
+        values.put(ItemEntry.COLUMN_ITEM_PRICE, 250);
+        values.put(ItemEntry.COLUMN_ITEM_IMAGE,
+                "android.resource://com.example.android.inventoryapp/drawable/cake");
+        values.put(ItemEntry.COLUMN_ITEM_REORDER_THRESHOLD, -1);
+        mResolver.insert(ItemEntry.CONTENT_URI, values);
+    }
+
+    /**
+     * Insert an item with the given stock and reorder threshold, or the default threshold if
+     * it is null, and return its _ID.
+     */
+    private long insertItem(String name, int quantity, Integer reorderThreshold) {
+        ContentValues values = new ContentValues();
+        values.put(ItemEntry.COLUMN_ITEM_NAME, name);
+        values.put(ItemEntry.COLUMN_ITEM_QUANTITY, quantity);
+        values.put(ItemEntry.COLUMN_ITEM_PRICE, 250);
+        values.put(ItemEntry.COLUMN_ITEM_IMAGE,
+                "android.resource://com.example.android.inventoryapp/drawable/cake");
+        if (reorderThreshold != null) {
+            values.put(ItemEntry.COLUMN_ITEM_REORDER_THRESHOLD, reorderThreshold);
+        }
+        return ContentUris.parseId(mResolver.insert(ItemEntry.CONTENT_URI, values));
+    }
+
+    private List<String> queryNames(Uri uri) {
+        Cursor cursor = mResolver.query(uri, new String[] { ItemEntry.COLUMN_ITEM_NAME }, null, null, null);
+        try {
+            List<String> names = new ArrayList<>();
+            while (cursor.moveToNext()) {
+                names.add(cursor.getString(0));
+            }
+            return names;
+        } finally {
+            cursor.close();
+        }
+    }
+}
@@ -0,0 +1,121 @@
+package com.example.android.inventoryapp.data;
+
+import android.content.ContentResolver;
+import android.content.ContentUris;
+import android.content.ContentValues;
+import android.database.Cursor;
+import android.net.Uri;
+import android.os.Bundle;
+import android.support.test.InstrumentationRegistry;
+import android.support.test.runner.AndroidJUnit4;
+
+import com.example.android.inventoryapp.data.InventoryContract.ItemEntry;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import static org.junit.Assert.*;
+
+/**
+ * Instrumented test checking that {@link InventoryProvider} counts its calls, rows and latencies
+ * per operation and URI, and returns and resets them through
+ * {@link InventoryContract#METHOD_METRICS} and {@link InventoryContract#METHOD_RESET_METRICS}.
+ */
+@RunWith(AndroidJUnit4.class)
+public class InventoryProviderMetricsTest {
+
+    @Rule
+    public final IsolatedDatabaseRule mDatabase = new IsolatedDatabaseRule();
+
+    private ContentResolver mResolver;
+
+    private Uri mItemUri;
+
+    @Before
+    public void setUp() throws Exception {
+        mResolver = InstrumentationRegistry.getTargetContext().getContentResolver();
+
+        ContentValues values = new ContentValues();
+        values.put(ItemEntry.COLUMN_ITEM_NAME, "Cake");
+        values.put(ItemEntry.COLUMN_ITEM_QUANTITY, 10);
+        values.put(ItemEntry.COLUMN_ITEM_PRICE, 250);
+        values.put(ItemEntry.COLUMN_ITEM_IMAGE,
+                "android.resource://com.example.android.inventoryapp/drawable/cake");
+        mItemUri = mResolver.insert(ItemEntry.CONTENT_URI, values);
+
+        mResolver.call(ItemEntry.CONTENT_URI, InventoryContract.METHOD_RESET_METRICS, null, null);
+    }
+
+    @Test
+    public void calls_areCountedPerOperationAndUri() throws Exception {
+        Cursor cursor = mResolver.query(mItemUri, null, null, null, null);
+        cursor.close();
+        mResolver.update(ItemEntry.buildSellUri(ContentUris.parseId(mItemUri)), new ContentValues(), null, null);
+        mResolver.update(ItemEntry.buildSellUri(ContentUris.parseId(mItemUri)), new ContentValues(), null, null);
+
+        Bundle metrics = getMetrics();
+        Bundle query = metrics.getBundle("query items/#");
+        assertNotNull(query);
+        assertEquals(1, query.getLong(InventoryContract.METRIC_CALLS));
+        assertEquals(1, query.getLong(InventoryContract.METRIC_ROWS));
+
+        // Selling returns the new quantity, but changes one row
+        Bundle sell = metrics.getBundle("update items/#/sell");
+        assertNotNull(sell);
+        assertEquals(2, sell.getLong(InventoryContract.METRIC_CALLS));
+        assertEquals(2, sell.getLong(InventoryContract.METRIC_ROWS));
+        assertEquals(0, sell.getLong(InventoryContract.METRIC_ERRORS));
+
+        long[] histogram = sell.getLongArray(InventoryContract.METRIC_LATENCY_HISTOGRAM);
+        long[] bounds = metrics.getLongArray(InventoryContract.EXTRA_LATENCY_BUCKET_BOUNDS);
+        assertEquals(bounds.length + 1, histogram.length);
+        long total = 0;
+        for (long count : histogram) {
+            total += count;
+        }
+        assertEquals(2, total);
+
+        assertNull(metrics.getBundle("delete items"));
+    }
+
+    @Test
+    public void failedCall_isCountedAsError() throws Exception {
+        ContentValues values = new ContentValues();
+        values.put(ItemEntry.COLUMN_ITEM_QUANTITY, 5);
+        try {
+            mResolver.insert(ItemEntry.CONTENT_URI, values);
+            fail("An item without a name was inserted");
+        } catch (IllegalArgumentException expected) {
+        }
+
+        Bundle insert = getMetrics().getBundle("insert items");
+        assertNotNull(insert);
+        assertEquals(1, insert.getLong(InventoryContract.METRIC_CALLS));
+        assertEquals(1, insert.getLong(InventoryContract.METRIC_ERRORS));
+        assertEquals(0, insert.getLong(InventoryContract.METRIC_ROWS));
+    }
+
+    @Test
+    public void reset_clearsMetrics() throws Exception {
+        Cursor cursor = mResolver.query(mItemUri, null, null, null, null);
+        cursor.close();
+        cursor = mResolver.query(mItemUri, null, null, null, null);
+        cursor.close();
+        assertEquals(1, getMetrics().getLong(InventoryContract.EXTRA_CACHE_HITS));
+
+        mResolver.call(ItemEntry.CONTENT_URI, InventoryContract.METHOD_RESET_METRICS, null, null);
+
+        Bundle metrics = getMetrics();
+        assertNull(metrics.getBundle("query items/#"));
+        assertEquals(0, metrics.getLong(InventoryContract.EXTRA_CACHE_HITS));
+        assertEquals(0, metrics.getLong(InventoryContract.EXTRA_CACHE_MISSES));
+    }
+
+    private Bundle getMetrics() {
+        Bundle metrics = mResolver.call(ItemEntry.CONTENT_URI, InventoryContract.METHOD_METRICS, null, null);
+        assertNotNull(metrics);
+        return metrics;
+    }
+}
@@ -0,0 +1,209 @@
+package com.example.android.inventoryapp.data;
+
+import android.content.ContentProviderOperation;
+import android.content.ContentResolver;
+import android.content.ContentUris;
+import android.content.ContentValues;
+import android.database.ContentObserver;
+import android.database.Cursor;
+import android.net.Uri;
+import android.os.Handler;
+import android.os.HandlerThread;
+import android.support.test.InstrumentationRegistry;
+import android.support.test.runner.AndroidJUnit4;
+
+import com.example.android.inventoryapp.data.InventoryContract.ItemEntry;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+
+/**
+ * Instrumented test checking that {@link InventoryProvider} notifies the items and operation
+ * of each change, and merges the notifications of a batch into one.
+ */
+@RunWith(AndroidJUnit4.class)
+public class InventoryProviderNotificationTest {
+
+    @Rule
+    public final IsolatedDatabaseRule mDatabase = new IsolatedDatabaseRule();
+
+    /** How long to wait for a notification that should come, in milliseconds */
+    private static final long NOTIFICATION_TIMEOUT = 2000;
+
+    /** How long to wait for a notification that shouldn't come, in milliseconds */
+    private static final long NO_NOTIFICATION_TIMEOUT = 500;
+
+    private ContentResolver mResolver;
+
+    private HandlerThread mObserverThread;
+
+    private ContentObserver mObserver;
+
+    /** Notifications received by the observer of the items URI */
+    private final BlockingQueue<Uri> mNotifications = new LinkedBlockingQueue<>();
+
+    @Before
+    public void setUp() throws Exception {
+        mResolver = InstrumentationRegistry.getTargetContext().getContentResolver();
+
+        mObserverThread = new HandlerThread("observer");
+        mObserverThread.start();
+        mObserver = new ContentObserver(new Handler(mObserverThread.getLooper())) {
+            @Override
+            public void onChange(boolean selfChange, Uri uri) {
+                mNotifications.add(uri);
+            }
+        };
+        mResolver.registerContentObserver(ItemEntry.CONTENT_URI, true, mObserver);
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        mResolver.unregisterContentObserver(mObserver);
+        mObserverThread.quit();
+    }
+
+    @Test
+    public void sell_notifiesItemUpdate() throws Exception {
+        long id = insertItem("Cake");
+
+        assertEquals(9, mResolver.update(ItemEntry.buildSellUri(id), new ContentValues(), null, null));
+
+        Uri change = nextNotification();
+        assertEquals(InventoryContract.OPERATION_UPDATE, ItemEntry.getChangeOperation(change));
+        assertArrayEquals(new long[] { id }, ItemEntry.getChangedIds(change));
+    }
+
+    @Test
+    public void rename_notifiesUnknownItems() throws Exception {
+        long id = insertItem("Cake");
+
+        ContentValues values = new ContentValues();
+        values.put(ItemEntry.COLUMN_ITEM_NAME, "Pie");
+        assertEquals(1, mResolver.update(ContentUris.withAppendedId(ItemEntry.CONTENT_URI, id),
+                values, null, null));
+
+        Uri change = nextNotification();
+        assertEquals(InventoryContract.OPERATION_UPDATE, ItemEntry.getChangeOperation(change));
+        assertNull(ItemEntry.getChangedIds(change));
+    }
+
+    @Test
+    public void conditionalItemUpdate_notifiesItemUpdate() throws Exception {
+        long id = insertItem("Cake");
+        Uri itemUri = ContentUris.withAppendedId(ItemEntry.CONTENT_URI, id);
+        ContentValues values = new ContentValues();
+        values.put(ItemEntry.COLUMN_ITEM_IMAGE, "file:///data/cake.jpg");
+
+        // The item doesn't show this image, so it is left alone
+        assertEquals(0, mResolver.update(itemUri, values, ItemEntry.COLUMN_ITEM_IMAGE + "=?",
+                new String[] { "android.resource://com.example.android.inventoryapp/drawable/pie" }));
+        assertNull(mNotifications.poll(NO_NOTIFICATION_TIMEOUT, TimeUnit.MILLISECONDS));
+
+        assertEquals(1, mResolver.update(itemUri, values, ItemEntry.COLUMN_ITEM_IMAGE + "=?",
+                new String[] { "android.resource://com.example.android.inventoryapp/drawable/cake" }));
+        Uri change = nextNotification();
+        assertEquals(InventoryContract.OPERATION_UPDATE, ItemEntry.getChangeOperation(change));
+        assertArrayEquals(new long[] { id }, ItemEntry.getChangedIds(change));
+    }
+
+    @Test
+    public void delete_notifiesItemDelete() throws Exception {
+        long id = insertItem("Cake");
+
+        assertEquals(1, mResolver.delete(ContentUris.withAppendedId(ItemEntry.CONTENT_URI, id), null, null));
+
+        Uri change = nextNotification();
+        assertEquals(InventoryContract.OPERATION_DELETE, ItemEntry.getChangeOperation(change));
+        assertArrayEquals(new long[] { id }, ItemEntry.getChangedIds(change));
+    }
+
+    @Test
+    public void applyBatch_mergesNotifications() throws Exception {
+        long[] ids = { insertItem("Cake"), insertItem("Pie"), insertItem("Tart") };
+
+        ArrayList<ContentProviderOperation> operations = new ArrayList<>();
+        for (long id : ids) {
+            ContentValues values = new ContentValues();
+            values.put(InventoryContract.QUERY_PARAMETER_DELTA, -2);
+            operations.add(ContentProviderOperation.newUpdate(ItemEntry.buildAdjustUri(id))
+                    .withValues(values)
+                    .build());
+        }
+        mResolver.applyBatch(InventoryContract.CONTENT_AUTHORITY, operations);
+
+        Uri change = nextNotification();
+        assertEquals(InventoryContract.OPERATION_UPDATE, ItemEntry.getChangeOperation(change));
+        long[] changedIds = ItemEntry.getChangedIds(change);
+        Arrays.sort(changedIds);
+        assertArrayEquals(ids, changedIds);
+        assertNull(mNotifications.poll(NO_NOTIFICATION_TIMEOUT, TimeUnit.MILLISECONDS));
+    }
+
+    @Test
+    public void failedApplyBatch_notifiesNothing() throws Exception {
+        long id = insertItem("Cake");
+
+        ArrayList<ContentProviderOperation> operations = new ArrayList<>();
+        ContentValues values = new ContentValues();
+        values.put(InventoryContract.QUERY_PARAMETER_DELTA, -2);
+        operations.add(ContentProviderOperation.newUpdate(ItemEntry.buildAdjustUri(id))
+                .withValues(values)
+                .build());
+        // An invalid quantity, so the batch fails after the adjustment
+        operations.add(ContentProviderOperation.newUpdate(ContentUris.withAppendedId(ItemEntry.CONTENT_URI, id))
+                .withValue(ItemEntry.COLUMN_ITEM_QUANTITY, -1)
+                .build());
+        try {
+            mResolver.applyBatch(InventoryContract.CONTENT_AUTHORITY, operations);
+            fail("Invalid quantity stored");
+        } catch (IllegalArgumentException e) {
+            // Expected
+        }
+
+        assertNull(mNotifications.poll(NO_NOTIFICATION_TIMEOUT, TimeUnit.MILLISECONDS));
+        Cursor cursor = mResolver.query(ContentUris.withAppendedId(ItemEntry.CONTENT_URI, id),
+                new String[] { ItemEntry.COLUMN_ITEM_QUANTITY }, null, null, null);
+        try {
+            assertTrue(cursor.moveToFirst());
+            assertEquals(10, cursor.getInt(0));
+        } finally {
+            cursor.close();
+        }
+    }
+
+    /**
+     * Insert an item with 10 units in stock, wait for its notification and return its _ID.
+     */
+    private long insertItem(String name) throws InterruptedException {
+        ContentValues values = new ContentValues();
+        values.put(ItemEntry.COLUMN_ITEM_NAME, name);
+        values.put(ItemEntry.COLUMN_ITEM_QUANTITY, 10);
+        values.put(ItemEntry.COLUMN_ITEM_PRICE, 250);
+        values.put(ItemEntry.COLUMN_ITEM_IMAGE,
+                "android.resource://com.example.android.inventoryapp/drawable/cake");
+        long id = ContentUris.parseId(mResolver.insert(ItemEntry.CONTENT_URI, values));
+
+        Uri change = nextNotification();
+        assertEquals(InventoryContract.OPERATION_INSERT, ItemEntry.getChangeOperation(change));
+        assertArrayEquals(new long[] { id }, ItemEntry.getChangedIds(change));
+        return id;
+    }
+
+    private Uri nextNotification() throws InterruptedException {
+        Uri change = mNotifications.poll(NOTIFICATION_TIMEOUT, TimeUnit.MILLISECONDS);
+        assertNotNull("No change notification", change);
+        return change;
+    }
+}
@@ -0,0 +1,126 @@
+package com.example.android.inventoryapp.data;
+
+import android.content.ContentProviderClient;
+import android.content.ContentResolver;
+import android.content.ContentUris;
+import android.content.ContentValues;
+import android.database.Cursor;
+import android.net.Uri;
+import android.support.test.InstrumentationRegistry;
+import android.support.test.runner.AndroidJUnit4;
+
+import com.example.android.inventoryapp.data.InventoryContract.ItemEntry;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import static org.junit.Assert.*;
+
+/**
+ * Instrumented test checking that {@link InventoryProvider} serves repeated queries from its
+ * cache, and never serves a result read before the latest write.
+ */
+@RunWith(AndroidJUnit4.class)
+public class InventoryProviderQueryCacheTest {
+
+    @Rule
+    public final IsolatedDatabaseRule mDatabase = new IsolatedDatabaseRule();
+
+    private static final String[] PROJECTION = { ItemEntry._ID, ItemEntry.COLUMN_ITEM_NAME,
+            ItemEntry.COLUMN_ITEM_QUANTITY, ItemEntry.COLUMN_ITEM_PRICE };
+
+    private ContentResolver mResolver;
+
+    private ContentProviderClient mClient;
+
+    private QueryCache mQueryCache;
+
+    private Uri mItemUri;
+
+    @Before
+    public void setUp() throws Exception {
+        mResolver = InstrumentationRegistry.getTargetContext().getContentResolver();
+
+        mClient = mResolver.acquireContentProviderClient(InventoryContract.CONTENT_AUTHORITY);
+        mQueryCache = ((InventoryProvider) mClient.getLocalContentProvider()).getQueryCache();
+
+        ContentValues values = new ContentValues();
+        values.put(ItemEntry.COLUMN_ITEM_NAME, "Cake");
+        values.put(ItemEntry.COLUMN_ITEM_QUANTITY, 10);
+        values.put(ItemEntry.COLUMN_ITEM_PRICE, 250);
+        values.put(ItemEntry.COLUMN_ITEM_IMAGE,
+                "android.resource://com.example.android.inventoryapp/drawable/cake");
+        mItemUri = mResolver.insert(ItemEntry.CONTENT_URI, values);
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        mClient.release();
+    }
+
+    @Test
+    public void repeatedQuery_isServedFromCache() throws Exception {
+        assertEquals(10, queryQuantity());
+        long hits = mQueryCache.getHitCount();
+
+        assertEquals(10, queryQuantity());
+        assertEquals(hits + 1, mQueryCache.getHitCount());
+    }
+
+    @Test
+    public void write_invalidatesCache() throws Exception {
+        assertEquals(10, queryQuantity());
+        mResolver.update(ItemEntry.buildSellUri(ContentUris.parseId(mItemUri)), new ContentValues(), null, null);
+        long misses = mQueryCache.getMissCount();
+
+        assertEquals(9, queryQuantity());
+        assertEquals(misses + 1, mQueryCache.getMissCount());
+    }
+
+    @Test
+    public void cachedCursors_areIndependent() throws Exception {
+        Cursor first = mResolver.query(ItemEntry.CONTENT_URI, PROJECTION, null, null, null);
+        Cursor second = mResolver.query(ItemEntry.CONTENT_URI, PROJECTION, null, null, null);
+        try {
+            assertTrue(first.moveToFirst());
+            first.close();
+            assertTrue(second.moveToFirst());
+            assertEquals("Cake", second.getString(second.getColumnIndex(ItemEntry.COLUMN_ITEM_NAME)));
+        } finally {
+            second.close();
+        }
+    }
+
+    @Test
+    public void cachedCursors_keepTypesOfValues() throws Exception {
+        Cursor first = mResolver.query(mItemUri, PROJECTION, null, null, null);
+        first.close();
+        Cursor cached = mResolver.query(mItemUri, PROJECTION, null, null, null);
+        try {
+            assertTrue(cached.moveToFirst());
+            int name = cached.getColumnIndex(ItemEntry.COLUMN_ITEM_NAME);
+            int price = cached.getColumnIndex(ItemEntry.COLUMN_ITEM_PRICE);
+            assertEquals(Cursor.FIELD_TYPE_STRING, cached.getType(name));
+            assertEquals(Cursor.FIELD_TYPE_INTEGER, cached.getType(price));
+            assertEquals(250, cached.getLong(price));
+            assertEquals("250", cached.getString(price));
+            assertFalse(cached.isNull(name));
+            assertFalse(cached.moveToNext());
+        } finally {
+            cached.close();
+        }
+    }
+
+    private int queryQuantity() {
+        Cursor cursor = mResolver.query(mItemUri, PROJECTION, null, null, null);
+        try {
+            assertTrue(cursor.moveToFirst());
+            return cursor.getInt(cursor.getColumnIndex(ItemEntry.COLUMN_ITEM_QUANTITY));
+        } finally {
+            cursor.close();
+        }
+    }
+}
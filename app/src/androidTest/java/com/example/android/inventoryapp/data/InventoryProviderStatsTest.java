@@ -0,0 +1,114 @@
+package com.example.android.inventoryapp.data;
+
+import android.content.ContentResolver;
+import android.content.ContentUris;
+import android.content.ContentValues;
+import android.database.Cursor;
+import android.support.test.InstrumentationRegistry;
+import android.support.test.runner.AndroidJUnit4;
+
+import com.example.android.inventoryapp.data.InventoryContract.ItemEntry;
+import com.example.android.inventoryapp.data.InventoryContract.StatsEntry;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import static org.junit.Assert.*;
+
+/**
+ * Instrumented test checking that the statistics served by {@link InventoryProvider} follow
+ * every insert, sale, edit and delete of the items.
+ */
+@RunWith(AndroidJUnit4.class)
+public class InventoryProviderStatsTest {
+
+    @Rule
+    public final IsolatedDatabaseRule mDatabase = new IsolatedDatabaseRule();
+
+    private ContentResolver mResolver;
+
+    @Before
+    public void setUp() throws Exception {
+        mResolver = InstrumentationRegistry.getTargetContext().getContentResolver();
+    }
+
+    @Test
+    public void emptyCatalog_hasZeroStats() throws Exception {
+        assertStats(0, 0, 0, 0);
+    }
+
+    @Test
+    public void stats_followWrites() throws Exception {
+        long cake = insertItem("Cake", 10, 250);
+        long pie = insertItem("Pie", 5, 1625);
+        assertStats(2, 15, 10 * 250 + 5 * 1625, 1);
+
+        // Selling a cake takes its price off the value
+        mResolver.update(ItemEntry.buildSellUri(cake), new ContentValues(), null, null);
+        assertStats(2, 14, 9 * 250 + 5 * 1625, 1);
+
+        // A new price revalues the whole stock of the item, and restocking ends the shortage
+        ContentValues values = new ContentValues();
+        values.put(ItemEntry.COLUMN_ITEM_QUANTITY, 20);
+        values.put(ItemEntry.COLUMN_ITEM_PRICE, 1500);
+        mResolver.update(ContentUris.withAppendedId(ItemEntry.CONTENT_URI, pie), values, null, null);
+        assertStats(2, 29, 9 * 250 + 20 * 1500, 0);
+
+        // A new price alone revalues the stock as well
+        values = new ContentValues();
+        values.put(ItemEntry.COLUMN_ITEM_PRICE, 300);
+        mResolver.update(ContentUris.withAppendedId(ItemEntry.CONTENT_URI, cake), values, null, null);
+        assertStats(2, 29, 9 * 300 + 20 * 1500, 0);
+
+        mResolver.delete(ContentUris.withAppendedId(ItemEntry.CONTENT_URI, cake), null, null);
+        assertStats(1, 20, 20 * 1500, 0);
+    }
+
+    @Test
+    public void invalidPriceOnlyUpdate_isRefused() throws Exception {
+        long cake = insertItem("Cake", 10, 250);
+
+        // Prices in euros and negative prices are refused even without a new quantity
+        ContentValues values = new ContentValues();
+        values.put(ItemEntry.COLUMN_ITEM_PRICE, 2.5f);
+        assertUpdateRefused(cake, values);
+        values.put(ItemEntry.COLUMN_ITEM_PRICE, -250);
+        assertUpdateRefused(cake, values);
+
+        assertStats(1, 10, 10 * 250, 0);
+    }
+
+    private long insertItem(String name, int quantity, long price) {
+        ContentValues values = new ContentValues();
+        values.put(ItemEntry.COLUMN_ITEM_NAME, name);
+        values.put(ItemEntry.COLUMN_ITEM_QUANTITY, quantity);
+        values.put(ItemEntry.COLUMN_ITEM_PRICE, price);
+        values.put(ItemEntry.COLUMN_ITEM_IMAGE,
+                "android.resource://com.example.android.inventoryapp/drawable/cake");
+        return ContentUris.parseId(mResolver.insert(ItemEntry.CONTENT_URI, values));
+    }
+
+    private void assertUpdateRefused(long id, ContentValues values) {
+        try {
+            mResolver.update(ContentUris.withAppendedId(ItemEntry.CONTENT_URI, id), values, null, null);
+            fail("Update with " + values + " was accepted");
+        } catch (IllegalArgumentException e) {
+            // Expected
+        }
+    }
+
+    private void assertStats(int itemCount, int totalQuantity, long totalValue, int lowStockCount) {
+        Cursor cursor = mResolver.query(StatsEntry.CONTENT_URI, null, null, null, null);
+        try {
+            assertTrue(cursor.moveToFirst());
+            assertEquals(itemCount, cursor.getInt(cursor.getColumnIndex(StatsEntry.COLUMN_ITEM_COUNT)));
+            assertEquals(totalQuantity, cursor.getInt(cursor.getColumnIndex(StatsEntry.COLUMN_TOTAL_QUANTITY)));
+            assertEquals(totalValue, cursor.getLong(cursor.getColumnIndex(StatsEntry.COLUMN_TOTAL_VALUE)));
+            assertEquals(lowStockCount, cursor.getInt(cursor.getColumnIndex(StatsEntry.COLUMN_LOW_STOCK_COUNT)));
+        } finally {
+            cursor.close();
+        }
+    }
+}
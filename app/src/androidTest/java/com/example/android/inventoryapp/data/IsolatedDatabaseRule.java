@@ -0,0 +1,54 @@
+package com.example.android.inventoryapp.data;
+
+import android.content.ContentProviderClient;
+import android.content.Context;
+import android.support.test.InstrumentationRegistry;
+
+import org.junit.rules.ExternalResource;
+
+import java.io.File;
+
+/**
+ * Points the {@link InventoryProvider} of the app at an empty database of its own for the
+ * duration of each test, so the tests can add and delete items through the content resolver
+ * without touching the inventory kept on the device. The test database is deleted afterwards.
+ *
+ * Use it with {@code @Rule public final IsolatedDatabaseRule mDatabase = new IsolatedDatabaseRule();}
+ */
+public class IsolatedDatabaseRule extends ExternalResource {
+
+    private static final String TEST_DATABASE_NAME = "provider_test.db";
+
+    private Context mContext;
+
+    private InventoryProvider mProvider;
+
+    @Override
+    protected void before() throws Throwable {
+        mContext = InstrumentationRegistry.getTargetContext();
+        ContentProviderClient client = mContext.getContentResolver()
+                .acquireContentProviderClient(InventoryContract.CONTENT_AUTHORITY);
+        try {
+            // The tests run in the process of the app, so this is the provider the resolver uses
+            mProvider = (InventoryProvider) client.getLocalContentProvider();
+        } finally {
+            client.release();
+        }
+
+        mContext.deleteDatabase(TEST_DATABASE_NAME);
+        mProvider.useDatabase(TEST_DATABASE_NAME);
+    }
+
+    /**
+     * Return the file of the test database.
+     */
+    public File getDatabaseFile() {
+        return mContext.getDatabasePath(TEST_DATABASE_NAME);
+    }
+
+    @Override
+    protected void after() {
+        mProvider.useDatabase(InventoryDbHelper.DATABASE_NAME);
+        mContext.deleteDatabase(TEST_DATABASE_NAME);
+    }
+}
@@ -0,0 +1,136 @@
+package com.example.android.inventoryapp.data;
+
+import android.content.ContentResolver;
+import android.content.ContentUris;
+import android.content.ContentValues;
+import android.database.Cursor;
+import android.support.test.InstrumentationRegistry;
+import android.support.test.runner.AndroidJUnit4;
+
+import com.example.android.inventoryapp.data.InventoryContract.ItemEntry;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import static org.junit.Assert.*;
+
+/**
+ * Instrumented test checking that {@link WindowedCursor} lists the same items as a plain query,
+ * in both directions and from any position, while keeping only a few blocks in memory.
+ */
+@RunWith(AndroidJUnit4.class)
+public class WindowedCursorTest {
+
+    @Rule
+    public final IsolatedDatabaseRule mDatabase = new IsolatedDatabaseRule();
+
+    private static final int ITEM_COUNT = 1050;
+
+    private static final int BLOCK_SIZE = 100;
+
+    private static final int MAX_BLOCKS = 3;
+
+    private static final String[] PROJECTION = { ItemEntry._ID, ItemEntry.COLUMN_ITEM_NAME,
+            ItemEntry.COLUMN_ITEM_QUANTITY, ItemEntry.COLUMN_ITEM_PRICE };
+
+    private ContentResolver mResolver;
+
+    /** _IDs of the items in the order of the catalog */
+    private long[] mIds;
+
+    @Before
+    public void setUp() throws Exception {
+        mResolver = InstrumentationRegistry.getTargetContext().getContentResolver();
+
+        // Some items share a name, so the _ID has to break the ties between blocks
+        ContentValues[] items = new ContentValues[ITEM_COUNT];
+        for (int i = 0; i < ITEM_COUNT; i++) {
+            items[i] = new ContentValues();
+            items[i].put(ItemEntry.COLUMN_ITEM_NAME, "Item " + (i * 7919 % 500));
+            items[i].put(ItemEntry.COLUMN_ITEM_QUANTITY, i % 20);
+            items[i].put(ItemEntry.COLUMN_ITEM_PRICE, 100 + i);
+            items[i].put(ItemEntry.COLUMN_ITEM_IMAGE,
+                    "android.resource://com.example.android.inventoryapp/drawable/cake");
+        }
+        assertEquals(ITEM_COUNT, mResolver.bulkInsert(ItemEntry.CONTENT_URI, items));
+
+        Cursor cursor = mResolver.query(ItemEntry.CONTENT_URI, new String[] { ItemEntry._ID },
+                null, null, ItemEntry.SORT_ORDER_NAME);
+        try {
+            mIds = new long[cursor.getCount()];
+            while (cursor.moveToNext()) {
+                mIds[cursor.getPosition()] = cursor.getLong(0);
+            }
+        } finally {
+            cursor.close();
+        }
+    }
+
+    @Test
+    public void rows_matchTheCatalogInBothDirections() throws Exception {
+        WindowedCursor cursor = new WindowedCursor(mResolver, ItemEntry.CONTENT_URI, PROJECTION,
+                BLOCK_SIZE, MAX_BLOCKS);
+        try {
+            assertEquals(ITEM_COUNT, cursor.getCount());
+            while (cursor.moveToNext()) {
+                assertEquals(mIds[cursor.getPosition()], cursor.getLong(0));
+                assertTrue(cursor.getBlockCount() <= MAX_BLOCKS);
+            }
+            assertTrue(cursor.isAfterLast());
+
+            while (cursor.moveToPrevious()) {
+                assertEquals(mIds[cursor.getPosition()], cursor.getLong(0));
+                assertTrue(cursor.getBlockCount() <= MAX_BLOCKS);
+            }
+        } finally {
+            cursor.close();
+        }
+    }
+
+    @Test
+    public void moveToPosition_readsBlocksNeverVisited() throws Exception {
+        WindowedCursor cursor = new WindowedCursor(mResolver, ItemEntry.CONTENT_URI, PROJECTION,
+                BLOCK_SIZE, MAX_BLOCKS);
+        try {
+            assertTrue(cursor.moveToPosition(ITEM_COUNT - 1));
+            assertEquals(mIds[ITEM_COUNT - 1], cursor.getLong(0));
+            assertTrue(cursor.moveToPosition(2));
+            assertEquals(mIds[2], cursor.getLong(0));
+            assertTrue(cursor.moveToPosition(555));
+            assertEquals(mIds[555], cursor.getLong(0));
+            assertTrue(cursor.getBlockCount() <= MAX_BLOCKS);
+        } finally {
+            cursor.close();
+        }
+    }
+
+    @Test
+    public void updatingImagesWhileWalking_visitsEveryItemOnce() throws Exception {
+        // The image backfill walks the catalog like this, storing each image as it goes
+        String[] projection = { ItemEntry._ID, ItemEntry.COLUMN_ITEM_NAME, ItemEntry.COLUMN_ITEM_IMAGE };
+        WindowedCursor cursor = new WindowedCursor(mResolver, ItemEntry.CONTENT_URI, projection,
+                BLOCK_SIZE, MAX_BLOCKS);
+        try {
+            int visited = 0;
+            while (cursor.moveToNext()) {
+                assertEquals(mIds[cursor.getPosition()], cursor.getLong(0));
+                ContentValues values = new ContentValues();
+                values.put(ItemEntry.COLUMN_ITEM_IMAGE, "file:///images/" + cursor.getLong(0) + ".jpg");
+                assertEquals(1, mResolver.update(ContentUris.withAppendedId(ItemEntry.CONTENT_URI,
+                        cursor.getLong(0)), values, null, null));
+                visited++;
+            }
+            assertEquals(ITEM_COUNT, visited);
+        } finally {
+            cursor.close();
+        }
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void projectionWithoutKeys_isRejected() throws Exception {
+        new WindowedCursor(mResolver, ItemEntry.CONTENT_URI,
+                new String[] { ItemEntry.COLUMN_ITEM_QUANTITY }, BLOCK_SIZE, MAX_BLOCKS);
+    }
+}
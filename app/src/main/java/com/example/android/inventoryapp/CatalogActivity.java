@@ -1,24 +1,48 @@
 package com.example.android.inventoryapp;
 
+import android.app.Activity;
+import android.app.AlertDialog;
 import android.app.LoaderManager;
 import android.content.ContentUris;
 import android.content.ContentValues;
+import android.content.Context;
 import android.content.CursorLoader;
+import android.content.DialogInterface;
 import android.content.Intent;
 import android.content.Loader;
+import android.database.ContentObserver;
 import android.database.Cursor;
 import android.net.Uri;
+import android.os.Build;
 import android.os.Bundle;
+import android.os.Handler;
 import android.support.design.widget.FloatingActionButton;
 import android.support.v7.app.AppCompatActivity;
+import android.support.v7.widget.LinearLayoutManager;
+import android.support.v7.widget.RecyclerView;
+import android.support.v7.widget.SearchView;
+import android.text.TextUtils;
 import android.util.Log;
+import android.util.SparseArray;
 import android.view.Menu;
 import android.view.MenuItem;
 import android.view.View;
-import android.widget.AdapterView;
-import android.widget.ListView;
+import android.widget.ProgressBar;
+import android.widget.TextView;
+import android.widget.Toast;
 
+import com.example.android.inventoryapp.data.CatalogSnapshot;
+import com.example.android.inventoryapp.data.CatalogTransfer;
+import com.example.android.inventoryapp.data.InventoryContract;
 import com.example.android.inventoryapp.data.InventoryContract.ItemEntry;
+import com.example.android.inventoryapp.data.InventoryContract.StatsEntry;
+import com.example.android.inventoryapp.data.InventoryWriter;
+import com.example.android.inventoryapp.data.MovementCompactor;
+import com.example.android.inventoryapp.data.PriceFormat;
+import com.example.android.inventoryapp.data.StockAdjustmentBuffer;
+import com.example.android.inventoryapp.image.ImageIngester;
+
+import java.util.Arrays;
 
 /**
  * Displays list of items that were entered and stored in the app.
@@ -27,11 +51,206 @@ public class CatalogActivity extends AppCompatActivity implements LoaderManager.
 
     private static final int INVENTORY_LOADER = 0;
 
-    InventoryCursorAdapter mCursorAdapter;
+    /** Loader of the statistics shown above the list, apart from the pages of the catalog */
+    private static final int STATS_LOADER = -1;
+
+    /** Key of the loader argument holding the text searched for */
+    private static final String ARG_SEARCH_TEXT = "search_text";
+
+    /** Time to wait after the last keystroke before searching, in milliseconds */
+    private static final long SEARCH_DEBOUNCE_DELAY = 300;
+
+    /** Number of items loaded at once when the catalog is scrolled */
+    private static final int PAGE_SIZE = 100;
+
+    /** Columns of the items the catalog shows */
+    private static final String[] CATALOG_PROJECTION = {
+            ItemEntry._ID,
+            ItemEntry.COLUMN_ITEM_NAME,
+            ItemEntry.COLUMN_ITEM_QUANTITY,
+            ItemEntry.COLUMN_ITEM_PRICE,
+            ItemEntry.COLUMN_ITEM_IMAGE };
+
+    /**
+     * Number of items left below the screen when the next page starts loading, or above it
+     * when the previous page does
+     */
+    private static final int PAGE_PREFETCH_DISTANCE = 30;
+
+    /**
+     * Number of pages kept loaded around the screen. Scrolling further drops the page at the
+     * other end, so memory stays the same however long the catalog is.
+     */
+    private static final int MAX_LOADED_PAGES = 5;
+
+    /** Keys of the loader arguments holding the last item of the previous page */
+    private static final String ARG_AFTER_NAME = "after_name";
+    private static final String ARG_AFTER_ID = "after_id";
+
+    /** Key of the saved state telling whether only the items low on stock are listed */
+    private static final String STATE_LOW_STOCK_ONLY = "low_stock_only";
+
+    /** Request codes of the pickers of the CSV file to import and the file to export to */
+    private static final int IMPORT_REQUEST_CODE = 2001;
+    private static final int EXPORT_REQUEST_CODE = 2002;
+
+    /** Request codes of the pickers of the file to back up to and the backup to restore */
+    private static final int BACKUP_REQUEST_CODE = 2003;
+    private static final int RESTORE_REQUEST_CODE = 2004;
+
+    /** MIME type of the backups */
+    private static final String BACKUP_MIME_TYPE = "application/zip";
+
+    /** Maximum of the progress bar of the CSV transfers */
+    private static final int TRANSFER_PROGRESS_MAX = 1000;
+
+    InventoryAdapter mAdapter;
+
+    /** View shown instead of the list when there is no item */
+    private View mEmptyView;
+
+    /** Statistics of the whole catalog, shown above the list */
+    private TextView mStatsView;
+
+    /** Progress of the running CSV import or export */
+    private ProgressBar mTransferProgress;
+
+    /**
+     * Shows the progress and outcome of the CSV imports and exports. The imported items reach
+     * the list through the change notifications of the provider, like any other insert.
+     */
+    private final CatalogTransfer.Listener mTransferListener = new CatalogTransfer.Listener() {
+        @Override
+        public void onTransferProgress(long bytesDone, long bytesTotal) {
+            showTransferProgress(bytesDone, bytesTotal);
+        }
+
+        @Override
+        public void onImportComplete(int itemCount) {
+            hideTransferProgress();
+            Toast.makeText(CatalogActivity.this, getString(R.string.import_successful, itemCount),
+                    Toast.LENGTH_SHORT).show();
+        }
+
+        @Override
+        public void onExportComplete() {
+            hideTransferProgress();
+            Toast.makeText(CatalogActivity.this, R.string.export_successful, Toast.LENGTH_SHORT).show();
+        }
+
+        @Override
+        public void onBackupComplete() {
+            hideTransferProgress();
+            Toast.makeText(CatalogActivity.this, R.string.backup_successful, Toast.LENGTH_SHORT).show();
+        }
+
+        @Override
+        public void onRestoreComplete() {
+            hideTransferProgress();
+            Toast.makeText(CatalogActivity.this, R.string.restore_successful, Toast.LENGTH_SHORT).show();
+        }
+
+        @Override
+        public void onTransferFailed(Exception e) {
+            hideTransferProgress();
+            Toast.makeText(CatalogActivity.this, getString(R.string.transfer_failed, e.getMessage()),
+                    Toast.LENGTH_LONG).show();
+        }
+    };
+
+    /**
+     * Pages of the catalog loaded, by page number. Page n is loaded by the loader with id
+     * INVENTORY_LOADER + n and starts right after the last item of page n - 1. Only the pages
+     * from {@link #mFirstPage} to {@link #mRequestedPages} are loaded.
+     */
+    private final SparseArray<Cursor> mPages = new SparseArray<>();
+
+    /**
+     * Arguments each page was loaded with, to tell when a page has to follow a changed one.
+     * They are kept for the pages dropped above the loaded ones, so those are loaded again from
+     * where they started when the user scrolls back up to them.
+     */
+    private final SparseArray<Bundle> mPageArgs = new SparseArray<>();
+
+    /**
+     * Arguments of the page that follows each loaded page. They are read from a page as soon as
+     * it is loaded, because the cursors are later read by the adapter on another thread.
+     */
+    private final SparseArray<Bundle> mNextPageArgs = new SparseArray<>();
+
+    /** Sorted _IDs of the items of each loaded page, to find the pages a change touches */
+    private final SparseArray<long[]> mPageIds = new SparseArray<>();
+
+    /** First page whose loader has been started, the pages above it having been dropped */
+    private int mFirstPage = 0;
+
+    /** Number of the page after the last one whose loader has been started */
+    private int mRequestedPages = 1;
+
+    /** Whether the catalog lists only the items low on stock */
+    private boolean mLowStockOnly;
+
+    /**
+     * Reloads the pages affected by each change of the items. The loaders themselves ignore
+     * the notifications, so a change to a single item doesn't requery the whole catalog.
+     */
+    private final ContentObserver mItemsObserver = new ContentObserver(new Handler()) {
+        @Override
+        public void onChange(boolean selfChange, Uri uri) {
+            long[] ids = uri == null ? null : ItemEntry.getChangedIds(uri);
+            String operation = uri == null ? null : ItemEntry.getChangeOperation(uri);
+            if (ids != null && (InventoryContract.OPERATION_UPDATE.equals(operation)
+                    || InventoryContract.OPERATION_DELETE.equals(operation)) && !mLowStockOnly) {
+                // Only the pages holding the items change, and the pages after them follow
+                refreshPagesOf(ids);
+            } else {
+                // Items were added, or moved, or aren't known, or may have just run low on
+                // stock, so any page may have changed
+                refreshAllPages();
+            }
+        }
+    };
+
+    /** Handler used to delay the search until the user stops typing */
+    private final Handler mSearchHandler = new Handler();
+
+    /** Text currently typed in the search box */
+    private String mSearchText = "";
+
+    /**
+     * Restart the loader with the current search text. Posted with a delay on every keystroke,
+     * so a word typed quickly triggers a single query.
+     */
+    private final Runnable mSearchRunnable = new Runnable() {
+        @Override
+        public void run() {
+            // Search results come in a single page
+            resetPages();
+            Bundle args = new Bundle();
+            args.putString(ARG_SEARCH_TEXT, mSearchText);
+            getLoaderManager().restartLoader(INVENTORY_LOADER, args, CatalogActivity.this);
+        }
+    };
 
     @Override
     protected void onCreate(Bundle savedInstanceState) {
         super.onCreate(savedInstanceState);
+
+        // The loaders are kept across configuration changes, and must keep the same filter
+        if (savedInstanceState != null) {
+            mLowStockOnly = savedInstanceState.getBoolean(STATE_LOW_STOCK_ONLY);
+        }
+
+        // On a cold start, open the database and read the first page in the background while
+        // the screen is laid out, and show the first rows saved by the last run meanwhile
+        Cursor snapshot = null;
+        if (savedInstanceState == null) {
+            CatalogSnapshot catalogSnapshot = CatalogSnapshot.getInstance(this);
+            catalogSnapshot.preload(ItemEntry.buildFirstPageUri(ItemEntry.CONTENT_URI, PAGE_SIZE),
+                    CATALOG_PROJECTION);
+            snapshot = catalogSnapshot.read();
+        }
+
         setContentView(R.layout.activity_catalog);
 
         // Setup FAB to open EditorActivity
@@ -44,22 +263,39 @@ public class CatalogActivity extends AppCompatActivity implements LoaderManager.
             }
         });
 
-        // Find the ListView which will be populated with the item data
-        ListView inventoryListView = (ListView) findViewById(R.id.list);
+        // Find the RecyclerView which will be populated with the item data
+        RecyclerView inventoryListView = (RecyclerView) findViewById(R.id.list);
+        final LinearLayoutManager layoutManager = new LinearLayoutManager(this);
+        inventoryListView.setLayoutManager(layoutManager);
 
-        // Find and set empty view on the ListView, so that it only shows when the list has 0 items.
-        View emptyView = findViewById(R.id.empty_view);
-        inventoryListView.setEmptyView(emptyView);
+        // Find the empty view, so that it only shows when the list has 0 items.
+        mEmptyView = findViewById(R.id.empty_view);
 
-        // Setup an Adapter to create a list item for each row of item data in the Cursor.
-        //There is no item data yet (until the loader finishes) so pass in null for the Cursor.
-        mCursorAdapter = new InventoryCursorAdapter(this, null);
-        inventoryListView.setAdapter(mCursorAdapter);
+        mStatsView = (TextView) findViewById(R.id.stats);
+
+        // Long-pressing the statistics opens the metrics of the provider, for debugging
+        mStatsView.setOnLongClickListener(new View.OnLongClickListener() {
+            @Override
+            public boolean onLongClick(View view) {
+                showMetricsDialog();
+                return true;
+            }
+        });
 
-        // Setup item click listener
-        inventoryListView.setOnItemClickListener(new AdapterView.OnItemClickListener() {
+        // Follow the CSV transfers, which may have started before a configuration change
+        mTransferProgress = (ProgressBar) findViewById(R.id.transfer_progress);
+        mTransferProgress.setMax(TRANSFER_PROGRESS_MAX);
+        CatalogTransfer catalogTransfer = CatalogTransfer.getInstance(this);
+        catalogTransfer.addListener(mTransferListener);
+        if (catalogTransfer.isRunning()) {
+            showTransferProgress(0, -1);
+        }
+
+        // Setup an Adapter to create a list item for each row of item data in the Cursor.
+        // Clicking on an item opens it in the editor.
+        mAdapter = new InventoryAdapter(this, new InventoryAdapter.OnItemClickListener() {
             @Override
-            public void onItemClick(AdapterView<?> parent, View view, int position, long id) {
+            public void onItemClick(long id) {
                 // Create new intent to go to {@link EditorActivity}
                 Intent intent = new Intent(CatalogActivity.this, EditorActivity.class);
 
@@ -75,12 +311,430 @@ public class CatalogActivity extends AppCompatActivity implements LoaderManager.
 
                 // Launch the {@link EditorActivity} to display the data for the current item
                 startActivity(intent);
+            }
+        });
+        inventoryListView.setAdapter(mAdapter);
+        if (snapshot != null) {
+            // Replaced by the first page as soon as it is loaded
+            mAdapter.setPage(0, snapshot);
+        }
+
+        // Show the empty view whenever the list runs out of items
+        mAdapter.registerAdapterDataObserver(new RecyclerView.AdapterDataObserver() {
+            @Override
+            public void onChanged() {
+                updateEmptyView();
+            }
 
+            @Override
+            public void onItemRangeInserted(int positionStart, int itemCount) {
+                updateEmptyView();
+            }
+
+            @Override
+            public void onItemRangeRemoved(int positionStart, int itemCount) {
+                updateEmptyView();
             }
         });
 
+        // Load the next page of the catalog before the user reaches the end of the list, and
+        // the page before the loaded ones before the user reaches their start. This is also
+        // called after every layout, so short pages keep loading until the screen is full.
+        inventoryListView.addOnScrollListener(new RecyclerView.OnScrollListener() {
+            @Override
+            public void onScrolled(RecyclerView recyclerView, int dx, int dy) {
+                int lastVisibleItem = layoutManager.findLastVisibleItemPosition();
+                if (lastVisibleItem >= mAdapter.getItemCount() - PAGE_PREFETCH_DISTANCE) {
+                    loadNextPage();
+                }
+                int firstVisibleItem = layoutManager.findFirstVisibleItemPosition();
+                if (firstVisibleItem != RecyclerView.NO_POSITION
+                        && firstVisibleItem < PAGE_PREFETCH_DISTANCE) {
+                    loadPreviousPage();
+                }
+            }
+        });
+
+        // Follow the changes of the items
+        getContentResolver().registerContentObserver(ItemEntry.CONTENT_URI, true, mItemsObserver);
+
         // Kick off the loader
         getLoaderManager().initLoader(INVENTORY_LOADER,null,this);
+        getLoaderManager().initLoader(STATS_LOADER, null, this);
+
+        // Roll the old stock movements into daily totals, if it hasn't been done today
+        MovementCompactor.compactIfDue(this);
+    }
+
+    /**
+     * Start loading the page that follows the last requested one, unless it is still loading,
+     * the catalog has no more items, or search results are shown. The page furthest up is
+     * dropped if there are more than {@link #MAX_LOADED_PAGES}.
+     */
+    private void loadNextPage() {
+        if (!TextUtils.isEmpty(mSearchText)) {
+            return;
+        }
+        Cursor lastPage = mPages.get(mRequestedPages - 1);
+        if (lastPage == null || lastPage.getCount() < PAGE_SIZE) {
+            return;
+        }
+
+        Bundle args = mNextPageArgs.get(mRequestedPages - 1);
+        int page = mRequestedPages++;
+        mPageArgs.put(page, args);
+        getLoaderManager().initLoader(INVENTORY_LOADER + page, args, this);
+
+        if (mRequestedPages - mFirstPage > MAX_LOADED_PAGES) {
+            dropPage(mFirstPage++);
+        }
+    }
+
+    /**
+     * Start loading the page before the first loaded one again, from where it started when it
+     * was dropped, unless the first loaded page is still loading or is the first of the
+     * catalog. The page furthest down is dropped if there are more than {@link #MAX_LOADED_PAGES}.
+     */
+    private void loadPreviousPage() {
+        if (mFirstPage == 0 || mPages.get(mFirstPage) == null) {
+            return;
+        }
+
+        int page = --mFirstPage;
+        getLoaderManager().initLoader(INVENTORY_LOADER + page, mPageArgs.get(page), this);
+
+        if (mRequestedPages - mFirstPage > MAX_LOADED_PAGES) {
+            dropPage(--mRequestedPages);
+        }
+    }
+
+    /**
+     * Stop the loader of the given page and remove its items from the list. Where the page
+     * starts is kept.
+     */
+    private void dropPage(int page) {
+        mPages.remove(page);
+        mPageIds.remove(page);
+        mNextPageArgs.remove(page);
+        getLoaderManager().destroyLoader(INVENTORY_LOADER + page);
+        mAdapter.removePage(page);
+    }
+
+    /**
+     * Return the loader arguments of the page that follows the given one.
+     */
+    private static Bundle createNextPageArgs(Cursor page) {
+        page.moveToLast();
+        Bundle args = new Bundle();
+        args.putString(ARG_AFTER_NAME, page.getString(page.getColumnIndex(ItemEntry.COLUMN_ITEM_NAME)));
+        args.putLong(ARG_AFTER_ID, page.getLong(page.getColumnIndex(ItemEntry._ID)));
+        return args;
+    }
+
+    /**
+     * Return the sorted _IDs of the items of the given page. Read as soon as the page is loaded,
+     * like the arguments of the next page.
+     */
+    private static long[] readIds(Cursor page) {
+        int idColumnIndex = page.getColumnIndex(ItemEntry._ID);
+        long[] ids = new long[page.getCount()];
+        page.moveToPosition(-1);
+        while (page.moveToNext()) {
+            ids[page.getPosition()] = page.getLong(idColumnIndex);
+        }
+        Arrays.sort(ids);
+        return ids;
+    }
+
+    /**
+     * Forget all the loaded pages after the given one and stop their loaders.
+     */
+    private void destroyPagesAfter(int page) {
+        for (int i = mRequestedPages - 1; i > page; i--) {
+            dropPage(i);
+            mPageArgs.remove(i);
+        }
+        mRequestedPages = page + 1;
+    }
+
+    /**
+     * Forget all the pages but the first one, whose loader the caller restarts to list other
+     * items, and where the dropped pages started.
+     */
+    private void resetPages() {
+        for (int page = mRequestedPages - 1; page >= mFirstPage && page > 0; page--) {
+            dropPage(page);
+        }
+        mPageArgs.clear();
+        mFirstPage = 0;
+        mRequestedPages = 1;
+    }
+
+    /**
+     * Reload the loaded pages holding any of the given items. The other pages are left alone,
+     * and only the rows that actually changed are redrawn.
+     */
+    private void refreshPagesOf(long[] ids) {
+        for (int page = mFirstPage; page < mRequestedPages; page++) {
+            long[] pageIds = mPageIds.get(page);
+            if (pageIds == null) {
+                continue;
+            }
+            for (long id : ids) {
+                if (Arrays.binarySearch(pageIds, id) >= 0) {
+                    refreshPage(page);
+                    break;
+                }
+            }
+        }
+    }
+
+    /**
+     * Reload all the loaded pages, at most {@link #MAX_LOADED_PAGES} however far the user has
+     * scrolled. The pages dropped are loaded again anyway when the user scrolls back to them.
+     */
+    private void refreshAllPages() {
+        for (int page = mFirstPage; page < mRequestedPages; page++) {
+            refreshPage(page);
+        }
+    }
+
+    private void refreshPage(int page) {
+        Loader<Cursor> loader = getLoaderManager().getLoader(INVENTORY_LOADER + page);
+        if (loader instanceof CatalogLoader) {
+            ((CatalogLoader) loader).refresh();
+        }
+    }
+
+    /**
+     * Show the empty view instead of the list if there is no item to show.
+     */
+    private void updateEmptyView() {
+        mEmptyView.setVisibility(mAdapter.getItemCount() == 0 ? View.VISIBLE : View.GONE);
+    }
+
+    /**
+     * Show the statistics of the catalog from the given cursor, or nothing if there is none.
+     */
+    private void showStats(Cursor stats) {
+        if (stats == null || !stats.moveToFirst()) {
+            mStatsView.setText(null);
+            return;
+        }
+        mStatsView.setText(getString(R.string.catalog_stats,
+                stats.getInt(stats.getColumnIndex(StatsEntry.COLUMN_ITEM_COUNT)),
+                stats.getInt(stats.getColumnIndex(StatsEntry.COLUMN_TOTAL_QUANTITY)),
+                PriceFormat.format(stats.getLong(stats.getColumnIndex(StatsEntry.COLUMN_TOTAL_VALUE))),
+                stats.getInt(stats.getColumnIndex(StatsEntry.COLUMN_LOW_STOCK_COUNT))));
+    }
+
+    /**
+     * Show the progress bar of the CSV transfers, filled to the given share of the file, or
+     * indeterminate if the size of the file isn't known.
+     */
+    private void showTransferProgress(long bytesDone, long bytesTotal) {
+        mTransferProgress.setVisibility(View.VISIBLE);
+        if (bytesTotal > 0) {
+            mTransferProgress.setIndeterminate(false);
+            mTransferProgress.setProgress((int) (Math.min(bytesDone, bytesTotal)
+                    * TRANSFER_PROGRESS_MAX / bytesTotal));
+        } else {
+            mTransferProgress.setIndeterminate(true);
+        }
+    }
+
+    /**
+     * Hide the progress bar of the CSV transfers, unless another one is still running.
+     */
+    private void hideTransferProgress() {
+        if (!CatalogTransfer.getInstance(this).isRunning()) {
+            mTransferProgress.setVisibility(View.GONE);
+        }
+    }
+
+    /**
+     * Let the user pick a CSV file, whose items are then added to the catalog.
+     */
+    private void pickImportFile() {
+        Intent intent;
+        if (Build.VERSION.SDK_INT < Build.VERSION_CODES.KITKAT) {
+            intent = new Intent(Intent.ACTION_GET_CONTENT);
+        } else {
+            intent = new Intent(Intent.ACTION_OPEN_DOCUMENT);
+        }
+        intent.addCategory(Intent.CATEGORY_OPENABLE);
+        // Many file managers don't know the CSV type, and call the files plain text
+        intent.setType("text/*");
+        startActivityForResult(intent, IMPORT_REQUEST_CODE);
+    }
+
+    /**
+     * Let the user create the file the catalog is then exported to. Only available from
+     * KitKat, which introduced the document picker.
+     */
+    private void pickExportFile() {
+        Intent intent = new Intent(Intent.ACTION_CREATE_DOCUMENT);
+        intent.addCategory(Intent.CATEGORY_OPENABLE);
+        intent.setType(ItemEntry.CONTENT_CSV_TYPE);
+        intent.putExtra(Intent.EXTRA_TITLE, getString(R.string.export_file_name));
+        startActivityForResult(intent, EXPORT_REQUEST_CODE);
+    }
+
+    /**
+     * Let the user create the file the items and images are then backed up to. Only available
+     * from KitKat, like the export.
+     */
+    private void pickBackupFile() {
+        Intent intent = new Intent(Intent.ACTION_CREATE_DOCUMENT);
+        intent.addCategory(Intent.CATEGORY_OPENABLE);
+        intent.setType(BACKUP_MIME_TYPE);
+        intent.putExtra(Intent.EXTRA_TITLE, getString(R.string.backup_file_name));
+        startActivityForResult(intent, BACKUP_REQUEST_CODE);
+    }
+
+    /**
+     * Let the user pick a backup, which then replaces the items and images once confirmed.
+     */
+    private void pickRestoreFile() {
+        Intent intent;
+        if (Build.VERSION.SDK_INT < Build.VERSION_CODES.KITKAT) {
+            intent = new Intent(Intent.ACTION_GET_CONTENT);
+        } else {
+            intent = new Intent(Intent.ACTION_OPEN_DOCUMENT);
+        }
+        intent.addCategory(Intent.CATEGORY_OPENABLE);
+        intent.setType(BACKUP_MIME_TYPE);
+        startActivityForResult(intent, RESTORE_REQUEST_CODE);
+    }
+
+    /**
+     * Ask the user to confirm that the given backup should replace all the items.
+     */
+    private void showRestoreConfirmationDialog(final Uri backup) {
+        AlertDialog.Builder builder = new AlertDialog.Builder(this);
+        builder.setMessage(R.string.restore_dialog_msg);
+        builder.setPositiveButton(R.string.restore, new DialogInterface.OnClickListener() {
+            public void onClick(DialogInterface dialog, int id) {
+                // User clicked the "Restore" button, so replace the inventory
+                showTransferProgress(0, -1);
+                CatalogTransfer.getInstance(CatalogActivity.this).restore(backup);
+            }
+        });
+        builder.setNegativeButton(R.string.cancel, new DialogInterface.OnClickListener() {
+            public void onClick(DialogInterface dialog, int id) {
+                // User clicked the "Cancel" button, so dismiss the dialog
+                if (dialog != null) {
+                    dialog.dismiss();
+                }
+            }
+        });
+
+        // Create and show the AlertDialog
+        AlertDialog alertDialog = builder.create();
+        alertDialog.show();
+    }
+
+    /**
+     * Show the calls, rows and latencies of the provider since they were last reset, with a
+     * button to reset them.
+     */
+    private void showMetricsDialog() {
+        Bundle metrics = getContentResolver().call(ItemEntry.CONTENT_URI,
+                InventoryContract.METHOD_METRICS, null, null);
+        if (metrics == null) {
+            return;
+        }
+
+        AlertDialog.Builder builder = new AlertDialog.Builder(this);
+        builder.setTitle(R.string.metrics_dialog_title);
+        builder.setMessage(formatMetrics(metrics));
+        builder.setPositiveButton(R.string.reset_metrics, new DialogInterface.OnClickListener() {
+            public void onClick(DialogInterface dialog, int id) {
+                // User clicked the "Reset" button, so start the metrics again from zero
+                getContentResolver().call(ItemEntry.CONTENT_URI,
+                        InventoryContract.METHOD_RESET_METRICS, null, null);
+            }
+        });
+        builder.setNegativeButton(R.string.close, new DialogInterface.OnClickListener() {
+            public void onClick(DialogInterface dialog, int id) {
+                // User clicked the "Close" button, so dismiss the dialog
+                if (dialog != null) {
+                    dialog.dismiss();
+                }
+            }
+        });
+
+        // Create and show the AlertDialog
+        AlertDialog alertDialog = builder.create();
+        alertDialog.show();
+    }
+
+    /**
+     * Return the given metrics of the provider as text, one operation and URI per line.
+     */
+    private String formatMetrics(Bundle metrics) {
+        long[] bounds = metrics.getLongArray(InventoryContract.EXTRA_LATENCY_BUCKET_BOUNDS);
+        StringBuilder text = new StringBuilder(getString(R.string.metrics_cache,
+                metrics.getLong(InventoryContract.EXTRA_CACHE_HITS),
+                metrics.getLong(InventoryContract.EXTRA_CACHE_MISSES)));
+
+        // Every other value of the bundle is the metrics of one operation and URI
+        String[] names = metrics.keySet().toArray(new String[0]);
+        Arrays.sort(names);
+        for (String name : names) {
+            Bundle values = metrics.getBundle(name);
+            if (values == null) {
+                continue;
+            }
+            long calls = values.getLong(InventoryContract.METRIC_CALLS);
+            long[] histogram = values.getLongArray(InventoryContract.METRIC_LATENCY_HISTOGRAM);
+            text.append("\n\n").append(getString(R.string.metrics_operation, name, calls,
+                    values.getLong(InventoryContract.METRIC_ERRORS),
+                    values.getLong(InventoryContract.METRIC_ROWS),
+                    values.getLong(InventoryContract.METRIC_TOTAL_TIME) / calls,
+                    percentile(histogram, bounds, calls, 50),
+                    percentile(histogram, bounds, calls, 95),
+                    percentile(histogram, bounds, calls, 99),
+                    values.getLong(InventoryContract.METRIC_MAX_TIME)));
+        }
+        return text.toString();
+    }
+
+    /**
+     * Return the upper bound of the latency bucket holding the given percentile of the calls,
+     * or "> " the last bound if it is in the last bucket.
+     */
+    private static String percentile(long[] histogram, long[] bounds, long calls, int percent) {
+        long rank = (calls * percent + 99) / 100;
+        long seen = 0;
+        for (int bucket = 0; bucket < bounds.length; bucket++) {
+            seen += histogram[bucket];
+            if (seen >= rank) {
+                return String.valueOf(bounds[bucket]);
+            }
+        }
+        return "> " + bounds[bounds.length - 1];
+    }
+
+    @Override
+    public void onActivityResult(int requestCode, int resultCode, Intent data) {
+        super.onActivityResult(requestCode, resultCode, data);
+        if (resultCode != Activity.RESULT_OK || data == null || data.getData() == null) {
+            return;
+        }
+
+        if (requestCode == IMPORT_REQUEST_CODE) {
+            showTransferProgress(0, -1);
+            CatalogTransfer.getInstance(this).importItems(data.getData());
+        } else if (requestCode == EXPORT_REQUEST_CODE) {
+            showTransferProgress(0, -1);
+            CatalogTransfer.getInstance(this).exportItems(data.getData());
+        } else if (requestCode == BACKUP_REQUEST_CODE) {
+            showTransferProgress(0, -1);
+            CatalogTransfer.getInstance(this).backup(data.getData());
+        } else if (requestCode == RESTORE_REQUEST_CODE) {
+            showRestoreConfirmationDialog(data.getData());
+        }
     }
 
     /**
@@ -94,22 +748,37 @@ public class CatalogActivity extends AppCompatActivity implements LoaderManager.
         ContentValues values = new ContentValues();
         values.put(ItemEntry.COLUMN_ITEM_NAME, "Strawberry Cake");
         values.put(ItemEntry.COLUMN_ITEM_QUANTITY, "10");
-        values.put(ItemEntry.COLUMN_ITEM_PRICE, 16.25);
+        values.put(ItemEntry.COLUMN_ITEM_PRICE, 1625);
         values.put(ItemEntry.COLUMN_ITEM_IMAGE, uri.toString());
 
         // Insert a new row for Strawberry cake into the provider using the ContentResolver.
         // Use the {@link ItemEntry#CONTENT_URI} to indicate that we want to insert
         // into the items database table.
-        // Receive the new content URI that will allow us to access Toto's data in the future.
-        Uri newUri = getContentResolver().insert(ItemEntry.CONTENT_URI, values);
+        // The insert is done in the background, and the catalog picks the new row up when
+        // the provider notifies it.
+        InventoryWriter.getInstance(this).insert(ItemEntry.CONTENT_URI, values, null);
     }
 
     /**
      * Helper method to delete all items in the database.
      */
     private void deleteAllItems(){
-        int rowsDeleted = getContentResolver().delete(ItemEntry.CONTENT_URI, null, null);
-        Log.v("CatalogActivity", rowsDeleted + " rows deleted from item database");
+        final ImageIngester imageIngester = ImageIngester.getInstance(this);
+        InventoryWriter.getInstance(this).delete(ItemEntry.CONTENT_URI, null, null,
+                new InventoryWriter.Callback<Integer>() {
+                    @Override
+                    public void onComplete(Integer rowsDeleted) {
+                        Log.v("CatalogActivity", rowsDeleted + " rows deleted from item database");
+                        // The stored images are only dropped once no item points at them
+                        imageIngester.deleteAll();
+                    }
+
+                    @Override
+                    public void onError(RuntimeException e) {
+                        Toast.makeText(CatalogActivity.this, R.string.editor_delete_item_failed,
+                                Toast.LENGTH_SHORT).show();
+                    }
+                });
     }
 
     @Override
@@ -117,13 +786,89 @@ public class CatalogActivity extends AppCompatActivity implements LoaderManager.
         // Inflate the menu options from the res/menu/menu_catalog.xml file.
         // This adds menu items to the app bar.
         getMenuInflater().inflate(R.menu.menu_catalog, menu);
+        menu.findItem(R.id.action_low_stock_only).setChecked(mLowStockOnly);
+        boolean canCreateDocuments = Build.VERSION.SDK_INT >= Build.VERSION_CODES.KITKAT;
+        menu.findItem(R.id.action_export_csv).setVisible(canCreateDocuments);
+        menu.findItem(R.id.action_backup).setVisible(canCreateDocuments);
+
+        // Search the catalog as the user types
+        SearchView searchView = (SearchView) menu.findItem(R.id.action_search).getActionView();
+        searchView.setQueryHint(getString(R.string.search_hint));
+        searchView.setOnQueryTextListener(new SearchView.OnQueryTextListener() {
+            @Override
+            public boolean onQueryTextSubmit(String query) {
+                search(query, 0);
+                return true;
+            }
+
+            @Override
+            public boolean onQueryTextChange(String newText) {
+                search(newText, SEARCH_DEBOUNCE_DELAY);
+                return true;
+            }
+        });
         return true;
     }
 
+    /**
+     * Show the items matching the given text after the given delay, replacing any search that
+     * is still waiting. An empty text shows the whole catalog again.
+     */
+    private void search(String text, long delayMillis) {
+        String trimmed = text.trim();
+        if (trimmed.equals(mSearchText)) {
+            return;
+        }
+        mSearchText = trimmed;
+        mSearchHandler.removeCallbacks(mSearchRunnable);
+        mSearchHandler.postDelayed(mSearchRunnable, delayMillis);
+    }
+
+    /**
+     * List only the items low on stock, or the whole catalog again. Search results aren't
+     * filtered, and the catalog they replace follows the filter once the search is cleared.
+     */
+    private void setLowStockOnly(boolean lowStockOnly) {
+        if (lowStockOnly == mLowStockOnly) {
+            return;
+        }
+        mLowStockOnly = lowStockOnly;
+        if (TextUtils.isEmpty(mSearchText)) {
+            resetPages();
+            getLoaderManager().restartLoader(INVENTORY_LOADER, null, this);
+        }
+    }
+
+    @Override
+    protected void onSaveInstanceState(Bundle outState) {
+        super.onSaveInstanceState(outState);
+        outState.putBoolean(STATE_LOW_STOCK_ONLY, mLowStockOnly);
+    }
+
+    @Override
+    protected void onPause() {
+        super.onPause();
+        // Don't hold sales back while the app may be in the background
+        StockAdjustmentBuffer.getInstance(this).flush();
+    }
+
+    @Override
+    protected void onDestroy() {
+        super.onDestroy();
+        mSearchHandler.removeCallbacks(mSearchRunnable);
+        getContentResolver().unregisterContentObserver(mItemsObserver);
+        CatalogTransfer.getInstance(this).removeListener(mTransferListener);
+    }
+
     @Override
     public boolean onOptionsItemSelected(MenuItem item) {
         // User clicked on a menu option in the app bar overflow menu
         switch (item.getItemId()) {
+            // Respond to a click on the "Low stock only" menu option
+            case R.id.action_low_stock_only:
+                item.setChecked(!item.isChecked());
+                setLowStockOnly(item.isChecked());
+                return true;
             // Respond to a click on the "Insert dummy data" menu option
             case R.id.action_insert_dummy_data:
                 insertItem();
@@ -132,38 +877,148 @@ public class CatalogActivity extends AppCompatActivity implements LoaderManager.
             case R.id.action_delete_all_entries:
                 deleteAllItems();
                 return true;
+            // Respond to a click on the "Optimize images" menu option
+            case R.id.action_optimize_images:
+                // Copy the images of the items saved before images were stored privately
+                ImageIngester.getInstance(this).backfill();
+                return true;
+            // Respond to a click on the "Import CSV" menu option
+            case R.id.action_import_csv:
+                pickImportFile();
+                return true;
+            // Respond to a click on the "Export CSV" menu option
+            case R.id.action_export_csv:
+                pickExportFile();
+                return true;
+            // Respond to a click on the "Back up" menu option
+            case R.id.action_backup:
+                pickBackupFile();
+                return true;
+            // Respond to a click on the "Restore" menu option
+            case R.id.action_restore:
+                pickRestoreFile();
+                return true;
         }
         return super.onOptionsItemSelected(item);
     }
 
     @Override
     public Loader<Cursor> onCreateLoader(int id, Bundle args) {
-        // Defines a projection that specifies the columns from the table we care about
-        String[] projection = {
-                ItemEntry._ID,
-                ItemEntry.COLUMN_ITEM_NAME,
-                ItemEntry.COLUMN_ITEM_QUANTITY,
-                ItemEntry.COLUMN_ITEM_PRICE};
+        // The statistics are a single row kept up to date by the database, so they are
+        // simply reloaded on every change of the items
+        if (id == STATS_LOADER) {
+            return new CursorLoader(this, StatsEntry.CONTENT_URI, null, null, null, null);
+        }
+
+        // If there is something to search for, let the provider rank the matching items
+        String searchText = args == null ? null : args.getString(ARG_SEARCH_TEXT);
+        if (!TextUtils.isEmpty(searchText)) {
+            return new CatalogLoader(this,
+                    ItemEntry.buildSearchUri(searchText),
+                    CATALOG_PROJECTION,
+                    null,
+                    null,
+                    null);
+        }
+
+        // The first page starts at the first item, the others after the last item of the
+        // page before them
+        Uri listUri = mLowStockOnly ? ItemEntry.LOW_STOCK_URI : ItemEntry.CONTENT_URI;
+        Uri pageUri;
+        if (args != null && args.containsKey(ARG_AFTER_NAME)) {
+            pageUri = ItemEntry.buildNextPageUri(listUri, args.getString(ARG_AFTER_NAME),
+                    args.getLong(ARG_AFTER_ID), PAGE_SIZE);
+        } else {
+            pageUri = ItemEntry.buildFirstPageUri(listUri, PAGE_SIZE);
+        }
 
         // This loader will execute the ContentProvider's query method on a background thread
-        return new CursorLoader(this,    // Parent activity context
-                ItemEntry.CONTENT_URI,           // Provider content URI to query
-                projection,                     // Columns to include in the resulting Cursor
+        return new CatalogLoader(this,    // Parent activity context
+                pageUri,                        // Provider content URI to query
+                CATALOG_PROJECTION,             // Columns to include in the resulting Cursor
                 null,                   // No selection clause
                 null,                // No selection arguments
-                null);                 // Default sort order
+                null);                 // Pages are always sorted by name
     }
 
     @Override
     public void onLoadFinished(Loader<Cursor> loader, Cursor data) {
-        // Update (@link PetCursorAdapter) with this new cursor containing updated item data
-        mCursorAdapter.swapCursor(data);
+        if (loader.getId() == STATS_LOADER) {
+            showStats(data);
+            return;
+        }
+
+        int page = loader.getId() - INVENTORY_LOADER;
+        // The first rows of the whole catalog are shown on the next cold start, until it loads
+        if (page == 0 && ItemEntry.buildFirstPageUri(ItemEntry.CONTENT_URI, PAGE_SIZE)
+                .equals(((CursorLoader) loader).getUri())) {
+            CatalogSnapshot.getInstance(this).save(data);
+        }
+        mPages.put(page, data);
+        mPageIds.put(page, readIds(data));
+        if (data.getCount() > 0) {
+            mNextPageArgs.put(page, createNextPageArgs(data));
+        } else {
+            mNextPageArgs.remove(page);
+        }
+
+        // If this page changed, the pages after it may no longer start where it ends
+        if (page + 1 < mRequestedPages) {
+            if (data.getCount() < PAGE_SIZE) {
+                // This page now holds the end of the catalog
+                destroyPagesAfter(page);
+            } else {
+                Bundle nextArgs = mNextPageArgs.get(page);
+                Bundle currentArgs = mPageArgs.get(page + 1);
+                if (!nextArgs.getString(ARG_AFTER_NAME).equals(currentArgs.getString(ARG_AFTER_NAME))
+                        || nextArgs.getLong(ARG_AFTER_ID) != currentArgs.getLong(ARG_AFTER_ID)) {
+                    mPages.remove(page + 1);
+                    mPageArgs.put(page + 1, nextArgs);
+                    getLoaderManager().restartLoader(INVENTORY_LOADER + page + 1, nextArgs, this);
+                }
+            }
+        }
+
+        // Update {@link InventoryAdapter} with this new cursor containing updated item data.
+        // Only the rows of this page are read and compared.
+        mAdapter.setPage(page, data);
     }
 
     @Override
     public void onLoaderReset(Loader<Cursor> loader) {
         // Callback called when the data need to be deleted
-        mCursorAdapter.swapCursor(null);
+        if (loader.getId() == STATS_LOADER) {
+            showStats(null);
+            return;
+        }
+        int page = loader.getId() - INVENTORY_LOADER;
+        mPages.remove(page);
+        mPageIds.remove(page);
+        mNextPageArgs.remove(page);
+        mAdapter.removePage(page);
+    }
 
+    /**
+     * {@link CursorLoader} that doesn't requery when its cursor is notified of a change. The
+     * catalog decides which pages a change affects, and calls {@link #refresh} on them.
+     */
+    private static class CatalogLoader extends CursorLoader {
+
+        CatalogLoader(Context context, Uri uri, String[] projection, String selection,
+                      String[] selectionArgs, String sortOrder) {
+            super(context, uri, projection, selection, selectionArgs, sortOrder);
+        }
+
+        @Override
+        public void onContentChanged() {
+            // Ignored, the catalog's observer decides whether this page has changed
+        }
+
+        /**
+         * Reload the page, or mark it to be reloaded when the catalog is started again.
+         */
+        void refresh() {
+            super.onContentChanged();
+        }
     }
-}
\ No newline at end of file
+}
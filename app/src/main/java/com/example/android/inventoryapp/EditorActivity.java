@@ -3,7 +3,9 @@ package com.example.android.inventoryapp;
 import android.app.Activity;
 import android.app.AlertDialog;
 import android.app.LoaderManager;
+import android.content.ContentUris;
 import android.content.ContentValues;
+import android.content.Context;
 import android.content.CursorLoader;
 import android.content.DialogInterface;
 import android.content.Intent;
@@ -14,7 +16,9 @@ import android.os.Build;
 import android.os.Bundle;
 import android.support.v4.app.NavUtils;
 import android.support.v7.app.AppCompatActivity;
+import android.text.Editable;
 import android.text.TextUtils;
+import android.text.TextWatcher;
 import android.view.Menu;
 import android.view.MenuItem;
 import android.view.MotionEvent;
@@ -24,6 +28,12 @@ import android.widget.ImageView;
 import android.widget.Toast;
 
 import com.example.android.inventoryapp.data.InventoryContract.ItemEntry;
+import com.example.android.inventoryapp.data.InventoryContract.MovementEntry;
+import com.example.android.inventoryapp.data.InventoryWriter;
+import com.example.android.inventoryapp.data.PriceFormat;
+import com.example.android.inventoryapp.data.StockAdjustmentBuffer;
+import com.example.android.inventoryapp.image.ImageIngester;
+import com.example.android.inventoryapp.image.ImageLoader;
 
 /**
  * Allows user to create a new item or edit an existing one.
@@ -48,14 +58,67 @@ public class EditorActivity extends AppCompatActivity implements
     /** EditText field to enter the item's price */
     private EditText mPriceEditText;
 
+    /** EditText field to enter the quantity at which the item should be reordered */
+    private EditText mReorderThresholdEditText;
+
     /** EditText field to enter the item's price */
     private ImageView mImageEditText;
 
     /** Boolean flag that keeps track of whether the item has been edited (true) or not (false) */
     private boolean mItemHasChanged = false;
 
+    /**
+     * Boolean flag that keeps track of whether the fields have been filled from the database.
+     * Later loads only refresh the quantity, so stock changes don't wipe out unsaved edits.
+     */
+    private boolean mItemLoaded = false;
+
+    /** Quantity of the existing item in the database, without the changes not written yet */
+    private int mStoredQuantity;
+
+    /**
+     * Boolean flag that keeps track of whether the user has set the quantity of the existing
+     * item, by typing it or with the sold out button. The quantity field then keeps what the
+     * user set, which is saved as the new stock. Until then the field follows the stock in the
+     * database, and saving leaves the stock alone, so a sale made meanwhile isn't overwritten.
+     */
+    private boolean mQuantityEdited = false;
+
+    /** Boolean flag that is true while the editor itself fills the quantity field */
+    private boolean mShowingQuantity = false;
+
+    /** Buffer holding the stock changes made with the quantity buttons until they are written */
+    private StockAdjustmentBuffer mStockAdjustmentBuffer;
+
+    /** Updates the quantity field as the stock changes of the existing item are written */
+    private final StockAdjustmentBuffer.Listener mStockAdjustmentListener = new StockAdjustmentBuffer.Listener() {
+        @Override
+        public void onPendingDeltaChanged(long id) {
+            if (mItemLoaded && id == ContentUris.parseId(mCurrentItemUri)) {
+                showStoredQuantity();
+            }
+        }
+
+        @Override
+        public void onAdjustmentApplied(long id, int delta, int newQuantity) {
+            if (mItemLoaded && id == ContentUris.parseId(mCurrentItemUri)) {
+                mStoredQuantity = newQuantity;
+            }
+        }
+
+        @Override
+        public void onAdjustmentRefused(long id, int delta) {
+            if (mCurrentItemUri != null && id == ContentUris.parseId(mCurrentItemUri)) {
+                Toast.makeText(EditorActivity.this, getString(R.string.no_inventory), Toast.LENGTH_SHORT).show();
+            }
+        }
+    };
+
     //Stores the URI of Image chosen
     private Uri mChosenImage;
+
+    //Stores the URI of the image saved in the database, to delete its private copy when replaced
+    private Uri mStoredImage;
     private static final int IMAGE_REQUEST_CODE = 1089;
 
     /**
@@ -102,7 +165,9 @@ public class EditorActivity extends AppCompatActivity implements
         mNameEditText = (EditText) findViewById(R.id.edit_item_name);
         mQuantityEditText = (EditText) findViewById(R.id.edit_item_quantity);
         mPriceEditText = (EditText) findViewById(R.id.edit_item_price);
+        mReorderThresholdEditText = (EditText) findViewById(R.id.edit_item_reorder_threshold);
         mImageEditText = (ImageView) findViewById(R.id.edit_item_image);
+        mStockAdjustmentBuffer = StockAdjustmentBuffer.getInstance(this);
 
         // Setup OnTouchListeners on all the input fields, so we can determine if the user
         // has touched or modified them. This will let us know if there are unsaved changes
@@ -110,8 +175,27 @@ public class EditorActivity extends AppCompatActivity implements
         mNameEditText.setOnTouchListener(mTouchListener);
         mQuantityEditText.setOnTouchListener(mTouchListener);
         mPriceEditText.setOnTouchListener(mTouchListener);
+        mReorderThresholdEditText.setOnTouchListener(mTouchListener);
         mImageEditText.setOnTouchListener(mTouchListener);
 
+        // Any change of the quantity field the editor didn't make itself comes from the user
+        mQuantityEditText.addTextChangedListener(new TextWatcher() {
+            @Override
+            public void beforeTextChanged(CharSequence s, int start, int count, int after) {
+            }
+
+            @Override
+            public void onTextChanged(CharSequence s, int start, int before, int count) {
+            }
+
+            @Override
+            public void afterTextChanged(Editable s) {
+                if (!mShowingQuantity) {
+                    mQuantityEdited = true;
+                }
+            }
+        });
+
         //Image picker intent - by Ankurg22 code
         mImageEditText.setOnClickListener(new View.OnClickListener() {
             @Override
@@ -129,19 +213,22 @@ public class EditorActivity extends AppCompatActivity implements
         });
     }
 
+    @Override
+    protected void onResume() {
+        super.onResume();
+        mStockAdjustmentBuffer.addListener(mStockAdjustmentListener);
+    }
+
+    @Override
+    protected void onPause() {
+        super.onPause();
+        // Don't hold stock changes back while the app may be in the background
+        mStockAdjustmentBuffer.flush();
+        mStockAdjustmentBuffer.removeListener(mStockAdjustmentListener);
+    }
+
     public void oneSold(View view){
-        // Read from input fields
-        // Use trim to eliminate leading or trailing white space
-        String quantityString = mQuantityEditText.getText().toString().trim();
-        int quantity = Integer.parseInt(quantityString);
-        if (quantity == 0) {
-            //Show error message
-            Toast.makeText(this, getString(R.string.no_inventory), Toast.LENGTH_SHORT).show();
-            // Exist the method not to update the quantity
-            return;
-        }
-        quantity = quantity - 1;
-        mQuantityEditText.setText(Integer.toString(quantity));
+        adjustQuantity(-1, MovementEntry.REASON_SALE);
     }
 
     public void soldOut(View view){
@@ -149,21 +236,64 @@ public class EditorActivity extends AppCompatActivity implements
     }
 
     public void add(View view){
-        // Read from input fields
-        // Use trim to eliminate leading or trailing white space
-        String quantityString = mQuantityEditText.getText().toString().trim();
-        int quantity = Integer.parseInt(quantityString);
-        quantity = quantity + 1;
-        mQuantityEditText.setText(Integer.toString(quantity));
+        adjustQuantity(1, MovementEntry.REASON_RESTOCK);
     }
 
     public void addTen(View view){
+        adjustQuantity(10, MovementEntry.REASON_RESTOCK);
+    }
+
+    /**
+     * Change the quantity by delta units for the given reason, which the history of the item
+     * records. For an existing item the change is handed to the {@link StockAdjustmentBuffer},
+     * which writes the changes of quick taps together with a single conditional statement per
+     * reason, so they can't be lost to a concurrent sale. The quantity
+     * field shows the expected stock straight away. For a new item, or once the user has set
+     * the quantity of the existing item, only the field is changed.
+     */
+    private void adjustQuantity(int delta, String reason) {
+        if (mCurrentItemUri != null && !mQuantityEdited) {
+            if (!mItemLoaded) {
+                // The stock isn't known yet
+                return;
+            }
+            long id = ContentUris.parseId(mCurrentItemUri);
+            if (mStoredQuantity + mStockAdjustmentBuffer.getPendingDelta(id) + delta < 0) {
+                //Show error message
+                Toast.makeText(this, getString(R.string.no_inventory), Toast.LENGTH_SHORT).show();
+                return;
+            }
+            mStockAdjustmentBuffer.adjust(id, delta, reason);
+            return;
+        }
+
         // Read from input fields
         // Use trim to eliminate leading or trailing white space
         String quantityString = mQuantityEditText.getText().toString().trim();
-        int quantity = Integer.parseInt(quantityString);
-        quantity = quantity + 10;
+        int quantity = TextUtils.isEmpty(quantityString) ? 0 : Integer.parseInt(quantityString);
+        if (quantity + delta < 0) {
+            //Show error message
+            Toast.makeText(this, getString(R.string.no_inventory), Toast.LENGTH_SHORT).show();
+            // Exist the method not to update the quantity
+            return;
+        }
+        quantity = quantity + delta;
+        mQuantityEditText.setText(Integer.toString(quantity));
+    }
+
+    /**
+     * Show the stock of the existing item, including the changes that aren't written yet,
+     * unless the user has set the quantity.
+     */
+    private void showStoredQuantity() {
+        if (mQuantityEdited) {
+            return;
+        }
+        long id = ContentUris.parseId(mCurrentItemUri);
+        int quantity = mStoredQuantity + mStockAdjustmentBuffer.getPendingDelta(id);
+        mShowingQuantity = true;
         mQuantityEditText.setText(Integer.toString(quantity));
+        mShowingQuantity = false;
     }
 
     public void order (View view) {
@@ -199,8 +329,8 @@ public class EditorActivity extends AppCompatActivity implements
             }
             //Store the URI of picked image
             mChosenImage = data.getData();
-            //Set it on the ImageView
-            mImageEditText.setImageURI(mChosenImage);
+            //Set it on the ImageView, decoded in the background at the size of the view
+            ImageLoader.getInstance(this).load(mChosenImage, mImageEditText);
             //Change scaleType from centerInside to centerCrop
             mImageEditText.setScaleType(ImageView.ScaleType.CENTER_CROP);
         }
@@ -215,6 +345,7 @@ public class EditorActivity extends AppCompatActivity implements
         String nameString = mNameEditText.getText().toString().trim();
         String quantityString = mQuantityEditText.getText().toString().trim();
         String priceString = mPriceEditText.getText().toString().trim();
+        String reorderThresholdString = mReorderThresholdEditText.getText().toString().trim();
         String imageString = null;
         if (mCurrentItemUri == null) {
             if (mChosenImage != null) imageString = mChosenImage.toString();
@@ -244,13 +375,31 @@ public class EditorActivity extends AppCompatActivity implements
             Toast.makeText(this, "You need to enter a price", Toast.LENGTH_SHORT).show();
             return;
         }
-        values.put(ItemEntry.COLUMN_ITEM_PRICE, priceString);
-
-        if (TextUtils.isEmpty(quantityString)) {
-            Toast.makeText(this, "You need to enter a quantity", Toast.LENGTH_SHORT).show();
+        // The price is stored in cents
+        long priceCents;
+        try {
+            priceCents = PriceFormat.parse(priceString);
+        } catch (NumberFormatException e) {
+            Toast.makeText(this, "You need to enter a valid price", Toast.LENGTH_SHORT).show();
             return;
         }
-        values.put(ItemEntry.COLUMN_ITEM_QUANTITY, quantityString);
+        values.put(ItemEntry.COLUMN_ITEM_PRICE, priceCents);
+
+        // The stock of an existing item is only replaced if the user set it. Otherwise the
+        // field shows stock that may be out of date by now, and the buttons' changes are
+        // written by the buffer as changes relative to the stock
+        if (mCurrentItemUri == null || mQuantityEdited) {
+            if (TextUtils.isEmpty(quantityString)) {
+                Toast.makeText(this, "You need to enter a quantity", Toast.LENGTH_SHORT).show();
+                return;
+            }
+            values.put(ItemEntry.COLUMN_ITEM_QUANTITY, quantityString);
+        }
+
+        // The reorder threshold is optional, and the database picks a default for new items
+        if (!TextUtils.isEmpty(reorderThresholdString)) {
+            values.put(ItemEntry.COLUMN_ITEM_REORDER_THRESHOLD, reorderThresholdString);
+        }
 
         if (TextUtils.isEmpty(imageString)) {
             Toast.makeText(this, "You need to enter an image", Toast.LENGTH_SHORT).show();
@@ -258,40 +407,79 @@ public class EditorActivity extends AppCompatActivity implements
         }
         values.put(ItemEntry.COLUMN_ITEM_IMAGE, imageString);
 
+        // Write the stock changes held back first: the writer applies them in order, so a
+        // quantity set by the user then replaces them
+        mStockAdjustmentBuffer.flush();
+
+        // The change is written in the background, so the editor can close straight away.
+        // The application context outlives this activity and is used for the results.
+        final Context appContext = getApplicationContext();
+        final ImageIngester imageIngester = ImageIngester.getInstance(appContext);
+        final Uri image = Uri.parse(imageString);
+
         // Determine if this is a new or existing item by checking if mCurrentItemUri is null or not
         if (mCurrentItemUri == null) {
             // This is a NEW item, so insert a new item into the provider,
             // returning the content URI for the new item.
-            Uri newUri = getContentResolver().insert(ItemEntry.CONTENT_URI, values);
-
-            // Show a toast message depending on whether or not the insertion was successful.
-            if (newUri == null) {
-                // If the new content URI is null, then there was an error with insertion.
-                Toast.makeText(this, getString(R.string.editor_insert_item_failed),
-                        Toast.LENGTH_SHORT).show();
-            } else {
-                // Otherwise, the insertion was successful and we can display a toast.
-                Toast.makeText(this, getString(R.string.editor_insert_item_successful),
-                        Toast.LENGTH_SHORT).show();
-            }
+            InventoryWriter.getInstance(appContext).insert(ItemEntry.CONTENT_URI, values,
+                    new InventoryWriter.Callback<Uri>() {
+                        @Override
+                        public void onComplete(Uri newUri) {
+                            // Show a toast message depending on whether or not the insertion was successful.
+                            if (newUri == null) {
+                                // If the new content URI is null, then there was an error with insertion.
+                                onError(null);
+                                return;
+                            }
+                            // Otherwise, the insertion was successful and we can display a toast.
+                            Toast.makeText(appContext, R.string.editor_insert_item_successful,
+                                    Toast.LENGTH_SHORT).show();
+
+                            // Copy the picked image into private storage in the background
+                            imageIngester.ingest(newUri, image);
+                        }
+
+                        @Override
+                        public void onError(RuntimeException e) {
+                            Toast.makeText(appContext, R.string.editor_insert_item_failed,
+                                    Toast.LENGTH_SHORT).show();
+                        }
+                    });
         } else {
             // Otherwise this is an EXISTING item, so update the item with content URI: mCurrentItemUri
             // and pass in the new ContentValues. Pass in null for the selection and selection args
             // because mCurrentItemUri will already identify the correct row in the database that
             // we want to modify.
-            int rowsAffected = getContentResolver().update(mCurrentItemUri, values, null, null);
-
-            // Show a toast message depending on whether or not the update was successful.
-            if (rowsAffected == 0) {
-                // If no rows were affected, then there was an error with the update.
-                Toast.makeText(this, getString(R.string.editor_update_item_failed),
-                        Toast.LENGTH_SHORT).show();
-            } else {
-
-                // Otherwise, the update was successful and we can display a toast.
-                Toast.makeText(this, getString(R.string.editor_update_item_successful),
-                        Toast.LENGTH_SHORT).show();
-            }
+            final Uri itemUri = mCurrentItemUri;
+            final Uri replacedImage = mStoredImage;
+            InventoryWriter.getInstance(appContext).update(itemUri, values, null, null,
+                    new InventoryWriter.Callback<Integer>() {
+                        @Override
+                        public void onComplete(Integer rowsAffected) {
+                            // Show a toast message depending on whether or not the update was successful.
+                            if (rowsAffected == 0) {
+                                // If no rows were affected, then there was an error with the update.
+                                onError(null);
+                                return;
+                            }
+                            // Otherwise, the update was successful and we can display a toast.
+                            Toast.makeText(appContext, R.string.editor_update_item_successful,
+                                    Toast.LENGTH_SHORT).show();
+
+                            // Copy a newly picked image into private storage in the background,
+                            // and drop the copy of the image it replaced
+                            imageIngester.ingest(itemUri, image);
+                            if (replacedImage != null && !replacedImage.equals(image)) {
+                                imageIngester.delete(replacedImage);
+                            }
+                        }
+
+                        @Override
+                        public void onError(RuntimeException e) {
+                            Toast.makeText(appContext, R.string.editor_update_item_failed,
+                                    Toast.LENGTH_SHORT).show();
+                        }
+                    });
         }
         // Exit activity
         finish();
@@ -399,7 +587,8 @@ public class EditorActivity extends AppCompatActivity implements
                 ItemEntry.COLUMN_ITEM_NAME,
                 ItemEntry.COLUMN_ITEM_QUANTITY,
                 ItemEntry.COLUMN_ITEM_PRICE,
-                ItemEntry.COLUMN_ITEM_IMAGE};
+                ItemEntry.COLUMN_ITEM_IMAGE,
+                ItemEntry.COLUMN_ITEM_REORDER_THRESHOLD};
 
         // This loader will execute the ContentProvider's query method on a background thread
         return new CursorLoader(this,   // Parent activity context
@@ -425,20 +614,32 @@ public class EditorActivity extends AppCompatActivity implements
             int quantityColumnIndex = cursor.getColumnIndex(ItemEntry.COLUMN_ITEM_QUANTITY);
             int priceColumnIndex = cursor.getColumnIndex(ItemEntry.COLUMN_ITEM_PRICE);
             int imageColumnIndex = cursor.getColumnIndex(ItemEntry.COLUMN_ITEM_IMAGE);
+            int reorderThresholdColumnIndex = cursor.getColumnIndex(ItemEntry.COLUMN_ITEM_REORDER_THRESHOLD);
+
+            // The item has already been shown, so only the stock can have changed under us
+            mStoredQuantity = cursor.getInt(quantityColumnIndex);
+            if (mItemLoaded) {
+                showStoredQuantity();
+                return;
+            }
+            mItemLoaded = true;
 
-            // Extract out the value from the Cursor for the given column index
             String name = cursor.getString(nameColumnIndex);
-            String quantity = cursor.getString(quantityColumnIndex);
-            float price = cursor.getFloat(priceColumnIndex);
+            long price = cursor.getLong(priceColumnIndex);
             String image = cursor.getString(imageColumnIndex);
+            int reorderThreshold = cursor.getInt(reorderThresholdColumnIndex);
 
-            // Update the views on the screen with the values from the database
+            // Update the views on the screen with the values from the database. This replaces
+            // whatever the fields held, so the quantity follows the stock again.
             mNameEditText.setText(name);
-            mQuantityEditText.setText(quantity);
-            mPriceEditText.setText(Float.toString(price));
+            mQuantityEdited = false;
+            showStoredQuantity();
+            mPriceEditText.setText(PriceFormat.format(price));
+            mReorderThresholdEditText.setText(Integer.toString(reorderThreshold));
             Uri uri = Uri.parse(image);
-            mImageEditText.setImageURI(uri);
+            ImageLoader.getInstance(this).load(uri, mImageEditText);
             mChosenImage = uri;
+            mStoredImage = uri;
             mImageEditText.setScaleType(ImageView.ScaleType.CENTER_CROP);
 
         }
@@ -448,9 +649,14 @@ public class EditorActivity extends AppCompatActivity implements
     public void onLoaderReset(Loader<Cursor> loader) {
         // If the loader is invalidated, clear out all the data from the input fields.
         mNameEditText.setText("");
+        mShowingQuantity = true;
         mQuantityEditText.setText("");
+        mShowingQuantity = false;
         mPriceEditText.setText("");
-        mImageEditText.setImageURI(null);
+        mReorderThresholdEditText.setText("");
+        ImageLoader.getInstance(this).cancel(mImageEditText);
+        mImageEditText.setImageDrawable(null);
+        mItemLoaded = false;
     }
 
     /**
@@ -514,20 +720,35 @@ public class EditorActivity extends AppCompatActivity implements
     private void deleteItem() {
         // Only perform the delete if this is an existing item.
         if (mCurrentItemUri != null){
-            // Defines a variable to contain the number of rows deleted
-            int RowsDeleted = getContentResolver().delete(mCurrentItemUri, null, null);
-
-            // Show a toast message depending on whether or not the delete was successful.
-            if (RowsDeleted == 0){
-                // If no rows were deleted, then there was an error with the delete.
-                Toast.makeText(this, getString(R.string.editor_delete_item_failed),
-                        Toast.LENGTH_SHORT).show();
-            } else {
-                // Otherwise, the delete was successful and we can display a toast.
-                Toast.makeText(this, getString(R.string.editor_delete_item_successful),
-                        Toast.LENGTH_SHORT).show();
-            }
+            // The delete is done in the background, so the editor can close straight away
+            final Context appContext = getApplicationContext();
+            final Uri storedImage = mStoredImage;
+            InventoryWriter.getInstance(appContext).delete(mCurrentItemUri, null, null,
+                    new InventoryWriter.Callback<Integer>() {
+                        @Override
+                        public void onComplete(Integer rowsDeleted) {
+                            // Show a toast message depending on whether or not the delete was successful.
+                            if (rowsDeleted == 0) {
+                                // If no rows were deleted, then there was an error with the delete.
+                                onError(null);
+                                return;
+                            }
+                            // Otherwise, the delete was successful and we can display a toast.
+                            Toast.makeText(appContext, R.string.editor_delete_item_successful,
+                                    Toast.LENGTH_SHORT).show();
 
+                            // The private copy of the image is no longer needed
+                            if (storedImage != null) {
+                                ImageIngester.getInstance(appContext).delete(storedImage);
+                            }
+                        }
+
+                        @Override
+                        public void onError(RuntimeException e) {
+                            Toast.makeText(appContext, R.string.editor_delete_item_failed,
+                                    Toast.LENGTH_SHORT).show();
+                        }
+                    });
         }
 
         // Close the activity
@@ -0,0 +1,532 @@
+package com.example.android.inventoryapp;
+
+import android.content.Context;
+import android.database.Cursor;
+import android.net.Uri;
+import android.os.Handler;
+import android.os.Looper;
+import android.support.v7.util.DiffUtil;
+import android.support.v7.util.ListUpdateCallback;
+import android.support.v7.widget.RecyclerView;
+import android.util.SparseArray;
+import android.util.SparseIntArray;
+import android.view.LayoutInflater;
+import android.view.View;
+import android.view.ViewGroup;
+import android.widget.Button;
+import android.widget.ImageView;
+import android.widget.TextView;
+import android.widget.Toast;
+
+import com.example.android.inventoryapp.data.InventoryContract.ItemEntry;
+import com.example.android.inventoryapp.data.InventoryContract.MovementEntry;
+import com.example.android.inventoryapp.data.PriceFormat;
+import com.example.android.inventoryapp.data.StockAdjustmentBuffer;
+import com.example.android.inventoryapp.image.ImageLoader;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * {@link InventoryAdapter} is an adapter for a {@link RecyclerView} that shows pages of inventory
+ * data, each read from its own {@link Cursor}, one after the other in the order of the pages.
+ * Every new cursor of a page is read and compared with the items the page shows on a background
+ * thread, so only the rows of that page that actually changed are redrawn, and the cost of a
+ * page doesn't grow with the number of pages shown.
+ */
+public class InventoryAdapter extends RecyclerView.Adapter<InventoryAdapter.ViewHolder> {
+
+    /**
+     * Interface for receiving clicks on the items of the list.
+     */
+    public interface OnItemClickListener {
+        /**
+         * Called when the item with the given id has been clicked.
+         */
+        void onItemClick(long id);
+    }
+
+    /** Background thread reading the cursors and computing the differences between lists */
+    private static final ExecutorService sDiffExecutor = Executors.newSingleThreadExecutor();
+
+    private final Context mContext;
+
+    private final OnItemClickListener mOnItemClickListener;
+
+    private final ImageLoader mImageLoader;
+
+    /** Size of the thumbnails, in pixels */
+    private final int mThumbnailSize;
+
+    /** Handler used to hand the computed differences back to the main thread */
+    private final Handler mMainHandler = new Handler(Looper.getMainLooper());
+
+    /** Items currently shown, those of all the pages one after the other */
+    private List<Item> mItems = Collections.emptyList();
+
+    /** Items of each page shown, by page number */
+    private final SparseArray<List<Item>> mPageItems = new SparseArray<>();
+
+    /** Buffer holding the stock changes that are shown but not written yet */
+    private final StockAdjustmentBuffer mStockAdjustmentBuffer;
+
+    /** Redraws the rows whose stock changes are added, written or refused */
+    private final StockAdjustmentBuffer.Listener mStockAdjustmentListener = new StockAdjustmentBuffer.Listener() {
+        @Override
+        public void onPendingDeltaChanged(long id) {
+            refreshItem(id);
+        }
+
+        @Override
+        public void onAdjustmentApplied(long id, int delta, int newQuantity) {
+            setQuantity(id, newQuantity);
+            if (delta < 0) {
+                Toast.makeText(mContext, mContext.getString(R.string.success_item_sold), Toast.LENGTH_SHORT).show();
+            }
+        }
+
+        @Override
+        public void onAdjustmentRefused(long id, int delta) {
+            Toast.makeText(mContext, mContext.getString(R.string.no_inventory), Toast.LENGTH_SHORT).show();
+        }
+    };
+
+    /**
+     * Number of the latest change of each page, by page number. Results computed for an older
+     * cursor of a page, or for a page removed since, are dropped.
+     */
+    private final SparseIntArray mPageGenerations = new SparseIntArray();
+
+    /** Number of the latest change of any page */
+    private int mGeneration;
+
+    /** Single click listener shared by every row, finding the item through the row's holder */
+    private final View.OnClickListener mRowClickListener = new View.OnClickListener() {
+        @Override
+        public void onClick(View view) {
+            ViewHolder holder = (ViewHolder) view.getTag();
+            mOnItemClickListener.onItemClick(holder.mItemId);
+        }
+    };
+
+    /** Single click listener shared by every "sold" button */
+    private final View.OnClickListener mSoldClickListener = new View.OnClickListener() {
+        @Override
+        public void onClick(View view) {
+            ViewHolder holder = (ViewHolder) view.getTag();
+            int position = holder.getAdapterPosition();
+            if (position == RecyclerView.NO_POSITION) {
+                return;
+            }
+            if (getDisplayedQuantity(mItems.get(position)) <= 0) {
+                Toast.makeText(mContext, mContext.getString(R.string.no_inventory), Toast.LENGTH_SHORT).show();
+                return;
+            }
+            // Sell one unit. The list shows the new quantity right away, while the sale is
+            // written in the background together with the other taps made in the meantime.
+            mStockAdjustmentBuffer.adjust(holder.mItemId, -1, MovementEntry.REASON_SALE);
+        }
+    };
+
+    /**
+     * Constructs a new {@link InventoryAdapter}.
+     *
+     * @param context             The context
+     * @param onItemClickListener Listener told which item the user clicked on
+     */
+    public InventoryAdapter(Context context, OnItemClickListener onItemClickListener) {
+        mContext = context;
+        mOnItemClickListener = onItemClickListener;
+        mImageLoader = ImageLoader.getInstance(context);
+        mStockAdjustmentBuffer = StockAdjustmentBuffer.getInstance(context);
+        mThumbnailSize = context.getResources().getDimensionPixelSize(R.dimen.thumbnail_size);
+        setHasStableIds(true);
+    }
+
+    /**
+     * Show the items of the given cursor as the given page, in place of the items the page
+     * showed so far, or after the items of the pages before it if it wasn't shown. The cursor
+     * is read on a background thread, and only the rows of the page that differ from the items
+     * it currently shows are updated.
+     */
+    public void setPage(final int page, final Cursor cursor) {
+        final int generation = startChange(page);
+        final List<Item> oldItems = getPageItems(page);
+
+        sDiffExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                final List<Item> newItems;
+                try {
+                    newItems = readItems(cursor);
+                } catch (RuntimeException e) {
+                    // A cursor is only closed by its loader after a newer one has been handed
+                    // to us, or the page has been removed, in which case this result isn't
+                    // needed anyway
+                    if (isStale(page, generation)) {
+                        return;
+                    }
+                    throw e;
+                }
+                final DiffUtil.DiffResult diff = DiffUtil.calculateDiff(new ItemDiffCallback(oldItems, newItems));
+
+                mMainHandler.post(new Runnable() {
+                    @Override
+                    public void run() {
+                        if (isStale(page, generation)) {
+                            return;
+                        }
+                        mPageItems.put(page, newItems);
+                        mItems = concatenatePages();
+                        diff.dispatchUpdatesTo(new PageUpdateCallback(getPageStart(page)));
+                    }
+                });
+            }
+        });
+    }
+
+    /**
+     * Stop showing the items of the given page, if it is shown. The rows are removed right away.
+     */
+    public void removePage(int page) {
+        // Drop the results still being computed for the page
+        startChange(page);
+        List<Item> items = mPageItems.get(page);
+        if (items == null) {
+            return;
+        }
+        int start = getPageStart(page);
+        mPageItems.remove(page);
+        mItems = concatenatePages();
+        notifyItemRangeRemoved(start, items.size());
+    }
+
+    /**
+     * Return the items the given page shows, or no item if it isn't shown.
+     */
+    private List<Item> getPageItems(int page) {
+        List<Item> items = mPageItems.get(page);
+        return items == null ? Collections.<Item>emptyList() : items;
+    }
+
+    /**
+     * Return the position in the list of the first item of the given page.
+     */
+    private int getPageStart(int page) {
+        int start = 0;
+        for (int i = 0; i < mPageItems.size() && mPageItems.keyAt(i) < page; i++) {
+            start += mPageItems.valueAt(i).size();
+        }
+        return start;
+    }
+
+    /**
+     * Return the items of all the pages shown, in the order of the pages.
+     */
+    private List<Item> concatenatePages() {
+        List<Item> items = new ArrayList<>();
+        for (int i = 0; i < mPageItems.size(); i++) {
+            items.addAll(mPageItems.valueAt(i));
+        }
+        return items;
+    }
+
+    /**
+     * Follow the stock changes while the list is shown.
+     */
+    @Override
+    public void onAttachedToRecyclerView(RecyclerView recyclerView) {
+        mStockAdjustmentBuffer.addListener(mStockAdjustmentListener);
+    }
+
+    @Override
+    public void onDetachedFromRecyclerView(RecyclerView recyclerView) {
+        mStockAdjustmentBuffer.removeListener(mStockAdjustmentListener);
+    }
+
+    /**
+     * Return the quantity shown for the given item, including the changes not written yet.
+     */
+    private int getDisplayedQuantity(Item item) {
+        return item.mQuantity + mStockAdjustmentBuffer.getPendingDelta(item.mId);
+    }
+
+    /**
+     * Show the given quantity, as written in the database, for the given item. The items of its
+     * page are copied rather than changed, as a background thread may be comparing them with
+     * new ones.
+     */
+    private void setQuantity(long id, int quantity) {
+        for (int i = 0; i < mPageItems.size(); i++) {
+            List<Item> pageItems = mPageItems.valueAt(i);
+            for (int j = 0; j < pageItems.size(); j++) {
+                Item item = pageItems.get(j);
+                if (item.mId != id) {
+                    continue;
+                }
+                List<Item> items = new ArrayList<>(pageItems);
+                items.set(j, new Item(item.mId, item.mName, quantity, item.mPrice, item.mImage));
+                int page = mPageItems.keyAt(i);
+                mPageItems.put(page, items);
+                mItems = concatenatePages();
+                notifyItemChanged(getPageStart(page) + j);
+                return;
+            }
+        }
+    }
+
+    /**
+     * Redraw the row of the given item, if it is shown.
+     */
+    private void refreshItem(long id) {
+        int position = findPosition(id);
+        if (position >= 0) {
+            notifyItemChanged(position);
+        }
+    }
+
+    /**
+     * Return the position of the given item in the list, or -1 if it isn't shown.
+     */
+    private int findPosition(long id) {
+        for (int i = 0; i < mItems.size(); i++) {
+            if (mItems.get(i).mId == id) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Record a new change of the given page and return its number.
+     */
+    private int startChange(int page) {
+        synchronized (mPageGenerations) {
+            int generation = ++mGeneration;
+            mPageGenerations.put(page, generation);
+            return generation;
+        }
+    }
+
+    /**
+     * Return true if the given page has changed again since the given change.
+     */
+    private boolean isStale(int page, int generation) {
+        synchronized (mPageGenerations) {
+            return mPageGenerations.get(page) != generation;
+        }
+    }
+
+    /**
+     * Read all the rows of the given cursor into a list of items.
+     */
+    private static List<Item> readItems(Cursor cursor) {
+        if (cursor == null) {
+            return Collections.emptyList();
+        }
+
+        // Find the columns of item attributes that we're interested in
+        int idColumnIndex = cursor.getColumnIndex(ItemEntry._ID);
+        int nameColumnIndex = cursor.getColumnIndex(ItemEntry.COLUMN_ITEM_NAME);
+        int quantityColumnIndex = cursor.getColumnIndex(ItemEntry.COLUMN_ITEM_QUANTITY);
+        int priceColumnIndex = cursor.getColumnIndex(ItemEntry.COLUMN_ITEM_PRICE);
+        int imageColumnIndex = cursor.getColumnIndex(ItemEntry.COLUMN_ITEM_IMAGE);
+
+        List<Item> items = new ArrayList<>(cursor.getCount());
+        cursor.moveToPosition(-1);
+        while (cursor.moveToNext()) {
+            items.add(new Item(cursor.getLong(idColumnIndex),
+                    cursor.getString(nameColumnIndex),
+                    cursor.getInt(quantityColumnIndex),
+                    cursor.getLong(priceColumnIndex),
+                    cursor.getString(imageColumnIndex)));
+        }
+        return items;
+    }
+
+    @Override
+    public int getItemCount() {
+        return mItems.size();
+    }
+
+    @Override
+    public long getItemId(int position) {
+        return mItems.get(position).mId;
+    }
+
+    /**
+     * Makes a new blank list item view and its holder. No data is set (or bound) to the views yet.
+     */
+    @Override
+    public ViewHolder onCreateViewHolder(ViewGroup parent, int viewType) {
+        View view = LayoutInflater.from(mContext).inflate(R.layout.list_item, parent, false);
+        ViewHolder holder = new ViewHolder(view);
+
+        // The listeners are shared by every row and find the item through the holder
+        view.setTag(holder);
+        view.setOnClickListener(mRowClickListener);
+        holder.mSoldButton.setTag(holder);
+        holder.mSoldButton.setOnClickListener(mSoldClickListener);
+        return holder;
+    }
+
+    /**
+     * This method binds the inventory data of the item at the given position to the views
+     * cached in the holder.
+     */
+    @Override
+    public void onBindViewHolder(ViewHolder holder, int position) {
+        Item item = mItems.get(position);
+        holder.mItemId = item.mId;
+
+        // Update the TextViews with the attributes for the current item
+        holder.mNameTextView.setText(item.mName);
+        holder.mQuantityTextView.setText(String.valueOf(getDisplayedQuantity(item)));
+        holder.mPriceTextView.setText(PriceFormat.format(item.mPrice));
+
+        // Show the thumbnail, decoded in the background at the size of the view
+        if (item.mImage != null) {
+            mImageLoader.load(Uri.parse(item.mImage), holder.mImageView, mThumbnailSize, mThumbnailSize);
+        } else {
+            mImageLoader.cancel(holder.mImageView);
+            holder.mImageView.setImageDrawable(null);
+        }
+    }
+
+    /**
+     * Stop loading the thumbnail of a row that scrolled off the screen, so the decoding
+     * threads only work on the rows that are visible.
+     */
+    @Override
+    public void onViewRecycled(ViewHolder holder) {
+        mImageLoader.cancel(holder.mImageView);
+        holder.mImageView.setImageDrawable(null);
+    }
+
+    /**
+     * Holds the views of a list item, so they are only looked up once per row.
+     */
+    static class ViewHolder extends RecyclerView.ViewHolder {
+
+        final TextView mNameTextView;
+        final TextView mQuantityTextView;
+        final TextView mPriceTextView;
+        final Button mSoldButton;
+        final ImageView mImageView;
+
+        /** Id of the item currently bound to this row */
+        long mItemId;
+
+        ViewHolder(View view) {
+            super(view);
+            // Find individual views that we want to modify in the list item layout
+            mNameTextView = (TextView) view.findViewById(R.id.name);
+            mQuantityTextView = (TextView) view.findViewById(R.id.quantity);
+            mPriceTextView = (TextView) view.findViewById(R.id.price);
+            mSoldButton = (Button) view.findViewById(R.id.sold);
+            mImageView = (ImageView) view.findViewById(R.id.image);
+        }
+    }
+
+    /**
+     * Immutable copy of the attributes of an item shown in the list.
+     */
+    static final class Item {
+
+        final long mId;
+        final String mName;
+        final int mQuantity;
+        /** Price in cents */
+        final long mPrice;
+        final String mImage;
+
+        Item(long id, String name, int quantity, long price, String image) {
+            mId = id;
+            mName = name;
+            mQuantity = quantity;
+            mPrice = price;
+            mImage = image;
+        }
+
+        /**
+         * Return true if the given item would be shown exactly like this one.
+         */
+        boolean hasSameContents(Item other) {
+            return mQuantity == other.mQuantity
+                    && (mName == null ? other.mName == null : mName.equals(other.mName))
+                    && mPrice == other.mPrice
+                    && (mImage == null ? other.mImage == null : mImage.equals(other.mImage));
+        }
+    }
+
+    /**
+     * Passes the updates of the rows of a page on to the list, at the position of the page.
+     */
+    private class PageUpdateCallback implements ListUpdateCallback {
+
+        /** Position in the list of the first row of the page */
+        private final int mStart;
+
+        PageUpdateCallback(int start) {
+            mStart = start;
+        }
+
+        @Override
+        public void onInserted(int position, int count) {
+            notifyItemRangeInserted(mStart + position, count);
+        }
+
+        @Override
+        public void onRemoved(int position, int count) {
+            notifyItemRangeRemoved(mStart + position, count);
+        }
+
+        @Override
+        public void onMoved(int fromPosition, int toPosition) {
+            notifyItemMoved(mStart + fromPosition, mStart + toPosition);
+        }
+
+        @Override
+        public void onChanged(int position, int count, Object payload) {
+            notifyItemRangeChanged(mStart + position, count, payload);
+        }
+    }
+
+    /**
+     * Tells {@link DiffUtil} how two lists of items differ. Items are the same when they have the
+     * same id, and only need to be redrawn when one of their attributes changed.
+     */
+    private static class ItemDiffCallback extends DiffUtil.Callback {
+
+        private final List<Item> mOldItems;
+        private final List<Item> mNewItems;
+
+        ItemDiffCallback(List<Item> oldItems, List<Item> newItems) {
+            mOldItems = oldItems;
+            mNewItems = newItems;
+        }
+
+        @Override
+        public int getOldListSize() {
+            return mOldItems.size();
+        }
+
+        @Override
+        public int getNewListSize() {
+            return mNewItems.size();
+        }
+
+        @Override
+        public boolean areItemsTheSame(int oldItemPosition, int newItemPosition) {
+            return mOldItems.get(oldItemPosition).mId == mNewItems.get(newItemPosition).mId;
+        }
+
+        @Override
+        public boolean areContentsTheSame(int oldItemPosition, int newItemPosition) {
+            return mOldItems.get(oldItemPosition).hasSameContents(mNewItems.get(newItemPosition));
+        }
+    }
+}
@@ -0,0 +1,265 @@
+package com.example.android.inventoryapp.data;
+
+import android.content.ContentResolver;
+import android.content.Context;
+import android.database.Cursor;
+import android.database.MatrixCursor;
+import android.net.Uri;
+import android.util.Log;
+
+import com.example.android.inventoryapp.data.InventoryContract.ItemEntry;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.Arrays;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Makes the catalog appear at once on a cold start. The first rows of the catalog are saved
+ * in a small binary file every time its first page is loaded, and the next start shows them
+ * from that file, read in one go, while the database is still being opened. The live page
+ * then replaces them.
+ *
+ * The snapshot is only a picture of the last screen: it is never written back and is simply
+ * ignored if it can't be read.
+ */
+public final class CatalogSnapshot {
+
+    private static final String LOG_TAG = CatalogSnapshot.class.getSimpleName();
+
+    /** Columns of the rows in the snapshot, as the catalog reads them */
+    private static final String[] COLUMNS = {
+            ItemEntry._ID,
+            ItemEntry.COLUMN_ITEM_NAME,
+            ItemEntry.COLUMN_ITEM_QUANTITY,
+            ItemEntry.COLUMN_ITEM_PRICE,
+            ItemEntry.COLUMN_ITEM_IMAGE };
+
+    /** Number of rows saved, more than fit on the screen of any phone */
+    static final int MAX_ROWS = 20;
+
+    /** Name of the file of the snapshot, in the cache directory */
+    private static final String FILE_NAME = "catalog_snapshot";
+
+    /** Suffix of the file the snapshot is written to before it replaces the old one */
+    private static final String TEMPORARY_SUFFIX = ".tmp";
+
+    /** First bytes of the file, "INVS" */
+    private static final int MAGIC = 0x494E5653;
+
+    /** Version of the layout of the file, to change whenever the layout changes */
+    private static final int FORMAT_VERSION = 1;
+
+    /** Largest file read, far more than {@link #MAX_ROWS} rows take */
+    private static final int MAX_FILE_SIZE = 64 * 1024;
+
+    private static CatalogSnapshot sInstance;
+
+    private final ContentResolver mContentResolver;
+
+    private final File mFile;
+
+    /** Single thread for the preloads and the writes, which are both small */
+    private final ExecutorService mExecutor = Executors.newSingleThreadExecutor();
+
+    /** Content of the file as last written or read, to skip writing the same rows again */
+    private byte[] mSavedSnapshot;
+
+    /**
+     * Return the snapshot of the catalog of the app.
+     */
+    public static synchronized CatalogSnapshot getInstance(Context context) {
+        if (sInstance == null) {
+            sInstance = new CatalogSnapshot(context.getApplicationContext());
+        }
+        return sInstance;
+    }
+
+    private CatalogSnapshot(Context context) {
+        mContentResolver = context.getContentResolver();
+        mFile = new File(context.getCacheDir(), FILE_NAME);
+    }
+
+    /**
+     * Run the given query of the catalog in the background and drop its result. This opens
+     * the database, creating or upgrading it if needed, while the screen is being laid out, and
+     * leaves the result in the query cache of the provider for the loader that asks for it next.
+     */
+    public void preload(final Uri uri, final String[] projection) {
+        mExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    Cursor cursor = mContentResolver.query(uri, projection, null, null, null);
+                    if (cursor != null) {
+                        cursor.close();
+                    }
+                } catch (RuntimeException e) {
+                    // The loader will run the query again and report the problem
+                    Log.w(LOG_TAG, "Preloading " + uri + " failed", e);
+                }
+            }
+        });
+    }
+
+    /**
+     * Return the rows of the last saved snapshot, with the {@link #COLUMNS}, or null if there is
+     * none or it can't be read. Reads a few kilobytes, so it can be called on the main thread.
+     */
+    public Cursor read() {
+        long length = mFile.length();
+        if (length == 0 || length > MAX_FILE_SIZE) {
+            return null;
+        }
+
+        byte[] snapshot = new byte[(int) length];
+        try {
+            InputStream in = new FileInputStream(mFile);
+            try {
+                int offset = 0;
+                int read;
+                while (offset < snapshot.length
+                        && (read = in.read(snapshot, offset, snapshot.length - offset)) != -1) {
+                    offset += read;
+                }
+                if (offset < snapshot.length) {
+                    throw new IOException("Snapshot truncated");
+                }
+            } finally {
+                in.close();
+            }
+
+            Cursor cursor = decode(snapshot);
+            synchronized (this) {
+                mSavedSnapshot = snapshot;
+            }
+            return cursor;
+        } catch (IOException e) {
+            Log.w(LOG_TAG, "Can't read the catalog snapshot", e);
+            mFile.delete();
+            return null;
+        }
+    }
+
+    /**
+     * Save the first {@link #MAX_ROWS} rows of the given first page of the catalog. The rows are
+     * copied right away, so the cursor can be handed on when this returns, and written in the
+     * background if they differ from the saved ones.
+     */
+    public void save(Cursor firstPage) {
+        final byte[] snapshot;
+        try {
+            snapshot = encode(firstPage);
+        } catch (IOException e) {
+            // A name too long for the format, which only holds up the next start a little
+            Log.w(LOG_TAG, "Can't save the catalog snapshot", e);
+            return;
+        }
+
+        synchronized (this) {
+            if (Arrays.equals(snapshot, mSavedSnapshot)) {
+                return;
+            }
+            mSavedSnapshot = snapshot;
+        }
+        mExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                write(snapshot);
+            }
+        });
+    }
+
+    /**
+     * Replace the file of the snapshot with the given content. The new content is written next
+     * to it and renamed over it, so a crash can't leave half a snapshot.
+     */
+    private void write(byte[] snapshot) {
+        File temporaryFile = new File(mFile.getPath() + TEMPORARY_SUFFIX);
+        try {
+            OutputStream out = new FileOutputStream(temporaryFile);
+            try {
+                out.write(snapshot);
+            } finally {
+                out.close();
+            }
+            if (!temporaryFile.renameTo(mFile)) {
+                throw new IOException("Can't rename " + temporaryFile);
+            }
+        } catch (IOException e) {
+            Log.w(LOG_TAG, "Can't write the catalog snapshot", e);
+            temporaryFile.delete();
+        }
+    }
+
+    /**
+     * Return the file of the snapshot.
+     */
+    File getFile() {
+        return mFile;
+    }
+
+    /**
+     * Return the first {@link #MAX_ROWS} rows of the given cursor in the layout of the file.
+     * The cursor must have the {@link #COLUMNS}, and is left before its first row.
+     */
+    static byte[] encode(Cursor cursor) throws IOException {
+        int idColumnIndex = cursor.getColumnIndexOrThrow(ItemEntry._ID);
+        int nameColumnIndex = cursor.getColumnIndexOrThrow(ItemEntry.COLUMN_ITEM_NAME);
+        int quantityColumnIndex = cursor.getColumnIndexOrThrow(ItemEntry.COLUMN_ITEM_QUANTITY);
+        int priceColumnIndex = cursor.getColumnIndexOrThrow(ItemEntry.COLUMN_ITEM_PRICE);
+        int imageColumnIndex = cursor.getColumnIndexOrThrow(ItemEntry.COLUMN_ITEM_IMAGE);
+        int rows = Math.min(cursor.getCount(), MAX_ROWS);
+
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(bytes);
+        out.writeInt(MAGIC);
+        out.writeInt(FORMAT_VERSION);
+        out.writeInt(rows);
+        cursor.moveToPosition(-1);
+        for (int i = 0; i < rows && cursor.moveToNext(); i++) {
+            out.writeLong(cursor.getLong(idColumnIndex));
+            out.writeUTF(cursor.getString(nameColumnIndex));
+            out.writeInt(cursor.getInt(quantityColumnIndex));
+            out.writeLong(cursor.getLong(priceColumnIndex));
+            out.writeUTF(cursor.getString(imageColumnIndex));
+        }
+        cursor.moveToPosition(-1);
+        out.close();
+        return bytes.toByteArray();
+    }
+
+    /**
+     * Return the rows of the given content of the file, with the {@link #COLUMNS}.
+     */
+    static Cursor decode(byte[] snapshot) throws IOException {
+        DataInputStream in = new DataInputStream(new ByteArrayInputStream(snapshot));
+        if (in.readInt() != MAGIC || in.readInt() != FORMAT_VERSION) {
+            throw new IOException("Not a catalog snapshot of this version");
+        }
+        int rows = in.readInt();
+        if (rows < 0 || rows > MAX_ROWS) {
+            throw new IOException("Snapshot of " + rows + " rows");
+        }
+
+        MatrixCursor cursor = new MatrixCursor(COLUMNS, rows);
+        for (int i = 0; i < rows; i++) {
+            cursor.addRow(new Object[] {
+                    in.readLong(),
+                    in.readUTF(),
+                    in.readInt(),
+                    in.readLong(),
+                    in.readUTF() });
+        }
+        return cursor;
+    }
+}
@@ -0,0 +1,782 @@
+package com.example.android.inventoryapp.data;
+
+import android.content.ContentResolver;
+import android.content.ContentValues;
+import android.content.Context;
+import android.database.Cursor;
+import android.net.Uri;
+import android.os.Handler;
+import android.os.Looper;
+import android.provider.OpenableColumns;
+import android.util.Log;
+
+import com.example.android.inventoryapp.data.InventoryContract.ItemEntry;
+import com.example.android.inventoryapp.image.ImageIngester;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.zip.Deflater;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipInputStream;
+import java.util.zip.ZipOutputStream;
+
+/**
+ * Imports items from a CSV file and exports the catalog to one, and backs up and restores the
+ * whole inventory, on a background thread.
+ *
+ * Both CSV directions stream the file: an import reads one record at a time and inserts the
+ * items in transactions of {@link #IMPORT_CHUNK_SIZE} rows, and an export copies the CSV stream
+ * of {@link ItemEntry#EXPORT_URI} through a small buffer. Memory use doesn't depend on the size
+ * of the file.
+ *
+ * A backup is a ZIP archive holding a copy of the database file, taken by the provider, and the
+ * stored images. Restoring it swaps both in whole, replacing everything in the app, or neither.
+ *
+ * The progress is handed to the {@link Listener}s on the main thread.
+ */
+public final class CatalogTransfer {
+
+    private static final String LOG_TAG = CatalogTransfer.class.getSimpleName();
+
+    /**
+     * Receives the progress and outcome of the transfers on the main thread.
+     */
+    public interface Listener {
+        /**
+         * Called as a transfer goes on, with the number of bytes of the file read or written so
+         * far, and its size, or -1 if the size isn't known.
+         */
+        void onTransferProgress(long bytesDone, long bytesTotal);
+
+        /**
+         * Called when an import has finished, with the number of items added to the catalog.
+         */
+        void onImportComplete(int itemCount);
+
+        /**
+         * Called when an export has finished.
+         */
+        void onExportComplete();
+
+        /**
+         * Called when a backup has been written.
+         */
+        void onBackupComplete();
+
+        /**
+         * Called when a backup has replaced the inventory.
+         */
+        void onRestoreComplete();
+
+        /**
+         * Called when a transfer failed. The items of an import inserted before the failure are
+         * kept.
+         */
+        void onTransferFailed(Exception e);
+    }
+
+    /** Number of items inserted in each transaction of an import */
+    private static final int IMPORT_CHUNK_SIZE = 500;
+
+    /** Size of the buffers the files are copied through, in bytes */
+    private static final int BUFFER_SIZE = 8 * 1024;
+
+    /** Number of bytes between two progress reports */
+    private static final long PROGRESS_INTERVAL = 256 * 1024;
+
+    /** Image of the imported items that have none */
+    private static final String PLACEHOLDER_IMAGE_PATH = "/drawable/ic_photo";
+
+    /** Name of the entry of the database in a backup */
+    private static final String BACKUP_DATABASE_ENTRY = InventoryDbHelper.DATABASE_NAME;
+
+    /** Prefix of the names of the entries of the images in a backup */
+    private static final String BACKUP_IMAGE_ENTRY_PREFIX = "images/";
+
+    /**
+     * Suffix of the copy of the database taken for a backup, and of the database and image
+     * directory unpacked from a backup, next to the originals they replace
+     */
+    private static final String BACKUP_SUFFIX = ".backup";
+    private static final String RESTORE_SUFFIX = ".restore";
+
+    private static CatalogTransfer sInstance;
+
+    private final ContentResolver mContentResolver;
+
+    private final ImageIngester mImageIngester;
+
+    /** File of the database, next to which the copies of a backup and restore are kept */
+    private final File mDatabaseFile;
+
+    /** URI of the image given to the imported items that have none */
+    private final String mPlaceholderImage;
+
+    /** Single thread, so transfers never run at the same time */
+    private final ExecutorService mExecutor = Executors.newSingleThreadExecutor();
+
+    private final Handler mMainHandler = new Handler(Looper.getMainLooper());
+
+    /** Listeners of the transfers, only touched on the main thread */
+    private final List<Listener> mListeners = new ArrayList<>();
+
+    /** Number of transfers started and not finished yet, only touched on the main thread */
+    private int mRunningTransfers;
+
+    /**
+     * Return the catalog transfer of the app.
+     */
+    public static synchronized CatalogTransfer getInstance(Context context) {
+        if (sInstance == null) {
+            sInstance = new CatalogTransfer(context.getApplicationContext());
+        }
+        return sInstance;
+    }
+
+    private CatalogTransfer(Context context) {
+        mContentResolver = context.getContentResolver();
+        mImageIngester = ImageIngester.getInstance(context);
+        mDatabaseFile = context.getDatabasePath(InventoryDbHelper.DATABASE_NAME);
+        mPlaceholderImage = ContentResolver.SCHEME_ANDROID_RESOURCE + "://"
+                + context.getPackageName() + PLACEHOLDER_IMAGE_PATH;
+    }
+
+    /**
+     * Start following the transfers. Must be called on the main thread.
+     */
+    public void addListener(Listener listener) {
+        mListeners.add(listener);
+    }
+
+    /**
+     * Stop following the transfers. Must be called on the main thread.
+     */
+    public void removeListener(Listener listener) {
+        mListeners.remove(listener);
+    }
+
+    /**
+     * Return true if a transfer is running or waiting to run. Must be called on the main thread.
+     */
+    public boolean isRunning() {
+        return mRunningTransfers > 0;
+    }
+
+    /**
+     * Add the items of the given CSV file to the catalog in the background. The first record of
+     * the file names the columns, which are matched with the item columns of the
+     * {@link InventoryContract}: the name and price are required, and the quantity, image and
+     * reorder threshold are optional. Prices are in euros, e.g. "16.25".
+     */
+    public void importItems(final Uri source) {
+        execute(new Task() {
+            @Override
+            public int run() throws IOException {
+                return importNow(source);
+            }
+
+            @Override
+            public void onComplete(Listener listener, int itemCount) {
+                listener.onImportComplete(itemCount);
+            }
+        }, source);
+    }
+
+    /**
+     * Write the whole catalog to the given file as CSV in the background, in the format
+     * {@link #importItems} reads.
+     */
+    public void exportItems(final Uri target) {
+        execute(new Task() {
+            @Override
+            public int run() throws IOException {
+                exportNow(target);
+                return 0;
+            }
+
+            @Override
+            public void onComplete(Listener listener, int itemCount) {
+                listener.onExportComplete();
+            }
+        }, target);
+    }
+
+    /**
+     * Write a backup of the database and the stored images to the given file in the
+     * background.
+     */
+    public void backup(final Uri target) {
+        execute(new Task() {
+            @Override
+            public int run() throws IOException {
+                backupNow(target);
+                return 0;
+            }
+
+            @Override
+            public void onComplete(Listener listener, int itemCount) {
+                listener.onBackupComplete();
+            }
+        }, target);
+    }
+
+    /**
+     * Replace the database and the stored images with the backup in the given file, in the
+     * background. Nothing is replaced if the backup can't be read.
+     */
+    public void restore(final Uri source) {
+        execute(new Task() {
+            @Override
+            public int run() throws IOException {
+                restoreNow(source);
+                return 0;
+            }
+
+            @Override
+            public void onComplete(Listener listener, int itemCount) {
+                listener.onRestoreComplete();
+            }
+        }, source);
+    }
+
+    /**
+     * Work of a transfer, run on the background thread.
+     */
+    private interface Task {
+        /**
+         * Run the transfer and return the number of items it added, or 0 if it adds none.
+         */
+        int run() throws IOException;
+
+        /**
+         * Tell the given listener that the transfer has finished, with what {@link #run}
+         * returned.
+         */
+        void onComplete(Listener listener, int itemCount);
+    }
+
+    /**
+     * Run the given transfer of the given file on the background thread, and hand its outcome
+     * to the listeners.
+     */
+    private void execute(final Task task, final Uri uri) {
+        mRunningTransfers++;
+        mExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    final int itemCount = task.run();
+                    postResult(new Runnable() {
+                        @Override
+                        public void run() {
+                            for (Listener listener : new ArrayList<>(mListeners)) {
+                                task.onComplete(listener, itemCount);
+                            }
+                        }
+                    });
+                } catch (IOException | RuntimeException e) {
+                    Log.e(LOG_TAG, "Failed to transfer " + uri, e);
+                    postFailure(e);
+                }
+            }
+        });
+    }
+
+    /**
+     * Import the given file and return the number of items added. Runs on the background thread.
+     */
+    private int importNow(Uri source) throws IOException {
+        long bytesTotal = querySize(source);
+        InputStream in = mContentResolver.openInputStream(source);
+        if (in == null) {
+            throw new FileNotFoundException("Can't open " + source);
+        }
+        try {
+            CountingInputStream countingIn = new CountingInputStream(in);
+            Csv.Reader reader = new Csv.Reader(
+                    new BufferedReader(new InputStreamReader(countingIn, "UTF-8")));
+
+            String[] header = reader.readRecord();
+            if (header == null) {
+                return 0;
+            }
+            ColumnMap columns = new ColumnMap(header);
+
+            List<ContentValues> chunk = new ArrayList<>(IMPORT_CHUNK_SIZE);
+            int itemCount = 0;
+            long lastProgress = 0;
+            String[] record;
+            while ((record = reader.readRecord()) != null) {
+                // Skip the blank lines
+                if (record.length == 1 && record[0].trim().isEmpty()) {
+                    continue;
+                }
+                chunk.add(columns.toItem(record, reader.getLineNumber()));
+                if (chunk.size() == IMPORT_CHUNK_SIZE) {
+                    itemCount += insertChunk(chunk);
+                }
+
+                long bytesDone = countingIn.getCount();
+                if (bytesDone - lastProgress >= PROGRESS_INTERVAL) {
+                    lastProgress = bytesDone;
+                    postProgress(bytesDone, bytesTotal);
+                }
+            }
+            itemCount += insertChunk(chunk);
+            postProgress(countingIn.getCount(), bytesTotal);
+            return itemCount;
+        } finally {
+            in.close();
+        }
+    }
+
+    /**
+     * Insert the given items in one transaction and clear the list. Returns the number of items
+     * inserted.
+     */
+    private int insertChunk(List<ContentValues> chunk) throws IOException {
+        if (chunk.isEmpty()) {
+            return 0;
+        }
+        int rowsInserted = mContentResolver.bulkInsert(ItemEntry.CONTENT_URI,
+                chunk.toArray(new ContentValues[chunk.size()]));
+        if (rowsInserted != chunk.size()) {
+            throw new IOException("Failed to insert the imported items");
+        }
+        chunk.clear();
+        return rowsInserted;
+    }
+
+    /**
+     * Copy the CSV stream of the catalog to the given file. Runs on the background thread.
+     */
+    private void exportNow(Uri target) throws IOException {
+        InputStream in = mContentResolver.openInputStream(ItemEntry.EXPORT_URI);
+        if (in == null) {
+            throw new FileNotFoundException("Can't open " + ItemEntry.EXPORT_URI);
+        }
+        try {
+            OutputStream out = mContentResolver.openOutputStream(target, "w");
+            if (out == null) {
+                throw new FileNotFoundException("Can't open " + target);
+            }
+            try {
+                // The size of the export isn't known until it has been written
+                copy(in, out, new ProgressCounter(-1));
+                out.flush();
+            } finally {
+                out.close();
+            }
+        } finally {
+            in.close();
+        }
+    }
+
+    /**
+     * Write a backup to the given file. Runs on the background thread.
+     *
+     * The provider first copies the database next to it, which only holds off the writes for
+     * as long as the file takes to copy. The copy is then packed with the images at leisure.
+     * The images are JPEGs, which don't compress any further, so they are stored as they are.
+     */
+    private void backupNow(Uri target) throws IOException {
+        File snapshot = new File(mDatabaseFile.getPath() + BACKUP_SUFFIX);
+        mContentResolver.call(ItemEntry.CONTENT_URI, InventoryContract.METHOD_BACKUP,
+                snapshot.getPath(), null);
+        try {
+            File[] images = mImageIngester.getDirectory().listFiles();
+            if (images == null) {
+                images = new File[0];
+            }
+            long bytesTotal = snapshot.length();
+            for (File image : images) {
+                bytesTotal += image.length();
+            }
+
+            OutputStream out = mContentResolver.openOutputStream(target, "w");
+            if (out == null) {
+                throw new FileNotFoundException("Can't open " + target);
+            }
+            ZipOutputStream zip = new ZipOutputStream(new BufferedOutputStream(out, BUFFER_SIZE));
+            try {
+                ProgressCounter progress = new ProgressCounter(bytesTotal);
+                zip.setLevel(Deflater.BEST_SPEED);
+                addToZip(zip, BACKUP_DATABASE_ENTRY, snapshot, progress);
+                zip.setLevel(Deflater.NO_COMPRESSION);
+                for (File image : images) {
+                    if (image.isFile()) {
+                        addToZip(zip, BACKUP_IMAGE_ENTRY_PREFIX + image.getName(), image, progress);
+                    }
+                }
+                zip.finish();
+            } finally {
+                zip.close();
+            }
+        } finally {
+            snapshot.delete();
+        }
+    }
+
+    private void addToZip(ZipOutputStream zip, String name, File file, ProgressCounter progress)
+            throws IOException {
+        zip.putNextEntry(new ZipEntry(name));
+        InputStream in = new FileInputStream(file);
+        try {
+            copy(in, zip, progress);
+        } finally {
+            in.close();
+        }
+        zip.closeEntry();
+    }
+
+    /**
+     * Restore the backup in the given file. Runs on the background thread.
+     *
+     * The archive is unpacked next to the database and the image directory first, so a backup
+     * that can't be read leaves the inventory untouched. The image directory is swapped in
+     * next, keeping the old images aside, and the provider then checks the database and swaps
+     * it in. If the provider refuses the database or can't move it, the old images are put
+     * back, so the images always match the database in place.
+     */
+    private void restoreNow(Uri source) throws IOException {
+        File restoredDatabase = new File(mDatabaseFile.getPath() + RESTORE_SUFFIX);
+        File imageDirectory = mImageIngester.getDirectory();
+        File restoredImages = new File(imageDirectory.getPath() + RESTORE_SUFFIX);
+        restoredDatabase.delete();
+        deleteDirectory(restoredImages);
+        if (!restoredImages.mkdirs()) {
+            throw new IOException("Can't create " + restoredImages);
+        }
+
+        try {
+            InputStream in = mContentResolver.openInputStream(source);
+            if (in == null) {
+                throw new FileNotFoundException("Can't open " + source);
+            }
+            ZipInputStream zip = new ZipInputStream(new BufferedInputStream(in, BUFFER_SIZE));
+            try {
+                ProgressCounter progress = new ProgressCounter(querySize(source));
+                ZipEntry entry;
+                while ((entry = zip.getNextEntry()) != null) {
+                    File file = null;
+                    String name = entry.getName();
+                    if (name.equals(BACKUP_DATABASE_ENTRY)) {
+                        file = restoredDatabase;
+                    } else if (name.startsWith(BACKUP_IMAGE_ENTRY_PREFIX)) {
+                        String imageName = name.substring(BACKUP_IMAGE_ENTRY_PREFIX.length());
+                        // Never write outside of the image directory
+                        if (!imageName.isEmpty() && !imageName.contains("/")
+                                && !imageName.contains("\\") && !imageName.equals("..")) {
+                            file = new File(restoredImages, imageName);
+                        }
+                    }
+                    if (file != null) {
+                        OutputStream out = new FileOutputStream(file);
+                        try {
+                            copy(zip, out, progress);
+                        } finally {
+                            out.close();
+                        }
+                    }
+                    zip.closeEntry();
+                }
+            } finally {
+                zip.close();
+            }
+
+            if (!restoredDatabase.isFile()) {
+                throw new IOException("Not a backup of the inventory");
+            }
+            if (!mImageIngester.replaceAll(restoredImages)) {
+                throw new IOException("Failed to restore the images");
+            }
+            try {
+                mContentResolver.call(ItemEntry.CONTENT_URI, InventoryContract.METHOD_RESTORE,
+                        restoredDatabase.getPath(), null);
+            } catch (RuntimeException e) {
+                if (!mImageIngester.rollBackReplace()) {
+                    Log.e(LOG_TAG, "Can't put the images back after a failed restore");
+                }
+                throw e;
+            }
+            mImageIngester.commitReplace();
+        } finally {
+            // Whatever wasn't moved into place is left over
+            restoredDatabase.delete();
+            deleteDirectory(restoredImages);
+        }
+    }
+
+    /**
+     * Copy the given stream to the other one, adding the bytes copied to the given progress.
+     */
+    private void copy(InputStream in, OutputStream out, ProgressCounter progress)
+            throws IOException {
+        byte[] buffer = new byte[BUFFER_SIZE];
+        int bytesRead;
+        while ((bytesRead = in.read(buffer)) != -1) {
+            out.write(buffer, 0, bytesRead);
+            progress.add(bytesRead);
+        }
+    }
+
+    /**
+     * Delete the given directory and the files in it.
+     */
+    private static void deleteDirectory(File directory) {
+        File[] files = directory.listFiles();
+        if (files != null) {
+            for (File file : files) {
+                file.delete();
+            }
+        }
+        directory.delete();
+    }
+
+    /**
+     * Counts the bytes of a transfer, and reports its progress every {@link #PROGRESS_INTERVAL}
+     * bytes.
+     */
+    private final class ProgressCounter {
+
+        private final long mBytesTotal;
+        private long mBytesDone;
+        private long mLastReport;
+
+        ProgressCounter(long bytesTotal) {
+            mBytesTotal = bytesTotal;
+        }
+
+        void add(long bytes) {
+            mBytesDone += bytes;
+            if (mBytesDone - mLastReport >= PROGRESS_INTERVAL) {
+                mLastReport = mBytesDone;
+                postProgress(mBytesDone, mBytesTotal);
+            }
+        }
+    }
+
+    /**
+     * Return the size of the given file in bytes, or -1 if its provider doesn't tell.
+     */
+    private long querySize(Uri uri) {
+        Cursor cursor = null;
+        try {
+            cursor = mContentResolver.query(uri, new String[] { OpenableColumns.SIZE },
+                    null, null, null);
+            if (cursor != null && cursor.moveToFirst() && !cursor.isNull(0)) {
+                return cursor.getLong(0);
+            }
+        } catch (RuntimeException e) {
+            // Not every provider can be queried, e.g. file URIs
+            Log.w(LOG_TAG, "Can't read the size of " + uri, e);
+        } finally {
+            if (cursor != null) {
+                cursor.close();
+            }
+        }
+        return -1;
+    }
+
+    private void postProgress(final long bytesDone, final long bytesTotal) {
+        mMainHandler.post(new Runnable() {
+            @Override
+            public void run() {
+                for (Listener listener : new ArrayList<>(mListeners)) {
+                    listener.onTransferProgress(bytesDone, bytesTotal);
+                }
+            }
+        });
+    }
+
+    private void postFailure(final Exception e) {
+        postResult(new Runnable() {
+            @Override
+            public void run() {
+                for (Listener listener : new ArrayList<>(mListeners)) {
+                    listener.onTransferFailed(e);
+                }
+            }
+        });
+    }
+
+    /**
+     * Hand the outcome of a transfer to the listeners, once it is no longer running.
+     */
+    private void postResult(final Runnable result) {
+        mMainHandler.post(new Runnable() {
+            @Override
+            public void run() {
+                mRunningTransfers--;
+                result.run();
+            }
+        });
+    }
+
+    /**
+     * Positions of the item columns in the records of an imported file, read from its header.
+     */
+    private final class ColumnMap {
+
+        private final int mName;
+        private final int mQuantity;
+        private final int mPrice;
+        private final int mImage;
+        private final int mReorderThreshold;
+
+        ColumnMap(String[] header) throws IOException {
+            mName = indexOf(header, ItemEntry.COLUMN_ITEM_NAME);
+            mQuantity = indexOf(header, ItemEntry.COLUMN_ITEM_QUANTITY);
+            mPrice = indexOf(header, ItemEntry.COLUMN_ITEM_PRICE);
+            mImage = indexOf(header, ItemEntry.COLUMN_ITEM_IMAGE);
+            mReorderThreshold = indexOf(header, ItemEntry.COLUMN_ITEM_REORDER_THRESHOLD);
+            if (mName == -1 || mPrice == -1) {
+                throw new IOException("The first line must name the " + ItemEntry.COLUMN_ITEM_NAME
+                        + " and " + ItemEntry.COLUMN_ITEM_PRICE + " columns");
+            }
+        }
+
+        /**
+         * Return the item of the given record, which starts on the given line. Throws an
+         * {@link IOException} pointing at the line if a value isn't valid.
+         */
+        ContentValues toItem(String[] record, int lineNumber) throws IOException {
+            ContentValues values = new ContentValues();
+
+            String name = field(record, mName);
+            if (name.isEmpty()) {
+                throw new IOException("Line " + lineNumber + ": missing " + ItemEntry.COLUMN_ITEM_NAME);
+            }
+            values.put(ItemEntry.COLUMN_ITEM_NAME, name);
+
+            try {
+                values.put(ItemEntry.COLUMN_ITEM_PRICE, PriceFormat.parse(field(record, mPrice)));
+            } catch (NumberFormatException e) {
+                throw new IOException("Line " + lineNumber + ": invalid " + ItemEntry.COLUMN_ITEM_PRICE);
+            }
+
+            String quantity = field(record, mQuantity);
+            if (!quantity.isEmpty()) {
+                values.put(ItemEntry.COLUMN_ITEM_QUANTITY, parseCount(quantity, lineNumber,
+                        ItemEntry.COLUMN_ITEM_QUANTITY));
+            }
+
+            String reorderThreshold = field(record, mReorderThreshold);
+            if (!reorderThreshold.isEmpty()) {
+                values.put(ItemEntry.COLUMN_ITEM_REORDER_THRESHOLD, parseCount(reorderThreshold,
+                        lineNumber, ItemEntry.COLUMN_ITEM_REORDER_THRESHOLD));
+            }
+
+            String image = field(record, mImage);
+            values.put(ItemEntry.COLUMN_ITEM_IMAGE, isImportable(image) ? image : mPlaceholderImage);
+            return values;
+        }
+
+        /**
+         * Return whether the given image of an imported record can be shown here. A file is
+         * only kept if it is an image stored by this app that still exists, as the files of
+         * another device, such as its stored images, don't exist here.
+         */
+        private boolean isImportable(String image) {
+            if (image.isEmpty()) {
+                return false;
+            }
+            Uri uri = Uri.parse(image);
+            if (!ContentResolver.SCHEME_FILE.equals(uri.getScheme())) {
+                return true;
+            }
+            return mImageIngester.isIngested(uri) && new File(uri.getPath()).isFile();
+        }
+
+        private int parseCount(String text, int lineNumber, String column) throws IOException {
+            try {
+                int count = Integer.parseInt(text);
+                if (count >= 0) {
+                    return count;
+                }
+            } catch (NumberFormatException e) {
+                // Reported below
+            }
+            throw new IOException("Line " + lineNumber + ": invalid " + column);
+        }
+    }
+
+    /**
+     * Return the position of the given column in the header, ignoring case and surrounding
+     * spaces, or -1 if it isn't there.
+     */
+    private static int indexOf(String[] header, String column) {
+        for (int i = 0; i < header.length; i++) {
+            if (header[i].trim().equalsIgnoreCase(column)) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Return the trimmed field at the given position of the record, or an empty string if the
+     * column is missing from the file or the record is short.
+     */
+    private static String field(String[] record, int index) {
+        if (index == -1 || index >= record.length) {
+            return "";
+        }
+        return record[index].trim();
+    }
+
+    /**
+     * Input stream counting the bytes read through it, to report the progress of an import.
+     */
+    private static final class CountingInputStream extends FilterInputStream {
+
+        private long mCount;
+
+        CountingInputStream(InputStream in) {
+            super(in);
+        }
+
+        long getCount() {
+            return mCount;
+        }
+
+        @Override
+        public int read() throws IOException {
+            int b = super.read();
+            if (b != -1) {
+                mCount++;
+            }
+            return b;
+        }
+
+        @Override
+        public int read(byte[] buffer, int offset, int count) throws IOException {
+            int bytesRead = super.read(buffer, offset, count);
+            if (bytesRead > 0) {
+                mCount += bytesRead;
+            }
+            return bytesRead;
+        }
+
+        @Override
+        public long skip(long byteCount) throws IOException {
+            long skipped = super.skip(byteCount);
+            mCount += skipped;
+            return skipped;
+        }
+    }
+}
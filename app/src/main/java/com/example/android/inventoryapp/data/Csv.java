@@ -0,0 +1,182 @@
+package com.example.android.inventoryapp.data;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Reads and writes CSV as described in RFC 4180: fields are separated by commas, and fields
+ * holding commas, quotes or line breaks are quoted, with their quotes doubled. Both directions
+ * work one record at a time, so files of any size are handled in constant memory.
+ */
+final class Csv {
+
+    private static final char SEPARATOR = ',';
+    private static final char QUOTE = '"';
+
+    /** Byte order mark some spreadsheets put at the start of UTF-8 files */
+    private static final char BYTE_ORDER_MARK = '\uFEFF';
+
+    /**
+     * Longest field accepted, in characters. A quote that is never closed would otherwise
+     * read the rest of the file into a single field.
+     */
+    private static final int MAX_FIELD_LENGTH = 64 * 1024;
+
+    private Csv() {}
+
+    /**
+     * Write the given fields as one record, followed by a line break. Null fields are written
+     * as empty ones.
+     */
+    static void writeRecord(Writer writer, String... fields) throws IOException {
+        for (int i = 0; i < fields.length; i++) {
+            if (i > 0) {
+                writer.write(SEPARATOR);
+            }
+            String field = fields[i];
+            if (field == null) {
+                continue;
+            }
+            if (needsQuotes(field)) {
+                writer.write(QUOTE);
+                writer.write(field.replace("\"", "\"\""));
+                writer.write(QUOTE);
+            } else {
+                writer.write(field);
+            }
+        }
+        // RFC 4180 ends the records with CRLF, which all spreadsheets read
+        writer.write("\r\n");
+    }
+
+    private static boolean needsQuotes(String field) {
+        for (int i = 0; i < field.length(); i++) {
+            char c = field.charAt(i);
+            if (c == SEPARATOR || c == QUOTE || c == '\n' || c == '\r') {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Reads the records of a CSV stream one at a time. The underlying reader should be
+     * buffered, as it is read one character at a time.
+     */
+    static final class Reader {
+
+        private final java.io.Reader mIn;
+
+        /** Character read ahead of the current record, or -1 if there is none */
+        private int mPeeked = -1;
+
+        /** Number of the line the next record starts on, counting from 1 */
+        private int mLineNumber = 1;
+
+        /** Number of the line the record read last started on */
+        private int mRecordLineNumber;
+
+        /** Whether the first character, which may be a byte order mark, has been read */
+        private boolean mStarted;
+
+        Reader(java.io.Reader in) {
+            mIn = in;
+        }
+
+        /**
+         * Return the number of the line the record read last started on, to point at it in
+         * error messages.
+         */
+        int getLineNumber() {
+            return mRecordLineNumber;
+        }
+
+        /**
+         * Return the fields of the next record, or null at the end of the stream. Throws an
+         * {@link IOException} if the stream isn't valid CSV.
+         */
+        String[] readRecord() throws IOException {
+            int c = read();
+            if (!mStarted) {
+                mStarted = true;
+                if (c == BYTE_ORDER_MARK) {
+                    c = read();
+                }
+            }
+            if (c == -1) {
+                return null;
+            }
+            mRecordLineNumber = mLineNumber;
+
+            List<String> fields = new ArrayList<>();
+            StringBuilder field = new StringBuilder();
+            boolean quoted = false;
+            boolean afterQuote = false;
+            while (true) {
+                if (quoted) {
+                    if (c == -1) {
+                        throw new IOException("Line " + mRecordLineNumber + ": unterminated quote");
+                    }
+                    if (c == QUOTE) {
+                        int next = read();
+                        if (next == QUOTE) {
+                            append(field, QUOTE);
+                        } else {
+                            quoted = false;
+                            afterQuote = true;
+                            c = next;
+                            continue;
+                        }
+                    } else {
+                        if (c == '\n') {
+                            mLineNumber++;
+                        }
+                        append(field, (char) c);
+                    }
+                } else if (c == SEPARATOR) {
+                    fields.add(field.toString());
+                    field.setLength(0);
+                    afterQuote = false;
+                } else if (c == '\r' || c == '\n' || c == -1) {
+                    if (c == '\r') {
+                        // CRLF and lone CR both end the record
+                        int next = read();
+                        if (next != '\n') {
+                            mPeeked = next;
+                        }
+                    }
+                    if (c != -1) {
+                        mLineNumber++;
+                    }
+                    fields.add(field.toString());
+                    return fields.toArray(new String[fields.size()]);
+                } else if (c == QUOTE && field.length() == 0 && !afterQuote) {
+                    quoted = true;
+                } else if (afterQuote) {
+                    throw new IOException("Line " + mRecordLineNumber + ": text after a closing quote");
+                } else {
+                    append(field, (char) c);
+                }
+                c = read();
+            }
+        }
+
+        private void append(StringBuilder field, char c) throws IOException {
+            if (field.length() >= MAX_FIELD_LENGTH) {
+                throw new IOException("Line " + mRecordLineNumber + ": field too long");
+            }
+            field.append(c);
+        }
+
+        private int read() throws IOException {
+            if (mPeeked != -1) {
+                int c = mPeeked;
+                mPeeked = -1;
+                return c;
+            }
+            return mIn.read();
+        }
+    }
+}
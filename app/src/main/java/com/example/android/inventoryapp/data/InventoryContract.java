@@ -1,8 +1,12 @@
 package com.example.android.inventoryapp.data;
 
 import android.content.ContentResolver;
+import android.content.ContentUris;
 import android.net.Uri;
 import android.provider.BaseColumns;
+import android.text.TextUtils;
+
+import java.util.List;
 
 public final class InventoryContract {
 
@@ -32,6 +36,166 @@ public final class InventoryContract {
      */
     public static final String PATH_ITEMS = "items";
 
+    /**
+     * Path appended to a single item URI to sell one unit of that item, e.g.
+     * content://com.example.android.inventoryapp/items/3/sell
+     */
+    public static final String PATH_SELL = "sell";
+
+    /**
+     * Path appended to a single item URI to change its stock by the amount given in the
+     * {@link #QUERY_PARAMETER_DELTA} query parameter, for the reason given in the
+     * {@link #QUERY_PARAMETER_REASON} query parameter, e.g.
+     * content://com.example.android.inventoryapp/items/3/adjust?delta=10&reason=restock
+     */
+    public static final String PATH_ADJUST = "adjust";
+
+    /**
+     * Path appended to the items URI, followed by the text to look for, to search the items by
+     * name, e.g. content://com.example.android.inventoryapp/items/search/straw
+     */
+    public static final String PATH_SEARCH = "search";
+
+    /**
+     * Path appended to the items URI to read the statistics of the whole catalog,
+     * e.g. content://com.example.android.inventoryapp/items/stats
+     */
+    public static final String PATH_STATS = "stats";
+
+    /**
+     * Path appended to the items URI to list the items low on stock by name, e.g.
+     * content://com.example.android.inventoryapp/items/low_stock
+     */
+    public static final String PATH_LOW_STOCK = "low_stock";
+
+    /**
+     * Path appended to a single item URI to read the stock movements of that item, newest
+     * first, e.g. content://com.example.android.inventoryapp/items/3/history
+     */
+    public static final String PATH_HISTORY = "history";
+
+    /**
+     * Path appended to the items URI to read the whole catalog as a CSV file with
+     * {@link ContentResolver#openInputStream}, e.g.
+     * content://com.example.android.inventoryapp/items/export
+     */
+    public static final String PATH_EXPORT = "export";
+
+    /**
+     * Query parameter holding the (possibly negative) stock change for {@link #PATH_ADJUST}.
+     * When the URI has no such parameter the change is read from the value of the same name,
+     * as batched updates can't be sent with empty values.
+     */
+    public static final String QUERY_PARAMETER_DELTA = "delta";
+
+    /**
+     * Query parameter holding why the stock changed for {@link #PATH_ADJUST}, one of
+     * {@link MovementEntry#REASON_SALE}, {@link MovementEntry#REASON_RESTOCK} or
+     * {@link MovementEntry#REASON_CORRECTION}. Like the delta it can be sent in the values
+     * instead. A change without a reason is recorded as a correction.
+     */
+    public static final String QUERY_PARAMETER_REASON = "reason";
+
+    /**
+     * Query parameter limiting a query of the items URI to a page of at most that many items,
+     * listed by name. The page starts after the item given by {@link #QUERY_PARAMETER_AFTER_NAME}
+     * and {@link #QUERY_PARAMETER_AFTER_ID}, or at the first item if they are missing.
+     */
+    public static final String QUERY_PARAMETER_LIMIT = "limit";
+
+    /** Query parameter holding the name of the last item of the previous page */
+    public static final String QUERY_PARAMETER_AFTER_NAME = "after_name";
+
+    /** Query parameter holding the _ID of the last item of the previous page */
+    public static final String QUERY_PARAMETER_AFTER_ID = "after_id";
+
+    /**
+     * Query parameter of the change notifications holding the kind of change, one of
+     * {@link #OPERATION_INSERT}, {@link #OPERATION_UPDATE} or {@link #OPERATION_DELETE}.
+     * It is missing when a batch mixed several kinds of changes.
+     */
+    public static final String QUERY_PARAMETER_OPERATION = "op";
+
+    /**
+     * Query parameter of the change notifications holding the comma separated _IDs of the
+     * items changed, when there is more than one.
+     */
+    public static final String QUERY_PARAMETER_IDS = "ids";
+
+    /** Possible values of the {@link #QUERY_PARAMETER_OPERATION} of a change notification */
+    public static final String OPERATION_INSERT = "insert";
+    public static final String OPERATION_UPDATE = "update";
+    public static final String OPERATION_DELETE = "delete";
+
+    /**
+     * Provider method rolling the stock movements made before the time given in
+     * {@link #EXTRA_BEFORE} into one total per item and day. Returns the number of movements
+     * rolled up in {@link #EXTRA_MOVEMENT_COUNT}.
+     */
+    public static final String METHOD_COMPACT_MOVEMENTS = "compact_movements";
+
+    /** Extra of {@link #METHOD_COMPACT_MOVEMENTS} holding a time in milliseconds since the epoch */
+    public static final String EXTRA_BEFORE = "before";
+
+    /** Extra of the result of {@link #METHOD_COMPACT_MOVEMENTS} holding a number of movements */
+    public static final String EXTRA_MOVEMENT_COUNT = "movement_count";
+
+    /**
+     * Provider method writing a consistent copy of the database to the file whose path is
+     * given as the argument. The copy is a single file, without a write-ahead log.
+     */
+    public static final String METHOD_BACKUP = "backup";
+
+    /**
+     * Provider method replacing the database with the copy whose path is given as the argument,
+     * as written by {@link #METHOD_BACKUP}. The copy is checked first, and moved into place,
+     * so it is gone once the method returns. Older versions of the database are upgraded.
+     */
+    public static final String METHOD_RESTORE = "restore";
+
+    /**
+     * Provider method returning the metrics of the provider since they were last reset. The
+     * result holds a bundle of METRIC_ values for each operation and URI called, keyed by the
+     * operation and the path pattern of the URI, e.g. "query items/#". It also holds
+     * {@link #EXTRA_LATENCY_BUCKET_BOUNDS}, {@link #EXTRA_CACHE_HITS} and
+     * {@link #EXTRA_CACHE_MISSES}.
+     */
+    public static final String METHOD_METRICS = "metrics";
+
+    /** Provider method starting the metrics of the provider again from zero */
+    public static final String METHOD_RESET_METRICS = "reset_metrics";
+
+    /** Metric holding the number of calls, as a long */
+    public static final String METRIC_CALLS = "calls";
+
+    /** Metric holding the number of calls that threw an exception, as a long */
+    public static final String METRIC_ERRORS = "errors";
+
+    /** Metric holding the number of rows returned, inserted, updated or deleted, as a long */
+    public static final String METRIC_ROWS = "rows";
+
+    /** Metric holding the total time of the calls in microseconds, as a long */
+    public static final String METRIC_TOTAL_TIME = "total_time";
+
+    /** Metric holding the time of the slowest call in microseconds, as a long */
+    public static final String METRIC_MAX_TIME = "max_time";
+
+    /**
+     * Metric holding the number of calls in each latency bucket, as a long array. The bounds of
+     * the buckets are in {@link #EXTRA_LATENCY_BUCKET_BOUNDS}, and the last bucket holds the
+     * calls slower than all of them.
+     */
+    public static final String METRIC_LATENCY_HISTOGRAM = "latency_histogram";
+
+    /** Extra of the metrics holding the upper bounds of the latency buckets in microseconds */
+    public static final String EXTRA_LATENCY_BUCKET_BOUNDS = "latency_bucket_bounds";
+
+    /** Extra of the metrics holding the number of queries answered by the query cache */
+    public static final String EXTRA_CACHE_HITS = "cache_hits";
+
+    /** Extra of the metrics holding the number of queries that read the database */
+    public static final String EXTRA_CACHE_MISSES = "cache_misses";
+
 
     /**
      * Inner class that defines constant values for the inventories database table.
@@ -80,9 +244,10 @@ public final class InventoryContract {
         public final static String COLUMN_ITEM_QUANTITY = "quantity";
 
         /**
-         * Price of the item.
+         * Price of the item, in cents. Use {@link PriceFormat} to read it from the user and to
+         * show it.
          *
-         * Type: REAL
+         * Type: INTEGER
          */
         public final static String COLUMN_ITEM_PRICE = "price";
 
@@ -93,6 +258,332 @@ public final class InventoryContract {
          */
         public final static String COLUMN_ITEM_IMAGE = "image";
 
+        /**
+         * Quantity at or below which the item is low on stock and should be reordered.
+         * Defaults to {@link #DEFAULT_REORDER_THRESHOLD}.
+         *
+         * Type: INTEGER
+         */
+        public final static String COLUMN_ITEM_REORDER_THRESHOLD = "reorder_threshold";
+
+        /**
+         * 1 if the quantity of the item is at or below its reorder threshold, 0 otherwise.
+         * Kept up to date by the database, so it can be read but not written.
+         *
+         * Type: INTEGER
+         */
+        public final static String COLUMN_ITEM_LOW_STOCK = "low_stock";
+
+        /** The content URI to list the items low on stock, by name */
+        public static final Uri LOW_STOCK_URI = Uri.withAppendedPath(CONTENT_URI, PATH_LOW_STOCK);
+
+        /**
+         * The content URI to read the catalog as CSV. The first record names the columns, and
+         * each item follows with its price in euros, as {@link PriceFormat} writes it.
+         */
+        public static final Uri EXPORT_URI = Uri.withAppendedPath(CONTENT_URI, PATH_EXPORT);
+
+        /**
+         * The MIME type of the {@link #EXPORT_URI}.
+         */
+        public static final String CONTENT_CSV_TYPE = "text/csv";
+
+        /**
+         * Sort order for listing the catalog by name. Ties are broken on the _ID, which matches
+         * the name index so the listing needs no extra sorting.
+         */
+        public final static String SORT_ORDER_NAME = COLUMN_ITEM_NAME + " ASC, " + _ID + " ASC";
+
+        /** Reorder threshold of the items that weren't given one */
+        public final static int DEFAULT_REORDER_THRESHOLD = 5;
+
+        /**
+         * Returns the URI of the first page of the catalog listed by name, holding at most
+         * limit items.
+         */
+        public static Uri buildFirstPageUri(int limit) {
+            return buildFirstPageUri(CONTENT_URI, limit);
+        }
+
+        /**
+         * Returns the URI of the first page of the given list of items, {@link #CONTENT_URI} or
+         * {@link #LOW_STOCK_URI}, holding at most limit items.
+         */
+        public static Uri buildFirstPageUri(Uri listUri, int limit) {
+            return listUri.buildUpon()
+                    .appendQueryParameter(QUERY_PARAMETER_LIMIT, String.valueOf(limit))
+                    .build();
+        }
+
+        /**
+         * Returns the URI of the page of the catalog that follows the item with the given name
+         * and _ID, holding at most limit items. The page is found by key rather than by offset,
+         * so it costs the same however deep into the catalog it is.
+         */
+        public static Uri buildNextPageUri(String afterName, long afterId, int limit) {
+            return buildNextPageUri(CONTENT_URI, afterName, afterId, limit);
+        }
+
+        /**
+         * Returns the URI of the page of the given list of items, {@link #CONTENT_URI} or
+         * {@link #LOW_STOCK_URI}, that follows the item with the given name and _ID.
+         */
+        public static Uri buildNextPageUri(Uri listUri, String afterName, long afterId, int limit) {
+            return listUri.buildUpon()
+                    .appendQueryParameter(QUERY_PARAMETER_LIMIT, String.valueOf(limit))
+                    .appendQueryParameter(QUERY_PARAMETER_AFTER_NAME, afterName)
+                    .appendQueryParameter(QUERY_PARAMETER_AFTER_ID, String.valueOf(afterId))
+                    .build();
+        }
+
+        /**
+         * Returns the URI that finds the items whose name contains words starting with the
+         * words of the given text, best matches first.
+         */
+        public static Uri buildSearchUri(String text) {
+            return CONTENT_URI.buildUpon()
+                    .appendPath(PATH_SEARCH)
+                    .appendPath(text)
+                    .build();
+        }
+
+        /**
+         * Returns the URI that sells one unit of the given item. Updating it returns the new
+         * quantity of the item, or -1 if the item doesn't exist or is out of stock.
+         */
+        public static Uri buildSellUri(long id) {
+            return ContentUris.withAppendedId(CONTENT_URI, id).buildUpon()
+                    .appendPath(PATH_SELL)
+                    .build();
+        }
+
+        /**
+         * Returns the URI that changes the stock of the given item by delta units, recorded as
+         * a correction. Updating it returns the new quantity of the item, or -1 if the item
+         * doesn't exist or the change would make the quantity negative.
+         */
+        public static Uri buildAdjustUri(long id, int delta) {
+            return ContentUris.withAppendedId(CONTENT_URI, id).buildUpon()
+                    .appendPath(PATH_ADJUST)
+                    .appendQueryParameter(QUERY_PARAMETER_DELTA, String.valueOf(delta))
+                    .build();
+        }
+
+        /**
+         * Returns the URI that changes the stock of the given item by delta units for the given
+         * reason, one of {@link MovementEntry#REASON_SALE}, {@link MovementEntry#REASON_RESTOCK}
+         * or {@link MovementEntry#REASON_CORRECTION}.
+         */
+        public static Uri buildAdjustUri(long id, int delta, String reason) {
+            return buildAdjustUri(id, delta).buildUpon()
+                    .appendQueryParameter(QUERY_PARAMETER_REASON, reason)
+                    .build();
+        }
+
+        /**
+         * Returns the URI of the stock movements of the given item, newest first, holding at
+         * most limit movements.
+         */
+        public static Uri buildHistoryUri(long id, int limit) {
+            return ContentUris.withAppendedId(CONTENT_URI, id).buildUpon()
+                    .appendPath(PATH_HISTORY)
+                    .appendQueryParameter(QUERY_PARAMETER_LIMIT, String.valueOf(limit))
+                    .build();
+        }
+
+        /**
+         * Returns the URI that changes the stock of the given item by the number of units given
+         * by the {@link #QUERY_PARAMETER_DELTA} value of the update, for the reason given by its
+         * {@link #QUERY_PARAMETER_REASON} value.
+         */
+        public static Uri buildAdjustUri(long id) {
+            return ContentUris.withAppendedId(CONTENT_URI, id).buildUpon()
+                    .appendPath(PATH_ADJUST)
+                    .build();
+        }
+
+        /**
+         * Returns the URI the provider notifies when the given items have changed with the given
+         * operation. A single item is notified on its own URI, so only the observers of that
+         * item and of the whole table hear of it. Several items are notified on the items URI,
+         * with their _IDs in the {@link #QUERY_PARAMETER_IDS} parameter. A null array of _IDs
+         * means the changed items aren't known.
+         */
+        public static Uri buildChangeUri(String operation, long[] ids) {
+            Uri.Builder builder;
+            if (ids != null && ids.length == 1) {
+                builder = ContentUris.withAppendedId(CONTENT_URI, ids[0]).buildUpon();
+            } else {
+                builder = CONTENT_URI.buildUpon();
+                if (ids != null) {
+                    StringBuilder idList = new StringBuilder();
+                    for (long id : ids) {
+                        if (idList.length() > 0) {
+                            idList.append(',');
+                        }
+                        idList.append(id);
+                    }
+                    builder.appendQueryParameter(QUERY_PARAMETER_IDS, idList.toString());
+                }
+            }
+            if (operation != null) {
+                builder.appendQueryParameter(QUERY_PARAMETER_OPERATION, operation);
+            }
+            return builder.build();
+        }
+
+        /**
+         * Returns the operation of a change notification built by {@link #buildChangeUri},
+         * or null if it isn't known.
+         */
+        public static String getChangeOperation(Uri uri) {
+            return uri.getQueryParameter(QUERY_PARAMETER_OPERATION);
+        }
+
+        /**
+         * Returns the _IDs of the items of a change notification built by
+         * {@link #buildChangeUri}, or null if they aren't known.
+         */
+        public static long[] getChangedIds(Uri uri) {
+            String idList = uri.getQueryParameter(QUERY_PARAMETER_IDS);
+            if (idList != null) {
+                String[] parts = TextUtils.split(idList, ",");
+                long[] ids = new long[parts.length];
+                for (int i = 0; i < parts.length; i++) {
+                    ids[i] = Long.parseLong(parts[i]);
+                }
+                return ids;
+            }
+
+            List<String> segments = uri.getPathSegments();
+            if (segments.size() == 2 && TextUtils.isDigitsOnly(segments.get(1))) {
+                return new long[] { ContentUris.parseId(uri) };
+            }
+            return null;
+        }
+    }
+
+    /**
+     * Inner class that defines constant values for the statistics of the catalog. They are kept
+     * in a table of a single row, which triggers update on every change of the items, so
+     * reading them costs the same however many items there are.
+     */
+    public static final class StatsEntry implements BaseColumns {
+
+        /** The content URI to read the statistics of the catalog */
+        public static final Uri CONTENT_URI = Uri.withAppendedPath(ItemEntry.CONTENT_URI, PATH_STATS);
+
+        /**
+         * The MIME type of the {@link #CONTENT_URI}, which is a single row.
+         */
+        public static final String CONTENT_ITEM_TYPE =
+                ContentResolver.CURSOR_ITEM_BASE_TYPE + "/" + CONTENT_AUTHORITY + "/" + PATH_STATS;
+
+        /** Name of database table for the statistics */
+        public final static String TABLE_NAME = "item_stats";
+
+        /**
+         * Number of items in the catalog.
+         *
+         * Type: INTEGER
+         */
+        public final static String COLUMN_ITEM_COUNT = "item_count";
+
+        /**
+         * Number of units in stock, over all the items.
+         *
+         * Type: INTEGER
+         */
+        public final static String COLUMN_TOTAL_QUANTITY = "total_quantity";
+
+        /**
+         * Value of the stock, the sum of quantity times price over all the items, in cents.
+         *
+         * Type: INTEGER
+         */
+        public final static String COLUMN_TOTAL_VALUE = "total_value";
+
+        /**
+         * Number of items low on stock, at or below their own reorder threshold.
+         *
+         * Type: INTEGER
+         */
+        public final static String COLUMN_LOW_STOCK_COUNT = "low_stock_count";
     }
 
-}
\ No newline at end of file
+    /**
+     * Inner class that defines constant values for the stock movements table. Each entry is a
+     * change to the stock of one item, written in the same transaction as the new quantity and
+     * never changed afterwards. Old movements are rolled into one total per item and day, which
+     * the history of an item lists together with the recent movements.
+     */
+    public static final class MovementEntry implements BaseColumns {
+
+        /**
+         * The MIME type of the history of an item, a list of movements.
+         */
+        public static final String CONTENT_LIST_TYPE =
+                ContentResolver.CURSOR_DIR_BASE_TYPE + "/" + CONTENT_AUTHORITY + "/" + PATH_HISTORY;
+
+        /** Name of database table for the stock movements */
+        public final static String TABLE_NAME = "stock_movements";
+
+        /**
+         * _ID of the item whose stock changed.
+         *
+         * Type: INTEGER
+         */
+        public final static String COLUMN_ITEM_ID = "item_id";
+
+        /**
+         * Change to the stock, in units. Negative for sales.
+         *
+         * Type: INTEGER
+         */
+        public final static String COLUMN_DELTA = "delta";
+
+        /**
+         * Why the stock changed, one of {@link #REASON_SALE}, {@link #REASON_RESTOCK},
+         * {@link #REASON_CORRECTION}, or in the history {@link #REASON_DAILY_TOTAL}.
+         *
+         * Type: TEXT
+         */
+        public final static String COLUMN_REASON = "reason";
+
+        /**
+         * When the stock changed, in milliseconds since the epoch. For a daily total, the start
+         * of the day in UTC.
+         *
+         * Type: INTEGER
+         */
+        public final static String COLUMN_TIMESTAMP = "timestamp";
+
+        /**
+         * Units added to the stock. Only in the history.
+         *
+         * Type: INTEGER
+         */
+        public final static String COLUMN_UNITS_IN = "units_in";
+
+        /**
+         * Units taken from the stock. Only in the history.
+         *
+         * Type: INTEGER
+         */
+        public final static String COLUMN_UNITS_OUT = "units_out";
+
+        /**
+         * Number of movements the row stands for, 1 unless it is a daily total. Only in the
+         * history.
+         *
+         * Type: INTEGER
+         */
+        public final static String COLUMN_MOVEMENT_COUNT = "movement_count";
+
+        /** Possible values of {@link #COLUMN_REASON} */
+        public static final String REASON_SALE = "sale";
+        public static final String REASON_RESTOCK = "restock";
+        public static final String REASON_CORRECTION = "correction";
+        public static final String REASON_DAILY_TOTAL = "daily_total";
+    }
+}
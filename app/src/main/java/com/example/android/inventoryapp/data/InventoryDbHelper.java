@@ -6,16 +6,101 @@ import android.database.sqlite.SQLiteOpenHelper;
 import android.util.Log;
 
 import static com.example.android.inventoryapp.data.InventoryContract.ItemEntry;
+import static com.example.android.inventoryapp.data.InventoryContract.MovementEntry;
+import static com.example.android.inventoryapp.data.InventoryContract.StatsEntry;
 
 public class InventoryDbHelper extends SQLiteOpenHelper  {
 
     public static final String LOG_TAG = InventoryDbHelper.class.getSimpleName();
 
-    public static final int DATABASE_VERSION = 1;
+    /**
+     * Database version. Every schema change bumps this number and adds a matching step to
+     * {@link #onUpgrade}, so existing databases are migrated in order without losing data.
+     *
+     * 1: items table
+     * 2: indexes for the catalog listing and low-stock lookups
+     * 3: full-text search index on the item names
+     * 4: prices stored as whole cents instead of floating point euros
+     * 5: catalog statistics kept up to date by triggers
+     * 6: reorder threshold per item, with an indexed low-stock flag
+     * 7: ledger of stock movements, with daily totals of the old ones
+     */
+    public static final int DATABASE_VERSION = 7;
     public static final String DATABASE_NAME = "stock.db";
 
+    /**
+     * Size of the page cache of the primary connection. Negative values are in KiB, so this is
+     * 4 MB.
+     */
+    private static final int PAGE_CACHE_SIZE = -4096;
+
+    /** Name of the covering index used to list the catalog ordered by name */
+    public static final String INDEX_ITEMS_NAME = "items_name_idx";
+
+    /** Name of the index used to filter items by quantity */
+    public static final String INDEX_ITEMS_QUANTITY = "items_quantity_idx";
+
+    /** Name of the index used to list the items low on stock ordered by name */
+    public static final String INDEX_ITEMS_LOW_STOCK = "items_low_stock_idx";
+
+    /** Version 5 counted the items with at most this many units as low on stock */
+    private static final int VERSION_5_LOW_STOCK_THRESHOLD = 5;
+
+    /**
+     * Name of the FTS4 table indexing the item names. It is an external content table: it
+     * stores no copy of the names, its docid is the _ID of the item, and triggers on the items
+     * table keep it in sync.
+     */
+    public static final String TABLE_ITEMS_FTS = "items_fts";
+
+    /** Name of the index used to read the movements of an item in time order */
+    public static final String INDEX_MOVEMENTS_ITEM = "stock_movements_item_idx";
+
+    /**
+     * Name of the table holding the totals of the old stock movements, one row per item and
+     * UTC day. The movements rolled into a total are deleted from the movements table.
+     */
+    public static final String TABLE_MOVEMENT_DAYS = "stock_movement_days";
+
+    /** Start of the day of a daily total, in milliseconds since the epoch */
+    public static final String COLUMN_DAY = "day";
+
     public InventoryDbHelper(Context context){
-        super(context, DATABASE_NAME, null, DATABASE_VERSION);
+        this(context, DATABASE_NAME);
+    }
+
+    /**
+     * Create a helper for the database with the given file name. Used by tests to work on a
+     * database other than the app's own.
+     */
+    InventoryDbHelper(Context context, String name) {
+        super(context, name, null, DATABASE_VERSION);
+        // With write-ahead logging the catalog loaders keep reading from their own connections
+        // while a sale is being written, instead of waiting for the write lock
+        setWriteAheadLoggingEnabled(true);
+    }
+
+    /**
+     * Tune the connection for our workload: many small writes (sales) and reads of short pages.
+     * Called every time the database is opened, before it is created or upgraded.
+     *
+     * These pragmas only reach the primary connection, the one open when this is called. It
+     * runs every write and every read made inside a transaction. With write-ahead logging the
+     * pool opens further connections for the other reads later, and Android offers no hook
+     * for them, so they keep SQLite's defaults. That suits them: the catalog only reads short
+     * keyset pages through the covering name index, which fit in the default cache and don't
+     * sort.
+     */
+    @Override
+    public void onConfigure(SQLiteDatabase db) {
+        super.onConfigure(db);
+        // With WAL, NORMAL only syncs at checkpoints and can't corrupt the database. A power
+        // loss may roll back the last few commits, which is fine for stock counts.
+        db.execSQL("PRAGMA synchronous = NORMAL");
+        // Keep the hot part of the name index and the recently sold rows in memory for the writes
+        db.execSQL("PRAGMA cache_size = " + PAGE_CACHE_SIZE);
+        // Sorting and temporary indexes of the writes and migrations never touch the disk
+        db.execSQL("PRAGMA temp_store = MEMORY");
     }
 
     @Override
@@ -31,9 +116,320 @@ public class InventoryDbHelper extends SQLiteOpenHelper  {
         Log.e(LOG_TAG, "Current SQL statement" + SQL_CREATE_ITEMS_TABLE);
         // Execute the SQL statement
         db.execSQL(SQL_CREATE_ITEMS_TABLE);
+
+        // A new database starts at version 1 and goes through the same migration steps
+        // as an existing one, so both always end up with the same schema
+        onUpgrade(db, 1, DATABASE_VERSION);
     }
 
+    /**
+     * Run every migration step between oldVersion and newVersion, in order. SQLiteOpenHelper
+     * calls this inside a transaction, so a failing step leaves the database untouched.
+     */
     @Override
     public void onUpgrade(SQLiteDatabase db, int oldVersion, int newVersion){
+        for (int version = oldVersion + 1; version <= newVersion; version++) {
+            Log.i(LOG_TAG, "Upgrading database to version " + version);
+            switch (version) {
+                case 2:
+                    upgradeToVersion2(db);
+                    break;
+                case 3:
+                    upgradeToVersion3(db);
+                    break;
+                case 4:
+                    upgradeToVersion4(db);
+                    break;
+                case 5:
+                    upgradeToVersion5(db);
+                    break;
+                case 6:
+                    upgradeToVersion6(db);
+                    break;
+                case 7:
+                    upgradeToVersion7(db);
+                    break;
+                default:
+                    throw new IllegalStateException("No migration to database version " + version);
+            }
+        }
+    }
+
+    /**
+     * Version 2 adds a covering index for the catalog projection ordered by name, and an index
+     * on the quantity for low-stock filters. Indexes only add data, so no row can be lost.
+     */
+    private void upgradeToVersion2(SQLiteDatabase db) {
+        createItemIndexes(db);
+    }
+
+    private static void createItemIndexes(SQLiteDatabase db) {
+        // The _ID is part of the index so that ties on the name keep a stable order
+        db.execSQL("CREATE INDEX IF NOT EXISTS " + INDEX_ITEMS_NAME + " ON " + ItemEntry.TABLE_NAME + " ("
+                + ItemEntry.COLUMN_ITEM_NAME + ", "
+                + ItemEntry._ID + ", "
+                + ItemEntry.COLUMN_ITEM_QUANTITY + ", "
+                + ItemEntry.COLUMN_ITEM_PRICE + ");");
+        db.execSQL("CREATE INDEX IF NOT EXISTS " + INDEX_ITEMS_QUANTITY + " ON " + ItemEntry.TABLE_NAME + " ("
+                + ItemEntry.COLUMN_ITEM_QUANTITY + ");");
+    }
+
+    /**
+     * Version 3 adds the full-text search index on the item names, the triggers that keep it in
+     * sync with the items table, and fills it from the existing rows.
+     */
+    private void upgradeToVersion3(SQLiteDatabase db) {
+        // Prefix indexes for 2 and 3 characters keep the short prefixes typed in the
+        // search box from expanding into a scan of the whole term list
+        db.execSQL("CREATE VIRTUAL TABLE " + TABLE_ITEMS_FTS + " USING fts4("
+                + "content=\"" + ItemEntry.TABLE_NAME + "\", "
+                + "prefix=\"2,3\", "
+                + ItemEntry.COLUMN_ITEM_NAME + ");");
+
+        createSearchTriggers(db);
+
+        // Index the items that already exist
+        db.execSQL("INSERT INTO " + TABLE_ITEMS_FTS + " (" + TABLE_ITEMS_FTS + ") VALUES ('rebuild');");
+    }
+
+    private static void createSearchTriggers(SQLiteDatabase db) {
+        // The old name has to be removed before the row changes, and the new one added after.
+        // Only name changes touch the index, so stock updates don't pay for it.
+        db.execSQL("CREATE TRIGGER " + TABLE_ITEMS_FTS + "_before_update"
+                + " BEFORE UPDATE OF " + ItemEntry.COLUMN_ITEM_NAME + " ON " + ItemEntry.TABLE_NAME
+                + " BEGIN DELETE FROM " + TABLE_ITEMS_FTS + " WHERE docid = old." + ItemEntry._ID + "; END;");
+        db.execSQL("CREATE TRIGGER " + TABLE_ITEMS_FTS + "_before_delete"
+                + " BEFORE DELETE ON " + ItemEntry.TABLE_NAME
+                + " BEGIN DELETE FROM " + TABLE_ITEMS_FTS + " WHERE docid = old." + ItemEntry._ID + "; END;");
+        db.execSQL("CREATE TRIGGER " + TABLE_ITEMS_FTS + "_after_update"
+                + " AFTER UPDATE OF " + ItemEntry.COLUMN_ITEM_NAME + " ON " + ItemEntry.TABLE_NAME
+                + " BEGIN INSERT INTO " + TABLE_ITEMS_FTS + " (docid, " + ItemEntry.COLUMN_ITEM_NAME + ")"
+                + " VALUES (new." + ItemEntry._ID + ", new." + ItemEntry.COLUMN_ITEM_NAME + "); END;");
+        db.execSQL("CREATE TRIGGER " + TABLE_ITEMS_FTS + "_after_insert"
+                + " AFTER INSERT ON " + ItemEntry.TABLE_NAME
+                + " BEGIN INSERT INTO " + TABLE_ITEMS_FTS + " (docid, " + ItemEntry.COLUMN_ITEM_NAME + ")"
+                + " VALUES (new." + ItemEntry._ID + ", new." + ItemEntry.COLUMN_ITEM_NAME + "); END;");
+    }
+
+    /**
+     * Version 4 stores the prices as whole cents, so they add up exactly and are compared as
+     * integers. SQLite can't change the type of a column, so the items table is copied into
+     * a new one with the converted prices, keeping the _IDs, which the search index refers to.
+     * The indexes and triggers go away with the old table and are created again.
+     */
+    private void upgradeToVersion4(SQLiteDatabase db) {
+        String newTable = ItemEntry.TABLE_NAME + "_new";
+        db.execSQL("CREATE TABLE " + newTable + " ("
+                + ItemEntry._ID + " INTEGER PRIMARY KEY AUTOINCREMENT, "
+                + ItemEntry.COLUMN_ITEM_NAME + " TEXT NOT NULL, "
+                + ItemEntry.COLUMN_ITEM_QUANTITY + " INTEGER DEFAULT 1, "
+                + ItemEntry.COLUMN_ITEM_PRICE + " INTEGER NOT NULL, "
+                + ItemEntry.COLUMN_ITEM_IMAGE + " TEXT NOT NULL);");
+        // Rounding to the nearest cent absorbs the binary error of the old floating point values
+        db.execSQL("INSERT INTO " + newTable + " ("
+                + ItemEntry._ID + ", "
+                + ItemEntry.COLUMN_ITEM_NAME + ", "
+                + ItemEntry.COLUMN_ITEM_QUANTITY + ", "
+                + ItemEntry.COLUMN_ITEM_PRICE + ", "
+                + ItemEntry.COLUMN_ITEM_IMAGE + ")"
+                + " SELECT " + ItemEntry._ID + ", "
+                + ItemEntry.COLUMN_ITEM_NAME + ", "
+                + ItemEntry.COLUMN_ITEM_QUANTITY + ", "
+                + "CAST(ROUND(" + ItemEntry.COLUMN_ITEM_PRICE + " * 100) AS INTEGER), "
+                + ItemEntry.COLUMN_ITEM_IMAGE
+                + " FROM " + ItemEntry.TABLE_NAME + ";");
+
+        // Carry the AUTOINCREMENT counter over, so the _IDs of deleted items are never reused
+        db.execSQL("DELETE FROM sqlite_sequence WHERE name = '" + newTable + "';");
+        db.execSQL("UPDATE sqlite_sequence SET name = '" + newTable + "'"
+                + " WHERE name = '" + ItemEntry.TABLE_NAME + "';");
+
+        db.execSQL("DROP TABLE " + ItemEntry.TABLE_NAME + ";");
+        db.execSQL("ALTER TABLE " + newTable + " RENAME TO " + ItemEntry.TABLE_NAME + ";");
+
+        createItemIndexes(db);
+        createSearchTriggers(db);
+    }
+
+    /**
+     * Version 5 adds the single row table of statistics of the catalog, fills it from the
+     * existing items, and adds the triggers that add and remove the share of each item as it
+     * is inserted, updated or deleted. Reading the statistics then never scans the items.
+     */
+    private void upgradeToVersion5(SQLiteDatabase db) {
+        db.execSQL("CREATE TABLE " + StatsEntry.TABLE_NAME + " ("
+                + StatsEntry._ID + " INTEGER PRIMARY KEY CHECK (" + StatsEntry._ID + " = 1), "
+                + StatsEntry.COLUMN_ITEM_COUNT + " INTEGER NOT NULL, "
+                + StatsEntry.COLUMN_TOTAL_QUANTITY + " INTEGER NOT NULL, "
+                + StatsEntry.COLUMN_TOTAL_VALUE + " INTEGER NOT NULL, "
+                + StatsEntry.COLUMN_LOW_STOCK_COUNT + " INTEGER NOT NULL);");
+        // SUM() of no item is NULL, and the statistics start at 0
+        db.execSQL("INSERT INTO " + StatsEntry.TABLE_NAME + " SELECT 1, "
+                + "COUNT(*), "
+                + "IFNULL(SUM(" + quantityOf(null) + "), 0), "
+                + "IFNULL(SUM(" + valueOf(null) + "), 0), "
+                + "IFNULL(SUM(" + lowStockOf(null, false) + "), 0)"
+                + " FROM " + ItemEntry.TABLE_NAME + ";");
+
+        createStatsTriggers(db, false);
+    }
+
+    /**
+     * Create the triggers that keep the statistics up to date. Before version 6 an item is low
+     * on stock below a fixed threshold, from version 6 on when its low-stock flag is set.
+     */
+    private static void createStatsTriggers(SQLiteDatabase db, boolean lowStockFlag) {
+        db.execSQL("CREATE TRIGGER " + StatsEntry.TABLE_NAME + "_after_insert"
+                + " AFTER INSERT ON " + ItemEntry.TABLE_NAME
+                + " BEGIN UPDATE " + StatsEntry.TABLE_NAME + " SET "
+                + StatsEntry.COLUMN_ITEM_COUNT + " = " + StatsEntry.COLUMN_ITEM_COUNT + " + 1, "
+                + StatsEntry.COLUMN_TOTAL_QUANTITY + " = " + StatsEntry.COLUMN_TOTAL_QUANTITY + " + " + quantityOf("new") + ", "
+                + StatsEntry.COLUMN_TOTAL_VALUE + " = " + StatsEntry.COLUMN_TOTAL_VALUE + " + " + valueOf("new") + ", "
+                + StatsEntry.COLUMN_LOW_STOCK_COUNT + " = " + StatsEntry.COLUMN_LOW_STOCK_COUNT + " + " + lowStockOf("new", lowStockFlag)
+                + "; END;");
+        db.execSQL("CREATE TRIGGER " + StatsEntry.TABLE_NAME + "_after_delete"
+                + " AFTER DELETE ON " + ItemEntry.TABLE_NAME
+                + " BEGIN UPDATE " + StatsEntry.TABLE_NAME + " SET "
+                + StatsEntry.COLUMN_ITEM_COUNT + " = " + StatsEntry.COLUMN_ITEM_COUNT + " - 1, "
+                + StatsEntry.COLUMN_TOTAL_QUANTITY + " = " + StatsEntry.COLUMN_TOTAL_QUANTITY + " - " + quantityOf("old") + ", "
+                + StatsEntry.COLUMN_TOTAL_VALUE + " = " + StatsEntry.COLUMN_TOTAL_VALUE + " - " + valueOf("old") + ", "
+                + StatsEntry.COLUMN_LOW_STOCK_COUNT + " = " + StatsEntry.COLUMN_LOW_STOCK_COUNT + " - " + lowStockOf("old", lowStockFlag)
+                + "; END;");
+        // Renames and new images don't change the statistics, so they don't pay for this
+        String columns = ItemEntry.COLUMN_ITEM_QUANTITY + ", " + ItemEntry.COLUMN_ITEM_PRICE;
+        if (lowStockFlag) {
+            columns += ", " + ItemEntry.COLUMN_ITEM_LOW_STOCK;
+        }
+        db.execSQL("CREATE TRIGGER " + StatsEntry.TABLE_NAME + "_after_update"
+                + " AFTER UPDATE OF " + columns
+                + " ON " + ItemEntry.TABLE_NAME
+                + " BEGIN UPDATE " + StatsEntry.TABLE_NAME + " SET "
+                + StatsEntry.COLUMN_TOTAL_QUANTITY + " = " + StatsEntry.COLUMN_TOTAL_QUANTITY
+                + " + " + quantityOf("new") + " - " + quantityOf("old") + ", "
+                + StatsEntry.COLUMN_TOTAL_VALUE + " = " + StatsEntry.COLUMN_TOTAL_VALUE
+                + " + " + valueOf("new") + " - " + valueOf("old") + ", "
+                + StatsEntry.COLUMN_LOW_STOCK_COUNT + " = " + StatsEntry.COLUMN_LOW_STOCK_COUNT
+                + " + " + lowStockOf("new", lowStockFlag) + " - " + lowStockOf("old", lowStockFlag)
+                + "; END;");
+    }
+
+    /**
+     * Version 6 gives every item its own reorder threshold, and a low-stock flag that triggers
+     * set whenever the quantity or the threshold crosses the other. SQLite before 3.8 (Android
+     * before 5.0) has no partial indexes, so the flag leads an ordinary index instead, which
+     * lists the items low on stock by name without reading the others. The statistics then
+     * count the flags rather than a fixed threshold.
+     */
+    private void upgradeToVersion6(SQLiteDatabase db) {
+        db.execSQL("ALTER TABLE " + ItemEntry.TABLE_NAME + " ADD COLUMN "
+                + ItemEntry.COLUMN_ITEM_REORDER_THRESHOLD + " INTEGER NOT NULL DEFAULT "
+                + ItemEntry.DEFAULT_REORDER_THRESHOLD + ";");
+        db.execSQL("ALTER TABLE " + ItemEntry.TABLE_NAME + " ADD COLUMN "
+                + ItemEntry.COLUMN_ITEM_LOW_STOCK + " INTEGER NOT NULL DEFAULT 0;");
+
+        // The statistics are counted again once the flags are set
+        db.execSQL("DROP TRIGGER " + StatsEntry.TABLE_NAME + "_after_insert;");
+        db.execSQL("DROP TRIGGER " + StatsEntry.TABLE_NAME + "_after_delete;");
+        db.execSQL("DROP TRIGGER " + StatsEntry.TABLE_NAME + "_after_update;");
+
+        db.execSQL("UPDATE " + ItemEntry.TABLE_NAME + " SET "
+                + ItemEntry.COLUMN_ITEM_LOW_STOCK + " = " + isBelowThreshold(null) + ";");
+        createLowStockTriggers(db);
+        db.execSQL("CREATE INDEX " + INDEX_ITEMS_LOW_STOCK + " ON " + ItemEntry.TABLE_NAME + " ("
+                + ItemEntry.COLUMN_ITEM_LOW_STOCK + ", "
+                + ItemEntry.COLUMN_ITEM_NAME + ", "
+                + ItemEntry._ID + ");");
+
+        createStatsTriggers(db, true);
+        db.execSQL("UPDATE " + StatsEntry.TABLE_NAME + " SET " + StatsEntry.COLUMN_LOW_STOCK_COUNT
+                + " = (SELECT COUNT(*) FROM " + ItemEntry.TABLE_NAME
+                + " WHERE " + ItemEntry.COLUMN_ITEM_LOW_STOCK + " = 1);");
+    }
+
+    private static void createLowStockTriggers(SQLiteDatabase db) {
+        // The flag is only written when it changes, so a sale that doesn't cross the
+        // threshold costs a comparison and no extra write
+        String setFlag = " WHEN new." + ItemEntry.COLUMN_ITEM_LOW_STOCK + " != " + isBelowThreshold("new")
+                + " BEGIN UPDATE " + ItemEntry.TABLE_NAME
+                + " SET " + ItemEntry.COLUMN_ITEM_LOW_STOCK + " = " + isBelowThreshold(null)
+                + " WHERE " + ItemEntry._ID + " = new." + ItemEntry._ID + "; END;";
+        db.execSQL("CREATE TRIGGER " + ItemEntry.TABLE_NAME + "_low_stock_after_insert"
+                + " AFTER INSERT ON " + ItemEntry.TABLE_NAME + setFlag);
+        db.execSQL("CREATE TRIGGER " + ItemEntry.TABLE_NAME + "_low_stock_after_update"
+                + " AFTER UPDATE OF " + ItemEntry.COLUMN_ITEM_QUANTITY + ", "
+                + ItemEntry.COLUMN_ITEM_REORDER_THRESHOLD
+                + " ON " + ItemEntry.TABLE_NAME + setFlag);
+    }
+
+    /**
+     * Version 7 adds the append-only ledger of stock movements, indexed by item and time so the
+     * history of one item is read directly, and the table of daily totals the old movements are
+     * compacted into. Deleting an item deletes its history.
+     */
+    private void upgradeToVersion7(SQLiteDatabase db) {
+        // No AUTOINCREMENT: nothing refers to the _ID of a movement, so appending a movement
+        // doesn't need to update sqlite_sequence as well
+        db.execSQL("CREATE TABLE " + MovementEntry.TABLE_NAME + " ("
+                + MovementEntry._ID + " INTEGER PRIMARY KEY, "
+                + MovementEntry.COLUMN_ITEM_ID + " INTEGER NOT NULL, "
+                + MovementEntry.COLUMN_DELTA + " INTEGER NOT NULL, "
+                + MovementEntry.COLUMN_REASON + " TEXT NOT NULL, "
+                + MovementEntry.COLUMN_TIMESTAMP + " INTEGER NOT NULL);");
+        db.execSQL("CREATE INDEX " + INDEX_MOVEMENTS_ITEM + " ON " + MovementEntry.TABLE_NAME + " ("
+                + MovementEntry.COLUMN_ITEM_ID + ", "
+                + MovementEntry.COLUMN_TIMESTAMP + ");");
+
+        db.execSQL("CREATE TABLE " + TABLE_MOVEMENT_DAYS + " ("
+                + MovementEntry.COLUMN_ITEM_ID + " INTEGER NOT NULL, "
+                + COLUMN_DAY + " INTEGER NOT NULL, "
+                + MovementEntry.COLUMN_UNITS_IN + " INTEGER NOT NULL, "
+                + MovementEntry.COLUMN_UNITS_OUT + " INTEGER NOT NULL, "
+                + MovementEntry.COLUMN_MOVEMENT_COUNT + " INTEGER NOT NULL, "
+                + "PRIMARY KEY (" + MovementEntry.COLUMN_ITEM_ID + ", " + COLUMN_DAY + "));");
+
+        db.execSQL("CREATE TRIGGER " + MovementEntry.TABLE_NAME + "_after_item_delete"
+                + " AFTER DELETE ON " + ItemEntry.TABLE_NAME
+                + " BEGIN DELETE FROM " + MovementEntry.TABLE_NAME
+                + " WHERE " + MovementEntry.COLUMN_ITEM_ID + " = old." + ItemEntry._ID + ";"
+                + " DELETE FROM " + TABLE_MOVEMENT_DAYS
+                + " WHERE " + MovementEntry.COLUMN_ITEM_ID + " = old." + ItemEntry._ID + "; END;");
+    }
+
+    /**
+     * Return the SQL expression of the quantity of an item, counting a missing quantity as 0.
+     * The row is "new" or "old" in a trigger, or null for the row of a query.
+     */
+    private static String quantityOf(String row) {
+        return "IFNULL(" + column(row, ItemEntry.COLUMN_ITEM_QUANTITY) + ", 0)";
+    }
+
+    /**
+     * Return the SQL expression of the value of the stock of an item, in cents.
+     */
+    private static String valueOf(String row) {
+        return "(" + quantityOf(row) + " * " + column(row, ItemEntry.COLUMN_ITEM_PRICE) + ")";
+    }
+
+    /**
+     * Return the SQL expression that is 1 if an item is counted as low on stock, 0 otherwise:
+     * its low-stock flag, or before the flag existed, its quantity against a fixed threshold.
+     */
+    private static String lowStockOf(String row, boolean lowStockFlag) {
+        if (lowStockFlag) {
+            return column(row, ItemEntry.COLUMN_ITEM_LOW_STOCK);
+        }
+        return "(" + quantityOf(row) + " <= " + VERSION_5_LOW_STOCK_THRESHOLD + ")";
+    }
+
+    /**
+     * Return the SQL expression that is 1 if the quantity of an item is at or below its reorder
+     * threshold, 0 otherwise. This is the value the low-stock flag must hold.
+     */
+    private static String isBelowThreshold(String row) {
+        return "(" + quantityOf(row) + " <= " + column(row, ItemEntry.COLUMN_ITEM_REORDER_THRESHOLD) + ")";
+    }
+
+    private static String column(String row, String column) {
+        return row == null ? column : row + "." + column;
     }
 }
@@ -1,15 +1,51 @@
 package com.example.android.inventoryapp.data;
 
+import android.content.ClipDescription;
+import android.content.ContentResolver;
 import android.content.ContentProvider;
+import android.content.ContentProviderOperation;
+import android.content.ContentProviderResult;
 import android.content.ContentUris;
 import android.content.ContentValues;
+import android.content.OperationApplicationException;
 import android.content.UriMatcher;
+import android.database.AbstractWindowedCursor;
 import android.database.Cursor;
+import android.database.DatabaseUtils;
+import android.database.MatrixCursor;
 import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteException;
+import android.database.sqlite.SQLiteQueryBuilder;
+import android.database.sqlite.SQLiteStatement;
 import android.net.Uri;
+import android.os.Bundle;
+import android.os.ParcelFileDescriptor;
+import android.text.TextUtils;
+import android.text.format.DateUtils;
 import android.util.Log;
 
 import com.example.android.inventoryapp.data.InventoryContract.ItemEntry;
+import com.example.android.inventoryapp.data.InventoryContract.MovementEntry;
+import com.example.android.inventoryapp.data.InventoryContract.StatsEntry;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
 
 /**
  * {@link ContentProvider} for Inventory app.
@@ -23,6 +59,27 @@ public class InventoryProvider extends ContentProvider {
     /** URI matcher code for the content URI for a single item in the items table */
     private static final int INVENTORY_ID = 101;
 
+    /** URI matcher code for the content URI that sells one unit of a single item */
+    private static final int INVENTORY_SELL = 102;
+
+    /** URI matcher code for the content URI that adjusts the stock of a single item */
+    private static final int INVENTORY_ADJUST = 103;
+
+    /** URI matcher code for the content URI that searches the items by name */
+    private static final int INVENTORY_SEARCH = 104;
+
+    /** URI matcher code for the content URI of the statistics of the catalog */
+    private static final int INVENTORY_STATS = 105;
+
+    /** URI matcher code for the content URI that lists the items low on stock */
+    private static final int INVENTORY_LOW_STOCK = 106;
+
+    /** URI matcher code for the content URI of the stock movements of a single item */
+    private static final int INVENTORY_HISTORY = 107;
+
+    /** URI matcher code for the content URI of the catalog as CSV */
+    private static final int INVENTORY_EXPORT = 108;
+
     /**
      * UriMatcher object to match a content URI to a corresponding code.
      * The input passed into the constructor represents the code to return for the root URI.
@@ -39,17 +96,205 @@ public class InventoryProvider extends ContentProvider {
         sUriMatcher.addURI(InventoryContract.CONTENT_AUTHORITY, InventoryContract.PATH_ITEMS, INVENTORIES);
 
         sUriMatcher.addURI(InventoryContract.CONTENT_AUTHORITY, InventoryContract.PATH_ITEMS + "/#", INVENTORY_ID);
+
+        sUriMatcher.addURI(InventoryContract.CONTENT_AUTHORITY,
+                InventoryContract.PATH_ITEMS + "/#/" + InventoryContract.PATH_SELL, INVENTORY_SELL);
+
+        sUriMatcher.addURI(InventoryContract.CONTENT_AUTHORITY,
+                InventoryContract.PATH_ITEMS + "/#/" + InventoryContract.PATH_ADJUST, INVENTORY_ADJUST);
+
+        sUriMatcher.addURI(InventoryContract.CONTENT_AUTHORITY,
+                InventoryContract.PATH_ITEMS + "/" + InventoryContract.PATH_SEARCH + "/*", INVENTORY_SEARCH);
+
+        sUriMatcher.addURI(InventoryContract.CONTENT_AUTHORITY,
+                InventoryContract.PATH_ITEMS + "/" + InventoryContract.PATH_STATS, INVENTORY_STATS);
+
+        sUriMatcher.addURI(InventoryContract.CONTENT_AUTHORITY,
+                InventoryContract.PATH_ITEMS + "/" + InventoryContract.PATH_LOW_STOCK, INVENTORY_LOW_STOCK);
+
+        sUriMatcher.addURI(InventoryContract.CONTENT_AUTHORITY,
+                InventoryContract.PATH_ITEMS + "/#/" + InventoryContract.PATH_HISTORY, INVENTORY_HISTORY);
+
+        sUriMatcher.addURI(InventoryContract.CONTENT_AUTHORITY,
+                InventoryContract.PATH_ITEMS + "/" + InventoryContract.PATH_EXPORT, INVENTORY_EXPORT);
     }
 
+    /**
+     * Tables joined to search the items: the full-text index gives the matching ids,
+     * the items table the rest of the columns.
+     */
+    private static final String SEARCH_TABLES = ItemEntry.TABLE_NAME + " JOIN "
+            + InventoryDbHelper.TABLE_ITEMS_FTS + " ON "
+            + ItemEntry.TABLE_NAME + "." + ItemEntry._ID + " = " + InventoryDbHelper.TABLE_ITEMS_FTS + ".docid";
+
+    /**
+     * Columns of the search results. Both joined tables have a name column, so every column is
+     * qualified with the items table.
+     */
+    private static final Map<String, String> sSearchProjectionMap = new HashMap<>();
+
+    /** Columns a search can return */
+    private static final String[] SEARCH_COLUMNS = { ItemEntry._ID, ItemEntry.COLUMN_ITEM_NAME,
+            ItemEntry.COLUMN_ITEM_QUANTITY, ItemEntry.COLUMN_ITEM_PRICE, ItemEntry.COLUMN_ITEM_IMAGE };
+
+    static {
+        for (String column : SEARCH_COLUMNS) {
+            sSearchProjectionMap.put(column, ItemEntry.TABLE_NAME + "." + column + " AS " + column);
+        }
+    }
+
+    /**
+     * Number of operations a batch has to run before it offers to yield the database to other
+     * threads at the next yield point.
+     */
+    private static final int MAX_OPERATIONS_PER_YIELD_POINT = 500;
+
+    /** Time to sleep after yielding the database inside a batch, in milliseconds */
+    private static final long SLEEP_AFTER_YIELD_DELAY = 4000;
+
     /** Database Helper object*/
     private InventoryDbHelper mDbHelper;
 
+    /**
+     * Held for reading by every use of the database, and for writing while a restore swaps the
+     * database file, so nothing reads or writes the file while it is replaced.
+     */
+    private final ReadWriteLock mDatabaseLock = new ReentrantReadWriteLock();
+
+    /**
+     * Number of times the database has been replaced, so the {@link LiveCursor}s read from the
+     * database before can tell their connection is gone.
+     */
+    private final AtomicInteger mDatabaseReplacements = new AtomicInteger();
+
+    /** Suffixes of the files SQLite keeps next to a database */
+    private static final String[] DATABASE_FILE_SUFFIXES = { "-journal", "-wal", "-shm" };
+
+    /** Size of the buffer the database is copied through, in bytes */
+    private static final int COPY_BUFFER_SIZE = 64 * 1024;
+
+    /**
+     * Change notifications held back while {@link #applyBatch} runs on the current thread.
+     * Null when no batch is in progress, in which case notifications are sent right away.
+     */
+    private final ThreadLocal<List<Uri>> mPendingNotifications = new ThreadLocal<>();
+
+    /** Results of the latest queries, valid until the next write */
+    private final QueryCache mQueryCache = new QueryCache();
+
+    /** Number of queries between two logs of the hit rate of the query cache */
+    private static final int QUERY_CACHE_LOG_INTERVAL = 100;
+
+    /**
+     * Names of the URI matcher codes in the metrics, from {@link #INVENTORIES} on, in the order
+     * of the codes.
+     */
+    private static final String[] MATCH_NAMES = {
+            InventoryContract.PATH_ITEMS,
+            InventoryContract.PATH_ITEMS + "/#",
+            InventoryContract.PATH_ITEMS + "/#/" + InventoryContract.PATH_SELL,
+            InventoryContract.PATH_ITEMS + "/#/" + InventoryContract.PATH_ADJUST,
+            InventoryContract.PATH_ITEMS + "/" + InventoryContract.PATH_SEARCH,
+            InventoryContract.PATH_ITEMS + "/" + InventoryContract.PATH_STATS,
+            InventoryContract.PATH_ITEMS + "/" + InventoryContract.PATH_LOW_STOCK,
+            InventoryContract.PATH_ITEMS + "/#/" + InventoryContract.PATH_HISTORY,
+            InventoryContract.PATH_ITEMS + "/" + InventoryContract.PATH_EXPORT };
+
+    /** Calls, rows and latencies of the queries, inserts, updates and deletes */
+    private final ProviderMetrics mMetrics = new ProviderMetrics(INVENTORIES, MATCH_NAMES);
+
+    /** Hits and misses of the query cache when the metrics were last reset */
+    private volatile long mCacheHitsAtReset;
+    private volatile long mCacheMissesAtReset;
+
+    /** Number of items read from the database at a time while exporting the catalog */
+    private static final int EXPORT_PAGE_SIZE = 1000;
+
+    /**
+     * Writes the catalog as CSV into the pipe returned by {@link #openFile}, on a background
+     * thread, while the reader drains the other end.
+     */
+    private final PipeDataWriter<Void> mCsvExporter = new PipeDataWriter<Void>() {
+        @Override
+        public void writeDataToPipe(ParcelFileDescriptor output, Uri uri, String mimeType,
+                                    Bundle opts, Void args) {
+            // The pipe is closed by the caller once this returns, so the stream is only flushed
+            try {
+                Writer writer = new BufferedWriter(new OutputStreamWriter(
+                        new FileOutputStream(output.getFileDescriptor()), "UTF-8"));
+                exportItems(writer);
+                writer.flush();
+            } catch (IOException e) {
+                // Most likely the reader stopped reading
+                Log.w(LOG_TAG, "Export of the catalog stopped", e);
+            }
+        }
+    };
+
     /**
      * Perform the query for the given URI. Use the given projection, selection, selection arguments, and sort order.
+     * Results are served from the query cache when nothing has been written since they were read.
      */
     @Override
     public Cursor query(Uri uri, String[] projection, String selection, String[] selectionArgs,
                         String sortOrder) {
+        long start = System.nanoTime();
+        int match = sUriMatcher.match(uri);
+        mDatabaseLock.readLock().lock();
+        try {
+            List<Object> key = QueryCache.buildKey(uri.toString(), projection, selection, selectionArgs, sortOrder);
+            Cursor cursor = mQueryCache.get(key);
+            if (cursor == null) {
+                // Take the generation before reading, so a write made meanwhile keeps it out of the cache
+                long generation = mQueryCache.getGeneration();
+                cursor = mQueryCache.put(key, generation,
+                        queryDatabase(uri, projection, selection, selectionArgs, sortOrder));
+                // A result too big to cache still reads the database as it moves
+                if (cursor instanceof AbstractWindowedCursor) {
+                    cursor = new LiveCursor(cursor, mDatabaseReplacements);
+                }
+            }
+            logQueryCacheStats();
+
+            // Set notification URI on the Cursor,
+            // so we know what content URI the Cursor was created for.
+            // If the data at this URI changes, then we know we need to update the Cursor.
+            // Any change to the items can change the search results, the statistics and the
+            // items low on stock.
+            Uri notificationUri = match == INVENTORY_SEARCH || match == INVENTORY_STATS
+                    || match == INVENTORY_LOW_STOCK ? ItemEntry.CONTENT_URI : uri;
+            cursor.setNotificationUri(getContext().getContentResolver(), notificationUri);
+
+            mMetrics.record(ProviderMetrics.QUERY, match, start, cursor.getCount());
+            return cursor;
+        } catch (RuntimeException e) {
+            mMetrics.recordError(ProviderMetrics.QUERY, match, start);
+            throw e;
+        } finally {
+            mDatabaseLock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Return the query cache, to check its hit rate.
+     */
+    QueryCache getQueryCache() {
+        return mQueryCache;
+    }
+
+    private void logQueryCacheStats() {
+        long hits = mQueryCache.getHitCount();
+        long misses = mQueryCache.getMissCount();
+        if ((hits + misses) % QUERY_CACHE_LOG_INTERVAL == 0) {
+            Log.d(LOG_TAG, "Query cache: " + hits + " hits, " + misses + " misses");
+        }
+    }
+
+    /**
+     * Run the query for the given URI against the database.
+     */
+    private Cursor queryDatabase(Uri uri, String[] projection, String selection, String[] selectionArgs,
+                                 String sortOrder) {
         // Get readable database
         SQLiteDatabase database = mDbHelper.getReadableDatabase();
 
@@ -60,6 +305,10 @@ public class InventoryProvider extends ContentProvider {
         int match = sUriMatcher.match(uri);
         switch (match) {
             case INVENTORIES:
+                if (uri.getQueryParameter(InventoryContract.QUERY_PARAMETER_LIMIT) != null) {
+                    cursor = queryPage(database, uri, projection, selection, selectionArgs);
+                    break;
+                }
                 cursor = database.query(ItemEntry.TABLE_NAME, projection, selection, selectionArgs, null, null, sortOrder);
                 break;
             case INVENTORY_ID:
@@ -79,18 +328,204 @@ public class InventoryProvider extends ContentProvider {
                 cursor = database.query(ItemEntry.TABLE_NAME, projection, selection, selectionArgs,
                         null, null, sortOrder);
                 break;
+            case INVENTORY_SEARCH:
+                cursor = searchItems(database, uri.getLastPathSegment(), projection, selection, selectionArgs);
+                break;
+            case INVENTORY_STATS:
+                // A single row kept up to date by triggers, so this never scans the items
+                cursor = database.query(StatsEntry.TABLE_NAME, projection, selection, selectionArgs,
+                        null, null, sortOrder);
+                break;
+            case INVENTORY_LOW_STOCK:
+                // The low-stock flag leads its own index, so only the items low on stock are
+                // read, already in name order
+                String lowStock = ItemEntry.COLUMN_ITEM_LOW_STOCK + " = 1";
+                selection = TextUtils.isEmpty(selection) ? lowStock : lowStock + " AND (" + selection + ")";
+                if (uri.getQueryParameter(InventoryContract.QUERY_PARAMETER_LIMIT) != null) {
+                    cursor = queryPage(database, uri, projection, selection, selectionArgs);
+                    break;
+                }
+                cursor = database.query(ItemEntry.TABLE_NAME, projection, selection, selectionArgs,
+                        null, null, ItemEntry.SORT_ORDER_NAME);
+                break;
+            case INVENTORY_HISTORY:
+                cursor = queryHistory(database, uri, projection, selection, selectionArgs);
+                break;
             default:
                 throw new IllegalArgumentException("Cannot query unknown URI " + uri);
         }
 
-        // Set notification URI on the Cursor,
-        // so we know what content URI the Cursor was created for.
-        // If the data at this URI changes, then we know we need to update the Cursor.
-        cursor.setNotificationUri(getContext().getContentResolver(), uri);
-
         return cursor;
     }
 
+    /**
+     * Query one page of the catalog listed by name. The page starts right after the item named
+     * in the URI, which the name index finds directly, so deep pages cost no more than the first.
+     */
+    private Cursor queryPage(SQLiteDatabase database, Uri uri, String[] projection,
+                             String selection, String[] selectionArgs) {
+        String limit = parseLimit(uri);
+
+        String afterName = uri.getQueryParameter(InventoryContract.QUERY_PARAMETER_AFTER_NAME);
+        String afterId = uri.getQueryParameter(InventoryContract.QUERY_PARAMETER_AFTER_ID);
+        if (afterName != null && afterId != null) {
+            try {
+                Long.parseLong(afterId);
+            } catch (NumberFormatException e) {
+                throw new IllegalArgumentException("Page requires a valid after_id " + uri);
+            }
+
+            // Same as (name, _id) > (afterName, afterId). The leading range on the name lets
+            // SQLite seek into the name index instead of testing every row.
+            String keyset = ItemEntry.COLUMN_ITEM_NAME + " >= ? AND (" + ItemEntry.COLUMN_ITEM_NAME + " > ? OR "
+                    + ItemEntry._ID + " > ?)";
+            String[] keysetArgs = { afterName, afterName, afterId };
+
+            if (TextUtils.isEmpty(selection)) {
+                selection = keyset;
+                selectionArgs = keysetArgs;
+            } else {
+                selection = "(" + selection + ") AND " + keyset;
+                int callerArgs = selectionArgs == null ? 0 : selectionArgs.length;
+                String[] args = new String[callerArgs + keysetArgs.length];
+                if (callerArgs > 0) {
+                    System.arraycopy(selectionArgs, 0, args, 0, callerArgs);
+                }
+                System.arraycopy(keysetArgs, 0, args, callerArgs, keysetArgs.length);
+                selectionArgs = args;
+            }
+        }
+
+        // Pages only line up when they are all listed in the order of their keys
+        return database.query(ItemEntry.TABLE_NAME, projection, selection, selectionArgs,
+                null, null, ItemEntry.SORT_ORDER_NAME, limit);
+    }
+
+    /**
+     * Read the {@link InventoryContract#QUERY_PARAMETER_LIMIT} of the given URI. Return null if
+     * the URI has none, and throw an {@link IllegalArgumentException} if it isn't positive.
+     */
+    private static String parseLimit(Uri uri) {
+        String limit = uri.getQueryParameter(InventoryContract.QUERY_PARAMETER_LIMIT);
+        if (limit == null) {
+            return null;
+        }
+        try {
+            if (Integer.parseInt(limit) <= 0) {
+                throw new IllegalArgumentException("Page requires a positive limit " + uri);
+            }
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("Page requires a valid limit " + uri);
+        }
+        return limit;
+    }
+
+    /**
+     * Query the stock movements of the item of the given history URI, newest first. The recent
+     * movements come one by one and the older ones as daily totals, both read from their
+     * (item, time) index, so this costs the same however big the ledger of the other items is.
+     */
+    private Cursor queryHistory(SQLiteDatabase database, Uri uri, String[] projection,
+                                String selection, String[] selectionArgs) {
+        String limit = parseLimit(uri);
+
+        String movements = "SELECT "
+                + MovementEntry._ID + ", "
+                + MovementEntry.COLUMN_TIMESTAMP + ", "
+                + MovementEntry.COLUMN_REASON + ", "
+                + MovementEntry.COLUMN_DELTA + ", "
+                + "MAX(" + MovementEntry.COLUMN_DELTA + ", 0) AS " + MovementEntry.COLUMN_UNITS_IN + ", "
+                + "MAX(-" + MovementEntry.COLUMN_DELTA + ", 0) AS " + MovementEntry.COLUMN_UNITS_OUT + ", "
+                + "1 AS " + MovementEntry.COLUMN_MOVEMENT_COUNT
+                + " FROM " + MovementEntry.TABLE_NAME
+                + " WHERE " + MovementEntry.COLUMN_ITEM_ID + " = ?";
+        // The daily totals get negative _IDs, so they never clash with those of the movements
+        String days = "SELECT "
+                + "-rowid AS " + MovementEntry._ID + ", "
+                + InventoryDbHelper.COLUMN_DAY + " AS " + MovementEntry.COLUMN_TIMESTAMP + ", "
+                + DatabaseUtils.sqlEscapeString(MovementEntry.REASON_DAILY_TOTAL) + " AS " + MovementEntry.COLUMN_REASON + ", "
+                + MovementEntry.COLUMN_UNITS_IN + " - " + MovementEntry.COLUMN_UNITS_OUT + " AS " + MovementEntry.COLUMN_DELTA + ", "
+                + MovementEntry.COLUMN_UNITS_IN + ", "
+                + MovementEntry.COLUMN_UNITS_OUT + ", "
+                + MovementEntry.COLUMN_MOVEMENT_COUNT
+                + " FROM " + InventoryDbHelper.TABLE_MOVEMENT_DAYS
+                + " WHERE " + MovementEntry.COLUMN_ITEM_ID + " = ?";
+        String sql = SQLiteQueryBuilder.buildQueryString(false,
+                "(" + movements + " UNION ALL " + days + ")",
+                projection, selection, null, null,
+                MovementEntry.COLUMN_TIMESTAMP + " DESC, " + MovementEntry._ID + " DESC", limit);
+
+        // The arguments follow the order of their "?" in the statement: the item for each
+        // table, then the caller's selection
+        String id = String.valueOf(ContentUris.parseId(getItemUri(uri)));
+        int callerArgs = selectionArgs == null ? 0 : selectionArgs.length;
+        String[] args = new String[callerArgs + 2];
+        args[0] = id;
+        args[1] = id;
+        if (callerArgs > 0) {
+            System.arraycopy(selectionArgs, 0, args, 2, callerArgs);
+        }
+
+        return database.rawQuery(sql, args);
+    }
+
+    /**
+     * Search the items whose name has words starting with every word of the given text. Items
+     * whose name starts with the text come first, then shorter names, as they are the closer
+     * matches.
+     */
+    private Cursor searchItems(SQLiteDatabase database, String text, String[] projection,
+                               String selection, String[] selectionArgs) {
+        String matchExpression = buildMatchExpression(text);
+        if (matchExpression == null) {
+            // Nothing to look for, so nothing matches
+            return new MatrixCursor(projection != null ? projection : SEARCH_COLUMNS);
+        }
+
+        SQLiteQueryBuilder builder = new SQLiteQueryBuilder();
+        builder.setTables(SEARCH_TABLES);
+        builder.setProjectionMap(sSearchProjectionMap);
+        builder.appendWhere(InventoryDbHelper.TABLE_ITEMS_FTS + " MATCH ?");
+
+        String name = ItemEntry.TABLE_NAME + "." + ItemEntry.COLUMN_ITEM_NAME;
+        String sortOrder = "(substr(" + name + ", 1, length(?)) = ? COLLATE NOCASE) DESC, "
+                + "length(" + name + "), " + name;
+        String sql = builder.buildQuery(projection, selection, null, null, sortOrder, null);
+
+        // The arguments follow the order of their "?" in the statement: the match expression,
+        // then the caller's selection, then the text the ranking compares with
+        int callerArgs = selectionArgs == null ? 0 : selectionArgs.length;
+        String[] args = new String[callerArgs + 3];
+        args[0] = matchExpression;
+        if (callerArgs > 0) {
+            System.arraycopy(selectionArgs, 0, args, 1, callerArgs);
+        }
+        args[callerArgs + 1] = text;
+        args[callerArgs + 2] = text;
+
+        return database.rawQuery(sql, args);
+    }
+
+    /**
+     * Turn the text typed by the user into an FTS prefix query matching the items that have
+     * words starting with each of the typed words. Return null if there is no word to look for.
+     */
+    private static String buildMatchExpression(String text) {
+        StringBuilder expression = new StringBuilder();
+        // Only letters and digits are indexed, so anything else just separates words. This also
+        // keeps the user from typing FTS operators.
+        for (String word : text.split("[^\\p{L}\\p{N}]+")) {
+            if (word.isEmpty()) {
+                continue;
+            }
+            if (expression.length() > 0) {
+                expression.append(' ');
+            }
+            expression.append(word).append('*');
+        }
+        return expression.length() == 0 ? null : expression.toString();
+    }
+
     /** Tag for the log messages */
     public static final String LOG_TAG = InventoryProvider.class.getSimpleName();
 
@@ -108,17 +543,47 @@ public class InventoryProvider extends ContentProvider {
         return true;
     }
 
+    /**
+     * Switch the provider over to the database with the given name, creating it if needed. The
+     * instrumented tests run against a database of their own this way, and leave the inventory
+     * on the device alone. Waits for every running use of the current database to finish.
+     */
+    void useDatabase(String name) {
+        mDatabaseLock.writeLock().lock();
+        try {
+            mDbHelper.close();
+            mDatabaseReplacements.incrementAndGet();
+            mDbHelper = new InventoryDbHelper(getContext(), name);
+            mQueryCache.invalidate();
+        } finally {
+            mDatabaseLock.writeLock().unlock();
+        }
+    }
+
     /**
      * Insert new data into the provider with the given ContentValues.
      */
     @Override
     public Uri insert(Uri uri, ContentValues contentValues) {
+        long start = System.nanoTime();
         final int match = sUriMatcher.match(uri);
-        switch (match) {
-            case INVENTORIES:
-                return insertItem(uri, contentValues);
-            default:
-                throw new IllegalArgumentException("Insertion is not supported for " + uri);
+        mDatabaseLock.readLock().lock();
+        try {
+            Uri itemUri;
+            switch (match) {
+                case INVENTORIES:
+                    itemUri = insertItem(uri, contentValues);
+                    break;
+                default:
+                    throw new IllegalArgumentException("Insertion is not supported for " + uri);
+            }
+            mMetrics.record(ProviderMetrics.INSERT, match, start, itemUri != null ? 1 : 0);
+            return itemUri;
+        } catch (RuntimeException e) {
+            mMetrics.recordError(ProviderMetrics.INSERT, match, start);
+            throw e;
+        } finally {
+            mDatabaseLock.readLock().unlock();
         }
     }
 
@@ -127,6 +592,32 @@ public class InventoryProvider extends ContentProvider {
      * for that specific row in the database.
      */
     private Uri insertItem(Uri uri, ContentValues values) {
+        // Check that all the required attributes are present and valid
+        validateItem(values);
+
+        // Get writable database
+        SQLiteDatabase database = mDbHelper.getWritableDatabase();
+
+        // Insert the new item with the given values
+        long id = database.insert(ItemEntry.TABLE_NAME, null, values);
+        // If the ID is -1, then the insertion failed. Log an error and return null.
+        if (id == -1) {
+            Log.e(LOG_TAG, "Failed to insert row for " + uri);
+            return null;
+        }
+
+        // Notify all listeners that the new item has been inserted
+        notifyChange(InventoryContract.OPERATION_INSERT, new long[] { id });
+
+        // Return the new URI with the ID (of the newly inserted row) appended at the end
+        return ContentUris.withAppendedId(uri, id);
+    }
+
+    /**
+     * Check that the given content values describe a valid new item. Throws an
+     * {@link IllegalArgumentException} naming the first attribute that is missing or invalid.
+     */
+    private void validateItem(ContentValues values) {
         // Check that the name is not null
         String name = values.getAsString(ItemEntry.COLUMN_ITEM_NAME);
         if (name == null) {
@@ -139,52 +630,204 @@ public class InventoryProvider extends ContentProvider {
             throw new IllegalArgumentException("Item requires a valid quantity");
         }
 
-        // If the price is provided, check that it's greater than or equal to 0 €
-        Float price = values.getAsFloat(ItemEntry.COLUMN_ITEM_PRICE);
-        if (price != null && price < 0) {
-            throw new IllegalArgumentException("Item requires a valid price");
-        }
+        // If the price is provided, check that it's a valid number of cents
+        validatePrice(values);
+
+        // If the reorder threshold is provided, check that it's greater than or equal to 0
+        validateReorderThreshold(values);
 
         String image = values.getAsString(ItemEntry.COLUMN_ITEM_IMAGE);
         if (image == null){
             throw new IllegalArgumentException("Item requires a valid image");
         }
+    }
+
+    /**
+     * If the price is provided, check that it's a whole number of cents greater than or equal
+     * to 0. Fractions are refused rather than rounded, as they mean the caller still sends the
+     * price in euros.
+     */
+    private static void validatePrice(ContentValues values) {
+        Object price = values.get(ItemEntry.COLUMN_ITEM_PRICE);
+        if (price == null) {
+            return;
+        }
+        if (price instanceof Float || price instanceof Double) {
+            throw new IllegalArgumentException("Item requires a price in cents");
+        }
+        Long cents = values.getAsLong(ItemEntry.COLUMN_ITEM_PRICE);
+        if (cents == null || cents < 0) {
+            throw new IllegalArgumentException("Item requires a valid price");
+        }
+    }
+
+    /**
+     * If the reorder threshold is provided, check that it's greater than or equal to 0. The
+     * low-stock flag follows the quantity and the threshold, so it can't be written.
+     */
+    private static void validateReorderThreshold(ContentValues values) {
+        if (values.containsKey(ItemEntry.COLUMN_ITEM_LOW_STOCK)) {
+            throw new IllegalArgumentException("Item low-stock flag can't be written");
+        }
+        if (values.containsKey(ItemEntry.COLUMN_ITEM_REORDER_THRESHOLD)) {
+            Integer threshold = values.getAsInteger(ItemEntry.COLUMN_ITEM_REORDER_THRESHOLD);
+            if (threshold == null || threshold < 0) {
+                throw new IllegalArgumentException("Item requires a valid reorder threshold");
+            }
+        }
+    }
+
+    /**
+     * Insert a batch of new items into the provider. All the rows are validated first and then
+     * written in a single transaction through one compiled insert statement, so loading a large
+     * catalog costs one commit and one change notification instead of one per row.
+     * Return the number of rows inserted.
+     */
+    @Override
+    public int bulkInsert(Uri uri, ContentValues[] valuesArray) {
+        long start = System.nanoTime();
+        final int match = sUriMatcher.match(uri);
+        mDatabaseLock.readLock().lock();
+        try {
+            int rowsInserted;
+            switch (match) {
+                case INVENTORIES:
+                    rowsInserted = bulkInsertItems(uri, valuesArray);
+                    break;
+                default:
+                    throw new IllegalArgumentException("Insertion is not supported for " + uri);
+            }
+            mMetrics.record(ProviderMetrics.BULK_INSERT, match, start, rowsInserted);
+            return rowsInserted;
+        } catch (RuntimeException e) {
+            mMetrics.recordError(ProviderMetrics.BULK_INSERT, match, start);
+            throw e;
+        } finally {
+            mDatabaseLock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Insert all the given items in one transaction. Either every row is inserted or none is.
+     */
+    private int bulkInsertItems(Uri uri, ContentValues[] valuesArray) {
+        // Validate every row before touching the database, so a bad row in the middle
+        // of the batch doesn't leave a half written catalog behind
+        for (ContentValues values : valuesArray) {
+            validateItem(values);
+        }
+
+        if (valuesArray.length == 0) {
+            return 0;
+        }
 
         // Get writable database
         SQLiteDatabase database = mDbHelper.getWritableDatabase();
 
-        // Insert the new item with the given values
-        long id = database.insert(ItemEntry.TABLE_NAME, null, values);
-        // If the ID is -1, then the insertion failed. Log an error and return null.
-        if (id == -1) {
-            Log.e(LOG_TAG, "Failed to insert row for " + uri);
-            return null;
+        // The quantity and reorder threshold columns are optional, so fall back to their
+        // default values when they're missing
+        SQLiteStatement statement = database.compileStatement("INSERT INTO " + ItemEntry.TABLE_NAME + " ("
+                + ItemEntry.COLUMN_ITEM_NAME + ", "
+                + ItemEntry.COLUMN_ITEM_QUANTITY + ", "
+                + ItemEntry.COLUMN_ITEM_PRICE + ", "
+                + ItemEntry.COLUMN_ITEM_IMAGE + ", "
+                + ItemEntry.COLUMN_ITEM_REORDER_THRESHOLD + ") VALUES (?, COALESCE(?, 1), ?, ?, COALESCE(?, "
+                + ItemEntry.DEFAULT_REORDER_THRESHOLD + "))");
+
+        int rowsInserted = 0;
+        database.beginTransaction();
+        try {
+            for (ContentValues values : valuesArray) {
+                statement.clearBindings();
+                statement.bindString(1, values.getAsString(ItemEntry.COLUMN_ITEM_NAME));
+
+                Integer quantity = values.getAsInteger(ItemEntry.COLUMN_ITEM_QUANTITY);
+                if (quantity != null) {
+                    statement.bindLong(2, quantity);
+                }
+
+                Long price = values.getAsLong(ItemEntry.COLUMN_ITEM_PRICE);
+                if (price != null) {
+                    statement.bindLong(3, price);
+                }
+
+                statement.bindString(4, values.getAsString(ItemEntry.COLUMN_ITEM_IMAGE));
+
+                Integer threshold = values.getAsInteger(ItemEntry.COLUMN_ITEM_REORDER_THRESHOLD);
+                if (threshold != null) {
+                    statement.bindLong(5, threshold);
+                }
+
+                // If the ID is -1, then the insertion failed. Abort the whole batch.
+                if (statement.executeInsert() == -1) {
+                    Log.e(LOG_TAG, "Failed to bulk insert row for " + uri);
+                    return 0;
+                }
+                rowsInserted++;
+            }
+            database.setTransactionSuccessful();
+        } finally {
+            database.endTransaction();
+            statement.close();
         }
 
-        // Notify all listeners that the data has changed for the item content URI
-        getContext().getContentResolver().notifyChange(uri, null);
+        // Notify all listeners once that items have been inserted. There can be too many of
+        // them to list their _IDs.
+        notifyChange(InventoryContract.OPERATION_INSERT, null);
 
-        // Return the new URI with the ID (of the newly inserted row) appended at the end
-        return ContentUris.withAppendedId(uri, id);
+        return rowsInserted;
     }
 
 
     @Override
     public int update(Uri uri, ContentValues contentValues, String selection,
                       String[] selectionArgs) {
+        long start = System.nanoTime();
         final int match = sUriMatcher.match(uri);
-        switch (match) {
-            case INVENTORIES:
-                return updateItem(uri, contentValues, selection, selectionArgs);
-            case INVENTORY_ID:
-                // For the INVENTORY_ID code, extract out the ID from the URI,
-                // so we know which row to update. Selection will be "_id=?" and selection
-                // arguments will be a String array containing the actual ID.
-                selection = ItemEntry._ID + "=?";
-                selectionArgs = new String[] { String.valueOf(ContentUris.parseId(uri)) };
-                return updateItem(uri, contentValues, selection, selectionArgs);
-            default:
-                throw new IllegalArgumentException("Update is not supported for " + uri);
+        mDatabaseLock.readLock().lock();
+        try {
+            int result;
+            // Number of rows changed, as selling and adjusting return the new quantity
+            int rowsUpdated;
+            switch (match) {
+                case INVENTORIES:
+                    result = updateItem(uri, contentValues, selection, selectionArgs);
+                    rowsUpdated = result;
+                    break;
+                case INVENTORY_ID:
+                    // For the INVENTORY_ID code, extract out the ID from the URI,
+                    // so we know which row to update. Selection will be "_id=?", and any
+                    // selection of the caller, e.g. to only update the item if it hasn't changed,
+                    // is added to it. Selection arguments will be a String array containing the
+                    // actual ID, followed by those of the caller.
+                    selection = DatabaseUtils.concatenateWhere(ItemEntry._ID + "=?", selection);
+                    selectionArgs = DatabaseUtils.appendSelectionArgs(
+                            new String[] { String.valueOf(ContentUris.parseId(uri)) }, selectionArgs);
+                    result = updateItem(uri, contentValues, selection, selectionArgs);
+                    rowsUpdated = result;
+                    break;
+                case INVENTORY_SELL:
+                    // Selling is an adjustment of exactly one unit down
+                    result = adjustQuantity(ContentUris.parseId(getItemUri(uri)), -1, MovementEntry.REASON_SALE);
+                    rowsUpdated = result < 0 ? 0 : 1;
+                    break;
+                case INVENTORY_ADJUST:
+                    // The caller says why the stock changed, as a change of either sign can be
+                    // a sale, a restock or a correction
+                    result = adjustQuantity(ContentUris.parseId(getItemUri(uri)),
+                            parseDelta(uri, contentValues), parseReason(uri, contentValues));
+                    rowsUpdated = result < 0 ? 0 : 1;
+                    break;
+                default:
+                    throw new IllegalArgumentException("Update is not supported for " + uri);
+            }
+            mMetrics.record(ProviderMetrics.UPDATE, match, start, rowsUpdated);
+            return result;
+        } catch (RuntimeException e) {
+            mMetrics.recordError(ProviderMetrics.UPDATE, match, start);
+            throw e;
+        } finally {
+            mDatabaseLock.readLock().unlock();
         }
     }
 
@@ -204,32 +847,32 @@ public class InventoryProvider extends ContentProvider {
         }
 
         // If the {@link ItemEntry#COLUMN_ITEM_QUANTITY} key is present,
-        // check that the price value is valid.
+        // check that the quantity value is valid.
         if (values.containsKey(ItemEntry.COLUMN_ITEM_QUANTITY)) {
-            // Check that the price is greater than or equal to 0 kg
+            // Check that the quantity is greater than or equal to 0
             Integer quantity = values.getAsInteger(ItemEntry.COLUMN_ITEM_QUANTITY);
             if (quantity != null && quantity < 0) {
                 throw new IllegalArgumentException("Item requires valid quantity");
             }
+        }
 
         // If the {@link ItemEntry#COLUMN_ITEM_PRICE} key is present,
         // check that the price value is valid.
-        if (values.containsKey(ItemEntry.COLUMN_ITEM_PRICE)) {
-            // Check that the price is greater than or equal to 0 kg
-            Float price = values.getAsFloat(ItemEntry.COLUMN_ITEM_PRICE);
-            if (price != null && price < 0) {
-                throw new IllegalArgumentException("Item requires valid price");
+        validatePrice(values);
+
+        // If the {@link ItemEntry#COLUMN_ITEM_IMAGE} key is present,
+        // check that the image value is not null.
+        if (values.containsKey(ItemEntry.COLUMN_ITEM_IMAGE)) {
+            String image = values.getAsString(ItemEntry.COLUMN_ITEM_IMAGE);
+            if (image == null) {
+                throw new IllegalArgumentException("Item requires a valid image");
             }
         }
 
-            if (values.containsKey(ItemEntry.COLUMN_ITEM_IMAGE)) {
-                String image = values.getAsString(ItemEntry.COLUMN_ITEM_IMAGE);
-                if (image == null) {
-                    throw new IllegalArgumentException("Item requires a name");
-                }
-            }
+        // If the {@link ItemEntry#COLUMN_ITEM_REORDER_THRESHOLD} key is present,
+        // check that the threshold value is valid.
+        validateReorderThreshold(values);
 
-        }
         // If there are no values to update, then don't try to update the database
         if (values.size() == 0) {
             return 0;
@@ -238,13 +881,31 @@ public class InventoryProvider extends ContentProvider {
         // Otherwise, get writable database to update the data
         SQLiteDatabase database = mDbHelper.getWritableDatabase();
 
-        // Perform the update on the database and get the number of rows affected
-        int rowsUpdated = database.update(ItemEntry.TABLE_NAME, values, selection, selectionArgs);
+        // Perform the update on the database and get the number of rows affected. A new
+        // quantity replaces the stock, so the difference goes to the ledger in the same
+        // transaction.
+        int rowsUpdated;
+        database.beginTransaction();
+        try {
+            Integer quantity = values.getAsInteger(ItemEntry.COLUMN_ITEM_QUANTITY);
+            if (quantity != null) {
+                recordCorrections(database, quantity, selection, selectionArgs);
+            }
+            rowsUpdated = database.update(ItemEntry.TABLE_NAME, values, selection, selectionArgs);
+            database.setTransactionSuccessful();
+        } finally {
+            database.endTransaction();
+        }
 
-        // If 1 or more rows were updated, then notify all listeners that the data at the
-        // given URI has changed
+        // If 1 or more rows were updated, then notify all listeners which items have changed.
+        // A new name can move an item anywhere in the catalog, so such updates are notified
+        // like changes to unknown items.
         if (rowsUpdated != 0) {
-            getContext().getContentResolver().notifyChange(uri, null);
+            long[] ids = null;
+            if (sUriMatcher.match(uri) == INVENTORY_ID && !values.containsKey(ItemEntry.COLUMN_ITEM_NAME)) {
+                ids = new long[] { ContentUris.parseId(uri) };
+            }
+            notifyChange(InventoryContract.OPERATION_UPDATE, ids);
         }
 
         // Return the number of rows updated
@@ -252,43 +913,694 @@ public class InventoryProvider extends ContentProvider {
     }
 
 
+    /**
+     * Record in the ledger the change of every item matching the given selection whose
+     * quantity is about to be set to the given one. Must be called inside the transaction
+     * of the update.
+     */
+    private static void recordCorrections(SQLiteDatabase database, int quantity, String selection,
+                                          String[] selectionArgs) {
+        String current = "IFNULL(" + ItemEntry.COLUMN_ITEM_QUANTITY + ", 0)";
+        String where = current + " != ?";
+        if (!TextUtils.isEmpty(selection)) {
+            where += " AND (" + selection + ")";
+        }
+
+        // The arguments follow the order of their "?" in the statement
+        int callerArgs = selectionArgs == null ? 0 : selectionArgs.length;
+        Object[] args = new Object[callerArgs + 4];
+        args[0] = quantity;
+        args[1] = MovementEntry.REASON_CORRECTION;
+        args[2] = System.currentTimeMillis();
+        args[3] = quantity;
+        if (callerArgs > 0) {
+            System.arraycopy(selectionArgs, 0, args, 4, callerArgs);
+        }
+
+        database.execSQL("INSERT INTO " + MovementEntry.TABLE_NAME + " ("
+                + MovementEntry.COLUMN_ITEM_ID + ", "
+                + MovementEntry.COLUMN_DELTA + ", "
+                + MovementEntry.COLUMN_REASON + ", "
+                + MovementEntry.COLUMN_TIMESTAMP + ")"
+                + " SELECT " + ItemEntry._ID + ", ? - " + current + ", ?, ?"
+                + " FROM " + ItemEntry.TABLE_NAME
+                + " WHERE " + where, args);
+    }
+
+    /**
+     * Change the quantity of the given item by delta units with a single conditional statement,
+     * so concurrent sales can't overwrite each other with a stale quantity, and record the
+     * change in the ledger for the given reason in the same transaction. Return the new
+     * quantity of the item, or -1 if the item doesn't exist or the quantity would become negative.
+     */
+    private int adjustQuantity(long id, int delta, String reason) {
+        // Get writable database
+        SQLiteDatabase database = mDbHelper.getWritableDatabase();
+
+        int newQuantity;
+        database.beginTransaction();
+        try {
+            SQLiteStatement statement = database.compileStatement("UPDATE " + ItemEntry.TABLE_NAME
+                    + " SET " + ItemEntry.COLUMN_ITEM_QUANTITY + " = " + ItemEntry.COLUMN_ITEM_QUANTITY + " + ?"
+                    + " WHERE " + ItemEntry._ID + " = ?"
+                    + " AND " + ItemEntry.COLUMN_ITEM_QUANTITY + " + ? >= 0");
+            try {
+                statement.bindLong(1, delta);
+                statement.bindLong(2, id);
+                statement.bindLong(3, delta);
+                if (statement.executeUpdateDelete() == 0) {
+                    // Either the item is gone or there isn't enough stock. Nothing was changed,
+                    // so end the transaction normally: inside a batch, a failed nested
+                    // transaction would roll back the changes of every other item.
+                    database.setTransactionSuccessful();
+                    return -1;
+                }
+            } finally {
+                statement.close();
+            }
+
+            SQLiteStatement movement = database.compileStatement("INSERT INTO " + MovementEntry.TABLE_NAME + " ("
+                    + MovementEntry.COLUMN_ITEM_ID + ", "
+                    + MovementEntry.COLUMN_DELTA + ", "
+                    + MovementEntry.COLUMN_REASON + ", "
+                    + MovementEntry.COLUMN_TIMESTAMP + ") VALUES (?, ?, ?, ?)");
+            try {
+                movement.bindLong(1, id);
+                movement.bindLong(2, delta);
+                movement.bindString(3, reason);
+                movement.bindLong(4, System.currentTimeMillis());
+                movement.executeInsert();
+            } finally {
+                movement.close();
+            }
+
+            newQuantity = (int) DatabaseUtils.longForQuery(database,
+                    "SELECT " + ItemEntry.COLUMN_ITEM_QUANTITY + " FROM " + ItemEntry.TABLE_NAME
+                            + " WHERE " + ItemEntry._ID + " = ?",
+                    new String[] { String.valueOf(id) });
+            database.setTransactionSuccessful();
+        } finally {
+            database.endTransaction();
+        }
+
+        // Notify all listeners that the data of this item has changed
+        notifyChange(InventoryContract.OPERATION_UPDATE, new long[] { id });
+
+        return newQuantity;
+    }
+
+    /**
+     * Return the URI of the item a sell or adjust URI applies to, i.e. the URI without
+     * its last path segment and query.
+     */
+    private static Uri getItemUri(Uri uri) {
+        List<String> segments = uri.getPathSegments();
+        return Uri.withAppendedPath(ItemEntry.CONTENT_URI, segments.get(segments.size() - 2));
+    }
+
+    /**
+     * Read the stock change from the {@link InventoryContract#QUERY_PARAMETER_DELTA} query
+     * parameter of an adjust URI, or from the value of the same name if the URI has none.
+     */
+    private static int parseDelta(Uri uri, ContentValues values) {
+        String delta = uri.getQueryParameter(InventoryContract.QUERY_PARAMETER_DELTA);
+        if (delta == null && values != null) {
+            delta = values.getAsString(InventoryContract.QUERY_PARAMETER_DELTA);
+        }
+        if (delta == null) {
+            throw new IllegalArgumentException("Adjustment requires a delta " + uri);
+        }
+        try {
+            return Integer.parseInt(delta);
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("Adjustment requires a valid delta " + uri);
+        }
+    }
+
+    /**
+     * Read why the stock changed from the {@link InventoryContract#QUERY_PARAMETER_REASON} query
+     * parameter of an adjust URI, or from the value of the same name if the URI has none. A
+     * change without a reason is a correction.
+     */
+    private static String parseReason(Uri uri, ContentValues values) {
+        String reason = uri.getQueryParameter(InventoryContract.QUERY_PARAMETER_REASON);
+        if (reason == null && values != null) {
+            reason = values.getAsString(InventoryContract.QUERY_PARAMETER_REASON);
+        }
+        if (reason == null) {
+            return MovementEntry.REASON_CORRECTION;
+        }
+        if (!MovementEntry.REASON_SALE.equals(reason) && !MovementEntry.REASON_RESTOCK.equals(reason)
+                && !MovementEntry.REASON_CORRECTION.equals(reason)) {
+            throw new IllegalArgumentException("Adjustment requires a valid reason " + uri);
+        }
+        return reason;
+    }
+
     /**
      * Delete the data at the given selection and selection arguments.
      */
     @Override
     public int delete(Uri uri, String selection, String[] selectionArgs) {
+        long start = System.nanoTime();
+        final int match = sUriMatcher.match(uri);
+        mDatabaseLock.readLock().lock();
+        try {
+            // Get writable database
+            SQLiteDatabase database = mDbHelper.getWritableDatabase();
+
+            // Track the number of rows that were deleted
+            int rowsDeleted;
+
+            switch (match) {
+                case INVENTORIES:
+                    // Delete all rows that match the selection and selection args
+                    rowsDeleted = database.delete(ItemEntry.TABLE_NAME, selection, selectionArgs);
+                    break;
+                case INVENTORY_ID:
+                    // Delete a single row given by the ID in the URI
+                    selection = ItemEntry._ID + "=?";
+                    selectionArgs = new String[]{String.valueOf(ContentUris.parseId(uri))};
+                    // Delete a single row given by the ID in the URI
+                    rowsDeleted = database.delete(ItemEntry.TABLE_NAME, selection, selectionArgs);
+                    break;
+                default:
+                    throw new IllegalArgumentException("Deletion is not supported for " + uri);
+            }
+
+            // If 1 or more rows were deleted, then notify all listeners which items are gone
+            if (rowsDeleted != 0) {
+                long[] ids = match == INVENTORY_ID ? new long[] { ContentUris.parseId(uri) } : null;
+                notifyChange(InventoryContract.OPERATION_DELETE, ids);
+            }
+
+            // Return the number of rows deleted
+            mMetrics.record(ProviderMetrics.DELETE, match, start, rowsDeleted);
+            return rowsDeleted;
+        } catch (RuntimeException e) {
+            mMetrics.recordError(ProviderMetrics.DELETE, match, start);
+            throw e;
+        } finally {
+            mDatabaseLock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Open the catalog as a CSV stream. The file is a pipe written while it is read, so the
+     * catalog is never held in memory whatever its size.
+     */
+    @Override
+    public ParcelFileDescriptor openFile(Uri uri, String mode) throws FileNotFoundException {
+        if (sUriMatcher.match(uri) != INVENTORY_EXPORT) {
+            throw new FileNotFoundException("No file for " + uri);
+        }
+        if (!"r".equals(mode)) {
+            throw new FileNotFoundException("Export can only be read " + uri);
+        }
+        return openPipeHelper(uri, ItemEntry.CONTENT_CSV_TYPE, null, null, mCsvExporter);
+    }
+
+    @Override
+    public String[] getStreamTypes(Uri uri, String mimeTypeFilter) {
+        if (sUriMatcher.match(uri) == INVENTORY_EXPORT
+                && ClipDescription.compareMimeTypes(ItemEntry.CONTENT_CSV_TYPE, mimeTypeFilter)) {
+            return new String[] { ItemEntry.CONTENT_CSV_TYPE };
+        }
+        return null;
+    }
+
+    /**
+     * Write all the items as CSV to the given writer, in order of _ID. The items are read a page
+     * at a time, each page starting after the _ID the previous one ended on, so every read is a
+     * short seek into the primary key, and a cursor never has to skip over the rows before it.
+     *
+     * Images stored in files, which the app keeps in its private storage, are left out: the
+     * file can't be read on another device, which gives the item the placeholder instead.
+     */
+    void exportItems(Writer writer) throws IOException {
+        mDatabaseLock.readLock().lock();
+        try {
+            SQLiteDatabase database = mDbHelper.getReadableDatabase();
+            String[] columns = {
+                    ItemEntry._ID,
+                    ItemEntry.COLUMN_ITEM_NAME,
+                    ItemEntry.COLUMN_ITEM_QUANTITY,
+                    ItemEntry.COLUMN_ITEM_PRICE,
+                    ItemEntry.COLUMN_ITEM_IMAGE,
+                    ItemEntry.COLUMN_ITEM_REORDER_THRESHOLD };
+
+            Csv.writeRecord(writer, ItemEntry.COLUMN_ITEM_NAME, ItemEntry.COLUMN_ITEM_QUANTITY,
+                    ItemEntry.COLUMN_ITEM_PRICE, ItemEntry.COLUMN_ITEM_IMAGE,
+                    ItemEntry.COLUMN_ITEM_REORDER_THRESHOLD);
+
+            long afterId = 0;
+            int rowsRead;
+            do {
+                Cursor cursor = database.query(ItemEntry.TABLE_NAME, columns, ItemEntry._ID + " > ?",
+                        new String[] { String.valueOf(afterId) }, null, null, ItemEntry._ID,
+                        String.valueOf(EXPORT_PAGE_SIZE));
+                try {
+                    rowsRead = cursor.getCount();
+                    while (cursor.moveToNext()) {
+                        afterId = cursor.getLong(0);
+                        Csv.writeRecord(writer,
+                                cursor.getString(1),
+                                cursor.isNull(2) ? null : cursor.getString(2),
+                                PriceFormat.format(cursor.getLong(3)),
+                                toExportedImage(cursor.getString(4)),
+                                cursor.getString(5));
+                    }
+                } finally {
+                    cursor.close();
+                }
+            } while (rowsRead == EXPORT_PAGE_SIZE);
+        } finally {
+            mDatabaseLock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Return the given image as written to an export, or null if it is a file of this device.
+     */
+    private static String toExportedImage(String image) {
+        if (image == null || ContentResolver.SCHEME_FILE.equals(Uri.parse(image).getScheme())) {
+            return null;
+        }
+        return image;
+    }
+
+    /**
+     * Run the given provider method: {@link InventoryContract#METHOD_COMPACT_MOVEMENTS},
+     * {@link InventoryContract#METHOD_BACKUP}, {@link InventoryContract#METHOD_RESTORE},
+     * {@link InventoryContract#METHOD_METRICS} or {@link InventoryContract#METHOD_RESET_METRICS}.
+     */
+    @Override
+    public Bundle call(String method, String arg, Bundle extras) {
+        // The metrics don't touch the database, so they are read even during a restore
+        if (InventoryContract.METHOD_METRICS.equals(method)) {
+            return getMetrics();
+        }
+        if (InventoryContract.METHOD_RESET_METRICS.equals(method)) {
+            resetMetrics();
+            return null;
+        }
+
+        // The restore takes the database lock for itself
+        if (InventoryContract.METHOD_RESTORE.equals(method)) {
+            restoreDatabase(toDatabaseFile(arg));
+            return null;
+        }
+
+        mDatabaseLock.readLock().lock();
+        try {
+            if (InventoryContract.METHOD_BACKUP.equals(method)) {
+                backupDatabase(toDatabaseFile(arg));
+                return null;
+            }
+            if (InventoryContract.METHOD_COMPACT_MOVEMENTS.equals(method)) {
+                if (extras == null || !extras.containsKey(InventoryContract.EXTRA_BEFORE)) {
+                    throw new IllegalArgumentException("Compaction requires a time");
+                }
+                Bundle result = new Bundle();
+                result.putInt(InventoryContract.EXTRA_MOVEMENT_COUNT,
+                        compactMovements(extras.getLong(InventoryContract.EXTRA_BEFORE)));
+                return result;
+            }
+            return super.call(method, arg, extras);
+        } finally {
+            mDatabaseLock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Return the metrics of the provider since they were last reset: one bundle per operation
+     * and URI called, along with the bounds of the latency buckets and the hits and misses of
+     * the query cache.
+     */
+    private Bundle getMetrics() {
+        Bundle metrics = mMetrics.snapshot();
+        metrics.putLongArray(InventoryContract.EXTRA_LATENCY_BUCKET_BOUNDS,
+                ProviderMetrics.LATENCY_BUCKET_BOUNDS.clone());
+        metrics.putLong(InventoryContract.EXTRA_CACHE_HITS, mQueryCache.getHitCount() - mCacheHitsAtReset);
+        metrics.putLong(InventoryContract.EXTRA_CACHE_MISSES, mQueryCache.getMissCount() - mCacheMissesAtReset);
+        return metrics;
+    }
+
+    /**
+     * Start the metrics of the provider again from zero.
+     */
+    private void resetMetrics() {
+        mMetrics.reset();
+        mCacheHitsAtReset = mQueryCache.getHitCount();
+        mCacheMissesAtReset = mQueryCache.getMissCount();
+    }
+
+    /**
+     * Return the file at the given path, which must be in the app's private storage.
+     */
+    private File toDatabaseFile(String path) {
+        if (path == null) {
+            throw new IllegalArgumentException("A file is required");
+        }
+        File file = new File(path);
+        File dataDirectory = getContext().getFilesDir().getParentFile();
+        if (!file.isAbsolute() || !file.getPath().startsWith(dataDirectory.getPath() + File.separator)) {
+            throw new IllegalArgumentException("Not a private file " + path);
+        }
+        return file;
+    }
+
+    /**
+     * Write a consistent copy of the database to the given file.
+     *
+     * The database file and its write-ahead log are copied as they are, page for page, which is
+     * much faster than reading the rows out. A transaction is held meanwhile, so no write lands
+     * in the middle of the copy, while the readers carry on. The copy is then opened once, which
+     * replays its log into it and leaves a single file.
+     */
+    private void backupDatabase(File target) {
+        SQLiteDatabase database = mDbHelper.getWritableDatabase();
+        File source = new File(database.getPath());
+        deleteDatabaseFiles(target);
+
+        database.beginTransaction();
+        try {
+            copyFile(source, target);
+            File log = new File(source.getPath() + "-wal");
+            if (log.exists()) {
+                copyFile(log, new File(target.getPath() + "-wal"));
+            }
+        } catch (IOException e) {
+            deleteDatabaseFiles(target);
+            throw new IllegalStateException("Failed to copy the database", e);
+        } finally {
+            database.endTransaction();
+        }
+
+        SQLiteDatabase.openDatabase(target.getPath(), null, SQLiteDatabase.OPEN_READWRITE).close();
+        deleteSideFiles(target);
+        Log.i(LOG_TAG, "Backed up " + target.length() + " bytes of database");
+    }
+
+    /**
+     * Replace the database with the copy in the given file, and tell the listeners that all the
+     * items may have changed.
+     *
+     * The copy is checked before anything is touched. Then every other use of the database is
+     * held off while the database is closed, and the copy is renamed over it, which is atomic:
+     * either the old database or the new one is found, never half of each. The helper reopens
+     * the new file, upgrading it if it comes from an older version of the app.
+     *
+     * Cursors over results too big to cache still read the old connection as they move, and
+     * stop at the rows they hold once it is closed; the change notification has their owners
+     * query again.
+     */
+    private void restoreDatabase(File restored) {
+        if (!restored.isFile()) {
+            throw new IllegalArgumentException("No database in " + restored);
+        }
+        try {
+            checkDatabase(restored);
+        } catch (RuntimeException e) {
+            deleteDatabaseFiles(restored);
+            throw e;
+        }
+
+        mDatabaseLock.writeLock().lock();
+        try {
+            File live = getContext().getDatabasePath(mDbHelper.getDatabaseName());
+            // Closing the last connection also folds the write-ahead log into the old file,
+            // so no log is left behind to be replayed into the new one
+            mDbHelper.close();
+            mDatabaseReplacements.incrementAndGet();
+            deleteSideFiles(live);
+            if (!restored.renameTo(live)) {
+                throw new IllegalStateException("Failed to move " + restored + " to " + live);
+            }
+            // Open the new database now, so it is upgraded before anyone else reads it
+            mDbHelper.getWritableDatabase();
+        } finally {
+            mDatabaseLock.writeLock().unlock();
+        }
+
+        Log.i(LOG_TAG, "Restored database from " + restored);
+        notifyChange(InventoryContract.OPERATION_UPDATE, null);
+    }
+
+    /**
+     * Check that the given file is an intact database of this app, from this version or an
+     * older one. Throws an {@link IllegalArgumentException} if it isn't.
+     */
+    private static void checkDatabase(File file) {
+        SQLiteDatabase database;
+        try {
+            database = SQLiteDatabase.openDatabase(file.getPath(), null, SQLiteDatabase.OPEN_READWRITE);
+        } catch (SQLiteException e) {
+            throw new IllegalArgumentException("Not a database " + file, e);
+        }
+        try {
+            int version = database.getVersion();
+            if (version < 1 || version > InventoryDbHelper.DATABASE_VERSION) {
+                throw new IllegalArgumentException("Unsupported database version " + version);
+            }
+            String result = DatabaseUtils.stringForQuery(database, "PRAGMA quick_check", null);
+            if (!"ok".equals(result)) {
+                throw new IllegalArgumentException("Damaged database: " + result);
+            }
+        } catch (SQLiteException e) {
+            throw new IllegalArgumentException("Not a database of the app " + file, e);
+        } finally {
+            database.close();
+        }
+        deleteSideFiles(file);
+    }
+
+    /**
+     * Delete the given database file and the files SQLite keeps next to it.
+     */
+    private static void deleteDatabaseFiles(File file) {
+        file.delete();
+        deleteSideFiles(file);
+    }
+
+    /**
+     * Delete the journal, write-ahead log and shared memory files of the given database.
+     */
+    private static void deleteSideFiles(File file) {
+        for (String suffix : DATABASE_FILE_SUFFIXES) {
+            new File(file.getPath() + suffix).delete();
+        }
+    }
+
+    private static void copyFile(File source, File target) throws IOException {
+        InputStream in = new FileInputStream(source);
+        try {
+            FileOutputStream out = new FileOutputStream(target);
+            try {
+                byte[] buffer = new byte[COPY_BUFFER_SIZE];
+                int bytesRead;
+                while ((bytesRead = in.read(buffer)) != -1) {
+                    out.write(buffer, 0, bytesRead);
+                }
+                // The copy must be on disk before it can replace anything
+                out.getFD().sync();
+            } finally {
+                out.close();
+            }
+        } finally {
+            in.close();
+        }
+    }
+
+    /**
+     * Roll the stock movements of the UTC days that ended before the given time into one total
+     * per item and day, and delete them. Only whole days are rolled up, so a day never ends up
+     * split between a total and single movements. Return the number of movements rolled up.
+     */
+    private int compactMovements(long before) {
+        long end = before - before % DateUtils.DAY_IN_MILLIS;
+
         // Get writable database
         SQLiteDatabase database = mDbHelper.getWritableDatabase();
 
-        // Track the number of rows that were deleted
-        int rowsDeleted;
+        String day = "(" + MovementEntry.COLUMN_TIMESTAMP + " - "
+                + MovementEntry.COLUMN_TIMESTAMP + " % " + DateUtils.DAY_IN_MILLIS + ")";
+        String days = InventoryDbHelper.TABLE_MOVEMENT_DAYS;
+        String dayColumn = InventoryDbHelper.COLUMN_DAY;
 
-        final int match = sUriMatcher.match(uri);
-        switch (match) {
-            case INVENTORIES:
-                // Delete all rows that match the selection and selection args
-                rowsDeleted = database.delete(ItemEntry.TABLE_NAME, selection, selectionArgs);
-                break;
-            case INVENTORY_ID:
-                // Delete a single row given by the ID in the URI
-                selection = ItemEntry._ID + "=?";
-                selectionArgs = new String[]{String.valueOf(ContentUris.parseId(uri))};
-                // Delete a single row given by the ID in the URI
-                rowsDeleted = database.delete(ItemEntry.TABLE_NAME, selection, selectionArgs);
-                break;
-            default:
-                throw new IllegalArgumentException("Deletion is not supported for " + uri);
+        int movementsCompacted;
+        database.beginTransaction();
+        try {
+            // A day can already have a total if movements were recorded late, e.g. after the
+            // clock was set back, so the new movements are added to it
+            SQLiteStatement rollUp = database.compileStatement("INSERT OR REPLACE INTO " + days + " ("
+                    + MovementEntry.COLUMN_ITEM_ID + ", "
+                    + dayColumn + ", "
+                    + MovementEntry.COLUMN_UNITS_IN + ", "
+                    + MovementEntry.COLUMN_UNITS_OUT + ", "
+                    + MovementEntry.COLUMN_MOVEMENT_COUNT + ")"
+                    + " SELECT m." + MovementEntry.COLUMN_ITEM_ID + ", m." + dayColumn + ", "
+                    + "m." + MovementEntry.COLUMN_UNITS_IN + " + IFNULL(d." + MovementEntry.COLUMN_UNITS_IN + ", 0), "
+                    + "m." + MovementEntry.COLUMN_UNITS_OUT + " + IFNULL(d." + MovementEntry.COLUMN_UNITS_OUT + ", 0), "
+                    + "m." + MovementEntry.COLUMN_MOVEMENT_COUNT + " + IFNULL(d." + MovementEntry.COLUMN_MOVEMENT_COUNT + ", 0)"
+                    + " FROM (SELECT " + MovementEntry.COLUMN_ITEM_ID + ", "
+                    + day + " AS " + dayColumn + ", "
+                    + "SUM(MAX(" + MovementEntry.COLUMN_DELTA + ", 0)) AS " + MovementEntry.COLUMN_UNITS_IN + ", "
+                    + "SUM(MAX(-" + MovementEntry.COLUMN_DELTA + ", 0)) AS " + MovementEntry.COLUMN_UNITS_OUT + ", "
+                    + "COUNT(*) AS " + MovementEntry.COLUMN_MOVEMENT_COUNT
+                    + " FROM " + MovementEntry.TABLE_NAME
+                    + " WHERE " + MovementEntry.COLUMN_TIMESTAMP + " < ?"
+                    + " GROUP BY " + MovementEntry.COLUMN_ITEM_ID + ", " + dayColumn + ") AS m"
+                    + " LEFT JOIN " + days + " AS d"
+                    + " ON d." + MovementEntry.COLUMN_ITEM_ID + " = m." + MovementEntry.COLUMN_ITEM_ID
+                    + " AND d." + dayColumn + " = m." + dayColumn);
+            SQLiteStatement delete = database.compileStatement("DELETE FROM " + MovementEntry.TABLE_NAME
+                    + " WHERE " + MovementEntry.COLUMN_TIMESTAMP + " < ?");
+            try {
+                rollUp.bindLong(1, end);
+                rollUp.execute();
+                delete.bindLong(1, end);
+                movementsCompacted = delete.executeUpdateDelete();
+            } finally {
+                rollUp.close();
+                delete.close();
+            }
+            database.setTransactionSuccessful();
+        } finally {
+            database.endTransaction();
+        }
+
+        // The histories read before hold the same totals, just in finer detail, so they don't
+        // need to be notified. Only the cached copies have to go.
+        if (movementsCompacted > 0) {
+            mQueryCache.invalidate();
+        }
+        return movementsCompacted;
+    }
+
+    /**
+     * Apply all the given operations inside a single transaction. The change notifications of
+     * the individual operations are merged into one, which is only sent once the transaction has
+     * been committed. If an operation fails, the batch is rolled back and nothing is notified.
+     *
+     * Very large batches may give other threads a chance to use the database between chunks,
+     * but only at the operations the caller marked with
+     * {@link ContentProviderOperation.Builder#withYieldAllowed(boolean)}. Yielding commits the
+     * work done so far, so a batch with such operations is only all or nothing between two of
+     * them: a failure rolls back the operations since the last yield, while the ones before it
+     * stay applied and have already been notified.
+     */
+    @Override
+    public ContentProviderResult[] applyBatch(ArrayList<ContentProviderOperation> operations)
+            throws OperationApplicationException {
+        mDatabaseLock.readLock().lock();
+        try {
+            SQLiteDatabase database = mDbHelper.getWritableDatabase();
+
+            List<Uri> pendingNotifications = new ArrayList<>();
+            mPendingNotifications.set(pendingNotifications);
+
+            final int numOperations = operations.size();
+            final ContentProviderResult[] results = new ContentProviderResult[numOperations];
+            database.beginTransaction();
+            try {
+                int opsSinceYield = 0;
+                for (int i = 0; i < numOperations; i++) {
+                    ContentProviderOperation operation = operations.get(i);
+                    if (++opsSinceYield > MAX_OPERATIONS_PER_YIELD_POINT && operation.isYieldAllowed()) {
+                        opsSinceYield = 0;
+                        if (database.yieldIfContendedSafely(SLEEP_AFTER_YIELD_DELAY)) {
+                            // The operations so far have been committed and can't be rolled
+                            // back any more, so their changes are sent now
+                            sendPendingNotifications(pendingNotifications);
+                        }
+                    }
+                    results[i] = operation.apply(this, results, i);
+                }
+                database.setTransactionSuccessful();
+            } finally {
+                database.endTransaction();
+                mPendingNotifications.remove();
+                // Queries made during the batch saw the data from before it was committed
+                mQueryCache.invalidate();
+            }
+
+            // The batch has been committed, so tell the listeners about everything it changed
+            // with a single notification
+            sendPendingNotifications(pendingNotifications);
+
+            return results;
+        } finally {
+            mDatabaseLock.readLock().unlock();
         }
+    }
+
+    /**
+     * Send the changes queued by a batch whose operations have just been committed as a
+     * single notification, and clear them.
+     */
+    private void sendPendingNotifications(List<Uri> pendingNotifications) {
+        // Queries made meanwhile saw the data from before the commit
+        mQueryCache.invalidate();
+        if (!pendingNotifications.isEmpty()) {
+            getContext().getContentResolver().notifyChange(mergeChanges(pendingNotifications), null);
+            pendingNotifications.clear();
+        }
+    }
+
+    /**
+     * Notify all listeners that the given items have changed with the given operation, or that
+     * unknown items have if the array of _IDs is null, and drop the cached query results. Must
+     * be called once the change has been committed. While a batch is running on this thread
+     * the notification is queued, so nothing is sent for a batch that gets rolled back.
+     */
+    private void notifyChange(String operation, long[] ids) {
+        // Whatever was read before this change is stale
+        mQueryCache.invalidate();
 
-        // If 1 or more rows were deleted, then notify all listeners that the data at the
-        // given URI has changed
-        if (rowsDeleted != 0) {
+        Uri uri = ItemEntry.buildChangeUri(operation, ids);
+        List<Uri> pendingNotifications = mPendingNotifications.get();
+        if (pendingNotifications != null) {
+            pendingNotifications.add(uri);
+        } else {
             getContext().getContentResolver().notifyChange(uri, null);
         }
+    }
 
-        // Return the number of rows deleted
-        return rowsDeleted;
+    /**
+     * Merge the given change notifications into a single one, listing all their items. The
+     * operation is kept if they all share it, and the items are only listed if they are all known.
+     */
+    private static Uri mergeChanges(List<Uri> changes) {
+        if (changes.size() == 1) {
+            return changes.get(0);
+        }
 
+        String operation = ItemEntry.getChangeOperation(changes.get(0));
+        Set<Long> ids = new LinkedHashSet<>();
+        for (Uri change : changes) {
+            if (operation != null && !operation.equals(ItemEntry.getChangeOperation(change))) {
+                operation = null;
+            }
+            long[] changedIds = ItemEntry.getChangedIds(change);
+            if (changedIds == null) {
+                ids = null;
+            } else if (ids != null) {
+                for (long id : changedIds) {
+                    ids.add(id);
+                }
+            }
+        }
+
+        long[] mergedIds = null;
+        if (ids != null) {
+            mergedIds = new long[ids.size()];
+            int i = 0;
+            for (long id : ids) {
+                mergedIds[i++] = id;
+            }
+        }
+        return ItemEntry.buildChangeUri(operation, mergedIds);
     }
 
     /**
@@ -299,9 +1611,20 @@ public class InventoryProvider extends ContentProvider {
         final int match = sUriMatcher.match(uri);
         switch (match) {
             case INVENTORIES:
+            case INVENTORY_SEARCH:
                 return ItemEntry.CONTENT_LIST_TYPE;
             case INVENTORY_ID:
+            case INVENTORY_SELL:
+            case INVENTORY_ADJUST:
                 return ItemEntry.CONTENT_ITEM_TYPE;
+            case INVENTORY_STATS:
+                return StatsEntry.CONTENT_ITEM_TYPE;
+            case INVENTORY_LOW_STOCK:
+                return ItemEntry.CONTENT_LIST_TYPE;
+            case INVENTORY_HISTORY:
+                return MovementEntry.CONTENT_LIST_TYPE;
+            case INVENTORY_EXPORT:
+                return ItemEntry.CONTENT_CSV_TYPE;
             default:
                 throw new IllegalStateException("Unknown URI " + uri + " with match " + match);
         }
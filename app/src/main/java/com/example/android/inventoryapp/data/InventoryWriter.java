@@ -0,0 +1,175 @@
+package com.example.android.inventoryapp.data;
+
+import android.content.ContentProviderOperation;
+import android.content.ContentProviderResult;
+import android.content.ContentResolver;
+import android.content.ContentValues;
+import android.content.Context;
+import android.content.OperationApplicationException;
+import android.net.Uri;
+import android.os.Bundle;
+import android.os.Handler;
+import android.os.Looper;
+import android.os.RemoteException;
+import android.util.Log;
+
+import java.util.ArrayList;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Runs the inserts, updates and deletes of the app on a background thread, so the SQLite I/O
+ * never blocks the UI. The changes are applied one at a time, in the order they were asked for,
+ * and their outcome is handed to a {@link Callback} on the main thread.
+ */
+public final class InventoryWriter {
+
+    private static final String LOG_TAG = InventoryWriter.class.getSimpleName();
+
+    /**
+     * Receives the outcome of a change on the main thread.
+     *
+     * @param <T> Type of the result of the change
+     */
+    public interface Callback<T> {
+        /**
+         * Called when the change has been applied, with what the provider returned.
+         */
+        void onComplete(T result);
+
+        /**
+         * Called when the provider rejected the change.
+         */
+        void onError(RuntimeException e);
+    }
+
+    private static InventoryWriter sInstance;
+
+    private final ContentResolver mContentResolver;
+
+    /** Single thread, so changes are applied in the order they were asked for */
+    private final ExecutorService mExecutor = Executors.newSingleThreadExecutor();
+
+    private final Handler mMainHandler = new Handler(Looper.getMainLooper());
+
+    /**
+     * Return the writer of the app.
+     */
+    public static synchronized InventoryWriter getInstance(Context context) {
+        if (sInstance == null) {
+            sInstance = new InventoryWriter(context.getApplicationContext());
+        }
+        return sInstance;
+    }
+
+    private InventoryWriter(Context context) {
+        mContentResolver = context.getContentResolver();
+    }
+
+    /**
+     * Insert a row in the background. The callback receives the URI of the new row, or null if
+     * it couldn't be inserted.
+     */
+    public void insert(final Uri uri, final ContentValues values, Callback<Uri> callback) {
+        submit(new Callable<Uri>() {
+            @Override
+            public Uri call() {
+                return mContentResolver.insert(uri, values);
+            }
+        }, callback);
+    }
+
+    /**
+     * Update rows in the background. The callback receives what the provider returned, which is
+     * the number of rows updated, or the new quantity for the sell and adjust URIs.
+     */
+    public void update(final Uri uri, final ContentValues values, final String selection,
+                       final String[] selectionArgs, Callback<Integer> callback) {
+        submit(new Callable<Integer>() {
+            @Override
+            public Integer call() {
+                return mContentResolver.update(uri, values, selection, selectionArgs);
+            }
+        }, callback);
+    }
+
+    /**
+     * Delete rows in the background. The callback receives the number of rows deleted.
+     */
+    public void delete(final Uri uri, final String selection, final String[] selectionArgs,
+                       Callback<Integer> callback) {
+        submit(new Callable<Integer>() {
+            @Override
+            public Integer call() {
+                return mContentResolver.delete(uri, selection, selectionArgs);
+            }
+        }, callback);
+    }
+
+    /**
+     * Apply the given operations in the background, in a single transaction. The callback
+     * receives the result of each operation, or an error if the whole batch was rolled back.
+     */
+    public void applyBatch(final ArrayList<ContentProviderOperation> operations,
+                           Callback<ContentProviderResult[]> callback) {
+        submit(new Callable<ContentProviderResult[]>() {
+            @Override
+            public ContentProviderResult[] call() {
+                try {
+                    return mContentResolver.applyBatch(InventoryContract.CONTENT_AUTHORITY, operations);
+                } catch (RemoteException | OperationApplicationException e) {
+                    throw new IllegalStateException("Failed to apply batch", e);
+                }
+            }
+        }, callback);
+    }
+
+    /**
+     * Run the given provider method in the background, after the changes asked for before it.
+     * The callback receives the result of the method.
+     */
+    public void call(final String method, final String arg, final Bundle extras, Callback<Bundle> callback) {
+        submit(new Callable<Bundle>() {
+            @Override
+            public Bundle call() {
+                return mContentResolver.call(InventoryContract.BASE_CONTENT_URI, method, arg, extras);
+            }
+        }, callback);
+    }
+
+    private <T> void submit(final Callable<T> change, final Callback<T> callback) {
+        mExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                T result = null;
+                RuntimeException error = null;
+                try {
+                    result = change.call();
+                } catch (RuntimeException e) {
+                    Log.e(LOG_TAG, "Failed to apply change", e);
+                    error = e;
+                } catch (Exception e) {
+                    // The changes above only throw unchecked exceptions
+                    throw new IllegalStateException(e);
+                }
+
+                if (callback == null) {
+                    return;
+                }
+                final T finalResult = result;
+                final RuntimeException finalError = error;
+                mMainHandler.post(new Runnable() {
+                    @Override
+                    public void run() {
+                        if (finalError != null) {
+                            callback.onError(finalError);
+                        } else {
+                            callback.onComplete(finalResult);
+                        }
+                    }
+                });
+            }
+        });
+    }
+}
@@ -0,0 +1,100 @@
+package com.example.android.inventoryapp.data;
+
+import android.database.Cursor;
+import android.database.CursorWrapper;
+import android.util.Log;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Cursor handed out by {@link InventoryProvider} for the results too big for its
+ * {@link QueryCache}, which are read straight from the database. Such a cursor only holds a
+ * window of its rows, and goes back to the database connection for the others as it moves.
+ *
+ * A restore closes that connection. Once the database has been replaced, a move that needs
+ * rows from the closed connection fails soft: it returns false, as at the end of the result,
+ * instead of throwing. The restore notifies every item as changed, so the caller reads the
+ * new database with a new query.
+ */
+final class LiveCursor extends CursorWrapper {
+
+    private static final String LOG_TAG = LiveCursor.class.getSimpleName();
+
+    /** Number of times the database has been replaced, kept by the provider */
+    private final AtomicInteger mDatabaseReplacements;
+
+    /** Value of {@link #mDatabaseReplacements} when the query was run */
+    private final int mReplacementsAtQuery;
+
+    LiveCursor(Cursor cursor, AtomicInteger databaseReplacements) {
+        super(cursor);
+        mDatabaseReplacements = databaseReplacements;
+        mReplacementsAtQuery = databaseReplacements.get();
+    }
+
+    @Override
+    public boolean move(int offset) {
+        try {
+            return super.move(offset);
+        } catch (IllegalStateException e) {
+            return failSoft(e);
+        }
+    }
+
+    @Override
+    public boolean moveToPosition(int position) {
+        try {
+            return super.moveToPosition(position);
+        } catch (IllegalStateException e) {
+            return failSoft(e);
+        }
+    }
+
+    @Override
+    public boolean moveToFirst() {
+        try {
+            return super.moveToFirst();
+        } catch (IllegalStateException e) {
+            return failSoft(e);
+        }
+    }
+
+    @Override
+    public boolean moveToLast() {
+        try {
+            return super.moveToLast();
+        } catch (IllegalStateException e) {
+            return failSoft(e);
+        }
+    }
+
+    @Override
+    public boolean moveToNext() {
+        try {
+            return super.moveToNext();
+        } catch (IllegalStateException e) {
+            return failSoft(e);
+        }
+    }
+
+    @Override
+    public boolean moveToPrevious() {
+        try {
+            return super.moveToPrevious();
+        } catch (IllegalStateException e) {
+            return failSoft(e);
+        }
+    }
+
+    /**
+     * Return false for a move that failed because the database has been replaced since the
+     * query, and throw the given exception again for any other failure.
+     */
+    private boolean failSoft(IllegalStateException e) {
+        if (mDatabaseReplacements.get() == mReplacementsAtQuery) {
+            throw e;
+        }
+        Log.w(LOG_TAG, "Result read from a database since replaced", e);
+        return false;
+    }
+}
@@ -0,0 +1,65 @@
+package com.example.android.inventoryapp.data;
+
+import android.content.Context;
+import android.content.SharedPreferences;
+import android.os.Bundle;
+import android.text.format.DateUtils;
+import android.util.Log;
+
+/**
+ * Keeps the ledger of stock movements from growing forever. Once a day, the movements older
+ * than {@link #RETENTION} are rolled into one total per item and day by the provider, on the
+ * background thread of the {@link InventoryWriter}.
+ *
+ * The app has no scheduler that runs while it is closed on every supported Android version, so
+ * the compaction is started whenever the catalog opens, and does nothing until it is due.
+ */
+public final class MovementCompactor {
+
+    private static final String LOG_TAG = MovementCompactor.class.getSimpleName();
+
+    /** How long the movements are kept one by one before being rolled into daily totals */
+    private static final long RETENTION = 30 * DateUtils.DAY_IN_MILLIS;
+
+    /** Time between two compactions */
+    private static final long INTERVAL = DateUtils.DAY_IN_MILLIS;
+
+    private static final String PREFERENCES_NAME = "movement_compactor";
+
+    /** Key of the preference holding the time of the last compaction */
+    private static final String PREF_LAST_COMPACTION = "last_compaction";
+
+    private MovementCompactor() {}
+
+    /**
+     * Start a compaction of the ledger in the background, unless the last one ran less than a
+     * day ago.
+     */
+    public static void compactIfDue(Context context) {
+        final SharedPreferences preferences = context.getApplicationContext()
+                .getSharedPreferences(PREFERENCES_NAME, Context.MODE_PRIVATE);
+        final long now = System.currentTimeMillis();
+        long lastCompaction = preferences.getLong(PREF_LAST_COMPACTION, 0);
+        // A last compaction in the future means the clock was set back, so don't wait for it
+        if (lastCompaction <= now && now - lastCompaction < INTERVAL) {
+            return;
+        }
+
+        Bundle extras = new Bundle();
+        extras.putLong(InventoryContract.EXTRA_BEFORE, now - RETENTION);
+        InventoryWriter.getInstance(context).call(InventoryContract.METHOD_COMPACT_MOVEMENTS, null, extras,
+                new InventoryWriter.Callback<Bundle>() {
+                    @Override
+                    public void onComplete(Bundle result) {
+                        preferences.edit().putLong(PREF_LAST_COMPACTION, now).apply();
+                        Log.i(LOG_TAG, "Compacted " + result.getInt(InventoryContract.EXTRA_MOVEMENT_COUNT)
+                                + " stock movements");
+                    }
+
+                    @Override
+                    public void onError(RuntimeException e) {
+                        // Tried again the next time the catalog opens
+                    }
+                });
+    }
+}
@@ -0,0 +1,49 @@
+package com.example.android.inventoryapp.data;
+
+import java.math.BigDecimal;
+import java.math.RoundingMode;
+
+/**
+ * Converts prices between the whole cents stored in the database and the euros the user reads
+ * and types. All the arithmetic on prices is done on cents, so it is exact, and they are only
+ * turned into text to be shown.
+ */
+public final class PriceFormat {
+
+    /** Number of cents in a euro */
+    private static final int CENTS_PER_UNIT = 100;
+
+    private PriceFormat() {}
+
+    /**
+     * Return the given price in cents as euros with two decimals, e.g. 1625 as "16.25".
+     */
+    public static String format(long cents) {
+        StringBuilder text = new StringBuilder();
+        if (cents < 0) {
+            text.append('-');
+            cents = -cents;
+        }
+        long fraction = cents % CENTS_PER_UNIT;
+        text.append(cents / CENTS_PER_UNIT).append('.');
+        if (fraction < 10) {
+            text.append('0');
+        }
+        return text.append(fraction).toString();
+    }
+
+    /**
+     * Return the number of cents of the given price in euros, e.g. 1625 for "16.25", rounded to
+     * the nearest cent. Throws a {@link NumberFormatException} if the text isn't a number.
+     */
+    public static long parse(String text) {
+        try {
+            return new BigDecimal(text.trim())
+                    .setScale(2, RoundingMode.HALF_UP)
+                    .movePointRight(2)
+                    .longValueExact();
+        } catch (ArithmeticException e) {
+            throw new NumberFormatException("Price out of range: " + text);
+        }
+    }
+}
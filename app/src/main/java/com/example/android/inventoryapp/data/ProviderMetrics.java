@@ -0,0 +1,154 @@
+package com.example.android.inventoryapp.data;
+
+import android.os.Bundle;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Counts the calls made to {@link InventoryProvider}, the rows they returned or changed and how
+ * long they took, for each operation and URI matcher code. The times are kept as a histogram
+ * of {@link #LATENCY_BUCKET_BOUNDS}, from which the percentiles can be read.
+ *
+ * Recording a call only adds to a few slots of an {@link AtomicLongArray}: it takes no lock and
+ * allocates nothing, so the metrics are always on. A snapshot reads the slots one at a time, so
+ * a call recorded meanwhile may be only partly counted in it.
+ */
+final class ProviderMetrics {
+
+    /** Operations the calls are recorded for */
+    static final int QUERY = 0;
+    static final int INSERT = 1;
+    static final int BULK_INSERT = 2;
+    static final int UPDATE = 3;
+    static final int DELETE = 4;
+
+    private static final String[] OPERATION_NAMES = { "query", "insert", "bulk_insert", "update", "delete" };
+
+    /**
+     * Upper bounds of the latency buckets, in microseconds. Calls slower than the last bound
+     * fall in one more bucket.
+     */
+    static final long[] LATENCY_BUCKET_BOUNDS = {
+            100, 250, 500, 1000, 2500, 5000, 10000, 25000, 50000, 100000, 250000, 1000000 };
+
+    /** Positions of the values of each operation and URI in the array */
+    private static final int CALLS = 0;
+    private static final int ERRORS = 1;
+    private static final int ROWS = 2;
+    private static final int TOTAL_TIME = 3;
+    private static final int MAX_TIME = 4;
+    private static final int FIRST_BUCKET = 5;
+    private static final int VALUE_COUNT = FIRST_BUCKET + LATENCY_BUCKET_BOUNDS.length + 1;
+
+    /** Smallest URI matcher code, whose values come first */
+    private final int mFirstMatch;
+
+    /**
+     * Names of the URI matcher codes from {@link #mFirstMatch} on. The calls to URIs that match
+     * no code are recorded after them, as "unknown".
+     */
+    private final String[] mMatchNames;
+
+    /** Values of every operation and URI, {@link #VALUE_COUNT} each */
+    private final AtomicLongArray mValues;
+
+    /**
+     * Create the metrics of the URI matcher codes starting at the given one, with the given
+     * names in the snapshots.
+     */
+    ProviderMetrics(int firstMatch, String[] matchNames) {
+        mFirstMatch = firstMatch;
+        mMatchNames = matchNames;
+        mValues = new AtomicLongArray(OPERATION_NAMES.length * (matchNames.length + 1) * VALUE_COUNT);
+    }
+
+    /**
+     * Record a call of the given operation on a URI with the given matcher code, which started
+     * at the given {@link System#nanoTime} and returned or changed the given number of rows.
+     */
+    void record(int operation, int match, long startNanos, int rows) {
+        int offset = recordTime(operation, match, startNanos);
+        mValues.addAndGet(offset + ROWS, rows);
+    }
+
+    /**
+     * Record a call of the given operation on a URI with the given matcher code, which started
+     * at the given {@link System#nanoTime} and failed.
+     */
+    void recordError(int operation, int match, long startNanos) {
+        int offset = recordTime(operation, match, startNanos);
+        mValues.incrementAndGet(offset + ERRORS);
+    }
+
+    /**
+     * Count the call and its time, and return the offset of the values of its operation and URI.
+     */
+    private int recordTime(int operation, int match, long startNanos) {
+        long micros = (System.nanoTime() - startNanos) / 1000;
+        int offset = offsetOf(operation, match);
+        mValues.incrementAndGet(offset + CALLS);
+        mValues.addAndGet(offset + TOTAL_TIME, micros);
+
+        long max = mValues.get(offset + MAX_TIME);
+        while (micros > max && !mValues.compareAndSet(offset + MAX_TIME, max, micros)) {
+            max = mValues.get(offset + MAX_TIME);
+        }
+
+        int bucket = 0;
+        while (bucket < LATENCY_BUCKET_BOUNDS.length && micros > LATENCY_BUCKET_BOUNDS[bucket]) {
+            bucket++;
+        }
+        mValues.incrementAndGet(offset + FIRST_BUCKET + bucket);
+        return offset;
+    }
+
+    private int offsetOf(int operation, int match) {
+        int matchIndex = match - mFirstMatch;
+        if (matchIndex < 0 || matchIndex >= mMatchNames.length) {
+            matchIndex = mMatchNames.length;
+        }
+        return (operation * (mMatchNames.length + 1) + matchIndex) * VALUE_COUNT;
+    }
+
+    /**
+     * Return the values of every operation and URI called at least once, each as a bundle of
+     * the {@link InventoryContract} METRIC_ values, keyed by the name of the operation and URI,
+     * e.g. "query items/#".
+     */
+    Bundle snapshot() {
+        Bundle snapshot = new Bundle();
+        for (int operation = 0; operation < OPERATION_NAMES.length; operation++) {
+            for (int matchIndex = 0; matchIndex <= mMatchNames.length; matchIndex++) {
+                int offset = (operation * (mMatchNames.length + 1) + matchIndex) * VALUE_COUNT;
+                long calls = mValues.get(offset + CALLS);
+                if (calls == 0) {
+                    continue;
+                }
+                Bundle values = new Bundle();
+                values.putLong(InventoryContract.METRIC_CALLS, calls);
+                values.putLong(InventoryContract.METRIC_ERRORS, mValues.get(offset + ERRORS));
+                values.putLong(InventoryContract.METRIC_ROWS, mValues.get(offset + ROWS));
+                values.putLong(InventoryContract.METRIC_TOTAL_TIME, mValues.get(offset + TOTAL_TIME));
+                values.putLong(InventoryContract.METRIC_MAX_TIME, mValues.get(offset + MAX_TIME));
+                long[] histogram = new long[LATENCY_BUCKET_BOUNDS.length + 1];
+                for (int bucket = 0; bucket < histogram.length; bucket++) {
+                    histogram[bucket] = mValues.get(offset + FIRST_BUCKET + bucket);
+                }
+                values.putLongArray(InventoryContract.METRIC_LATENCY_HISTOGRAM, histogram);
+
+                String uri = matchIndex < mMatchNames.length ? mMatchNames[matchIndex] : "unknown";
+                snapshot.putBundle(OPERATION_NAMES[operation] + " " + uri, values);
+            }
+        }
+        return snapshot;
+    }
+
+    /**
+     * Set all the values back to zero.
+     */
+    void reset() {
+        for (int i = 0; i < mValues.length(); i++) {
+            mValues.set(i, 0);
+        }
+    }
+}
@@ -0,0 +1,282 @@
+package com.example.android.inventoryapp.data;
+
+import android.database.AbstractCursor;
+import android.database.Cursor;
+import android.database.CursorIndexOutOfBoundsException;
+import android.util.LruCache;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Bounded cache of query results for {@link InventoryProvider}, so the queries that screen
+ * rotations and loader restarts repeat don't go back to SQLite when nothing has changed.
+ *
+ * Results are kept as plain rows and each hit gets its own cursor over them, as every caller
+ * moves and closes its cursor independently. The cursors share the rows, which are never
+ * written after they are read, so a hit doesn't copy anything. Every write bumps a generation counter, and
+ * results read before the latest write are never returned.
+ *
+ * All the methods are thread safe.
+ */
+class QueryCache {
+
+    /** Maximum number of rows kept, over all the cached results */
+    private static final int MAX_ROWS = 5000;
+
+    /** Results bigger than this many rows aren't worth copying and are never cached */
+    private static final int MAX_RESULT_ROWS = 1000;
+
+    /** Number of writes made so far. Cached results are only valid for one generation. */
+    private final AtomicLong mGeneration = new AtomicLong();
+
+    private final AtomicLong mHitCount = new AtomicLong();
+    private final AtomicLong mMissCount = new AtomicLong();
+
+    /** Cached results by query, each counting as one more than its number of rows */
+    private final LruCache<List<Object>, Result> mResults = new LruCache<List<Object>, Result>(MAX_ROWS) {
+        @Override
+        protected int sizeOf(List<Object> key, Result result) {
+            return result.mRows.length + 1;
+        }
+    };
+
+    /**
+     * Return the key of the query with the given arguments.
+     */
+    static List<Object> buildKey(String uri, String[] projection, String selection,
+                                 String[] selectionArgs, String sortOrder) {
+        return Arrays.<Object>asList(uri,
+                projection == null ? null : Arrays.asList(projection),
+                selection,
+                selectionArgs == null ? null : Arrays.asList(selectionArgs),
+                sortOrder);
+    }
+
+    /**
+     * Return the current generation, to be passed to {@link #put} with the result of a query
+     * started now.
+     */
+    long getGeneration() {
+        return mGeneration.get();
+    }
+
+    /**
+     * Forget all the cached results. Must be called after every write has been committed.
+     */
+    void invalidate() {
+        mGeneration.incrementAndGet();
+    }
+
+    /**
+     * Return a new cursor over the cached result of the given query, or null if there is
+     * no valid one.
+     */
+    Cursor get(List<Object> key) {
+        Result result = mResults.get(key);
+        if (result == null || result.mGeneration != mGeneration.get()) {
+            if (result != null) {
+                mResults.remove(key);
+            }
+            mMissCount.incrementAndGet();
+            return null;
+        }
+        mHitCount.incrementAndGet();
+        return result.newCursor();
+    }
+
+    /**
+     * Cache the given result of the given query, started at the given generation, and return
+     * the cursor to hand to the caller in its place. The result isn't cached if it is too big
+     * or if the data has been written to since the query started.
+     */
+    Cursor put(List<Object> key, long generation, Cursor cursor) {
+        if (cursor.getCount() > MAX_RESULT_ROWS) {
+            return cursor;
+        }
+
+        Result result;
+        try {
+            result = new Result(generation, cursor);
+        } finally {
+            cursor.close();
+        }
+        if (generation == mGeneration.get()) {
+            mResults.put(key, result);
+        }
+        return result.newCursor();
+    }
+
+    long getHitCount() {
+        return mHitCount.get();
+    }
+
+    long getMissCount() {
+        return mMissCount.get();
+    }
+
+    /**
+     * Immutable copy of the rows of a query result.
+     */
+    private static final class Result {
+
+        final long mGeneration;
+        final String[] mColumnNames;
+        final Object[][] mRows;
+
+        Result(long generation, Cursor cursor) {
+            mGeneration = generation;
+            mColumnNames = cursor.getColumnNames();
+            mRows = new Object[cursor.getCount()][];
+            int columnCount = mColumnNames.length;
+            cursor.moveToPosition(-1);
+            while (cursor.moveToNext()) {
+                Object[] row = new Object[columnCount];
+                for (int i = 0; i < columnCount; i++) {
+                    switch (cursor.getType(i)) {
+                        case Cursor.FIELD_TYPE_INTEGER:
+                            row[i] = cursor.getLong(i);
+                            break;
+                        case Cursor.FIELD_TYPE_FLOAT:
+                            row[i] = cursor.getDouble(i);
+                            break;
+                        case Cursor.FIELD_TYPE_STRING:
+                            row[i] = cursor.getString(i);
+                            break;
+                        case Cursor.FIELD_TYPE_BLOB:
+                            row[i] = cursor.getBlob(i);
+                            break;
+                        default:
+                            row[i] = null;
+                            break;
+                    }
+                }
+                mRows[cursor.getPosition()] = row;
+            }
+        }
+
+        /**
+         * Return a new cursor over the rows, which it shares with the other cursors instead of
+         * copying them.
+         */
+        Cursor newCursor() {
+            return new ResultCursor(mColumnNames, mRows);
+        }
+    }
+
+    /**
+     * Read-only cursor over the rows of a cached result. The rows are never written, so every
+     * cursor over the result reads the same arrays, and making one costs no more than the
+     * cursor object itself.
+     */
+    private static final class ResultCursor extends AbstractCursor {
+
+        private final String[] mColumnNames;
+        private final Object[][] mRows;
+
+        ResultCursor(String[] columnNames, Object[][] rows) {
+            mColumnNames = columnNames;
+            mRows = rows;
+        }
+
+        @Override
+        public int getCount() {
+            return mRows.length;
+        }
+
+        @Override
+        public String[] getColumnNames() {
+            return mColumnNames;
+        }
+
+        /**
+         * Return the value of the given column of the current row.
+         */
+        private Object get(int column) {
+            if (column < 0 || column >= mColumnNames.length) {
+                throw new CursorIndexOutOfBoundsException("Requested column: " + column
+                        + ", # of columns: " + mColumnNames.length);
+            }
+            int position = getPosition();
+            if (position < 0 || position >= mRows.length) {
+                throw new CursorIndexOutOfBoundsException(position, mRows.length);
+            }
+            return mRows[position][column];
+        }
+
+        @Override
+        public int getType(int column) {
+            Object value = get(column);
+            if (value == null) {
+                return Cursor.FIELD_TYPE_NULL;
+            } else if (value instanceof Long) {
+                return Cursor.FIELD_TYPE_INTEGER;
+            } else if (value instanceof Double) {
+                return Cursor.FIELD_TYPE_FLOAT;
+            } else if (value instanceof byte[]) {
+                return Cursor.FIELD_TYPE_BLOB;
+            }
+            return Cursor.FIELD_TYPE_STRING;
+        }
+
+        @Override
+        public String getString(int column) {
+            Object value = get(column);
+            return value == null ? null : value.toString();
+        }
+
+        @Override
+        public byte[] getBlob(int column) {
+            Object value = get(column);
+            if (value == null || value instanceof byte[]) {
+                return (byte[]) value;
+            }
+            throw new UnsupportedOperationException("Column " + column + " is not a blob");
+        }
+
+        @Override
+        public short getShort(int column) {
+            return (short) getLong(column);
+        }
+
+        @Override
+        public int getInt(int column) {
+            return (int) getLong(column);
+        }
+
+        @Override
+        public long getLong(int column) {
+            Object value = get(column);
+            if (value == null) {
+                return 0;
+            }
+            if (value instanceof Number) {
+                return ((Number) value).longValue();
+            }
+            return Long.parseLong(value.toString());
+        }
+
+        @Override
+        public float getFloat(int column) {
+            return (float) getDouble(column);
+        }
+
+        @Override
+        public double getDouble(int column) {
+            Object value = get(column);
+            if (value == null) {
+                return 0;
+            }
+            if (value instanceof Number) {
+                return ((Number) value).doubleValue();
+            }
+            return Double.parseDouble(value.toString());
+        }
+
+        @Override
+        public boolean isNull(int column) {
+            return get(column) == null;
+        }
+    }
+}
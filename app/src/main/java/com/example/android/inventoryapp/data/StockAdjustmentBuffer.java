@@ -0,0 +1,230 @@
+package com.example.android.inventoryapp.data;
+
+import android.content.ContentProviderOperation;
+import android.content.ContentProviderResult;
+import android.content.ContentValues;
+import android.content.Context;
+import android.os.Handler;
+import android.os.Looper;
+import android.util.LongSparseArray;
+
+import com.example.android.inventoryapp.data.InventoryContract.ItemEntry;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Write-behind buffer for the stock changes made with the sold and quantity buttons. The changes
+ * of each item are added up for a short while, then written together in a single batch, so many
+ * quick taps cost one transaction and one change notification instead of one each. Changes made
+ * for different reasons are added up apart, so sales and restocks stay separate movements in the
+ * history of the item.
+ *
+ * The changes that aren't written yet are available through {@link #getPendingDelta}, so the
+ * screens can show the expected quantity straight away. Screens should call {@link #flush} when
+ * they are paused, so nothing is held back while the app is in the background.
+ *
+ * All the methods must be called from the main thread.
+ */
+public final class StockAdjustmentBuffer {
+
+    /**
+     * Receives the outcome of the buffered changes on the main thread.
+     */
+    public interface Listener {
+        /**
+         * Called when the quantity to show for the given item has changed, because a change has
+         * been added, written or refused.
+         */
+        void onPendingDeltaChanged(long id);
+
+        /**
+         * Called when the changes of the given item have been written, with the quantity the
+         * item now has in the database.
+         */
+        void onAdjustmentApplied(long id, int delta, int newQuantity);
+
+        /**
+         * Called when the changes of the given item have been dropped, because there wasn't
+         * enough stock or the write failed.
+         */
+        void onAdjustmentRefused(long id, int delta);
+    }
+
+    /** How long changes are held back waiting for more taps, in milliseconds */
+    private static final long FLUSH_DELAY = 500;
+
+    /** Number of changes held back, per item and reason, at which they are written at once */
+    private static final int MAX_PENDING_ITEMS = 50;
+
+    private static StockAdjustmentBuffer sInstance;
+
+    private final InventoryWriter mWriter;
+
+    private final Handler mMainHandler = new Handler(Looper.getMainLooper());
+
+    /** Changes not handed to the writer yet, by reason and item id */
+    private final Map<String, LongSparseArray<Integer>> mPendingDeltas = new HashMap<>();
+
+    /** Number of item and reason pairs with changes not handed to the writer yet */
+    private int mPendingCount;
+
+    /** Changes handed to the writer but not written yet, by item id */
+    private final LongSparseArray<Integer> mWritingDeltas = new LongSparseArray<>();
+
+    private final List<Listener> mListeners = new ArrayList<>();
+
+    private final Runnable mFlushRunnable = new Runnable() {
+        @Override
+        public void run() {
+            flush();
+        }
+    };
+
+    /**
+     * Return the stock adjustment buffer of the app.
+     */
+    public static synchronized StockAdjustmentBuffer getInstance(Context context) {
+        if (sInstance == null) {
+            sInstance = new StockAdjustmentBuffer(InventoryWriter.getInstance(context));
+        }
+        return sInstance;
+    }
+
+    private StockAdjustmentBuffer(InventoryWriter writer) {
+        mWriter = writer;
+    }
+
+    public void addListener(Listener listener) {
+        mListeners.add(listener);
+    }
+
+    public void removeListener(Listener listener) {
+        mListeners.remove(listener);
+    }
+
+    /**
+     * Change the stock of the given item by delta units for the given reason, one of
+     * {@link InventoryContract.MovementEntry#REASON_SALE},
+     * {@link InventoryContract.MovementEntry#REASON_RESTOCK} or
+     * {@link InventoryContract.MovementEntry#REASON_CORRECTION}. The change is written a little
+     * later, together with the other changes made in the meantime.
+     */
+    public void adjust(long id, int delta, String reason) {
+        LongSparseArray<Integer> deltas = mPendingDeltas.get(reason);
+        if (deltas == null) {
+            deltas = new LongSparseArray<>();
+            mPendingDeltas.put(reason, deltas);
+        }
+        mPendingCount -= deltas.size();
+        put(deltas, id, deltas.get(id, 0) + delta);
+        mPendingCount += deltas.size();
+        for (Listener listener : new ArrayList<>(mListeners)) {
+            listener.onPendingDeltaChanged(id);
+        }
+
+        if (mPendingCount >= MAX_PENDING_ITEMS) {
+            flush();
+        } else {
+            mMainHandler.removeCallbacks(mFlushRunnable);
+            mMainHandler.postDelayed(mFlushRunnable, FLUSH_DELAY);
+        }
+    }
+
+    /**
+     * Return the change to the stock of the given item that hasn't been written yet.
+     */
+    public int getPendingDelta(long id) {
+        int delta = mWritingDeltas.get(id, 0);
+        for (LongSparseArray<Integer> deltas : mPendingDeltas.values()) {
+            delta += deltas.get(id, 0);
+        }
+        return delta;
+    }
+
+    /**
+     * Hand all the changes held back to the writer now, as a single batch. The changes adding
+     * stock go first, so a sale isn't refused for lack of the stock added in the same batch.
+     */
+    public void flush() {
+        mMainHandler.removeCallbacks(mFlushRunnable);
+        if (mPendingCount == 0) {
+            return;
+        }
+
+        final long[] ids = new long[mPendingCount];
+        final int[] deltas = new int[mPendingCount];
+        ArrayList<ContentProviderOperation> operations = new ArrayList<>(mPendingCount);
+        for (int pass = 0; pass < 2; pass++) {
+            boolean adding = pass == 0;
+            for (Map.Entry<String, LongSparseArray<Integer>> entry : mPendingDeltas.entrySet()) {
+                LongSparseArray<Integer> pendingDeltas = entry.getValue();
+                for (int j = 0; j < pendingDeltas.size(); j++) {
+                    if ((pendingDeltas.valueAt(j) > 0) != adding) {
+                        continue;
+                    }
+                    int i = operations.size();
+                    ids[i] = pendingDeltas.keyAt(j);
+                    deltas[i] = pendingDeltas.valueAt(j);
+                    put(mWritingDeltas, ids[i], mWritingDeltas.get(ids[i], 0) + deltas[i]);
+
+                    // Batched updates can't have empty values, so the change goes in the values
+                    ContentValues values = new ContentValues();
+                    values.put(InventoryContract.QUERY_PARAMETER_DELTA, deltas[i]);
+                    values.put(InventoryContract.QUERY_PARAMETER_REASON, entry.getKey());
+                    operations.add(ContentProviderOperation.newUpdate(ItemEntry.buildAdjustUri(ids[i]))
+                            .withValues(values)
+                            .build());
+                }
+            }
+        }
+        mPendingDeltas.clear();
+        mPendingCount = 0;
+
+        mWriter.applyBatch(operations, new InventoryWriter.Callback<ContentProviderResult[]>() {
+            @Override
+            public void onComplete(ContentProviderResult[] results) {
+                for (int i = 0; i < ids.length; i++) {
+                    finishWriting(ids[i], deltas[i], results[i].count);
+                }
+            }
+
+            @Override
+            public void onError(RuntimeException e) {
+                // The whole batch has been rolled back
+                for (int i = 0; i < ids.length; i++) {
+                    finishWriting(ids[i], deltas[i], -1);
+                }
+            }
+        });
+    }
+
+    /**
+     * Forget the given change of the given item now that it has been written, or refused if
+     * the new quantity is negative, and tell the listeners.
+     */
+    private void finishWriting(long id, int delta, int newQuantity) {
+        put(mWritingDeltas, id, mWritingDeltas.get(id, 0) - delta);
+        for (Listener listener : new ArrayList<>(mListeners)) {
+            if (newQuantity >= 0) {
+                listener.onAdjustmentApplied(id, delta, newQuantity);
+            } else {
+                listener.onAdjustmentRefused(id, delta);
+            }
+            listener.onPendingDeltaChanged(id);
+        }
+    }
+
+    /**
+     * Store the given change for the given item, or remove the item if there is no change left.
+     */
+    private static void put(LongSparseArray<Integer> deltas, long id, int delta) {
+        if (delta == 0) {
+            deltas.delete(id);
+        } else {
+            deltas.put(id, delta);
+        }
+    }
+}
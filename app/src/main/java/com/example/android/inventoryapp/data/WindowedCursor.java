@@ -0,0 +1,402 @@
+package com.example.android.inventoryapp.data;
+
+import android.content.ContentResolver;
+import android.database.AbstractCursor;
+import android.database.Cursor;
+import android.database.CursorIndexOutOfBoundsException;
+import android.net.Uri;
+
+import com.example.android.inventoryapp.data.InventoryContract.ItemEntry;
+import com.example.android.inventoryapp.data.InventoryContract.StatsEntry;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Cursor over a whole list of items, {@link ItemEntry#CONTENT_URI} or
+ * {@link ItemEntry#LOW_STOCK_URI}, that only keeps a few blocks of rows in memory however long
+ * the list is. The blocks are read from {@link InventoryProvider} as pages found by key, each
+ * starting after the name and _ID of the last row of the block before it, so reading a block
+ * deep into the catalog costs the same as reading the first one.
+ *
+ * The blocks last used are kept, up to a fixed number, and the block next in the direction the
+ * cursor moves is read in the background before it is reached. Only the key where each block
+ * starts is kept for every block read, so blocks dropped from memory are read again directly
+ * when the cursor moves back to them.
+ *
+ * The number of rows is read from the statistics of the catalog when the cursor is created.
+ * The cursor reads the list as it changes, so rows added or deleted after that are only seen
+ * by a new cursor; its notification URI tells when to make one. Moving to a row of a block
+ * not in memory reads the provider, so the cursor should be created and moved off the main
+ * thread, as a loader does.
+ */
+public class WindowedCursor extends AbstractCursor {
+
+    /** Number of rows in a block, unless given */
+    public static final int DEFAULT_BLOCK_SIZE = 200;
+
+    /** Number of blocks kept in memory, unless given */
+    public static final int DEFAULT_MAX_BLOCKS = 4;
+
+    /** Reads the blocks ahead of the cursors, one at a time */
+    private static final ExecutorService sPrefetchExecutor = Executors.newSingleThreadExecutor();
+
+    private final ContentResolver mContentResolver;
+
+    /** List the rows come from */
+    private final Uri mListUri;
+
+    private final String[] mColumnNames;
+
+    /** Positions of the columns the blocks are found by */
+    private final int mNameColumnIndex;
+    private final int mIdColumnIndex;
+
+    private final int mBlockSize;
+
+    private final int mCount;
+
+    /** Blocks in memory by number, least recently used first */
+    private final Map<Integer, Object[][]> mBlocks;
+
+    /**
+     * Name and _ID of the row each block starts after, by number of block, for every block whose
+     * start is known. The first block starts at the start of the list, so its entry is null.
+     */
+    private final List<Object[]> mBlockStarts = new ArrayList<>();
+
+    /** Numbers of the blocks being read in the background */
+    private final Set<Integer> mPrefetching = new HashSet<>();
+
+    /** Values of the current row, null when the cursor isn't on a row */
+    private Object[] mRow;
+
+    /**
+     * Create a cursor over the given list with the given columns, which must include the name
+     * and the _ID, read in blocks of {@link #DEFAULT_BLOCK_SIZE} rows.
+     */
+    public WindowedCursor(ContentResolver contentResolver, Uri listUri, String[] projection) {
+        this(contentResolver, listUri, projection, DEFAULT_BLOCK_SIZE, DEFAULT_MAX_BLOCKS);
+    }
+
+    /**
+     * Create a cursor over the given list with the given columns, which must include the name
+     * and the _ID, read in blocks of the given number of rows, keeping at most the given number
+     * of blocks in memory. Reads the number of rows from the provider.
+     */
+    public WindowedCursor(ContentResolver contentResolver, Uri listUri, String[] projection,
+                          int blockSize, int maxBlocks) {
+        if (!ItemEntry.CONTENT_URI.equals(listUri) && !ItemEntry.LOW_STOCK_URI.equals(listUri)) {
+            throw new IllegalArgumentException("Windowed cursor over an unknown list " + listUri);
+        }
+        mNameColumnIndex = Arrays.asList(projection).indexOf(ItemEntry.COLUMN_ITEM_NAME);
+        mIdColumnIndex = Arrays.asList(projection).indexOf(ItemEntry._ID);
+        if (mNameColumnIndex < 0 || mIdColumnIndex < 0) {
+            throw new IllegalArgumentException("Windowed cursor requires the name and _ID columns");
+        }
+        // The block being read and the one read ahead both have to fit
+        if (blockSize <= 0 || maxBlocks < 2) {
+            throw new IllegalArgumentException("Windowed cursor requires blocks and room for two");
+        }
+
+        mContentResolver = contentResolver;
+        mListUri = listUri;
+        mColumnNames = projection.clone();
+        mBlockSize = blockSize;
+        final int blockLimit = maxBlocks;
+        mBlocks = new LinkedHashMap<Integer, Object[][]>(maxBlocks + 1, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<Integer, Object[][]> eldest) {
+                return size() > blockLimit;
+            }
+        };
+        mBlockStarts.add(null);
+        mCount = readCount();
+
+        setNotificationUri(contentResolver, ItemEntry.CONTENT_URI);
+    }
+
+    /**
+     * Read the number of items in the list from the statistics of the catalog, which are kept
+     * up to date by the database rather than counted.
+     */
+    private int readCount() {
+        String column = ItemEntry.LOW_STOCK_URI.equals(mListUri)
+                ? StatsEntry.COLUMN_LOW_STOCK_COUNT : StatsEntry.COLUMN_ITEM_COUNT;
+        Cursor stats = mContentResolver.query(StatsEntry.CONTENT_URI, new String[] { column },
+                null, null, null);
+        if (stats == null) {
+            return 0;
+        }
+        try {
+            return stats.moveToFirst() ? stats.getInt(0) : 0;
+        } finally {
+            stats.close();
+        }
+    }
+
+    @Override
+    public int getCount() {
+        return mCount;
+    }
+
+    @Override
+    public String[] getColumnNames() {
+        return mColumnNames;
+    }
+
+    @Override
+    public boolean onMove(int oldPosition, int newPosition) {
+        int block = newPosition / mBlockSize;
+        int offset = newPosition % mBlockSize;
+        Object[][] rows = getBlock(block);
+        if (offset >= rows.length) {
+            // Items were deleted since the cursor was created, so the list ends early
+            mRow = null;
+            return false;
+        }
+        mRow = rows[offset];
+
+        // Read the next block in the direction of the move once the last quarter of this one
+        // is reached
+        int margin = Math.max(1, mBlockSize / 4);
+        if (newPosition > oldPosition && offset >= mBlockSize - margin
+                && (block + 1) * mBlockSize < mCount) {
+            prefetch(block + 1);
+        } else if (newPosition < oldPosition && offset < margin && block > 0) {
+            prefetch(block - 1);
+        }
+        return true;
+    }
+
+    /**
+     * Return the rows of the given block, reading it if it isn't in memory.
+     */
+    private Object[][] getBlock(int block) {
+        synchronized (this) {
+            Object[][] rows = mBlocks.get(block);
+            if (rows != null) {
+                return rows;
+            }
+        }
+        return readBlock(block);
+    }
+
+    /**
+     * Read the given block in the background, unless it is in memory or already being read.
+     */
+    private void prefetch(final int block) {
+        synchronized (this) {
+            if (mBlocks.containsKey(block) || !mPrefetching.add(block)) {
+                return;
+            }
+        }
+        sPrefetchExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    if (!isClosed()) {
+                        readBlock(block);
+                    }
+                } catch (RuntimeException e) {
+                    // The block will be read again, and the error reported, when it is reached
+                } finally {
+                    synchronized (WindowedCursor.this) {
+                        mPrefetching.remove(block);
+                    }
+                }
+            }
+        });
+    }
+
+    /**
+     * Read the given block from the provider, keep it in memory and return its rows. If where
+     * the block starts isn't known yet, the blocks before it are read first, from the last one
+     * whose start is known. Returns no row past the end of the list.
+     */
+    private Object[][] readBlock(int block) {
+        int first;
+        synchronized (this) {
+            first = Math.min(block, mBlockStarts.size() - 1);
+        }
+
+        Object[][] rows = new Object[0][];
+        for (int current = first; current <= block; current++) {
+            Object[] start;
+            synchronized (this) {
+                start = mBlockStarts.get(current);
+            }
+            rows = queryBlock(start);
+
+            synchronized (this) {
+                if (!isClosed()) {
+                    mBlocks.put(current, rows);
+                }
+                // A full block may be followed by another one, which starts after its last row
+                if (rows.length == mBlockSize && mBlockStarts.size() == current + 1) {
+                    Object[] last = rows[rows.length - 1];
+                    mBlockStarts.add(new Object[] { last[mNameColumnIndex], last[mIdColumnIndex] });
+                }
+            }
+            if (rows.length < mBlockSize && current < block) {
+                // The list ends before the block
+                return new Object[0][];
+            }
+        }
+        return rows;
+    }
+
+    /**
+     * Query the block of the list that starts after the given name and _ID, or at the start of
+     * the list if there is none, and copy its rows.
+     */
+    private Object[][] queryBlock(Object[] start) {
+        Uri uri = start == null ? ItemEntry.buildFirstPageUri(mListUri, mBlockSize)
+                : ItemEntry.buildNextPageUri(mListUri, String.valueOf(start[0]),
+                        ((Number) start[1]).longValue(), mBlockSize);
+        Cursor cursor = mContentResolver.query(uri, mColumnNames, null, null, null);
+        if (cursor == null) {
+            throw new IllegalStateException("No rows for " + uri);
+        }
+        try {
+            Object[][] rows = new Object[cursor.getCount()][];
+            int columnCount = mColumnNames.length;
+            while (cursor.moveToNext()) {
+                Object[] row = new Object[columnCount];
+                for (int i = 0; i < columnCount; i++) {
+                    switch (cursor.getType(i)) {
+                        case Cursor.FIELD_TYPE_NULL:
+                            break;
+                        case Cursor.FIELD_TYPE_INTEGER:
+                            row[i] = cursor.getLong(i);
+                            break;
+                        case Cursor.FIELD_TYPE_FLOAT:
+                            row[i] = cursor.getDouble(i);
+                            break;
+                        case Cursor.FIELD_TYPE_BLOB:
+                            row[i] = cursor.getBlob(i);
+                            break;
+                        default:
+                            row[i] = cursor.getString(i);
+                            break;
+                    }
+                }
+                rows[cursor.getPosition()] = row;
+            }
+            return rows;
+        } finally {
+            cursor.close();
+        }
+    }
+
+    /**
+     * Return the number of blocks in memory.
+     */
+    synchronized int getBlockCount() {
+        return mBlocks.size();
+    }
+
+    @Override
+    public void close() {
+        super.close();
+        synchronized (this) {
+            mBlocks.clear();
+        }
+        mRow = null;
+    }
+
+    /**
+     * Return the value of the given column of the current row.
+     */
+    private Object get(int column) {
+        if (column < 0 || column >= mColumnNames.length) {
+            throw new CursorIndexOutOfBoundsException("Requested column: " + column
+                    + ", # of columns: " + mColumnNames.length);
+        }
+        if (mRow == null) {
+            throw new CursorIndexOutOfBoundsException(getPosition(), mCount);
+        }
+        return mRow[column];
+    }
+
+    @Override
+    public int getType(int column) {
+        Object value = get(column);
+        if (value == null) {
+            return Cursor.FIELD_TYPE_NULL;
+        } else if (value instanceof Long) {
+            return Cursor.FIELD_TYPE_INTEGER;
+        } else if (value instanceof Double) {
+            return Cursor.FIELD_TYPE_FLOAT;
+        } else if (value instanceof byte[]) {
+            return Cursor.FIELD_TYPE_BLOB;
+        }
+        return Cursor.FIELD_TYPE_STRING;
+    }
+
+    @Override
+    public String getString(int column) {
+        Object value = get(column);
+        return value == null ? null : value.toString();
+    }
+
+    @Override
+    public byte[] getBlob(int column) {
+        Object value = get(column);
+        if (value == null || value instanceof byte[]) {
+            return (byte[]) value;
+        }
+        throw new UnsupportedOperationException("Column " + column + " is not a blob");
+    }
+
+    @Override
+    public short getShort(int column) {
+        return (short) getLong(column);
+    }
+
+    @Override
+    public int getInt(int column) {
+        return (int) getLong(column);
+    }
+
+    @Override
+    public long getLong(int column) {
+        Object value = get(column);
+        if (value == null) {
+            return 0;
+        }
+        if (value instanceof Number) {
+            return ((Number) value).longValue();
+        }
+        return Long.parseLong(value.toString());
+    }
+
+    @Override
+    public float getFloat(int column) {
+        return (float) getDouble(column);
+    }
+
+    @Override
+    public double getDouble(int column) {
+        Object value = get(column);
+        if (value == null) {
+            return 0;
+        }
+        if (value instanceof Number) {
+            return ((Number) value).doubleValue();
+        }
+        return Double.parseDouble(value.toString());
+    }
+
+    @Override
+    public boolean isNull(int column) {
+        return get(column) == null;
+    }
+}
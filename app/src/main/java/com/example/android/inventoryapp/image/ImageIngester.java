@@ -0,0 +1,398 @@
+package com.example.android.inventoryapp.image;
+
+import android.content.ContentResolver;
+import android.content.ContentUris;
+import android.content.ContentValues;
+import android.content.Context;
+import android.database.Cursor;
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
+import android.net.Uri;
+import android.util.Log;
+
+import com.example.android.inventoryapp.data.InventoryContract.ItemEntry;
+import com.example.android.inventoryapp.data.WindowedCursor;
+
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.UUID;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Copies the images picked for the items into the app's private storage. Each image is
+ * re-encoded as a JPEG no bigger than {@link #MAX_IMAGE_SIZE} pixels, with a
+ * {@link #THUMBNAIL_SIZE} pixel thumbnail next to it, and the item is updated to point at the
+ * local copy. Showing the image then only reads small local files, and keeps working after the
+ * original is moved or deleted.
+ *
+ * All the work is done on a background thread.
+ */
+public final class ImageIngester {
+
+    private static final String LOG_TAG = ImageIngester.class.getSimpleName();
+
+    /** Maximum width and height of the stored images, in pixels */
+    static final int MAX_IMAGE_SIZE = 1280;
+
+    /** Maximum width and height of the stored thumbnails, in pixels */
+    static final int THUMBNAIL_SIZE = 256;
+
+    /** JPEG quality of the stored images */
+    private static final int JPEG_QUALITY = 85;
+
+    /** Name of the directory of the stored images, in the app's files directory */
+    private static final String IMAGE_DIRECTORY = "images";
+
+    private static final String IMAGE_SUFFIX = ".jpg";
+    private static final String THUMBNAIL_SUFFIX = "_thumb.jpg";
+
+    /** Suffix of the name the image directory is moved to while a restore replaces it */
+    private static final String REPLACED_SUFFIX = ".old";
+
+    private static ImageIngester sInstance;
+
+    private final ContentResolver mContentResolver;
+
+    /** Directory holding the stored images and thumbnails */
+    private final File mDirectory;
+
+    /** Single thread, so an item's images are never ingested twice at the same time */
+    private final ExecutorService mExecutor = Executors.newSingleThreadExecutor();
+
+    /**
+     * Return the image ingester of the app.
+     */
+    public static synchronized ImageIngester getInstance(Context context) {
+        if (sInstance == null) {
+            sInstance = new ImageIngester(context.getApplicationContext());
+        }
+        return sInstance;
+    }
+
+    private ImageIngester(Context context) {
+        mContentResolver = context.getContentResolver();
+        mDirectory = new File(context.getFilesDir(), IMAGE_DIRECTORY);
+    }
+
+    /**
+     * Return true if the given image URI points at an image stored by this class.
+     */
+    public boolean isIngested(Uri image) {
+        return getIngestedFile(image) != null;
+    }
+
+    /**
+     * Return the URI of the thumbnail of the given image, or null if it isn't an image stored
+     * by this class.
+     */
+    public Uri getThumbnailUri(Uri image) {
+        File file = getIngestedFile(image);
+        if (file == null) {
+            return null;
+        }
+        String name = file.getName();
+        String base = name.substring(0, name.length() - IMAGE_SUFFIX.length());
+        return Uri.fromFile(new File(mDirectory, base + THUMBNAIL_SUFFIX));
+    }
+
+    /**
+     * Copy the given image of the given item into private storage in the background, then point
+     * the item at the copy. Nothing is done if the image is already a stored one. The item isn't
+     * changed if its image has been replaced in the meantime.
+     */
+    public void ingest(final Uri itemUri, final Uri image) {
+        if (isIngested(image)) {
+            return;
+        }
+        mExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                ingestNow(itemUri, image);
+            }
+        });
+    }
+
+    /**
+     * Delete the stored copy of the given image and its thumbnail in the background.
+     * Images that weren't stored by this class are left alone.
+     */
+    public void delete(final Uri image) {
+        if (!isIngested(image)) {
+            return;
+        }
+        mExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                deleteNow(image);
+            }
+        });
+    }
+
+    /**
+     * Delete all the stored images and thumbnails in the background. Used when all the items
+     * are deleted.
+     */
+    public void deleteAll() {
+        mExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                File[] files = mDirectory.listFiles();
+                if (files != null) {
+                    for (File file : files) {
+                        file.delete();
+                    }
+                }
+            }
+        });
+    }
+
+    /**
+     * Return the directory holding the stored images and thumbnails, to back them up.
+     */
+    public File getDirectory() {
+        return mDirectory;
+    }
+
+    /**
+     * Replace all the stored images and thumbnails with the files of the given directory, which
+     * is moved into place. Used to restore a backup. The replacement waits for the images being
+     * ingested, so none of them lands in the directory being replaced, and the calling thread
+     * blocks until it is done.
+     *
+     * The images replaced are kept until the caller calls {@link #commitReplace}, or puts them
+     * back with {@link #rollBackReplace} if the rest of the restore fails. Return false if the
+     * directory couldn't be moved, in which case nothing has changed.
+     */
+    public boolean replaceAll(final File directory) {
+        return runNow(new Callable<Boolean>() {
+            @Override
+            public Boolean call() {
+                return replaceAllNow(directory);
+            }
+        }, "Failed to replace the images with " + directory);
+    }
+
+    /**
+     * Delete the images replaced by the last {@link #replaceAll}.
+     */
+    public void commitReplace() {
+        runNow(new Callable<Boolean>() {
+            @Override
+            public Boolean call() {
+                deleteDirectory(new File(mDirectory.getPath() + REPLACED_SUFFIX));
+                return true;
+            }
+        }, "Failed to delete the replaced images");
+    }
+
+    /**
+     * Put back the images replaced by the last {@link #replaceAll}, dropping the ones it moved
+     * into place. Return false if they couldn't be moved back.
+     */
+    public boolean rollBackReplace() {
+        return runNow(new Callable<Boolean>() {
+            @Override
+            public Boolean call() {
+                File replaced = new File(mDirectory.getPath() + REPLACED_SUFFIX);
+                deleteDirectory(mDirectory);
+                return !replaced.exists() || replaced.renameTo(mDirectory);
+            }
+        }, "Failed to put the replaced images back");
+    }
+
+    /**
+     * Run the given change of the image directory on the executor, after the images being
+     * ingested, and wait for its result. Return false if it failed.
+     */
+    private boolean runNow(Callable<Boolean> change, String errorMessage) {
+        try {
+            return mExecutor.submit(change).get();
+        } catch (InterruptedException | ExecutionException e) {
+            Log.e(LOG_TAG, errorMessage, e);
+            return false;
+        }
+    }
+
+    /**
+     * Ingest the images of all the items that still point at an image outside of private
+     * storage, in the background. Used to move the items saved before images were ingested.
+     *
+     * The whole catalog is walked through a {@link WindowedCursor}, so only a few blocks of
+     * items are in memory however big the catalog is. Ingesting an image doesn't change the
+     * name of its item, so the blocks still to be read aren't moved by the updates.
+     */
+    public void backfill() {
+        mExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                String[] projection = { ItemEntry._ID, ItemEntry.COLUMN_ITEM_NAME,
+                        ItemEntry.COLUMN_ITEM_IMAGE };
+                Cursor cursor = new WindowedCursor(mContentResolver, ItemEntry.CONTENT_URI, projection);
+                try {
+                    while (cursor.moveToNext()) {
+                        Uri image = Uri.parse(cursor.getString(2));
+                        if (!isIngested(image)) {
+                            Uri itemUri = ContentUris.withAppendedId(ItemEntry.CONTENT_URI, cursor.getLong(0));
+                            ingestNow(itemUri, image);
+                        }
+                    }
+                } finally {
+                    cursor.close();
+                }
+            }
+        });
+    }
+
+    private void ingestNow(Uri itemUri, Uri image) {
+        if (!mDirectory.isDirectory() && !mDirectory.mkdirs()) {
+            Log.e(LOG_TAG, "Cannot create image directory " + mDirectory);
+            return;
+        }
+
+        String base = UUID.randomUUID().toString();
+        File imageFile = new File(mDirectory, base + IMAGE_SUFFIX);
+        File thumbnailFile = new File(mDirectory, base + THUMBNAIL_SUFFIX);
+        try {
+            Bitmap bitmap = decodeScaled(image, MAX_IMAGE_SIZE);
+            if (bitmap == null) {
+                Log.e(LOG_TAG, "Cannot decode image " + image);
+                return;
+            }
+            write(bitmap, imageFile);
+            write(scale(bitmap, THUMBNAIL_SIZE), thumbnailFile);
+        } catch (IOException | SecurityException e) {
+            // The original may be gone or no longer readable. The item keeps pointing at it.
+            Log.e(LOG_TAG, "Failed to ingest image " + image, e);
+            imageFile.delete();
+            thumbnailFile.delete();
+            return;
+        }
+
+        // Only switch the item to the copy if it still shows the image that was copied
+        ContentValues values = new ContentValues();
+        values.put(ItemEntry.COLUMN_ITEM_IMAGE, Uri.fromFile(imageFile).toString());
+        // Going through the item URI tells the catalog which item changed, so it only reloads
+        // the page showing it, once per image of a backfill
+        int rowsUpdated = mContentResolver.update(itemUri, values,
+                ItemEntry.COLUMN_ITEM_IMAGE + "=?", new String[] { image.toString() });
+        if (rowsUpdated == 0) {
+            imageFile.delete();
+            thumbnailFile.delete();
+        }
+    }
+
+    private void deleteNow(Uri image) {
+        File file = getIngestedFile(image);
+        if (file != null) {
+            file.delete();
+            new File(getThumbnailUri(image).getPath()).delete();
+        }
+    }
+
+    /**
+     * Decode the given image so that neither of its sides is bigger than the given size.
+     * Return null if it can't be decoded.
+     */
+    private Bitmap decodeScaled(Uri image, int maxSize) throws IOException {
+        // Downsample while decoding as much as possible, then scale the rest of the way
+        BitmapFactory.Options options = new BitmapFactory.Options();
+        options.inJustDecodeBounds = true;
+        decode(image, options);
+        if (options.outWidth <= 0 || options.outHeight <= 0) {
+            return null;
+        }
+        options.inSampleSize = ImageLoader.calculateInSampleSize(options.outWidth, options.outHeight,
+                Math.min(maxSize, options.outWidth), Math.min(maxSize, options.outHeight));
+        options.inJustDecodeBounds = false;
+
+        Bitmap bitmap = decode(image, options);
+        return bitmap == null ? null : scale(bitmap, maxSize);
+    }
+
+    private Bitmap decode(Uri image, BitmapFactory.Options options) throws IOException {
+        InputStream in = mContentResolver.openInputStream(image);
+        if (in == null) {
+            throw new IOException("Cannot open image " + image);
+        }
+        try {
+            return BitmapFactory.decodeStream(in, null, options);
+        } finally {
+            in.close();
+        }
+    }
+
+    /**
+     * Return the given bitmap scaled down, keeping its proportions, so that neither of its
+     * sides is bigger than the given size.
+     */
+    private static Bitmap scale(Bitmap bitmap, int maxSize) {
+        int width = bitmap.getWidth();
+        int height = bitmap.getHeight();
+        if (width <= maxSize && height <= maxSize) {
+            return bitmap;
+        }
+        float ratio = Math.min((float) maxSize / width, (float) maxSize / height);
+        return Bitmap.createScaledBitmap(bitmap,
+                Math.max(1, Math.round(width * ratio)), Math.max(1, Math.round(height * ratio)), true);
+    }
+
+    private static void write(Bitmap bitmap, File file) throws IOException {
+        OutputStream out = new BufferedOutputStream(new FileOutputStream(file));
+        try {
+            if (!bitmap.compress(Bitmap.CompressFormat.JPEG, JPEG_QUALITY, out)) {
+                throw new IOException("Cannot encode " + file);
+            }
+        } finally {
+            out.close();
+        }
+    }
+
+    private boolean replaceAllNow(File directory) {
+        File replaced = new File(mDirectory.getPath() + REPLACED_SUFFIX);
+        deleteDirectory(replaced);
+        if (mDirectory.exists() && !mDirectory.renameTo(replaced)) {
+            return false;
+        }
+        if (!directory.renameTo(mDirectory)) {
+            // Put the old images back
+            replaced.renameTo(mDirectory);
+            return false;
+        }
+        return true;
+    }
+
+    /**
+     * Delete the given directory and the files in it.
+     */
+    private static void deleteDirectory(File directory) {
+        File[] files = directory.listFiles();
+        if (files != null) {
+            for (File file : files) {
+                file.delete();
+            }
+        }
+        directory.delete();
+    }
+
+    /**
+     * Return the file of the given image if it was stored by this class, or null.
+     */
+    private File getIngestedFile(Uri image) {
+        if (image == null || !"file".equals(image.getScheme()) || image.getPath() == null) {
+            return null;
+        }
+        File file = new File(image.getPath());
+        if (!mDirectory.equals(file.getParentFile()) || !file.getName().endsWith(IMAGE_SUFFIX)
+                || file.getName().endsWith(THUMBNAIL_SUFFIX)) {
+            return null;
+        }
+        return file;
+    }
+}
@@ -0,0 +1,310 @@
+package com.example.android.inventoryapp.image;
+
+import android.content.ContentResolver;
+import android.content.Context;
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
+import android.net.Uri;
+import android.os.Handler;
+import android.os.Looper;
+import android.util.DisplayMetrics;
+import android.util.Log;
+import android.util.LruCache;
+import android.view.ViewTreeObserver;
+import android.widget.ImageView;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Map;
+import java.util.WeakHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Loads item images into {@link ImageView}s. Images are decoded on background threads and
+ * downsampled to the size of the view they are shown in, then kept in a bounded memory cache
+ * and in a disk cache of small thumbnails, so showing them again costs no decoding of the
+ * full-size original.
+ *
+ * Only one image is loaded per view: loading a new image into a view, as happens when a list
+ * recycles it, cancels the previous request.
+ *
+ * All the public methods must be called from the main thread.
+ */
+public final class ImageLoader {
+
+    private static final String LOG_TAG = ImageLoader.class.getSimpleName();
+
+    /** Number of threads decoding images */
+    private static final int DECODE_THREADS = 2;
+
+    /** Maximum size of the disk cache, in bytes */
+    private static final long DISK_CACHE_SIZE = 20 * 1024 * 1024;
+
+    /** Name of the directory of the disk cache, in the app's cache directory */
+    private static final String DISK_CACHE_DIRECTORY = "thumbnails";
+
+    private static ImageLoader sInstance;
+
+    private final ContentResolver mContentResolver;
+
+    /**
+     * Size used for a side of a view that is still empty once laid out, and largest size an
+     * image is decoded at for a view measured by layout: the shorter side of the screen
+     */
+    private final int mMaxViewSize;
+
+    /** Decoded images, by URI and size. Bounded to an eighth of the memory the app can use. */
+    private final LruCache<String, Bitmap> mMemoryCache;
+
+    private final ThumbnailDiskCache mDiskCache;
+
+    private final ImageIngester mImageIngester;
+
+    private final ExecutorService mExecutor = Executors.newFixedThreadPool(DECODE_THREADS);
+
+    private final Handler mMainHandler = new Handler(Looper.getMainLooper());
+
+    /** Request currently loading an image into each view */
+    private final Map<ImageView, Request> mRequests = new WeakHashMap<>();
+
+    /** Load waiting for each view to be laid out, to learn its size */
+    private final Map<ImageView, PendingLoad> mPendingLoads = new WeakHashMap<>();
+
+    /**
+     * Return the image loader of the app.
+     */
+    public static synchronized ImageLoader getInstance(Context context) {
+        if (sInstance == null) {
+            sInstance = new ImageLoader(context.getApplicationContext());
+        }
+        return sInstance;
+    }
+
+    private ImageLoader(Context context) {
+        mContentResolver = context.getContentResolver();
+
+        DisplayMetrics metrics = context.getResources().getDisplayMetrics();
+        mMaxViewSize = Math.min(metrics.widthPixels, metrics.heightPixels);
+
+        int memoryCacheSize = (int) Math.min(Runtime.getRuntime().maxMemory() / 8, Integer.MAX_VALUE);
+        mMemoryCache = new LruCache<String, Bitmap>(memoryCacheSize) {
+            @Override
+            protected int sizeOf(String key, Bitmap bitmap) {
+                return bitmap.getByteCount();
+            }
+        };
+
+        mDiskCache = new ThumbnailDiskCache(
+                new File(context.getCacheDir(), DISK_CACHE_DIRECTORY), DISK_CACHE_SIZE);
+        mImageIngester = ImageIngester.getInstance(context);
+    }
+
+    /**
+     * Show the image at the given URI in the given view, downsampled to the size of the view.
+     * The view is cleared until the image is ready, unless it is already in memory. If the view
+     * hasn't been laid out yet, the image is only decoded once its size is known, as guessing
+     * a size would decode a photo at nearly full resolution.
+     */
+    public void load(Uri uri, ImageView view) {
+        if (view.getWidth() > 0 && view.getHeight() > 0) {
+            loadAtViewSize(uri, view);
+            return;
+        }
+
+        cancel(view);
+        view.setImageDrawable(null);
+        PendingLoad pendingLoad = new PendingLoad(uri, view);
+        mPendingLoads.put(view, pendingLoad);
+        view.getViewTreeObserver().addOnPreDrawListener(pendingLoad);
+    }
+
+    /**
+     * Load the image at the given URI at the size of the given laid out view, no bigger than
+     * the shorter side of the screen.
+     */
+    private void loadAtViewSize(Uri uri, ImageView view) {
+        int width = view.getWidth() > 0 ? Math.min(view.getWidth(), mMaxViewSize) : mMaxViewSize;
+        int height = view.getHeight() > 0 ? Math.min(view.getHeight(), mMaxViewSize) : mMaxViewSize;
+        load(uri, view, width, height);
+    }
+
+    /**
+     * Show the image at the given URI in the given view, downsampled to the given size in pixels.
+     * Useful when the view hasn't been laid out yet but its size is known, as in a list.
+     */
+    public void load(Uri uri, ImageView view, int width, int height) {
+        cancel(view);
+
+        String key = uri + "@" + width + "x" + height;
+
+        Bitmap bitmap = mMemoryCache.get(key);
+        if (bitmap != null) {
+            view.setImageBitmap(bitmap);
+            return;
+        }
+
+        view.setImageDrawable(null);
+        Request request = new Request(uri, key, width, height, view);
+        mRequests.put(view, request);
+        mExecutor.execute(request);
+    }
+
+    /**
+     * Stop loading an image into the given view, if one is being loaded.
+     */
+    public void cancel(ImageView view) {
+        PendingLoad pendingLoad = mPendingLoads.remove(view);
+        if (pendingLoad != null) {
+            pendingLoad.detach();
+        }
+        Request request = mRequests.remove(view);
+        if (request != null) {
+            request.mCancelled = true;
+        }
+    }
+
+    /**
+     * Decode the image at the given URI, skipping as many pixels as possible while keeping it
+     * at least as big as the requested size. Return null if it can't be decoded.
+     */
+    private Bitmap decodeSampledBitmap(Uri uri, int width, int height) throws IOException {
+        // Stored images have a small thumbnail next to them, which is enough for small views
+        if (width <= ImageIngester.THUMBNAIL_SIZE && height <= ImageIngester.THUMBNAIL_SIZE) {
+            Uri thumbnail = mImageIngester.getThumbnailUri(uri);
+            if (thumbnail != null) {
+                uri = thumbnail;
+            }
+        }
+
+        // First decode only the dimensions, to find how much the image can be downsampled
+        BitmapFactory.Options options = new BitmapFactory.Options();
+        options.inJustDecodeBounds = true;
+        decode(uri, options);
+        if (options.outWidth <= 0 || options.outHeight <= 0) {
+            return null;
+        }
+
+        options.inSampleSize = calculateInSampleSize(options.outWidth, options.outHeight, width, height);
+        options.inJustDecodeBounds = false;
+        return decode(uri, options);
+    }
+
+    private Bitmap decode(Uri uri, BitmapFactory.Options options) throws IOException {
+        InputStream in = mContentResolver.openInputStream(uri);
+        if (in == null) {
+            return null;
+        }
+        try {
+            return BitmapFactory.decodeStream(in, null, options);
+        } finally {
+            in.close();
+        }
+    }
+
+    /**
+     * Return the largest power of two the image can be divided by while staying at least as
+     * big as the requested size in both dimensions.
+     */
+    static int calculateInSampleSize(int imageWidth, int imageHeight, int reqWidth, int reqHeight) {
+        int inSampleSize = 1;
+        while (imageWidth / (inSampleSize * 2) >= reqWidth
+                && imageHeight / (inSampleSize * 2) >= reqHeight) {
+            inSampleSize *= 2;
+        }
+        return inSampleSize;
+    }
+
+    /**
+     * Waits for a view to be laid out, then loads an image into it at its size.
+     */
+    private class PendingLoad implements ViewTreeObserver.OnPreDrawListener {
+
+        private final Uri mUri;
+        private final ImageView mView;
+
+        PendingLoad(Uri uri, ImageView view) {
+            mUri = uri;
+            mView = view;
+        }
+
+        @Override
+        public boolean onPreDraw() {
+            detach();
+            if (mPendingLoads.get(mView) == this) {
+                mPendingLoads.remove(mView);
+                loadAtViewSize(mUri, mView);
+            }
+            return true;
+        }
+
+        void detach() {
+            ViewTreeObserver observer = mView.getViewTreeObserver();
+            if (observer.isAlive()) {
+                observer.removeOnPreDrawListener(this);
+            }
+        }
+    }
+
+    /**
+     * Loads one image into one view on a background thread.
+     */
+    private class Request implements Runnable {
+
+        private final Uri mUri;
+        private final String mKey;
+        private final int mWidth;
+        private final int mHeight;
+        private final ImageView mView;
+
+        /** Set from the main thread when the view no longer wants this image */
+        volatile boolean mCancelled;
+
+        Request(Uri uri, String key, int width, int height, ImageView view) {
+            mUri = uri;
+            mKey = key;
+            mWidth = width;
+            mHeight = height;
+            mView = view;
+        }
+
+        @Override
+        public void run() {
+            if (mCancelled) {
+                return;
+            }
+
+            Bitmap bitmap = mDiskCache.get(mKey);
+            if (bitmap == null && !mCancelled) {
+                try {
+                    bitmap = decodeSampledBitmap(mUri, mWidth, mHeight);
+                } catch (IOException | SecurityException e) {
+                    Log.e(LOG_TAG, "Failed to load image " + mUri, e);
+                }
+                if (bitmap != null) {
+                    mDiskCache.put(mKey, bitmap);
+                }
+            }
+            if (bitmap != null) {
+                mMemoryCache.put(mKey, bitmap);
+            }
+
+            // Even without an image the request has to be forgotten, so it doesn't hold on
+            // to the view
+            final Bitmap result = bitmap;
+            mMainHandler.post(new Runnable() {
+                @Override
+                public void run() {
+                    // Only show the image if the view still wants it
+                    if (mRequests.get(mView) == Request.this) {
+                        mRequests.remove(mView);
+                        if (result != null) {
+                            mView.setImageBitmap(result);
+                        }
+                    }
+                }
+            });
+        }
+    }
+}
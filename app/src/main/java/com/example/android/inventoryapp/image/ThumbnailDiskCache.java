@@ -0,0 +1,211 @@
+package com.example.android.inventoryapp.image;
+
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
+import android.util.Log;
+
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileFilter;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.UnsupportedEncodingException;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+import java.util.Comparator;
+
+/**
+ * Bounded cache of decoded, downsampled images stored as small JPEG files. When the cache grows
+ * past its maximum size the least recently used files are deleted.
+ *
+ * Only the bookkeeping of the files is done under the lock of the cache: the images are
+ * decoded and encoded outside of it, so several threads can read and write images at once.
+ * Images are written to a temporary file that is renamed into place, so a reader never sees
+ * half an image.
+ *
+ * All the methods do disk I/O, so they must be called from a background thread.
+ */
+class ThumbnailDiskCache {
+
+    private static final String LOG_TAG = ThumbnailDiskCache.class.getSimpleName();
+
+    /** JPEG quality of the cached images, high enough to look like the original at that size */
+    private static final int JPEG_QUALITY = 85;
+
+    /** Suffix of the files images are written to before they are renamed into place */
+    private static final String TEMPORARY_SUFFIX = ".tmp";
+
+    /** Directory holding the cached files */
+    private final File mDirectory;
+
+    /** Maximum total size of the cached files, in bytes */
+    private final long mMaxSize;
+
+    /**
+     * Current total size of the cached files, in bytes. -1 until the directory has been read.
+     * Guarded by the lock of the cache, like the files being renamed and deleted.
+     */
+    private long mSize = -1;
+
+    ThumbnailDiskCache(File directory, long maxSize) {
+        mDirectory = directory;
+        mMaxSize = maxSize;
+    }
+
+    /**
+     * Return the image cached for the given key, or null if there is none.
+     */
+    Bitmap get(String key) {
+        File file = getFile(key);
+        if (!file.exists()) {
+            return null;
+        }
+
+        // An image evicted meanwhile is either still read whole or not found at all
+        Bitmap bitmap = BitmapFactory.decodeFile(file.getPath());
+        synchronized (this) {
+            if (bitmap == null) {
+                // The file is unreadable, so don't keep it around
+                if (file.exists()) {
+                    delete(file);
+                }
+                return null;
+            }
+
+            // Mark the file as recently used
+            file.setLastModified(System.currentTimeMillis());
+        }
+        return bitmap;
+    }
+
+    /**
+     * Store the given image for the given key, evicting the least recently used images if the
+     * cache gets too big.
+     */
+    void put(String key, Bitmap bitmap) {
+        synchronized (this) {
+            if (!mDirectory.isDirectory() && !mDirectory.mkdirs()) {
+                Log.e(LOG_TAG, "Cannot create cache directory " + mDirectory);
+                return;
+            }
+            ensureSizeKnown();
+        }
+
+        // Each thread writes a file of its own, so two threads caching the same key don't mix
+        File file = getFile(key);
+        File temporaryFile = new File(mDirectory,
+                file.getName() + "." + Thread.currentThread().getId() + TEMPORARY_SUFFIX);
+        try {
+            OutputStream out = new BufferedOutputStream(new FileOutputStream(temporaryFile));
+            try {
+                if (!bitmap.compress(Bitmap.CompressFormat.JPEG, JPEG_QUALITY, out)) {
+                    throw new IOException("Cannot encode " + key);
+                }
+            } finally {
+                out.close();
+            }
+        } catch (IOException e) {
+            Log.e(LOG_TAG, "Failed to cache image " + key, e);
+            temporaryFile.delete();
+            return;
+        }
+
+        synchronized (this) {
+            long oldLength = file.length();
+            if (!temporaryFile.renameTo(file)) {
+                Log.e(LOG_TAG, "Failed to move cached image " + key + " into place");
+                temporaryFile.delete();
+                return;
+            }
+            mSize += file.length() - oldLength;
+            trimToSize();
+        }
+    }
+
+    /**
+     * Read the total size of the cached files the first time it is needed, deleting the
+     * temporary files left over by a crash. No image is being written before this has run.
+     */
+    private void ensureSizeKnown() {
+        if (mSize >= 0) {
+            return;
+        }
+        mSize = 0;
+        File[] files = mDirectory.listFiles();
+        if (files != null) {
+            for (File file : files) {
+                if (isTemporary(file)) {
+                    file.delete();
+                } else {
+                    mSize += file.length();
+                }
+            }
+        }
+    }
+
+    private static boolean isTemporary(File file) {
+        return file.getName().endsWith(TEMPORARY_SUFFIX);
+    }
+
+    /**
+     * Delete the least recently used files until the cache fits in its maximum size.
+     */
+    private void trimToSize() {
+        if (mSize <= mMaxSize) {
+            return;
+        }
+
+        // The images being written aren't counted yet, so they are left alone
+        File[] files = mDirectory.listFiles(new FileFilter() {
+            @Override
+            public boolean accept(File file) {
+                return !isTemporary(file);
+            }
+        });
+        if (files == null) {
+            return;
+        }
+        Arrays.sort(files, new Comparator<File>() {
+            @Override
+            public int compare(File first, File second) {
+                long difference = first.lastModified() - second.lastModified();
+                return difference < 0 ? -1 : (difference > 0 ? 1 : 0);
+            }
+        });
+        for (int i = 0; i < files.length && mSize > mMaxSize; i++) {
+            delete(files[i]);
+        }
+    }
+
+    private void delete(File file) {
+        long length = file.length();
+        if (file.delete() && mSize >= 0) {
+            mSize -= length;
+        }
+    }
+
+    /**
+     * Return the file holding the image of the given key. Keys are hashed, since they are
+     * URIs that can't be used as file names.
+     */
+    private File getFile(String key) {
+        return new File(mDirectory, hash(key));
+    }
+
+    private static String hash(String key) {
+        try {
+            byte[] digest = MessageDigest.getInstance("MD5").digest(key.getBytes("UTF-8"));
+            StringBuilder name = new StringBuilder(digest.length * 2);
+            for (byte b : digest) {
+                name.append(Character.forDigit((b >> 4) & 0xf, 16));
+                name.append(Character.forDigit(b & 0xf, 16));
+            }
+            return name.toString();
+        } catch (NoSuchAlgorithmException | UnsupportedEncodingException e) {
+            // Both are guaranteed to be available on every Android device
+            throw new IllegalStateException(e);
+        }
+    }
+}
@@ -0,0 +1,274 @@
+package com.example.android.inventoryapp.benchmark;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Reader;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Small JMH style harness for the benchmarks of the app. JMH can't drive code that needs the
+ * Robolectric test runner, so this does the part of it the benchmarks need: warmup iterations,
+ * then measured iterations, reported as the average time per operation with its 99.9%
+ * confidence interval.
+ *
+ * The results of each benchmark class are written as JSON to the directory given by the
+ * {@code benchmark.resultsDir} system property, in the format of JMH's {@code -rf json}, so the
+ * usual JMH tools can read and compare them. If the {@code benchmark.baseline} property names
+ * the results directory of an earlier run, every benchmark is compared with its baseline, and
+ * {@link #finish} fails if one got slower by more than {@code benchmark.maxRegression} (20% by
+ * default) beyond its error margin.
+ *
+ * Run the benchmarks with {@code ./gradlew testDebugUnitTest -Pbenchmark}, and compare with an
+ * earlier run by adding {@code -PbenchmarkBaseline=<results dir>}.
+ */
+public final class BenchmarkRunner {
+
+    /**
+     * Code whose time is measured.
+     */
+    public interface Operation {
+        /**
+         * Run the operation once. The index counts the operations of the iteration from 0.
+         */
+        void run(int index) throws Exception;
+    }
+
+    /**
+     * Code run before each iteration, whose time isn't measured.
+     */
+    public interface Setup {
+        void run() throws Exception;
+    }
+
+    private static final String PROPERTY_RESULTS_DIR = "benchmark.resultsDir";
+    private static final String PROPERTY_BASELINE = "benchmark.baseline";
+    private static final String PROPERTY_MAX_REGRESSION = "benchmark.maxRegression";
+    private static final String PROPERTY_WARMUP_ITERATIONS = "benchmark.warmupIterations";
+    private static final String PROPERTY_MEASUREMENT_ITERATIONS = "benchmark.measurementIterations";
+
+    private static final String DEFAULT_RESULTS_DIR = "build/benchmark-results";
+    private static final double DEFAULT_MAX_REGRESSION = 0.2;
+    private static final int DEFAULT_WARMUP_ITERATIONS = 3;
+    private static final int DEFAULT_MEASUREMENT_ITERATIONS = 10;
+
+    /** Quantile of the normal distribution for a 99.9% confidence interval, as JMH reports */
+    private static final double CONFIDENCE_QUANTILE = 3.291;
+
+    private static final String SCORE_UNIT = "us/op";
+
+    private final Class<?> mBenchmarkClass;
+
+    private final int mWarmupIterations =
+            Integer.getInteger(PROPERTY_WARMUP_ITERATIONS, DEFAULT_WARMUP_ITERATIONS);
+
+    private final int mMeasurementIterations =
+            Integer.getInteger(PROPERTY_MEASUREMENT_ITERATIONS, DEFAULT_MEASUREMENT_ITERATIONS);
+
+    /** Results measured so far, in the JMH format */
+    private final JSONArray mResults = new JSONArray();
+
+    /** Scores of the baseline run by benchmark key, empty if there is no baseline */
+    private final Map<String, Double> mBaseline;
+
+    /** Description of each benchmark slower than its baseline */
+    private final List<String> mRegressions = new ArrayList<>();
+
+    public BenchmarkRunner(Class<?> benchmarkClass) {
+        mBenchmarkClass = benchmarkClass;
+        mBaseline = readBaseline();
+    }
+
+    /**
+     * Measure the given operation, run the given number of times per iteration after the given
+     * setup, and return its average time in microseconds. The parameters, which may be null,
+     * tell apart the runs of a benchmark on different inputs, e.g. catalog sizes.
+     */
+    public double measure(String name, Map<String, String> params, int operationsPerIteration,
+                          Setup setup, Operation operation) throws Exception {
+        Map<String, String> sortedParams = new TreeMap<>();
+        if (params != null) {
+            sortedParams.putAll(params);
+        }
+
+        for (int i = 0; i < mWarmupIterations; i++) {
+            runIteration(operationsPerIteration, setup, operation);
+        }
+        double[] scores = new double[mMeasurementIterations];
+        for (int i = 0; i < mMeasurementIterations; i++) {
+            scores[i] = runIteration(operationsPerIteration, setup, operation);
+        }
+
+        double mean = 0;
+        for (double score : scores) {
+            mean += score;
+        }
+        mean /= scores.length;
+        double variance = 0;
+        for (double score : scores) {
+            variance += (score - mean) * (score - mean);
+        }
+        double error = scores.length < 2 ? Double.NaN
+                : CONFIDENCE_QUANTILE * Math.sqrt(variance / (scores.length - 1) / scores.length);
+
+        String benchmark = mBenchmarkClass.getName() + "." + name;
+        mResults.put(toJson(benchmark, sortedParams, mean, error, scores));
+        System.out.println(String.format(Locale.US, "%-70s %14.3f +- %10.3f %s",
+                mBenchmarkClass.getSimpleName() + "." + name + (sortedParams.isEmpty() ? "" : " " + sortedParams),
+                mean, error, SCORE_UNIT));
+
+        Double baseline = mBaseline.get(key(benchmark, sortedParams));
+        double maxRegression = Double.parseDouble(System.getProperty(PROPERTY_MAX_REGRESSION,
+                String.valueOf(DEFAULT_MAX_REGRESSION)));
+        // Only slowdowns larger than the noise of the measure count
+        if (baseline != null && mean > baseline * (1 + maxRegression)
+                && (Double.isNaN(error) || mean - error > baseline)) {
+            mRegressions.add(String.format(Locale.US, "%s %s: %.3f %s, was %.3f",
+                    name, sortedParams, mean, SCORE_UNIT, baseline));
+        }
+        return mean;
+    }
+
+    /**
+     * Write the results of the benchmark class, then fail if any benchmark regressed from the
+     * baseline.
+     */
+    public void finish() throws IOException {
+        File directory = new File(System.getProperty(PROPERTY_RESULTS_DIR, DEFAULT_RESULTS_DIR));
+        if (!directory.isDirectory() && !directory.mkdirs()) {
+            throw new IOException("Can't create " + directory);
+        }
+        File file = new File(directory, mBenchmarkClass.getSimpleName() + ".json");
+        Writer writer = new OutputStreamWriter(new FileOutputStream(file), "UTF-8");
+        try {
+            writer.write(mResults.toString(2));
+        } catch (JSONException e) {
+            throw new IOException(e);
+        } finally {
+            writer.close();
+        }
+        System.out.println("Benchmark results written to " + file);
+
+        if (!mRegressions.isEmpty()) {
+            StringBuilder message = new StringBuilder("Benchmarks slower than the baseline:");
+            for (String regression : mRegressions) {
+                message.append("\n  ").append(regression);
+            }
+            throw new AssertionError(message.toString());
+        }
+    }
+
+    /**
+     * Run one iteration and return its average time per operation, in microseconds.
+     */
+    private static double runIteration(int operations, Setup setup, Operation operation)
+            throws Exception {
+        if (setup != null) {
+            setup.run();
+        }
+        long start = System.nanoTime();
+        for (int i = 0; i < operations; i++) {
+            operation.run(i);
+        }
+        long elapsed = System.nanoTime() - start;
+        return elapsed / 1000.0 / operations;
+    }
+
+    private JSONObject toJson(String benchmark, Map<String, String> params, double mean,
+                              double error, double[] scores) throws JSONException {
+        JSONArray rawData = new JSONArray();
+        for (double score : scores) {
+            rawData.put(score);
+        }
+        JSONObject primaryMetric = new JSONObject();
+        primaryMetric.put("score", mean);
+        if (!Double.isNaN(error)) {
+            primaryMetric.put("scoreError", error);
+        }
+        primaryMetric.put("scoreUnit", SCORE_UNIT);
+        primaryMetric.put("rawData", new JSONArray().put(rawData));
+
+        JSONObject result = new JSONObject();
+        result.put("benchmark", benchmark);
+        result.put("mode", "avgt");
+        result.put("threads", 1);
+        result.put("forks", 1);
+        result.put("warmupIterations", mWarmupIterations);
+        result.put("measurementIterations", mMeasurementIterations);
+        if (!params.isEmpty()) {
+            result.put("params", new JSONObject(params));
+        }
+        result.put("primaryMetric", primaryMetric);
+        return result;
+    }
+
+    /**
+     * Read the scores of the baseline results of this benchmark class, if there are any.
+     */
+    private Map<String, Double> readBaseline() {
+        Map<String, Double> baseline = new HashMap<>();
+        String directory = System.getProperty(PROPERTY_BASELINE);
+        if (directory == null) {
+            return baseline;
+        }
+        File file = new File(directory, mBenchmarkClass.getSimpleName() + ".json");
+        if (!file.isFile()) {
+            System.out.println("No baseline in " + file);
+            return baseline;
+        }
+        try {
+            JSONArray results = new JSONArray(readFile(file));
+            for (int i = 0; i < results.length(); i++) {
+                JSONObject result = results.getJSONObject(i);
+                Map<String, String> params = new TreeMap<>();
+                JSONObject jsonParams = result.optJSONObject("params");
+                if (jsonParams != null) {
+                    JSONArray names = jsonParams.names();
+                    for (int j = 0; j < names.length(); j++) {
+                        String name = names.getString(j);
+                        params.put(name, jsonParams.getString(name));
+                    }
+                }
+                baseline.put(key(result.getString("benchmark"), params),
+                        result.getJSONObject("primaryMetric").getDouble("score"));
+            }
+        } catch (IOException | JSONException e) {
+            throw new IllegalStateException("Can't read the baseline " + file, e);
+        }
+        return baseline;
+    }
+
+    private static String readFile(File file) throws IOException {
+        InputStream in = new FileInputStream(file);
+        try {
+            Reader reader = new InputStreamReader(in, "UTF-8");
+            StringBuilder text = new StringBuilder();
+            char[] buffer = new char[8192];
+            int read;
+            while ((read = reader.read(buffer)) != -1) {
+                text.append(buffer, 0, read);
+            }
+            return text.toString();
+        } finally {
+            in.close();
+        }
+    }
+
+    private static String key(String benchmark, Map<String, String> sortedParams) {
+        return benchmark + sortedParams;
+    }
+}
@@ -0,0 +1,68 @@
+package com.example.android.inventoryapp.data;
+
+import android.content.Context;
+
+import com.example.android.inventoryapp.benchmark.BenchmarkRunner;
+
+import org.junit.AfterClass;
+import org.junit.BeforeClass;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.RuntimeEnvironment;
+
+/**
+ * Benchmarks of {@link InventoryDbHelper}: creating the database from scratch, which runs every
+ * migration on a new install, and opening an existing one, which every cold start pays.
+ *
+ * Only run with -Pbenchmark, see {@link BenchmarkRunner}.
+ */
+@RunWith(RobolectricTestRunner.class)
+public class InventoryDbHelperBenchmark {
+
+    private static final String DATABASE_NAME = "benchmark.db";
+
+    private static BenchmarkRunner sRunner;
+
+    @BeforeClass
+    public static void createRunner() {
+        sRunner = new BenchmarkRunner(InventoryDbHelperBenchmark.class);
+    }
+
+    @AfterClass
+    public static void writeResults() throws Exception {
+        sRunner.finish();
+    }
+
+    @Test
+    public void createDatabase() throws Exception {
+        final Context context = RuntimeEnvironment.application;
+        sRunner.measure("createDatabase", null, 1,
+                new BenchmarkRunner.Setup() {
+                    @Override
+                    public void run() {
+                        context.deleteDatabase(DATABASE_NAME);
+                    }
+                },
+                new BenchmarkRunner.Operation() {
+                    @Override
+                    public void run(int index) {
+                        new InventoryDbHelper(context, DATABASE_NAME).getWritableDatabase().close();
+                    }
+                });
+    }
+
+    @Test
+    public void openDatabase() throws Exception {
+        final Context context = RuntimeEnvironment.application;
+        context.deleteDatabase(DATABASE_NAME);
+        new InventoryDbHelper(context, DATABASE_NAME).getWritableDatabase().close();
+
+        sRunner.measure("openDatabase", null, 10, null, new BenchmarkRunner.Operation() {
+            @Override
+            public void run(int index) {
+                new InventoryDbHelper(context, DATABASE_NAME).getWritableDatabase().close();
+            }
+        });
+    }
+}
@@ -0,0 +1,283 @@
+package com.example.android.inventoryapp.data;
+
+import android.content.ContentResolver;
+import android.content.ContentUris;
+import android.content.ContentValues;
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+import android.net.Uri;
+
+import com.example.android.inventoryapp.benchmark.BenchmarkRunner;
+import com.example.android.inventoryapp.data.InventoryContract.ItemEntry;
+
+import org.junit.After;
+import org.junit.AfterClass;
+import org.junit.Before;
+import org.junit.BeforeClass;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.Robolectric;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.RuntimeEnvironment;
+
+import java.util.Collections;
+import java.util.Map;
+
+import static org.junit.Assert.*;
+
+/**
+ * Benchmarks of the insert, query, update and delete paths of {@link InventoryProvider}, run on
+ * the JVM by Robolectric against its SQLite. The absolute times differ from a device, but they
+ * move the same way when a change makes a path slower.
+ *
+ * Only run with -Pbenchmark, see {@link BenchmarkRunner}.
+ */
+@RunWith(RobolectricTestRunner.class)
+public class InventoryProviderBenchmark {
+
+    /** Sizes of the catalogs the queries and deletes are measured on */
+    private static final int[] CATALOG_SIZES = { 100, 1000, 10000 };
+
+    /** Number of items inserted by each insert operation */
+    private static final int INSERT_COUNT = 1000;
+
+    /** Number of items in the catalog the lookups and updates are measured on */
+    private static final int LOOKUP_CATALOG_SIZE = 1000;
+
+    /** Number of items in the first page of the catalog, as the catalog screen loads it */
+    private static final int PAGE_SIZE = 100;
+
+    /** Columns the catalog screen reads */
+    private static final String[] CATALOG_PROJECTION = {
+            ItemEntry._ID,
+            ItemEntry.COLUMN_ITEM_NAME,
+            ItemEntry.COLUMN_ITEM_QUANTITY,
+            ItemEntry.COLUMN_ITEM_PRICE,
+            ItemEntry.COLUMN_ITEM_IMAGE };
+
+    private static BenchmarkRunner sRunner;
+
+    private InventoryProvider mProvider;
+
+    private ContentResolver mResolver;
+
+    /** Helper over the database of the provider, to query it directly */
+    private InventoryDbHelper mDbHelper;
+
+    @BeforeClass
+    public static void createRunner() {
+        sRunner = new BenchmarkRunner(InventoryProviderBenchmark.class);
+    }
+
+    @AfterClass
+    public static void writeResults() throws Exception {
+        sRunner.finish();
+    }
+
+    @Before
+    public void setUp() {
+        mProvider = Robolectric.setupContentProvider(InventoryProvider.class,
+                InventoryContract.CONTENT_AUTHORITY);
+        mResolver = RuntimeEnvironment.application.getContentResolver();
+        mDbHelper = new InventoryDbHelper(RuntimeEnvironment.application);
+    }
+
+    @After
+    public void tearDown() {
+        mDbHelper.close();
+    }
+
+    @Test
+    public void insert() throws Exception {
+        sRunner.measure("insertOneByOne", params("items", INSERT_COUNT), 1,
+                new DeleteAll(), new BenchmarkRunner.Operation() {
+                    @Override
+                    public void run(int index) {
+                        for (int i = 0; i < INSERT_COUNT; i++) {
+                            mResolver.insert(ItemEntry.CONTENT_URI, createItem(i));
+                        }
+                    }
+                });
+
+        final ContentValues[] items = createItems(INSERT_COUNT);
+        sRunner.measure("bulkInsert", params("items", INSERT_COUNT), 1,
+                new DeleteAll(), new BenchmarkRunner.Operation() {
+                    @Override
+                    public void run(int index) {
+                        assertEquals(INSERT_COUNT, mResolver.bulkInsert(ItemEntry.CONTENT_URI, items));
+                    }
+                });
+    }
+
+    @Test
+    public void queryCatalog() throws Exception {
+        for (final int size : CATALOG_SIZES) {
+            fillCatalog(size);
+
+            // The cache is dropped before each query, to measure the database
+            sRunner.measure("queryWholeCatalog", params("items", size), 10, null,
+                    new BenchmarkRunner.Operation() {
+                        @Override
+                        public void run(int index) {
+                            mProvider.getQueryCache().invalidate();
+                            assertEquals(size, readAll(mResolver.query(ItemEntry.CONTENT_URI,
+                                    CATALOG_PROJECTION, null, null, ItemEntry.COLUMN_ITEM_NAME)));
+                        }
+                    });
+
+            // The same query straight from SQLite, without the provider and its cache, which a
+            // miss of the cache above must stay close to
+            sRunner.measure("queryWholeCatalogWithoutCache", params("items", size), 10, null,
+                    new BenchmarkRunner.Operation() {
+                        @Override
+                        public void run(int index) {
+                            SQLiteDatabase database = mDbHelper.getReadableDatabase();
+                            assertEquals(size, readAll(database.query(ItemEntry.TABLE_NAME,
+                                    CATALOG_PROJECTION, null, null, null, null, ItemEntry.COLUMN_ITEM_NAME)));
+                        }
+                    });
+
+            final Uri firstPageUri = ItemEntry.buildFirstPageUri(PAGE_SIZE);
+            sRunner.measure("queryFirstPage", params("items", size), 100, null,
+                    new BenchmarkRunner.Operation() {
+                        @Override
+                        public void run(int index) {
+                            mProvider.getQueryCache().invalidate();
+                            assertEquals(Math.min(size, PAGE_SIZE), readAll(mResolver.query(
+                                    firstPageUri, CATALOG_PROJECTION, null, null, null)));
+                        }
+                    });
+
+            sRunner.measure("queryFirstPageCached", params("items", size), 1000, null,
+                    new BenchmarkRunner.Operation() {
+                        @Override
+                        public void run(int index) {
+                            assertEquals(Math.min(size, PAGE_SIZE), readAll(mResolver.query(
+                                    firstPageUri, CATALOG_PROJECTION, null, null, null)));
+                        }
+                    });
+        }
+    }
+
+    @Test
+    public void queryItemById() throws Exception {
+        final long[] ids = fillCatalog(LOOKUP_CATALOG_SIZE);
+        sRunner.measure("queryItemById", params("items", LOOKUP_CATALOG_SIZE), LOOKUP_CATALOG_SIZE, null,
+                new BenchmarkRunner.Operation() {
+                    @Override
+                    public void run(int index) {
+                        mProvider.getQueryCache().invalidate();
+                        Uri uri = ContentUris.withAppendedId(ItemEntry.CONTENT_URI, ids[index]);
+                        assertEquals(1, readAll(mResolver.query(uri, CATALOG_PROJECTION, null, null, null)));
+                    }
+                });
+    }
+
+    @Test
+    public void updateQuantity() throws Exception {
+        final long[] ids = fillCatalog(LOOKUP_CATALOG_SIZE);
+        // Each adjustment also records a stock movement, as every sale and restock does
+        sRunner.measure("adjustQuantity", params("items", LOOKUP_CATALOG_SIZE), LOOKUP_CATALOG_SIZE, null,
+                new BenchmarkRunner.Operation() {
+                    @Override
+                    public void run(int index) {
+                        mResolver.update(ItemEntry.buildAdjustUri(ids[index], 1), new ContentValues(),
+                                null, null);
+                    }
+                });
+    }
+
+    @Test
+    public void deleteAll() throws Exception {
+        for (final int size : CATALOG_SIZES) {
+            final ContentValues[] items = createItems(size);
+            sRunner.measure("deleteAll", params("items", size), 1,
+                    new BenchmarkRunner.Setup() {
+                        @Override
+                        public void run() {
+                            mResolver.delete(ItemEntry.CONTENT_URI, null, null);
+                            mResolver.bulkInsert(ItemEntry.CONTENT_URI, items);
+                        }
+                    },
+                    new BenchmarkRunner.Operation() {
+                        @Override
+                        public void run(int index) {
+                            assertEquals(size, mResolver.delete(ItemEntry.CONTENT_URI, null, null));
+                        }
+                    });
+        }
+    }
+
+    /**
+     * Empties the catalog before an iteration.
+     */
+    private class DeleteAll implements BenchmarkRunner.Setup {
+        @Override
+        public void run() {
+            mResolver.delete(ItemEntry.CONTENT_URI, null, null);
+        }
+    }
+
+    /**
+     * Replace the catalog with the given number of items, and return their _IDs.
+     */
+    private long[] fillCatalog(int size) {
+        mResolver.delete(ItemEntry.CONTENT_URI, null, null);
+        assertEquals(size, mResolver.bulkInsert(ItemEntry.CONTENT_URI, createItems(size)));
+
+        Cursor cursor = mResolver.query(ItemEntry.CONTENT_URI, new String[] { ItemEntry._ID },
+                null, null, ItemEntry._ID);
+        try {
+            long[] ids = new long[cursor.getCount()];
+            while (cursor.moveToNext()) {
+                ids[cursor.getPosition()] = cursor.getLong(0);
+            }
+            return ids;
+        } finally {
+            cursor.close();
+        }
+    }
+
+    /**
+     * Read all the rows of the given cursor, as a list would, close it and return their number.
+     */
+    private static int readAll(Cursor cursor) {
+        try {
+            int rows = 0;
+            while (cursor.moveToNext()) {
+                cursor.getLong(0);
+                cursor.getString(1);
+                rows++;
+            }
+            return rows;
+        } finally {
+            cursor.close();
+        }
+    }
+
+    private static ContentValues[] createItems(int count) {
+        ContentValues[] items = new ContentValues[count];
+        for (int i = 0; i < count; i++) {
+            items[i] = createItem(i);
+        }
+        return items;
+    }
+
+    /**
+     * Return the given item of a catalog. The names are spread so that they don't sort in the
+     * order they are inserted.
+     */
+    private static ContentValues createItem(int index) {
+        ContentValues values = new ContentValues();
+        values.put(ItemEntry.COLUMN_ITEM_NAME, "Item " + Integer.toHexString(index * 40503 % 65536) + " " + index);
+        values.put(ItemEntry.COLUMN_ITEM_QUANTITY, index % 50);
+        values.put(ItemEntry.COLUMN_ITEM_PRICE, 100 + index % 5000);
+        values.put(ItemEntry.COLUMN_ITEM_IMAGE,
+                "android.resource://com.example.android.inventoryapp/drawable/cake");
+        return values;
+    }
+
+    private static Map<String, String> params(String name, int value) {
+        return Collections.singletonMap(name, String.valueOf(value));
+    }
+}
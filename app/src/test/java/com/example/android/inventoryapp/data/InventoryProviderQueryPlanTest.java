@@ -0,0 +1,293 @@
+package com.example.android.inventoryapp.data;
+
+import android.content.ContentResolver;
+import android.content.ContentUris;
+import android.content.ContentValues;
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+import android.net.Uri;
+import android.os.Bundle;
+import android.text.format.DateUtils;
+
+import com.example.android.inventoryapp.data.InventoryContract.ItemEntry;
+import com.example.android.inventoryapp.data.InventoryContract.MovementEntry;
+import com.example.android.inventoryapp.data.InventoryContract.StatsEntry;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.Robolectric;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.RuntimeEnvironment;
+import org.robolectric.annotation.Config;
+
+import java.io.StringWriter;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Set;
+import java.util.regex.Pattern;
+
+import static org.junit.Assert.*;
+
+/**
+ * Guards the indexes of the database: runs every kind of call the app makes to
+ * {@link InventoryProvider} on a populated catalog, records each statement the provider sends
+ * to SQLite, and fails if the plan of one of them scans a whole table or sorts into a
+ * temporary B-tree, unless that plan is in {@link #ALLOWED_PLANS}.
+ *
+ * The app never runs ANALYZE, so SQLite plans from the schema alone, and the plans here are
+ * the ones a device makes. Scans of an index, in the order of the index, are not reported.
+ */
+@RunWith(RobolectricTestRunner.class)
+@Config(shadows = ShadowRecordingSQLiteConnection.class)
+public class InventoryProviderQueryPlanTest {
+
+    /**
+     * A plan step allowed for the statements matching a pattern.
+     */
+    private static final class AllowedPlan {
+        final Pattern mStatement;
+        final String mStep;
+
+        AllowedPlan(String statementRegex, String step) {
+            mStatement = Pattern.compile(statementRegex);
+            mStep = step;
+        }
+
+        boolean allows(String sql, String step) {
+            return step.startsWith(mStep) && mStatement.matcher(sql).find();
+        }
+    }
+
+    /** Plan steps that read more than a lookup would, and why they are fine */
+    private static final AllowedPlan[] ALLOWED_PLANS = {
+            // The statistics are a single row
+            new AllowedPlan("FROM " + StatsEntry.TABLE_NAME + "\\b", "SCAN " + StatsEntry.TABLE_NAME),
+            // Only the items matching the search are ranked
+            new AllowedPlan(" MATCH \\?", "USE TEMP B-TREE FOR ORDER BY"),
+            // The movements and the daily totals of one item, each read from its index, are merged
+            new AllowedPlan(" UNION ALL ", "USE TEMP B-TREE FOR ORDER BY"),
+            // Emptying the catalog has to visit every item for the triggers
+            new AllowedPlan("^DELETE FROM " + ItemEntry.TABLE_NAME + "$", "SCAN " + ItemEntry.TABLE_NAME),
+            // The daily compaction reads the whole ledger, in the background. An index on the
+            // time alone would cost every sale more than it saves once a day.
+            new AllowedPlan("^INSERT OR REPLACE INTO " + InventoryDbHelper.TABLE_MOVEMENT_DAYS + "\\b",
+                    "SCAN " + MovementEntry.TABLE_NAME),
+            new AllowedPlan("^INSERT OR REPLACE INTO " + InventoryDbHelper.TABLE_MOVEMENT_DAYS + "\\b",
+                    "USE TEMP B-TREE FOR GROUP BY"),
+            new AllowedPlan("^DELETE FROM " + MovementEntry.TABLE_NAME + " WHERE "
+                    + MovementEntry.COLUMN_TIMESTAMP + " < \\?$", "SCAN " + MovementEntry.TABLE_NAME),
+    };
+
+    /** Statements that read or write rows, the only ones with a plan */
+    private static final Pattern DATA_STATEMENT =
+            Pattern.compile("^(SELECT|INSERT|REPLACE|UPDATE|DELETE|WITH)\\b", Pattern.CASE_INSENSITIVE);
+
+    private static final int CATALOG_SIZE = 1000;
+
+    private static final int PAGE_SIZE = 100;
+
+    /** Columns the catalog screen reads */
+    private static final String[] CATALOG_PROJECTION = {
+            ItemEntry._ID,
+            ItemEntry.COLUMN_ITEM_NAME,
+            ItemEntry.COLUMN_ITEM_QUANTITY,
+            ItemEntry.COLUMN_ITEM_PRICE,
+            ItemEntry.COLUMN_ITEM_IMAGE };
+
+    /** Connection of the test to the database, apart from those of the provider */
+    private InventoryDbHelper mDbHelper;
+
+    private InventoryProvider mProvider;
+
+    private ContentResolver mResolver;
+
+    @Before
+    public void setUp() {
+        // Create the database first, so the statements of the migrations aren't recorded
+        mDbHelper = new InventoryDbHelper(RuntimeEnvironment.application);
+        mDbHelper.getWritableDatabase();
+        ShadowRecordingSQLiteConnection.clearStatements();
+
+        mProvider = Robolectric.setupContentProvider(InventoryProvider.class,
+                InventoryContract.CONTENT_AUTHORITY);
+        mResolver = RuntimeEnvironment.application.getContentResolver();
+    }
+
+    @After
+    public void tearDown() {
+        mDbHelper.close();
+    }
+
+    @Test
+    public void everyStatement_usesAnIndex() throws Exception {
+        runEveryCall();
+        List<String> statements = ShadowRecordingSQLiteConnection.getStatements();
+
+        SQLiteDatabase database = mDbHelper.getReadableDatabase();
+        Set<String> tables = readTableNames(database);
+
+        List<String> failures = new ArrayList<>();
+        int checked = 0;
+        for (String sql : statements) {
+            if (!DATA_STATEMENT.matcher(sql).find() || sql.contains("sqlite_")
+                    || sql.contains("android_metadata")) {
+                continue;
+            }
+            checked++;
+            for (String step : explain(database, sql)) {
+                if (isFullRead(step, tables) && !isAllowed(sql, step)) {
+                    failures.add(sql + "\n    " + step);
+                }
+            }
+        }
+
+        // Make sure the recording worked, or this would pass on nothing
+        assertTrue("Only " + checked + " statements recorded", checked > 10);
+        if (!failures.isEmpty()) {
+            StringBuilder message = new StringBuilder("Statements reading whole tables or sorting:");
+            for (String failure : failures) {
+                message.append("\n  ").append(failure);
+            }
+            fail(message.toString());
+        }
+    }
+
+    /**
+     * Make the calls the app makes to the provider, on a catalog of {@link #CATALOG_SIZE} items.
+     */
+    private void runEveryCall() throws Exception {
+        ContentValues[] items = new ContentValues[CATALOG_SIZE];
+        for (int i = 0; i < CATALOG_SIZE; i++) {
+            items[i] = createItem(i);
+        }
+        assertEquals(CATALOG_SIZE, mResolver.bulkInsert(ItemEntry.CONTENT_URI, items));
+        Uri itemUri = mResolver.insert(ItemEntry.CONTENT_URI, createItem(CATALOG_SIZE));
+        long id = ContentUris.parseId(itemUri);
+
+        // The catalog screen, page by page, and the whole catalog by name
+        Cursor page = mResolver.query(ItemEntry.buildFirstPageUri(PAGE_SIZE), CATALOG_PROJECTION,
+                null, null, null);
+        assertTrue(page.moveToLast());
+        readAll(mResolver.query(ItemEntry.buildNextPageUri(page.getString(1), page.getLong(0), PAGE_SIZE),
+                CATALOG_PROJECTION, null, null, null));
+        page.close();
+        readAll(mResolver.query(ItemEntry.CONTENT_URI, CATALOG_PROJECTION, null, null,
+                ItemEntry.SORT_ORDER_NAME));
+
+        // The items low on stock, page by page and all at once
+        page = mResolver.query(ItemEntry.buildFirstPageUri(ItemEntry.LOW_STOCK_URI, PAGE_SIZE),
+                CATALOG_PROJECTION, null, null, null);
+        assertTrue(page.moveToLast());
+        readAll(mResolver.query(ItemEntry.buildNextPageUri(ItemEntry.LOW_STOCK_URI, page.getString(1),
+                page.getLong(0), PAGE_SIZE), CATALOG_PROJECTION, null, null, null));
+        page.close();
+        readAll(mResolver.query(ItemEntry.LOW_STOCK_URI, CATALOG_PROJECTION, null, null, null));
+
+        readAll(mResolver.query(ItemEntry.buildSearchUri("item 1"), null, null, null, null));
+        readAll(mResolver.query(StatsEntry.CONTENT_URI, null, null, null, null));
+
+        // The editor and the sales
+        readAll(mResolver.query(itemUri, null, null, null, null));
+        ContentValues values = createItem(CATALOG_SIZE + 1);
+        values.put(ItemEntry.COLUMN_ITEM_REORDER_THRESHOLD, 10);
+        assertEquals(1, mResolver.update(itemUri, values, null, null));
+        mResolver.update(ItemEntry.buildSellUri(id), new ContentValues(), null, null);
+        mResolver.update(ItemEntry.buildAdjustUri(id, 5), new ContentValues(), null, null);
+
+        // The history, before and after its movements are rolled up into daily totals
+        readAll(mResolver.query(ItemEntry.buildHistoryUri(id, PAGE_SIZE), null, null, null, null));
+        Bundle extras = new Bundle();
+        extras.putLong(InventoryContract.EXTRA_BEFORE, System.currentTimeMillis() + DateUtils.DAY_IN_MILLIS);
+        mProvider.call(InventoryContract.METHOD_COMPACT_MOVEMENTS, null, extras);
+        readAll(mResolver.query(ItemEntry.buildHistoryUri(id, PAGE_SIZE), null, null, null, null));
+
+        mProvider.exportItems(new StringWriter());
+
+        assertEquals(1, mResolver.delete(itemUri, null, null));
+        assertEquals(CATALOG_SIZE, mResolver.delete(ItemEntry.CONTENT_URI, null, null));
+    }
+
+    /**
+     * Return the steps of the plan of the given statement, with the "TABLE" that older versions
+     * of SQLite write after SCAN and SEARCH left out.
+     */
+    private static List<String> explain(SQLiteDatabase database, String sql) {
+        List<String> steps = new ArrayList<>();
+        // Parameters left unbound are NULL, which doesn't change the plan
+        Cursor plan = database.rawQuery("EXPLAIN QUERY PLAN " + sql, null);
+        try {
+            int detail = plan.getColumnIndexOrThrow("detail");
+            while (plan.moveToNext()) {
+                steps.add(plan.getString(detail).replaceFirst("^(SCAN|SEARCH) TABLE ", "$1 "));
+            }
+        } finally {
+            plan.close();
+        }
+        return steps;
+    }
+
+    /**
+     * Return true if the given plan step reads a whole table without an index, or sorts the
+     * rows in a temporary B-tree. Scans of subqueries are not scans of tables.
+     */
+    private static boolean isFullRead(String step, Set<String> tables) {
+        if (step.startsWith("USE TEMP B-TREE")) {
+            return true;
+        }
+        if (!step.startsWith("SCAN ")) {
+            return false;
+        }
+        String table = step.split(" ")[1];
+        return tables.contains(table.toLowerCase(Locale.US)) && !step.contains(" INDEX");
+    }
+
+    private static boolean isAllowed(String sql, String step) {
+        for (AllowedPlan allowed : ALLOWED_PLANS) {
+            if (allowed.allows(sql, step)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static Set<String> readTableNames(SQLiteDatabase database) {
+        Set<String> tables = new HashSet<>();
+        Cursor cursor = database.rawQuery("SELECT name FROM sqlite_master WHERE type = 'table'", null);
+        try {
+            while (cursor.moveToNext()) {
+                tables.add(cursor.getString(0).toLowerCase(Locale.US));
+            }
+        } finally {
+            cursor.close();
+        }
+        return tables;
+    }
+
+    private static void readAll(Cursor cursor) {
+        try {
+            while (cursor.moveToNext()) {
+                cursor.getLong(0);
+            }
+        } finally {
+            cursor.close();
+        }
+    }
+
+    /**
+     * Return the given item of a catalog, with names that don't sort in the order they are
+     * inserted and some items low on stock.
+     */
+    private static ContentValues createItem(int index) {
+        ContentValues values = new ContentValues();
+        values.put(ItemEntry.COLUMN_ITEM_NAME, "Item " + Integer.toHexString(index * 40503 % 65536) + " " + index);
+        values.put(ItemEntry.COLUMN_ITEM_QUANTITY, 1 + index % 50);
+        values.put(ItemEntry.COLUMN_ITEM_PRICE, 100 + index % 5000);
+        values.put(ItemEntry.COLUMN_ITEM_IMAGE,
+                "android.resource://com.example.android.inventoryapp/drawable/cake");
+        return values;
+    }
+}
@@ -0,0 +1,56 @@
+package com.example.android.inventoryapp.data;
+
+import org.robolectric.annotation.Implementation;
+import org.robolectric.annotation.Implements;
+import org.robolectric.shadows.ShadowSQLiteConnection;
+
+import java.util.ArrayList;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Robolectric shadow of the SQLite connections that records the SQL of every statement they
+ * prepare, so a test can see every statement shape a component sends to the database.
+ * Everything else is left to Robolectric's own connection.
+ *
+ * A connection keeps its prepared statements in a cache, so a statement only shows up the
+ * first time a connection prepares it.
+ *
+ * Enable it with {@code @Config(shadows = ShadowRecordingSQLiteConnection.class)}.
+ */
+@Implements(className = "android.database.sqlite.SQLiteConnection", isInAndroidSdk = false,
+        inheritImplementationMethods = true)
+public class ShadowRecordingSQLiteConnection extends ShadowSQLiteConnection {
+
+    /** SQL of the statements prepared since they were last cleared, in order, without duplicates */
+    private static final Set<String> sStatements = new LinkedHashSet<>();
+
+    @Implementation
+    public static long nativePrepareStatement(long connectionPtr, String sql) {
+        synchronized (sStatements) {
+            sStatements.add(sql.trim());
+        }
+        return ShadowSQLiteConnection.nativePrepareStatement(connectionPtr, sql);
+    }
+
+    /**
+     * Return the SQL of the statements prepared since they were last cleared, in the order
+     * they were first prepared.
+     */
+    public static List<String> getStatements() {
+        synchronized (sStatements) {
+            return new ArrayList<>(sStatements);
+        }
+    }
+
+    /**
+     * Forget the statements recorded so far. Not named reset, which would hide the resetter
+     * Robolectric calls on the connections between tests.
+     */
+    public static void clearStatements() {
+        synchronized (sStatements) {
+            sStatements.clear();
+        }
+    }
+}